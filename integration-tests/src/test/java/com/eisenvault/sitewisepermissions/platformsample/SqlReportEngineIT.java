@@ -0,0 +1,169 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.rad.test.AbstractAlfrescoIT;
+import org.alfresco.rad.test.AlfrescoTestRunner;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.security.AuthorityService;
+import org.alfresco.service.cmr.security.AuthorityType;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.cmr.site.SiteService;
+import org.alfresco.service.cmr.site.SiteVisibility;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cross-checks the single-query SQL report engine against the NodeService/PermissionService
+ * traversal: both must produce the same rows for a site with folders, documents, user and
+ * group entries and an inheritance break. Row order differs between the engines, so the rows
+ * are compared sorted.
+ */
+@RunWith(value = AlfrescoTestRunner.class)
+public class SqlReportEngineIT extends AbstractAlfrescoIT {
+
+    private String siteShortName;
+    private String groupName;
+
+    @Before
+    public void createSite() {
+        AuthenticationUtil.setAdminUserAsFullyAuthenticatedUser();
+        final String suffix = Long.toString(System.currentTimeMillis());
+        siteShortName = "sql-engine-it-" + suffix;
+
+        getTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>() {
+            public Void execute() throws Throwable {
+                SiteService siteService = getServiceRegistry().getSiteService();
+                PermissionService permissionService = getServiceRegistry().getPermissionService();
+                AuthorityService authorityService = getServiceRegistry().getAuthorityService();
+
+                siteService.createSite("site-dashboard", siteShortName, "SQL engine IT", "", SiteVisibility.PRIVATE);
+                NodeRef documentLibrary = siteService.createContainer(siteShortName, SiteService.DOCUMENT_LIBRARY,
+                                                                      ContentModel.TYPE_FOLDER, null);
+
+                groupName = authorityService.createAuthority(AuthorityType.GROUP, "sql-engine-it-" + suffix);
+                authorityService.addAuthority(groupName, AuthenticationUtil.getAdminUserName());
+
+                NodeRef projects = createNode(documentLibrary, "Projects", ContentModel.TYPE_FOLDER);
+                NodeRef plans = createNode(projects, "Plans", ContentModel.TYPE_FOLDER);
+                NodeRef document = createNode(plans, "plan.txt", ContentModel.TYPE_CONTENT);
+                NodeRef restricted = createNode(projects, "Restricted", ContentModel.TYPE_FOLDER);
+                createNode(restricted, "secret.txt", ContentModel.TYPE_CONTENT);
+
+                permissionService.setPermission(projects, AuthenticationUtil.getAdminUserName(), "SiteCollaborator", true);
+                permissionService.setPermission(document, groupName, "SiteConsumer", true);
+                permissionService.setInheritParentPermissions(restricted, false);
+                permissionService.setPermission(restricted, groupName, "SiteManager", true);
+                return null;
+            }
+        });
+    }
+
+    @After
+    public void deleteSite() {
+        getTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>() {
+            public Void execute() throws Throwable {
+                getServiceRegistry().getSiteService().deleteSite(siteShortName);
+                if (groupName != null) {
+                    getServiceRegistry().getAuthorityService().deleteAuthority(groupName);
+                }
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void testSqlEngineMatchesTraversal() {
+        SqlReportEngine sqlReportEngine = (SqlReportEngine) getApplicationContext().getBean("sqlReportEngine");
+        boolean wasEnabled = (Boolean) sqlReportEngine.getStatistics().get("enabled");
+        try {
+            sqlReportEngine.setEnabled(false);
+            List<String> traversalRows = generateRows();
+
+            sqlReportEngine.setEnabled(true);
+            assertTrue("Database type not detected yet", sqlReportEngine.isEnabled());
+            long failures = (Long) sqlReportEngine.getStatistics().get("failures");
+            List<String> sqlRows = generateRows();
+
+            assertEquals("SQL report engine query failed", failures, sqlReportEngine.getStatistics().get("failures"));
+            assertFalse("No rows reported", traversalRows.isEmpty());
+            assertEquals(traversalRows, sqlRows);
+        } finally {
+            sqlReportEngine.setEnabled(wasEnabled);
+        }
+    }
+
+    /**
+     * @return the report rows of the test site as sorted strings
+     */
+    private List<String> generateRows() {
+        final PermissionReportGenerator generator =
+            (PermissionReportGenerator) getApplicationContext().getBean("permissionReportGenerator");
+        return getTransactionHelper().doInTransaction(new RetryingTransactionCallback<List<String>>() {
+            public List<String> execute() throws Throwable {
+                final List<String> rows = new ArrayList<>();
+                PermissionReportGenerator.ReportRequest request = new PermissionReportGenerator.ReportRequest();
+                request.setSites(Collections.singletonList(siteShortName));
+                generator.generate(request, new PermissionReportGenerator.RowHandler() {
+                    public boolean handleRow(PermissionRow row) {
+                        rows.add(row.getSite() + "|" + row.getNodeRef() + "|" + row.getNodePath() + "|" +
+                                 row.getNodeName() + "|" + row.getUsername() + "|" + row.getRole() + "|" +
+                                 row.getGroupName() + "|" + row.getPermissionType() + "|" + row.getFromDate());
+                        return true;
+                    }
+
+                    public void siteCompleted(String site) {
+                    }
+                });
+                Collections.sort(rows);
+                return rows;
+            }
+        }, true, false);
+    }
+
+    private NodeRef createNode(NodeRef parent, String name, QName type) {
+        NodeService nodeService = getServiceRegistry().getNodeService();
+        Map<QName, Serializable> properties = new HashMap<>();
+        properties.put(ContentModel.PROP_NAME, name);
+        return nodeService.createNode(parent, ContentModel.ASSOC_CONTAINS,
+                QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, QName.createValidLocalName(name)),
+                type, properties).getChildRef();
+    }
+
+    private RetryingTransactionHelper getTransactionHelper() {
+        return getServiceRegistry().getTransactionService().getRetryingTransactionHelper();
+    }
+}
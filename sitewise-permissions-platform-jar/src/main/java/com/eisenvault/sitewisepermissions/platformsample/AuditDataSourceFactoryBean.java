@@ -0,0 +1,173 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.FactoryBean;
+
+import javax.sql.DataSource;
+
+/**
+ * Builds the DataSource used for permission audit traffic.
+ * By default this is the repository's shared dataSource. With dedicatedPool=true a separate
+ * DBCP pool is created (usually against the same database) with its own size limits,
+ * statement cache and checkout timeout, so audit scans and reports cannot starve repository
+ * transactions of connections. Either way the result is wrapped for connection metrics.
+ *
+ * On the shared pool audit statements join the repository transaction's connection and commit
+ * or roll back with it. A dedicated pool has connections of its own, so audit writes then run
+ * in transactions of their own (see PermissionAuditService) and commit independently of the
+ * repository transaction that triggered them. Its connections are not in autocommit mode, so
+ * JDBC fetch sizes are honoured (PostgreSQL only streams results inside a transaction). Only
+ * permission_audit traffic uses this pool: the repository tables and the report index are
+ * read and written on the repository's dataSource.
+ */
+public class AuditDataSourceFactoryBean implements FactoryBean<InstrumentedDataSource>, DisposableBean {
+
+    private static Log logger = LogFactory.getLog(AuditDataSourceFactoryBean.class);
+
+    private DataSource sharedDataSource;
+    private boolean dedicatedPool = false;
+    private String driverClassName;
+    private String url;
+    private String username;
+    private String password;
+    private int initialSize = 1;
+    private int maxActive = 10;
+    private int maxIdle = 5;
+    private int minIdle = 0;
+    private long maxWaitMillis = 5000L;
+    private boolean poolPreparedStatements = true;
+    private int maxOpenPreparedStatements = 50;
+    private String validationQuery;
+
+    private BasicDataSource pool;
+    private InstrumentedDataSource dataSource;
+
+    public void setSharedDataSource(DataSource sharedDataSource) {
+        this.sharedDataSource = sharedDataSource;
+    }
+
+    public void setDedicatedPool(boolean dedicatedPool) {
+        this.dedicatedPool = dedicatedPool;
+    }
+
+    public void setDriverClassName(String driverClassName) {
+        this.driverClassName = driverClassName;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public void setInitialSize(int initialSize) {
+        this.initialSize = initialSize;
+    }
+
+    public void setMaxActive(int maxActive) {
+        this.maxActive = maxActive;
+    }
+
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public void setPoolPreparedStatements(boolean poolPreparedStatements) {
+        this.poolPreparedStatements = poolPreparedStatements;
+    }
+
+    public void setMaxOpenPreparedStatements(int maxOpenPreparedStatements) {
+        this.maxOpenPreparedStatements = maxOpenPreparedStatements;
+    }
+
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    @Override
+    public synchronized InstrumentedDataSource getObject() {
+        if (dataSource == null) {
+            if (dedicatedPool) {
+                pool = createPool();
+                dataSource = new InstrumentedDataSource(pool, true);
+                logger.info("Permission audit uses a dedicated connection pool (maxActive=" + maxActive +
+                           ", maxWait=" + maxWaitMillis + "ms, statement cache=" + poolPreparedStatements + ")");
+            } else {
+                dataSource = new InstrumentedDataSource(sharedDataSource, false);
+                logger.info("Permission audit uses the shared repository dataSource");
+            }
+        }
+        return dataSource;
+    }
+
+    private BasicDataSource createPool() {
+        BasicDataSource basicDataSource = new BasicDataSource();
+        basicDataSource.setDriverClassName(driverClassName);
+        basicDataSource.setUrl(url);
+        basicDataSource.setUsername(username);
+        basicDataSource.setPassword(password);
+        basicDataSource.setInitialSize(initialSize);
+        basicDataSource.setMaxActive(maxActive);
+        basicDataSource.setMaxIdle(maxIdle);
+        basicDataSource.setMinIdle(minIdle);
+        basicDataSource.setMaxWait(maxWaitMillis);
+        basicDataSource.setPoolPreparedStatements(poolPreparedStatements);
+        basicDataSource.setMaxOpenPreparedStatements(maxOpenPreparedStatements);
+        basicDataSource.setDefaultAutoCommit(false);
+        if (validationQuery != null && !validationQuery.trim().isEmpty()) {
+            basicDataSource.setValidationQuery(validationQuery);
+            basicDataSource.setTestOnBorrow(true);
+        }
+        return basicDataSource;
+    }
+
+    @Override
+    public Class<?> getObjectType() {
+        return InstrumentedDataSource.class;
+    }
+
+    @Override
+    public boolean isSingleton() {
+        return true;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,525 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * In-memory copy of the whole group containment graph (cm:member associations), loaded with
+ * one query over the repository tables instead of one AuthorityService call per group.
+ *
+ * Groups and users get compact int ids; users are numbered in name order, so the transitive
+ * user set of each group is a BitSet that iterates in name order. The graph is rebuilt in the
+ * background whenever the {@link GroupMembershipCache} reports a membership change, made on this
+ * node or, after its next cluster check, on another one; until the rebuild finishes, queries return null and callers fall back to AuthorityService.
+ */
+public class AuthorityGraph {
+
+    private static Log logger = LogFactory.getLog(AuthorityGraph.class);
+
+    private static final String CONTENT_MODEL_URI = "http://www.alfresco.org/model/content/1.0";
+
+    /** Every cm:member association, with the authority names of both ends */
+    private static final String MEMBER_QUERY =
+        "SELECT parent_name.string_value AS parent_authority, child_name.string_value AS child_authority " +
+        "FROM alf_child_assoc ca " +
+        "JOIN alf_qname assoc_type ON assoc_type.id = ca.type_qname_id " +
+        "JOIN alf_namespace ns ON ns.id = assoc_type.ns_id " +
+        "JOIN alf_node_properties parent_name ON parent_name.node_id = ca.parent_node_id " +
+        "JOIN alf_qname parent_prop ON parent_prop.id = parent_name.qname_id " +
+        "JOIN alf_node_properties child_name ON child_name.node_id = ca.child_node_id " +
+        "JOIN alf_qname child_prop ON child_prop.id = child_name.qname_id " +
+        "WHERE ns.uri = ? AND assoc_type.local_name = 'member' " +
+        "AND parent_prop.ns_id = ns.id AND parent_prop.local_name = 'authorityName' " +
+        "AND child_prop.ns_id = ns.id AND child_prop.local_name IN ('authorityName', 'userName')";
+
+    private JdbcTemplate jdbcTemplate;
+    private GroupMembershipCache groupMembershipCache;
+    private RetryingTransactionHelper retryingTransactionHelper;
+    private boolean enabled = true;
+    private int fetchSize = 1000;
+
+    private volatile Snapshot snapshot;
+    private final AtomicBoolean loading = new AtomicBoolean(false);
+    private ExecutorService executor;
+    private volatile long lastLoadMillis;
+    private volatile String lastError;
+
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void setGroupMembershipCache(GroupMembershipCache groupMembershipCache) {
+        this.groupMembershipCache = groupMembershipCache;
+    }
+
+    public void setRetryingTransactionHelper(RetryingTransactionHelper retryingTransactionHelper) {
+        this.retryingTransactionHelper = retryingTransactionHelper;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Start loading the graph in the background
+     */
+    public void init() {
+        if (!enabled) {
+            logger.info("Authority graph disabled, groups are expanded through AuthorityService");
+            return;
+        }
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "AuthorityGraphLoader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduleLoad();
+    }
+
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the users in a group and its nested groups, in name order,
+     *         or null if the graph is not loaded or out of date
+     */
+    public Set<String> getUsersInGroup(String groupName) {
+        Snapshot current = getCurrentSnapshot();
+        if (current == null) {
+            return null;
+        }
+        Integer groupId = current.groupIds.get(groupName);
+        if (groupId == null) {
+            // Not the parent of any membership, so the group has no members
+            return Collections.emptySet();
+        }
+        return new UserSet(current, current.groupUsers[groupId]);
+    }
+
+    /**
+     * @return the groups a user belongs to directly or through nested groups, in name order,
+     *         or null if the graph is not loaded or out of date
+     */
+    public Set<String> getGroupsOfUser(String username) {
+        Snapshot current = getCurrentSnapshot();
+        if (current == null) {
+            return null;
+        }
+        Integer userId = current.userIds.get(username);
+        if (userId == null) {
+            return Collections.emptySet();
+        }
+
+        BitSet groups = new BitSet(current.groupNames.length);
+        List<Integer> pending = new ArrayList<Integer>();
+        for (int groupId : current.userParents[userId]) {
+            pending.add(groupId);
+        }
+        while (!pending.isEmpty()) {
+            int groupId = pending.remove(pending.size() - 1);
+            if (!groups.get(groupId)) {
+                groups.set(groupId);
+                for (int parentId : current.groupParents[groupId]) {
+                    pending.add(parentId);
+                }
+            }
+        }
+
+        Set<String> names = new TreeSet<String>();
+        for (int i = groups.nextSetBit(0); i >= 0; i = groups.nextSetBit(i + 1)) {
+            names.add(current.groupNames[i]);
+        }
+        return names;
+    }
+
+    /**
+     * @return the size of the loaded graph and when it was loaded
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        Snapshot current = snapshot;
+        stats.put("enabled", enabled);
+        stats.put("loaded", current != null);
+        stats.put("current", current != null && current.version == groupMembershipCache.getVersion());
+        stats.put("loading", loading.get());
+        if (current != null) {
+            stats.put("groups", current.groupNames.length);
+            stats.put("users", current.userNames.length);
+            stats.put("memberships", current.memberships);
+            stats.put("loadedAt", new Date(current.loadedAt));
+        }
+        stats.put("lastLoadMillis", lastLoadMillis);
+        if (lastError != null) {
+            stats.put("lastError", lastError);
+        }
+        return stats;
+    }
+
+    /**
+     * @return the snapshot if it reflects the current memberships; otherwise start a reload and return null
+     */
+    private Snapshot getCurrentSnapshot() {
+        if (!enabled) {
+            return null;
+        }
+        Snapshot current = snapshot;
+        if (current == null || current.version != groupMembershipCache.getVersion()) {
+            scheduleLoad();
+            return null;
+        }
+        return current;
+    }
+
+    private void scheduleLoad() {
+        if (executor == null || executor.isShutdown() || !loading.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    load();
+                } catch (Exception e) {
+                    lastError = e.getMessage();
+                    logger.warn("Could not load the authority graph, groups are expanded through AuthorityService: " + e.getMessage());
+                } finally {
+                    loading.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Load all memberships in one query and compute the transitive user set of every group
+     */
+    private void load() {
+        long start = System.currentTimeMillis();
+        // Read the version first: a change during the load leaves the snapshot stale, not wrong
+        long version = groupMembershipCache.getVersion();
+
+        final List<String[]> edges = new ArrayList<String[]>();
+
+        // In a read-only transaction, so the driver streams with the fetch size (PostgreSQL
+        // reads the whole result at once in autocommit mode)
+        retryingTransactionHelper.doInTransaction(new RetryingTransactionCallback<Void>() {
+            public Void execute() throws Throwable {
+                edges.clear();
+                readMemberships(edges);
+                return null;
+            }
+        }, true, true);
+
+        Snapshot loaded = setMemberships(version, edges);
+        lastLoadMillis = System.currentTimeMillis() - start;
+        lastError = null;
+        logger.info("Loaded authority graph: " + loaded.groupNames.length + " groups, " + loaded.userNames.length +
+                    " users, " + loaded.memberships + " memberships in " + lastLoadMillis + " ms");
+    }
+
+    /**
+     * Compute the graph of the given memberships and make it current
+     * @param version the membership version the memberships were read at
+     * @param edges the parent group and member authority of every membership
+     */
+    Snapshot setMemberships(long version, List<String[]> edges) {
+        Set<String> groupNameSet = new TreeSet<String>();
+        Set<String> userNameSet = new TreeSet<String>();
+        for (String[] edge : edges) {
+            groupNameSet.add(edge[0]);
+            if (isGroup(edge[1])) {
+                groupNameSet.add(edge[1]);
+            } else {
+                userNameSet.add(edge[1]);
+            }
+        }
+        Snapshot loaded = new Snapshot(version, groupNameSet, userNameSet, edges);
+        snapshot = loaded;
+        return loaded;
+    }
+
+    /**
+     * Read every cm:member association
+     */
+    private void readMemberships(final List<String[]> edges) {
+        jdbcTemplate.query(new PreparedStatementCreator() {
+            public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+                PreparedStatement ps = con.prepareStatement(MEMBER_QUERY);
+                ps.setFetchSize(fetchSize);
+                ps.setString(1, CONTENT_MODEL_URI);
+                return ps;
+            }
+        }, new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                String parent = rs.getString("parent_authority");
+                String child = rs.getString("child_authority");
+                if (parent == null || child == null) {
+                    return;
+                }
+                edges.add(new String[] { parent, child });
+            }
+        });
+    }
+
+    private static boolean isGroup(String authority) {
+        return authority.startsWith("GROUP_");
+    }
+
+    /**
+     * An immutable, fully computed graph
+     */
+    static class Snapshot {
+        private final long version;
+        private final long loadedAt = System.currentTimeMillis();
+        private final int memberships;
+        private final String[] groupNames;
+        private final String[] userNames;
+        private final Map<String, Integer> groupIds;
+        private final Map<String, Integer> userIds;
+        /** Transitive user set of each group */
+        private final BitSet[] groupUsers;
+        /** Groups directly containing each group / user */
+        private final int[][] groupParents;
+        private final int[][] userParents;
+
+        Snapshot(long version, Set<String> groupNameSet, Set<String> userNameSet, List<String[]> edges) {
+            this.version = version;
+            this.memberships = edges.size();
+            this.groupNames = groupNameSet.toArray(new String[groupNameSet.size()]);
+            this.userNames = userNameSet.toArray(new String[userNameSet.size()]);
+            this.groupIds = index(groupNames);
+            this.userIds = index(userNames);
+
+            BitSet[] directUsers = new BitSet[groupNames.length];
+            List<List<Integer>> subgroups = new ArrayList<List<Integer>>(groupNames.length);
+            List<List<Integer>> groupParentLists = new ArrayList<List<Integer>>(groupNames.length);
+            List<List<Integer>> userParentLists = new ArrayList<List<Integer>>(userNames.length);
+            for (int i = 0; i < groupNames.length; i++) {
+                directUsers[i] = new BitSet();
+                subgroups.add(new ArrayList<Integer>(0));
+                groupParentLists.add(new ArrayList<Integer>(0));
+            }
+            for (int i = 0; i < userNames.length; i++) {
+                userParentLists.add(new ArrayList<Integer>(2));
+            }
+
+            for (String[] edge : edges) {
+                int parentId = groupIds.get(edge[0]);
+                if (isGroup(edge[1])) {
+                    int childId = groupIds.get(edge[1]);
+                    subgroups.get(parentId).add(childId);
+                    groupParentLists.get(childId).add(parentId);
+                } else {
+                    int userId = userIds.get(edge[1]);
+                    directUsers[parentId].set(userId);
+                    userParentLists.get(userId).add(parentId);
+                }
+            }
+
+            this.groupParents = toArrays(groupParentLists);
+            this.userParents = toArrays(userParentLists);
+            this.groupUsers = new BitSet[groupNames.length];
+            new Closure(directUsers, subgroups).run();
+        }
+
+        /**
+         * Computes the transitive user set of every group. Groups that contain each other through
+         * a membership cycle are found as one strongly connected component (Tarjan) and all get
+         * the users of the whole cycle. Components are completed subgroups first, so each set is
+         * the union of the cycle's direct users and the finished sets of the subgroups it reaches.
+         */
+        private class Closure {
+            private final BitSet[] directUsers;
+            private final List<List<Integer>> subgroups;
+            private final int[] order = new int[groupNames.length];
+            private final int[] low = new int[groupNames.length];
+            private final int[] component = new int[groupNames.length];
+            private final boolean[] onStack = new boolean[groupNames.length];
+            private final List<Integer> stack = new ArrayList<Integer>();
+            private int visited;
+            private int components;
+
+            Closure(BitSet[] directUsers, List<List<Integer>> subgroups) {
+                this.directUsers = directUsers;
+                this.subgroups = subgroups;
+            }
+
+            void run() {
+                for (int i = 0; i < groupNames.length; i++) {
+                    if (order[i] == 0) {
+                        visit(i);
+                    }
+                }
+            }
+
+            private void visit(int groupId) {
+                order[groupId] = ++visited;
+                low[groupId] = order[groupId];
+                stack.add(groupId);
+                onStack[groupId] = true;
+                for (int subgroupId : subgroups.get(groupId)) {
+                    if (order[subgroupId] == 0) {
+                        visit(subgroupId);
+                        low[groupId] = Math.min(low[groupId], low[subgroupId]);
+                    } else if (onStack[subgroupId]) {
+                        low[groupId] = Math.min(low[groupId], order[subgroupId]);
+                    }
+                }
+                if (low[groupId] == order[groupId]) {
+                    complete(groupId);
+                }
+            }
+
+            /**
+             * Pop the component rooted at a group and give all its groups the same user set
+             */
+            private void complete(int rootId) {
+                int id = ++components;
+                List<Integer> members = new ArrayList<Integer>();
+                int memberId;
+                do {
+                    memberId = stack.remove(stack.size() - 1);
+                    onStack[memberId] = false;
+                    component[memberId] = id;
+                    members.add(memberId);
+                } while (memberId != rootId);
+
+                BitSet users = new BitSet();
+                for (int member : members) {
+                    users.or(directUsers[member]);
+                    for (int subgroupId : subgroups.get(member)) {
+                        if (component[subgroupId] != id) {
+                            users.or(groupUsers[subgroupId]);
+                        }
+                    }
+                }
+                if (members.size() > 1) {
+                    logger.warn("Circular group reference detected: " + groupNames[rootId] + " (" + members.size() +
+                                " groups)");
+                }
+                for (int member : members) {
+                    groupUsers[member] = users;
+                }
+            }
+        }
+
+        private static Map<String, Integer> index(String[] names) {
+            Map<String, Integer> ids = new HashMap<String, Integer>(names.length * 2);
+            for (int i = 0; i < names.length; i++) {
+                ids.put(names[i], i);
+            }
+            return ids;
+        }
+
+        private static int[][] toArrays(List<List<Integer>> lists) {
+            int[][] arrays = new int[lists.size()][];
+            for (int i = 0; i < arrays.length; i++) {
+                List<Integer> list = lists.get(i);
+                arrays[i] = new int[list.size()];
+                for (int j = 0; j < arrays[i].length; j++) {
+                    arrays[i][j] = list.get(j);
+                }
+            }
+            return arrays;
+        }
+    }
+
+    /**
+     * Read-only view of a group's user bitset, iterating in name order
+     */
+    private static class UserSet extends AbstractSet<String> {
+        private final Snapshot snapshot;
+        private final BitSet users;
+        private final int size;
+
+        UserSet(Snapshot snapshot, BitSet users) {
+            this.snapshot = snapshot;
+            this.users = users;
+            this.size = users.cardinality();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            Integer userId = snapshot.userIds.get(o);
+            return userId != null && users.get(userId);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int next = users.nextSetBit(0);
+
+                public boolean hasNext() {
+                    return next >= 0;
+                }
+
+                public String next() {
+                    if (next < 0) {
+                        throw new NoSuchElementException();
+                    }
+                    String name = snapshot.userNames[next];
+                    next = users.nextSetBit(next + 1);
+                    return name;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
@@ -16,31 +16,103 @@
 
 package com.eisenvault.sitewisepermissions.platformsample;
 
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.site.SiteInfo;
+import org.alfresco.service.cmr.site.SiteService;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.transaction.annotation.Transactional;
 import javax.sql.DataSource;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.Statement;
-import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 
 /**
  * Database initializer for the permission audit table.
  * This class automatically creates the required database table when the module is deployed.
+ * The work runs on a background thread after startup; see {@link #isTableReady()}.
+ * Schema changes are applied as ordered, versioned migration steps recorded in the
+ * permission_audit_schema_version table.
  * Supports multiple database types: H2, MySQL, PostgreSQL, SQL Server.
  */
 public class DatabaseInitializer {
     
     private static Log logger = LogFactory.getLog(DatabaseInitializer.class);
     
+    /** Name of the table recording which schema migrations have been applied */
+    private static final String VERSION_TABLE = "permission_audit_schema_version";
+    
+    /** Audit indexes as name and column list, grouped by the migration that adds them */
+    private static final String[][] BASE_INDEXES = {
+        {"idx_node_ref", "node_ref"},
+        {"idx_user_granted_to", "user_granted_to"},
+        {"idx_date_granted", "date_granted"},
+        {"idx_action_type", "action_type"},
+        {"idx_is_active", "is_active"}
+    };
+    private static final String[][] HISTORY_INDEXES = {
+        {"idx_node_date_id", "node_ref, date_granted, id"},
+        {"idx_user_date_id", "user_granted_to, date_granted, id"},
+        {"idx_site_date_id", "site_short_name, date_granted, id"}
+    };
+    private static final String[][] EXPIRY_INDEXES = {
+        {"idx_active_expiry", "is_active, expiry_date"}
+    };
+    private static final String[][] CHANGE_INDEXES = {
+        {"idx_created_at", "created_at"},
+        {"idx_revoked_date", "revoked_date"}
+    };
+    
+    /** Name of the precomputed permission report table */
+    public static final String REPORT_INDEX_TABLE = "permission_report_index";
+    private static final String[][] REPORT_INDEX_INDEXES = {
+        {"idx_rpt_site_path", "site_short_name, node_path"},
+        {"idx_rpt_node", "node_ref"},
+        {"idx_rpt_user", "username"},
+        {"idx_rpt_site_grant", "site_short_name, grant_date"},
+        {"idx_rpt_type_group", "permission_type, group_name"}
+    };
+    /** Schema version from which the report index table and its indexes exist */
+    private static final int REPORT_INDEX_VERSION = 10;
+    
     private JdbcTemplate jdbcTemplate;
     private DataSource dataSource;
-    private String databaseType;
+    private DataSource repositoryDataSource;
+    private NodeService nodeService;
+    private SiteService siteService;
+    private RetryingTransactionHelper retryingTransactionHelper;
+    private volatile String databaseType;
+    private long startupDelayMillis = 30L * 1000L;
+    private long retryDelayMillis = 60L * 1000L;
+    private int backfillChunkSize = 10000;
+    
+    private ScheduledExecutorService executor;
+    private volatile boolean tableReady = false;
+    private volatile boolean indexesReady = false;
+    private volatile int schemaVersion = 0;
+    private volatile String currentMigration;
     
     public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
@@ -51,9 +123,120 @@ public class DatabaseInitializer {
     }
     
     /**
-     * Initialize the database by creating the permission_audit table
+     * The repository's DataSource, on which the permission report index is created: the index
+     * is maintained in repository transactions, whichever pool the audit table uses
+     */
+    public void setRepositoryDataSource(DataSource repositoryDataSource) {
+        this.repositoryDataSource = repositoryDataSource;
+    }
+    
+    public void setNodeService(NodeService nodeService) {
+        this.nodeService = nodeService;
+    }
+    
+    public void setSiteService(SiteService siteService) {
+        this.siteService = siteService;
+    }
+    
+    public void setRetryingTransactionHelper(RetryingTransactionHelper retryingTransactionHelper) {
+        this.retryingTransactionHelper = retryingTransactionHelper;
+    }
+    
+    public void setStartupDelaySeconds(int startupDelaySeconds) {
+        this.startupDelayMillis = startupDelaySeconds * 1000L;
+    }
+    
+    public void setRetryDelaySeconds(int retryDelaySeconds) {
+        this.retryDelayMillis = retryDelaySeconds * 1000L;
+    }
+    
+    public void setBackfillChunkSize(int backfillChunkSize) {
+        this.backfillChunkSize = backfillChunkSize;
+    }
+    
+    /**
+     * Schedule schema verification and index builds in the background so repository
+     * startup is not held up by audit-table maintenance. Audit services check
+     * {@link #isTableReady()} before touching the table.
      */
     public void init() {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PermissionAuditSchema");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduleInitialization(startupDelayMillis);
+        logger.info("Permission audit schema initialization scheduled in " + (startupDelayMillis / 1000L) + " seconds");
+    }
+    
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * @return H2, MySQL, PostgreSQL or SQLServer, or null until the database has been inspected
+     */
+    public String getDatabaseType() {
+        return databaseType;
+    }
+    
+    /**
+     * @return true once the permission_audit table exists with the current columns
+     */
+    public boolean isTableReady() {
+        return tableReady;
+    }
+    
+    /**
+     * @return true once all audit indexes have been built
+     */
+    public boolean isIndexesReady() {
+        return indexesReady;
+    }
+    
+    /**
+     * @return true once the permission_report_index table and its indexes exist
+     */
+    public boolean isReportIndexReady() {
+        return schemaVersion >= REPORT_INDEX_VERSION;
+    }
+    
+    /**
+     * @return the applied and latest schema versions, readiness flags and any migration in progress
+     */
+    public Map<String, Object> getSchemaStatus() {
+        Map<String, Object> status = new HashMap<String, Object>();
+        status.put("databaseType", databaseType);
+        status.put("schemaVersion", schemaVersion);
+        status.put("latestVersion", getMigrationSteps().size());
+        status.put("tableReady", tableReady);
+        status.put("indexesReady", indexesReady);
+        status.put("reportIndexReady", isReportIndexReady());
+        status.put("currentMigration", currentMigration);
+        return status;
+    }
+    
+    private void scheduleInitialization(long delayMillis) {
+        if (executor == null || executor.isShutdown()) {
+            return;
+        }
+        executor.schedule(new Runnable() {
+            public void run() {
+                initializeSchema();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Bring the permission_audit schema up to date by applying the pending migration steps in order.
+     * Failures are logged and retried later; completed steps are not repeated and a chunked
+     * backfill resumes from its last checkpoint.
+     */
+    private void initializeSchema() {
         try {
             System.out.println("Initializing permission audit database table...");
             
@@ -65,71 +248,314 @@ public class DatabaseInitializer {
             // Detect database type
             detectDatabaseType();
             
-            // Check if table exists
-            boolean tableExists = isTableExists();
-            System.out.println("Table exists check result: " + tableExists);
+            createVersionTable();
+            Map<Integer, MigrationState> states = readMigrationStates();
             
-            if (tableExists) {
-                // Migrate existing table to new schema
-                System.out.println("Table exists, checking for schema migration...");
-                migrateTableSchema();
-            } else {
-                // Create new table with current schema
-                System.out.println("Table does not exist, creating new table...");
-                createTable();
-                
-                // Verify table creation by checking if it's accessible
-                logger.debug("Verifying table creation with a test query...");
-                int retryCount = 0;
-                boolean tableAccessible = false;
-                
-                while (!tableAccessible && retryCount < 5) {
-                    try {
-                        jdbcTemplate.execute("SELECT 1 FROM permission_audit LIMIT 1");
-                        tableAccessible = true;
-                        logger.debug("Table creation verified successfully on attempt " + (retryCount + 1));
-                    } catch (Exception e) {
-                        retryCount++;
-                        logger.debug("Table not yet accessible, attempt " + retryCount + " of 5: " + e.getMessage());
-                        if (retryCount < 5) {
-                            try {
-                                Thread.sleep(200 * retryCount); // Exponential backoff
-                            } catch (InterruptedException ie) {
-                                Thread.currentThread().interrupt();
-                                break;
-                            }
-                        }
-                    }
+            for (MigrationStep step : getMigrationSteps()) {
+                MigrationState state = states.get(step.version);
+                if (!step.blocking) {
+                    // Every step the audit services depend on has been applied
+                    markTableReady();
+                }
+                if (state != null && state.completed) {
+                    schemaVersion = step.version;
+                    continue;
                 }
                 
-                if (!tableAccessible) {
-                    logger.warn("Table creation verification failed after 5 attempts, proceeding anyway");
-                } else {
-                    logger.info("Table creation verified successfully");
+                currentMigration = step.version + ": " + step.description;
+                logger.info("Applying permission audit schema migration " + currentMigration);
+                long start = System.currentTimeMillis();
+                if (state == null) {
+                    executeUpdate("INSERT INTO " + VERSION_TABLE + " (migration_version, description, checkpoint_id, completed) " +
+                                 "VALUES (?, ?, ?, ?)", step.version, step.description, 0L, Boolean.FALSE);
                 }
+                step.apply(state != null ? state.checkpoint : 0L);
+                executeUpdate("UPDATE " + VERSION_TABLE + " SET completed = ?, applied_at = ? WHERE migration_version = ?",
+                             Boolean.TRUE, new Timestamp(System.currentTimeMillis()), step.version);
+                schemaVersion = step.version;
+                logger.info("Applied permission audit schema migration " + step.version + " in " +
+                           (System.currentTimeMillis() - start) + " ms");
             }
+            currentMigration = null;
+            markTableReady();
+            indexesReady = true;
             
-            // Create indexes
-            createIndexes();
+            // Insert initialization record
+            insertInitializationRecord();
             
-            // Verify table is accessible before inserting initialization record
-            logger.debug("Checking if table is accessible for initialization record insertion...");
-            if (isTableAccessible()) {
-                logger.debug("Table is accessible, proceeding with initialization record insertion");
-                // Insert initialization record
-                insertInitializationRecord();
-            } else {
-                logger.warn("Table is not accessible, skipping initialization record insertion");
-            }
+            System.out.println("Permission audit database table initialization process completed (schema version " + schemaVersion + ")");
             
-            System.out.println("Permission audit database table initialization process completed");
+        } catch (Exception e) {
+            logger.error("Error initializing permission audit database table, retrying in " +
+                        (retryDelayMillis / 1000L) + " seconds: " + e.getMessage(), e);
+            scheduleInitialization(retryDelayMillis);
+        }
+    }
+    
+    private void markTableReady() {
+        if (tableReady) {
+            return;
+        }
+        if (!isTableAccessible()) {
+            throw new IllegalStateException("permission_audit table is not accessible");
+        }
+        tableReady = true;
+        logger.info("Permission audit table is ready");
+    }
+    
+    /**
+     * The ordered schema migrations. Versions are never renumbered or removed; new work is
+     * appended. Every step is idempotent, because tables created before the version table
+     * existed start from version 0 and may already have some of the changes. Blocking steps
+     * must come first: the audit services start using the table once they have all been applied.
+     */
+    private List<MigrationStep> getMigrationSteps() {
+        List<MigrationStep> steps = new ArrayList<MigrationStep>();
+        
+        steps.add(new MigrationStep(1, "Create permission_audit table", true) {
+            void apply(long checkpoint) {
+                if (!isTableExists()) {
+                    createTable();
+                }
+            }
+        });
+        
+        steps.add(new MigrationStep(2, "Add is_active and revoked_date columns", true) {
+            void apply(long checkpoint) throws SQLException {
+                boolean sqlServer = "SQLServer".equals(databaseType);
+                if (!columnExists("is_active")) {
+                    executeDdl(sqlServer ? "ALTER TABLE permission_audit ADD is_active BIT DEFAULT 1"
+                                         : "ALTER TABLE permission_audit ADD COLUMN is_active BOOLEAN DEFAULT TRUE");
+                }
+                if (!columnExists("revoked_date")) {
+                    executeDdl(sqlServer ? "ALTER TABLE permission_audit ADD revoked_date DATETIME2 NULL"
+                                         : "ALTER TABLE permission_audit ADD COLUMN revoked_date TIMESTAMP NULL");
+                }
+            }
+        });
+        
+        steps.add(new MigrationStep(3, "Drop legacy granted_by column", true) {
+            void apply(long checkpoint) throws SQLException {
+                if (columnExists("granted_by")) {
+                    executeDdl("ALTER TABLE permission_audit DROP COLUMN granted_by");
+                }
+            }
+        });
+        
+        steps.add(new MigrationStep(4, "Add site_short_name column", true) {
+            void apply(long checkpoint) throws SQLException {
+                if (!columnExists("site_short_name")) {
+                    executeDdl("SQLServer".equals(databaseType)
+                        ? "ALTER TABLE permission_audit ADD site_short_name NVARCHAR(255) NULL"
+                        : "ALTER TABLE permission_audit ADD COLUMN site_short_name VARCHAR(255) NULL");
+                }
+            }
+        });
+        
+        steps.add(new MigrationStep(5, "Backfill is_active for legacy rows", false) {
+            void apply(long checkpoint) throws SQLException {
+                backfillInChunks(this, checkpoint,
+                    "UPDATE permission_audit SET is_active = ? WHERE is_active IS NULL AND id > ? AND id <= ?", Boolean.TRUE);
+            }
+        });
+        
+        steps.add(new MigrationStep(6, "Create single-column audit indexes", false) {
+            void apply(long checkpoint) throws SQLException {
+                createIndexes(dataSource, "permission_audit", BASE_INDEXES);
+            }
+        });
+        
+        steps.add(new MigrationStep(7, "Create keyset history indexes", false) {
+            void apply(long checkpoint) throws SQLException {
+                createIndexes(dataSource, "permission_audit", HISTORY_INDEXES);
+            }
+        });
+        
+        steps.add(new MigrationStep(8, "Create expiry index", false) {
+            void apply(long checkpoint) throws SQLException {
+                createIndexes(dataSource, "permission_audit", EXPIRY_INDEXES);
+            }
+        });
+        
+        steps.add(new MigrationStep(9, "Create permission_report_index table", false) {
+            void apply(long checkpoint) throws SQLException {
+                if (!tableExists(getRepositoryDataSource(), REPORT_INDEX_TABLE)) {
+                    executeDdl(getRepositoryDataSource(), getReportIndexTableSql());
+                }
+            }
+        });
+        
+        steps.add(new MigrationStep(REPORT_INDEX_VERSION, "Create permission_report_index indexes", false) {
+            void apply(long checkpoint) throws SQLException {
+                createIndexes(getRepositoryDataSource(), REPORT_INDEX_TABLE, REPORT_INDEX_INDEXES);
+            }
+        });
+        
+        steps.add(new MigrationStep(11, "Create audit change indexes", false) {
+            void apply(long checkpoint) throws SQLException {
+                createIndexes(dataSource, "permission_audit", CHANGE_INDEXES);
+            }
+        });
+        
+        steps.add(new MigrationStep(12, "Backfill site_short_name for legacy rows", false) {
+            void apply(long checkpoint) throws SQLException {
+                backfillInChunks(this, checkpoint, new ChunkUpdate() {
+                    public int update(long from, long to) throws SQLException {
+                        return backfillSiteShortNames(from, to);
+                    }
+                });
+            }
+        });
+        
+        return steps;
+    }
+    
+    /**
+     * Apply an UPDATE to the table in id ranges of backfillChunkSize rows, each committed on
+     * its own, recording the last processed id so an interrupted backfill resumes where it stopped
+     * @param updateSql the update, taking the value followed by the exclusive lower and inclusive upper id
+     */
+    private void backfillInChunks(MigrationStep step, long checkpoint, final String updateSql, final Object value) throws SQLException {
+        backfillInChunks(step, checkpoint, new ChunkUpdate() {
+            public int update(long from, long to) throws SQLException {
+                return executeUpdate(updateSql, value, from, to);
+            }
+        });
+    }
+    
+    /**
+     * Apply an update to the table in id ranges of backfillChunkSize rows, each committed on
+     * its own, recording the last processed id so an interrupted backfill resumes where it stopped
+     */
+    private void backfillInChunks(MigrationStep step, long checkpoint, ChunkUpdate chunkUpdate) throws SQLException {
+        Long maxId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM permission_audit", Long.class);
+        if (maxId == null || checkpoint >= maxId) {
+            return;
+        }
+        
+        long from = checkpoint;
+        long updated = 0;
+        long lastLog = System.currentTimeMillis();
+        while (from < maxId) {
+            long to = Math.min(from + backfillChunkSize, maxId);
+            updated += chunkUpdate.update(from, to);
+            from = to;
+            executeUpdate("UPDATE " + VERSION_TABLE + " SET checkpoint_id = ? WHERE migration_version = ?", from, step.version);
             
+            if (from >= maxId || System.currentTimeMillis() - lastLog > 10000L) {
+                logger.info("Migration " + step.version + " (" + step.description + "): processed ids up to " + from +
+                           " of " + maxId + " (" + (from * 100 / maxId) + "%), " + updated + " rows updated");
+                lastLog = System.currentTimeMillis();
+            }
+        }
+    }
+    
+    /**
+     * Set site_short_name on the rows of an id range written before the column existed, resolving
+     * the site of each node as the audit service does for new rows. Rows of nodes that have been
+     * deleted or are not in a site keep a null site.
+     * @return the number of updated rows
+     */
+    private int backfillSiteShortNames(long from, long to) throws SQLException {
+        final Set<String> nodeRefs = new HashSet<String>(jdbcTemplate.queryForList(
+            "SELECT DISTINCT node_ref FROM permission_audit WHERE site_short_name IS NULL AND id > ? AND id <= ?",
+            String.class, from, to));
+        if (nodeRefs.isEmpty()) {
+            return 0;
+        }
+        
+        Map<String, String> sites = AuthenticationUtil.runAsSystem(new RunAsWork<Map<String, String>>() {
+            public Map<String, String> doWork() throws Exception {
+                return retryingTransactionHelper.doInTransaction(new RetryingTransactionCallback<Map<String, String>>() {
+                    public Map<String, String> execute() throws Throwable {
+                        Map<String, String> sites = new HashMap<String, String>();
+                        for (String nodeRef : nodeRefs) {
+                            String site = getSiteShortName(nodeRef);
+                            if (site != null) {
+                                sites.put(nodeRef, site);
+                            }
+                        }
+                        return sites;
+                    }
+                }, true, true);
+            }
+        });
+        
+        int updated = 0;
+        for (Map.Entry<String, String> site : sites.entrySet()) {
+            updated += executeUpdate("UPDATE permission_audit SET site_short_name = ? " +
+                                     "WHERE node_ref = ? AND site_short_name IS NULL AND id > ? AND id <= ?",
+                                     site.getValue(), site.getKey(), from, to);
+        }
+        return updated;
+    }
+    
+    /**
+     * Resolve the short name of the site containing a node, or null if the node no longer
+     * exists or is not in a site
+     */
+    private String getSiteShortName(String nodeRef) {
+        try {
+            NodeRef node = new NodeRef(nodeRef);
+            if (!nodeService.exists(node)) {
+                return null;
+            }
+            SiteInfo site = siteService.getSite(node);
+            return site != null ? site.getShortName() : null;
         } catch (Exception e) {
-            logger.error("Error initializing permission audit database table: " + e.getMessage(), e);
-            throw new RuntimeException("Failed to initialize permission audit database", e);
+            logger.debug("Could not resolve site for node " + nodeRef + ": " + e.getMessage());
+            return null;
         }
     }
     
+    /**
+     * Create the schema version table if it does not exist yet
+     */
+    private void createVersionTable() throws SQLException {
+        if (tableExists(VERSION_TABLE)) {
+            return;
+        }
+        String sql;
+        if ("SQLServer".equals(databaseType)) {
+            sql = "CREATE TABLE " + VERSION_TABLE + " (" +
+                  "migration_version INT NOT NULL PRIMARY KEY, " +
+                  "description NVARCHAR(255) NOT NULL, " +
+                  "checkpoint_id BIGINT NOT NULL, " +
+                  "completed BIT NOT NULL, " +
+                  "applied_at DATETIME2 NULL)";
+        } else {
+            sql = "CREATE TABLE " + VERSION_TABLE + " (" +
+                  "migration_version INT NOT NULL PRIMARY KEY, " +
+                  "description VARCHAR(255) NOT NULL, " +
+                  "checkpoint_id BIGINT NOT NULL, " +
+                  "completed BOOLEAN NOT NULL, " +
+                  "applied_at TIMESTAMP NULL)";
+        }
+        try {
+            executeDdl(sql);
+            logger.info("Created " + VERSION_TABLE + " table");
+        } catch (SQLException e) {
+            // Another cluster node may have created it in the meantime
+            if (!tableExists(VERSION_TABLE)) {
+                throw e;
+            }
+        }
+    }
+    
+    private Map<Integer, MigrationState> readMigrationStates() {
+        final Map<Integer, MigrationState> states = new HashMap<Integer, MigrationState>();
+        jdbcTemplate.query("SELECT migration_version, checkpoint_id, completed FROM " + VERSION_TABLE, new RowCallbackHandler() {
+            @Override
+            public void processRow(ResultSet rs) throws SQLException {
+                MigrationState state = new MigrationState();
+                state.checkpoint = rs.getLong("checkpoint_id");
+                state.completed = rs.getBoolean("completed");
+                states.put(rs.getInt("migration_version"), state);
+            }
+        });
+        return states;
+    }
+    
     /**
      * Detect the database type from the connection
      */
@@ -181,7 +607,8 @@ public class DatabaseInitializer {
      */
     private boolean isTableAccessible() {
         try {
-            jdbcTemplate.execute("SELECT 1 FROM permission_audit LIMIT 1");
+            // No LIMIT or TOP, so the probe runs on every supported database
+            jdbcTemplate.queryForObject("SELECT COUNT(*) FROM permission_audit WHERE 1 = 0", Integer.class);
             return true;
         } catch (Exception e) {
             logger.debug("Table accessibility check failed: " + e.getMessage());
@@ -321,6 +748,7 @@ public class DatabaseInitializer {
                        "action_type VARCHAR(50) NOT NULL, " +
                        "is_active BOOLEAN DEFAULT TRUE, " +
                        "revoked_date TIMESTAMP NULL, " +
+                       "site_short_name VARCHAR(255) NULL, " +
                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
                        ")";
             
@@ -335,6 +763,7 @@ public class DatabaseInitializer {
                        "action_type VARCHAR(50) NOT NULL, " +
                        "is_active BOOLEAN DEFAULT TRUE, " +
                        "revoked_date TIMESTAMP NULL, " +
+                       "site_short_name VARCHAR(255) NULL, " +
                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
                        ")";
             
@@ -349,6 +778,7 @@ public class DatabaseInitializer {
                        "action_type NVARCHAR(50) NOT NULL, " +
                        "is_active BIT DEFAULT 1, " +
                        "revoked_date DATETIME2 NULL, " +
+                       "site_short_name NVARCHAR(255) NULL, " +
                        "created_at DATETIME2 DEFAULT GETDATE()" +
                        ")";
             
@@ -364,72 +794,193 @@ public class DatabaseInitializer {
                        "action_type VARCHAR(50) NOT NULL, " +
                        "is_active BOOLEAN DEFAULT TRUE, " +
                        "revoked_date TIMESTAMP NULL, " +
+                       "site_short_name VARCHAR(255) NULL, " +
                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
                        ")";
         }
     }
     
     /**
-     * Create indexes with database-specific syntax
+     * Get database-specific CREATE TABLE SQL for the permission report index: one row per
+     * (site, node, user, role, via-group), plus one GROUP_ACE row per group entry of a node's ACL
      */
-    private void createIndexes() {
-        System.out.println("Creating indexes...");
-        
-        String[] indexSqls = getIndexSqls();
+    private String getReportIndexTableSql() {
+        switch (databaseType) {
+            case "SQLServer":
+                return "CREATE TABLE " + REPORT_INDEX_TABLE + " (" +
+                       "id BIGINT IDENTITY(1,1) PRIMARY KEY, " +
+                       "site_short_name NVARCHAR(255) NOT NULL, " +
+                       "node_ref NVARCHAR(255) NOT NULL, " +
+                       "node_name NVARCHAR(1024) NULL, " +
+                       "node_path NVARCHAR(2000) NULL, " +
+                       "username NVARCHAR(255) NOT NULL, " +
+                       "role NVARCHAR(255) NOT NULL, " +
+                       "group_name NVARCHAR(255) NULL, " +
+                       "permission_type NVARCHAR(20) NOT NULL, " +
+                       "grant_date DATETIME2 NULL, " +
+                       "indexed_at DATETIME2 NOT NULL" +
+                       ")";
+            
+            case "PostgreSQL":
+                return "CREATE TABLE " + REPORT_INDEX_TABLE + " (" +
+                       "id BIGSERIAL PRIMARY KEY, " +
+                       "site_short_name VARCHAR(255) NOT NULL, " +
+                       "node_ref VARCHAR(255) NOT NULL, " +
+                       "node_name VARCHAR(1024) NULL, " +
+                       "node_path VARCHAR(2000) NULL, " +
+                       "username VARCHAR(255) NOT NULL, " +
+                       "role VARCHAR(255) NOT NULL, " +
+                       "group_name VARCHAR(255) NULL, " +
+                       "permission_type VARCHAR(20) NOT NULL, " +
+                       "grant_date TIMESTAMP NULL, " +
+                       "indexed_at TIMESTAMP NOT NULL" +
+                       ")";
+            
+            case "MySQL":
+            case "H2":
+            default:
+                return "CREATE TABLE " + REPORT_INDEX_TABLE + " (" +
+                       "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                       "site_short_name VARCHAR(255) NOT NULL, " +
+                       "node_ref VARCHAR(255) NOT NULL, " +
+                       "node_name VARCHAR(1024) NULL, " +
+                       "node_path VARCHAR(2000) NULL, " +
+                       "username VARCHAR(255) NOT NULL, " +
+                       "role VARCHAR(255) NOT NULL, " +
+                       "group_name VARCHAR(255) NULL, " +
+                       "permission_type VARCHAR(20) NOT NULL, " +
+                       "grant_date TIMESTAMP NULL, " +
+                       "indexed_at TIMESTAMP NOT NULL" +
+                       ")";
+        }
+    }
+    
+    /**
+     * Create the given indexes on a table where missing, using online builds where the database supports them
+     */
+    private void createIndexes(DataSource target, String table, String[][] indexes) throws SQLException {
+        Set<String> existing = getExistingIndexes(target, table);
+        if ("PostgreSQL".equals(databaseType)) {
+            dropInvalidPostgresIndexes(target, table, existing);
+        }
         
-        for (String indexSql : indexSqls) {
+        for (String[] index : indexes) {
+            if (existing.contains(index[0])) {
+                logger.debug("Index " + index[0] + " already exists");
+                continue;
+            }
+            String onlineSql = getIndexSql(table, index[0], index[1], true);
+            long start = System.currentTimeMillis();
             try {
-                logger.debug("Creating index: " + indexSql);
-                jdbcTemplate.execute(indexSql);
-            } catch (Exception e) {
-                logger.debug("Could not create index (may already exist): " + e.getMessage());
+                logger.info("Creating index: " + onlineSql);
+                executeDdl(target, onlineSql);
+            } catch (SQLException e) {
+                String offlineSql = getIndexSql(table, index[0], index[1], false);
+                if (offlineSql.equals(onlineSql)) {
+                    throw e;
+                }
+                // e.g. SQL Server editions without online index operations
+                logger.warn("Online index build failed, falling back to a regular build: " + e.getMessage());
+                executeDdl(target, offlineSql);
             }
+            logger.info("Created index " + index[0] + " in " + (System.currentTimeMillis() - start) + " ms");
         }
-        
-        System.out.println("Index creation completed");
     }
     
     /**
      * Get database-specific index creation SQL
+     * @param online true to request a build that does not block writes to the table
      */
-    private String[] getIndexSqls() {
+    private String getIndexSql(String table, String name, String columns, boolean online) {
+        String base = "CREATE INDEX " + name + " ON " + table + " (" + columns + ")";
         switch (databaseType) {
             case "MySQL":
-                return new String[]{
-                    "CREATE INDEX IF NOT EXISTS idx_node_ref ON permission_audit (node_ref)",
-                    "CREATE INDEX IF NOT EXISTS idx_user_granted_to ON permission_audit (user_granted_to)",
-                    "CREATE INDEX IF NOT EXISTS idx_date_granted ON permission_audit (date_granted)",
-                    "CREATE INDEX IF NOT EXISTS idx_action_type ON permission_audit (action_type)",
-                    "CREATE INDEX IF NOT EXISTS idx_is_active ON permission_audit (is_active)"
-                };
+                return online ? base + " ALGORITHM=INPLACE LOCK=NONE" : base;
             
             case "PostgreSQL":
-                return new String[]{
-                    "CREATE INDEX IF NOT EXISTS idx_node_ref ON permission_audit (node_ref)",
-                    "CREATE INDEX IF NOT EXISTS idx_user_granted_to ON permission_audit (user_granted_to)",
-                    "CREATE INDEX IF NOT EXISTS idx_date_granted ON permission_audit (date_granted)",
-                    "CREATE INDEX IF NOT EXISTS idx_action_type ON permission_audit (action_type)",
-                    "CREATE INDEX IF NOT EXISTS idx_is_active ON permission_audit (is_active)"
-                };
+                return online
+                    ? "CREATE INDEX CONCURRENTLY IF NOT EXISTS " + name + " ON " + table + " (" + columns + ")"
+                    : "CREATE INDEX IF NOT EXISTS " + name + " ON " + table + " (" + columns + ")";
             
             case "SQLServer":
-                return new String[]{
-                    "CREATE INDEX idx_node_ref ON permission_audit (node_ref)",
-                    "CREATE INDEX idx_user_granted_to ON permission_audit (user_granted_to)",
-                    "CREATE INDEX idx_date_granted ON permission_audit (date_granted)",
-                    "CREATE INDEX idx_action_type ON permission_audit (action_type)",
-                    "CREATE INDEX idx_is_active ON permission_audit (is_active)"
-                };
+                return online ? base + " WITH (ONLINE = ON)" : base;
             
             case "H2":
             default:
-                return new String[]{
-                    "CREATE INDEX IF NOT EXISTS idx_node_ref ON permission_audit (node_ref)",
-                    "CREATE INDEX IF NOT EXISTS idx_user_granted_to ON permission_audit (user_granted_to)",
-                    "CREATE INDEX IF NOT EXISTS idx_date_granted ON permission_audit (date_granted)",
-                    "CREATE INDEX IF NOT EXISTS idx_action_type ON permission_audit (action_type)",
-                    "CREATE INDEX IF NOT EXISTS idx_is_active ON permission_audit (is_active)"
-                };
+                return "CREATE INDEX IF NOT EXISTS " + name + " ON " + table + " (" + columns + ")";
+        }
+    }
+    
+    /**
+     * Read the names (lower case) of the indexes that already exist on a table
+     */
+    private Set<String> getExistingIndexes(DataSource target, String table) throws SQLException {
+        Set<String> names = new HashSet<String>();
+        try (Connection connection = target.getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            String catalog = connection.getCatalog();
+            String[] schemas = {null, "PUBLIC", "dbo", "ALFRESCO"};
+            String[] tableNames = {table, table.toUpperCase()};
+            
+            for (String schemaName : schemas) {
+                for (String tableName : tableNames) {
+                    try (ResultSet indexes = metaData.getIndexInfo(catalog, schemaName, tableName, false, true)) {
+                        while (indexes.next()) {
+                            String indexName = indexes.getString("INDEX_NAME");
+                            if (indexName != null) {
+                                names.add(indexName.toLowerCase());
+                            }
+                        }
+                    } catch (SQLException e) {
+                        logger.debug("Error reading indexes for schema " + schemaName + " table " + tableName + ": " + e.getMessage());
+                    }
+                }
+                if (!names.isEmpty()) {
+                    break;
+                }
+            }
+        }
+        logger.debug("Existing " + table + " indexes: " + names);
+        return names;
+    }
+    
+    /**
+     * An interrupted CREATE INDEX CONCURRENTLY leaves an invalid index behind; drop it so it is rebuilt
+     */
+    private void dropInvalidPostgresIndexes(DataSource target, String table, Set<String> existing) {
+        try {
+            List<String> invalid = new JdbcTemplate(target).queryForList(
+                "SELECT c.relname FROM pg_class c JOIN pg_index i ON i.indexrelid = c.oid " +
+                "JOIN pg_class t ON t.oid = i.indrelid WHERE t.relname = ? AND NOT i.indisvalid",
+                String.class, table);
+            for (String name : invalid) {
+                logger.warn("Dropping invalid index " + name + " left by an interrupted build");
+                executeDdl(target, "DROP INDEX CONCURRENTLY IF EXISTS " + name);
+                existing.remove(name.toLowerCase());
+            }
+        } catch (Exception e) {
+            logger.warn("Could not check for invalid indexes: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Execute a DDL statement on its own auto-commit connection
+     * (required for CREATE INDEX CONCURRENTLY, which cannot run inside a transaction)
+     */
+    private void executeDdl(String sql) throws SQLException {
+        executeDdl(dataSource, sql);
+    }
+    
+    private void executeDdl(DataSource target, String sql) throws SQLException {
+        try (Connection connection = target.getConnection();
+             Statement stmt = connection.createStatement()) {
+            boolean prevAutoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(true);
+            try {
+                stmt.execute(sql);
+            } finally {
+                connection.setAutoCommit(prevAutoCommit);
+            }
         }
     }
     
@@ -449,7 +1000,7 @@ public class DatabaseInitializer {
                 // Only insert if record doesn't exist
                 String initRecordSql = getInitRecordSql();
                 logger.debug("Inserting initialization record: " + initRecordSql);
-                jdbcTemplate.execute(initRecordSql);
+                executeUpdate(initRecordSql);
                 System.out.println("Initialization record inserted successfully");
             } else {
                 System.out.println("Initialization record already exists, skipping insert");
@@ -491,110 +1042,110 @@ public class DatabaseInitializer {
     }
     
     /**
-     * Migrate existing table to new schema
+     * Check whether a permission_audit column exists using database metadata
      */
-    private void migrateTableSchema() {
-        try {
-            System.out.println("Migrating existing permission_audit table to new schema...");
-            
-            // Check if we need to add new columns
-            boolean needsMigration = checkIfMigrationNeeded();
-            
-            if (!needsMigration) {
-                System.out.println("Table already has current schema, no migration needed");
-                return;
+    private boolean columnExists(String column) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            String catalog = connection.getCatalog();
+            String[] tableNames = {"permission_audit", "PERMISSION_AUDIT"};
+            String[] columnNames = {column, column.toUpperCase()};
+            for (String tableName : tableNames) {
+                for (String columnName : columnNames) {
+                    try (ResultSet columns = metaData.getColumns(catalog, null, tableName, columnName)) {
+                        if (columns.next()) {
+                            return true;
+                        }
+                    }
+                }
             }
-            
-            System.out.println("Adding new columns to existing table...");
-            
-            // Add new columns with database-specific syntax
-            addNewColumns();
-            
-            // Drop the old granted_by column if it exists
-            dropOldColumns();
-            
-            // Update existing records to set is_active = true
-            updateExistingRecords();
-            
-            System.out.println("Successfully migrated permission_audit table to new schema");
-            
-        } catch (Exception e) {
-            logger.error("Error migrating table schema: " + e.getMessage(), e);
-            throw new RuntimeException("Failed to migrate table schema", e);
+            return false;
         }
     }
     
     /**
-     * Check if migration is needed by testing column existence
+     * Check whether a table exists using database metadata
      */
-    private boolean checkIfMigrationNeeded() {
-        try {
-            jdbcTemplate.queryForObject("SELECT is_active FROM permission_audit LIMIT 1", Boolean.class);
-            return false; // Column exists, no migration needed
-        } catch (Exception e) {
-            return true; // Column doesn't exist, migration needed
+    private boolean tableExists(String table) throws SQLException {
+        return tableExists(dataSource, table);
+    }
+    
+    private boolean tableExists(DataSource target, String table) throws SQLException {
+        try (Connection connection = target.getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            String catalog = connection.getCatalog();
+            String[] tableNames = {table, table.toUpperCase()};
+            for (String tableName : tableNames) {
+                try (ResultSet tables = metaData.getTables(catalog, null, tableName, new String[]{"TABLE"})) {
+                    if (tables.next()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
         }
     }
     
+    private DataSource getRepositoryDataSource() {
+        return repositoryDataSource != null ? repositoryDataSource : dataSource;
+    }
+    
     /**
-     * Add new columns with database-specific syntax
+     * Execute an update on its own auto-commit connection so each migration chunk is committed on its own
+     * @return the number of updated rows
      */
-    private void addNewColumns() {
-        try {
-            switch (databaseType) {
-                case "MySQL":
-                case "H2":
-                    jdbcTemplate.execute("ALTER TABLE permission_audit ADD COLUMN is_active BOOLEAN DEFAULT TRUE");
-                    jdbcTemplate.execute("ALTER TABLE permission_audit ADD COLUMN revoked_date TIMESTAMP NULL");
-                    break;
-                
-                case "PostgreSQL":
-                    jdbcTemplate.execute("ALTER TABLE permission_audit ADD COLUMN is_active BOOLEAN DEFAULT TRUE");
-                    jdbcTemplate.execute("ALTER TABLE permission_audit ADD COLUMN revoked_date TIMESTAMP NULL");
-                    break;
-                
-                case "SQLServer":
-                    jdbcTemplate.execute("ALTER TABLE permission_audit ADD is_active BIT DEFAULT 1");
-                    jdbcTemplate.execute("ALTER TABLE permission_audit ADD revoked_date DATETIME2 NULL");
-                    break;
-                
-                default:
-                    jdbcTemplate.execute("ALTER TABLE permission_audit ADD COLUMN is_active BOOLEAN DEFAULT TRUE");
-                    jdbcTemplate.execute("ALTER TABLE permission_audit ADD COLUMN revoked_date TIMESTAMP NULL");
-                    break;
+    private int executeUpdate(String sql, Object... params) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql)) {
+            boolean prevAutoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(true);
+            try {
+                for (int i = 0; i < params.length; i++) {
+                    ps.setObject(i + 1, params[i]);
+                }
+                return ps.executeUpdate();
+            } finally {
+                connection.setAutoCommit(prevAutoCommit);
             }
-        } catch (Exception e) {
-            System.out.println("Could not add some columns (they may already exist): " + e.getMessage());
         }
     }
     
     /**
-     * Drop old columns that are no longer needed
+     * A versioned schema change
      */
-    private void dropOldColumns() {
-        try {
-            jdbcTemplate.execute("ALTER TABLE permission_audit DROP COLUMN granted_by");
-            System.out.println("Dropped old granted_by column");
-        } catch (Exception e) {
-            logger.debug("granted_by column doesn't exist or couldn't be dropped: " + e.getMessage());
+    private abstract class MigrationStep {
+        final int version;
+        final String description;
+        /** Blocking steps must be applied before the audit services may use the table */
+        final boolean blocking;
+        
+        MigrationStep(int version, String description, boolean blocking) {
+            this.version = version;
+            this.description = description;
+            this.blocking = blocking;
         }
+        
+        /**
+         * @param checkpoint the last id processed by an interrupted run of this step, or 0
+         */
+        abstract void apply(long checkpoint) throws SQLException;
     }
     
     /**
-     * Update existing records to set is_active = true
+     * The update applied to one id range of a chunked backfill
      */
-    private void updateExistingRecords() {
-        try {
-            switch (databaseType) {
-                case "SQLServer":
-                    jdbcTemplate.execute("UPDATE permission_audit SET is_active = 1 WHERE is_active IS NULL");
-                    break;
-                default:
-                    jdbcTemplate.execute("UPDATE permission_audit SET is_active = TRUE WHERE is_active IS NULL");
-                    break;
-            }
-        } catch (Exception e) {
-            System.out.println("Could not update existing records: " + e.getMessage());
-        }
+    private interface ChunkUpdate {
+        /**
+         * @return the number of updated rows with an id above from and up to to
+         */
+        int update(long from, long to) throws SQLException;
+    }
+    
+    /**
+     * A row of the schema version table
+     */
+    private static class MigrationState {
+        long checkpoint;
+        boolean completed;
     }
 }
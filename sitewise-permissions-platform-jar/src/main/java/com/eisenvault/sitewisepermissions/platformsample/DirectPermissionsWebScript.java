@@ -16,491 +16,632 @@
 
 package com.eisenvault.sitewisepermissions.platformsample;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
-import org.alfresco.model.ContentModel;
-import org.alfresco.service.cmr.repository.NodeRef;
-import org.alfresco.service.cmr.repository.NodeService;
-import org.alfresco.service.cmr.repository.Path;
 import org.alfresco.service.cmr.security.AccessPermission;
-import org.alfresco.service.cmr.security.AuthorityService;
-import org.alfresco.service.cmr.security.PermissionService;
-import org.alfresco.service.cmr.security.PersonService;
+import org.alfresco.service.cmr.site.SiteInfo;
 import org.alfresco.service.cmr.site.SiteService;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.springframework.extensions.webscripts.Cache;
-import org.springframework.extensions.webscripts.DeclarativeWebScript;
-import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.AbstractWebScript;
 import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
 
-public class DirectPermissionsWebScript extends DeclarativeWebScript {
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Direct permissions report as JSON.
+ * Rows are streamed to the response as the document libraries are traversed, so memory use
+ * does not grow with the size of the report and the first rows are sent once the first
+ * site has been processed. The report counters follow the permissions array.
+ *
+ * With pageSize the report is returned page by page: each response carries a nextCursor
+ * that resumes the traversal at the site, node and row where the page ended.
+ *
+ * With source=index the rows are read from the permission report index instead of traversing
+ * the document libraries; the index is not paged.
+ *
+ * rootNodeRef or path limit the report to a subtree, which is then all that is traversed;
+ * role and nodeType limit it to some permissions and node types.
+ *
+ * With mode=summary no rows are returned, only counts per site, role and group (see
+ * {@link PermissionAggregates}), collected in the same traversal without building rows.
+ * With mode=profiles each node is listed once with its permission profile, and each profile
+ * once with its users (see {@link PermissionProfiles}); pages then count nodes. With
+ * mode=groups a group entry is one GROUP_ACE row, and the members of the groups in the report
+ * follow, each group and each user once (see {@link GroupMemberships}). With mode=effective
+ * the rows are what each user effectively holds, through inheritance, nested groups and
+ * denials (see {@link EffectivePermissions}).
+ *
+ * With async=true the report is not returned but queued as a background job (see
+ * {@link ReportJobService}), whose status and finished file are read from the report-jobs
+ * web script; the file holds the same JSON as the response would.
+ *
+ * Responses carry an ETag derived from the ACL change watermark (see {@link ReportResponseCache}):
+ * a request whose If-None-Match matches it gets a 304, and recently rendered reports are
+ * served from the response cache instead of being generated again.
+ */
+public class DirectPermissionsWebScript extends AbstractWebScript {
     private static Log logger = LogFactory.getLog(DirectPermissionsWebScript.class);
 
-    private NodeService nodeService;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int MAX_PAGE_SIZE = 5000;
+
     private SiteService siteService;
-    private PermissionService permissionService;
-    private AuthorityService authorityService;
-    private PersonService personService;
-    private LoginAuditService loginAuditService;
-    private PermissionAuditService permissionAuditService;
-
-    public void setNodeService(NodeService nodeService) {
-        this.nodeService = nodeService;
-    }
+    private PermissionReportGenerator permissionReportGenerator;
+    private ReportIndexService reportIndexService;
+    private ReportResponseCache reportResponseCache;
+    private ReportJobService reportJobService;
 
     public void setSiteService(SiteService siteService) {
         this.siteService = siteService;
     }
 
-    public void setPermissionService(PermissionService permissionService) {
-        this.permissionService = permissionService;
+    public void setPermissionReportGenerator(PermissionReportGenerator permissionReportGenerator) {
+        this.permissionReportGenerator = permissionReportGenerator;
     }
 
-    public void setAuthorityService(AuthorityService authorityService) {
-        this.authorityService = authorityService;
+    public void setReportIndexService(ReportIndexService reportIndexService) {
+        this.reportIndexService = reportIndexService;
     }
 
-    public void setPersonService(PersonService personService) {
-        this.personService = personService;
+    public void setReportResponseCache(ReportResponseCache reportResponseCache) {
+        this.reportResponseCache = reportResponseCache;
     }
 
-    public void setLoginAuditService(LoginAuditService loginAuditService) {
-        this.loginAuditService = loginAuditService;
+    public void setReportJobService(ReportJobService reportJobService) {
+        this.reportJobService = reportJobService;
     }
 
-    public void setPermissionAuditService(PermissionAuditService permissionAuditService) {
-        this.permissionAuditService = permissionAuditService;
-    }
+    @Override
+    public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException {
+        // Parse filter parameters
+        String siteShortName = req.getParameter("site");
+        String userStatusFilter = req.getParameter("userStatus"); // All, Active, Inactive
+        String fromDateFilter = req.getParameter("fromDate"); // yyyy-MM-dd format
+        String usernameSearch = req.getParameter("usernameSearch"); // partial match
+        String rootNodeRef = req.getParameter("rootNodeRef");
+        String path = req.getParameter("path"); // folder path below each document library
+        String roles = req.getParameter("role"); // comma-separated permission names
+        String nodeType = req.getParameter("nodeType"); // e.g. cm:folder
+        String mode = req.getParameter("mode"); // rows (default), summary, profiles, groups or effective
+        if (mode == null || mode.isEmpty()) {
+            mode = "rows";
+        }
 
-    protected Map<String, Object> executeImpl(WebScriptRequest req, Status status, Cache cache) {
-        Map<String, Object> model = new HashMap<String, Object>();
-        List<Map<String, String>> permissions = new ArrayList<Map<String, String>>();
-        int totalPermissions = 0;
-        int userPermissions = 0;
-        int groupPermissions = 0;
-        int effectivePermissions = 0;
-        int filteredPermissions = 0;
+        if (!mode.equals("rows") && !mode.equals("summary") && !mode.equals("profiles") && !mode.equals("groups") &&
+            !mode.equals("effective")) {
+            writeError(res, 400, "Invalid mode parameter. Must be 'rows', 'summary', 'profiles', 'groups' or 'effective'");
+            return;
+        }
+        boolean summaryMode = mode.equals("summary");
+        boolean profileMode = mode.equals("profiles");
+        boolean groupMode = mode.equals("groups");
+        boolean effectiveMode = mode.equals("effective");
+
+        // Validate user status filter
+        if (userStatusFilter != null && !userStatusFilter.isEmpty() &&
+            !userStatusFilter.equals("All") && !userStatusFilter.equals("Active") && !userStatusFilter.equals("Inactive")) {
+            writeError(res, 400, "Invalid userStatus parameter. Must be 'All', 'Active', or 'Inactive'");
+            return;
+        }
 
-        try {
-            // Parse filter parameters
-            String siteShortName = req.getParameter("site");
-            String userStatusFilter = req.getParameter("userStatus"); // All, Active, Inactive
-            String fromDateFilter = req.getParameter("fromDate"); // yyyy-MM-dd format
-            String usernameSearch = req.getParameter("usernameSearch"); // partial matchgit log --oneline main..origin/main
+        // Parse from date filter
+        Date fromDate = null;
+        if (fromDateFilter != null && !fromDateFilter.isEmpty()) {
+            try {
+                SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
+                fromDate = sdf.parse(fromDateFilter);
+            } catch (ParseException e) {
+                writeError(res, 400, "Invalid fromDate parameter. Must be in yyyy-MM-dd format");
+                return;
+            }
+        }
 
+        boolean allSites = siteShortName == null || siteShortName.isEmpty();
+        PermissionReportGenerator.ReportRequest request = new PermissionReportGenerator.ReportRequest();
+        request.setUserStatus(userStatusFilter);
+        request.setFromDate(fromDate);
+        request.setUsernameSearch(usernameSearch);
 
-            // Determine which sites to process
-            List<String> sitesToProcess = new ArrayList<String>();
-            if (siteShortName == null || siteShortName.isEmpty()) {
-                // No site specified - process all sites
-                List<org.alfresco.service.cmr.site.SiteInfo> allSites = siteService.listSites(null, null, 1000);
-                for (org.alfresco.service.cmr.site.SiteInfo siteInfo : allSites) {
-                    sitesToProcess.add(siteInfo.getShortName());
+        // Subtree, role and node type scope
+        try {
+            String rootSite = permissionReportGenerator.setScope(request, rootNodeRef, path, roles, nodeType);
+            if (rootSite != null) {
+                if (!allSites && !siteShortName.equals(rootSite)) {
+                    writeError(res, 400, "rootNodeRef is not in site " + siteShortName);
+                    return;
                 }
-                logger.info("No site specified, processing all " + sitesToProcess.size() + " sites");
-            } else {
-                // Specific site specified
-                sitesToProcess.add(siteShortName);
-            }
-
-            // Validate user status filter
-            if (userStatusFilter != null && !userStatusFilter.isEmpty() && 
-                !userStatusFilter.equals("All") && !userStatusFilter.equals("Active") && !userStatusFilter.equals("Inactive")) {
-                status.setCode(400);
-                model.put("success", false);
-                model.put("error", "Invalid userStatus parameter. Must be 'All', 'Active', or 'Inactive'");
-                return model;
+                siteShortName = rootSite;
+                allSites = false;
             }
+        } catch (IllegalArgumentException e) {
+            writeError(res, 400, e.getMessage());
+            return;
+        }
 
-            // Parse from date filter
-            Date fromDate = null;
-            if (fromDateFilter != null && !fromDateFilter.isEmpty()) {
-                try {
-                    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-                    fromDate = sdf.parse(fromDateFilter);
-                } catch (ParseException e) {
-                    status.setCode(400);
-                    model.put("success", false);
-                    model.put("error", "Invalid fromDate parameter. Must be in yyyy-MM-dd format");
-                    return model;
+        // Paging
+        String pageSizeParam = req.getParameter("pageSize");
+        if (pageSizeParam != null && !pageSizeParam.isEmpty()) {
+            try {
+                int pageSize = Integer.parseInt(pageSizeParam);
+                if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+                    throw new NumberFormatException();
                 }
+                request.setMaxRows(pageSize);
+            } catch (NumberFormatException e) {
+                writeError(res, 400, "Invalid pageSize parameter. Must be between 1 and " + MAX_PAGE_SIZE);
+                return;
             }
+        }
+        String cursor = req.getParameter("cursor");
+        boolean fromIndex = "index".equals(req.getParameter("source"));
+        boolean async = "true".equals(req.getParameter("async"));
+        if (async) {
+            if (request.getMaxRows() > 0 || (cursor != null && !cursor.isEmpty())) {
+                writeError(res, 400, "pageSize and cursor are not supported with async=true");
+                return;
+            }
+            if (!reportJobService.isEnabled()) {
+                writeError(res, 503, "Background report jobs are not enabled");
+                return;
+            }
+        }
+        if (summaryMode) {
+            if (request.getMaxRows() > 0 || (cursor != null && !cursor.isEmpty()) || fromIndex) {
+                writeError(res, 400, "pageSize, cursor and source=index are not supported with mode=summary");
+                return;
+            }
+            request.setAggregates(new PermissionAggregates());
+        }
+        if ((profileMode || groupMode || effectiveMode) && fromIndex) {
+            writeError(res, 400, "source=index is not supported with mode=" + mode);
+            return;
+        }
+        if (profileMode) {
+            request.setProfiles(new PermissionProfiles());
+        }
+        if (groupMode) {
+            request.setGroupMemberships(new GroupMemberships());
+        }
+        if (effectiveMode) {
+            request.setEffectivePermissions(new EffectivePermissions());
+        }
+        if (fromIndex) {
+            if (request.getMaxRows() > 0 || (cursor != null && !cursor.isEmpty())) {
+                writeError(res, 400, "pageSize and cursor are not supported with source=index");
+                return;
+            }
+            if (request.getRootNodeRef() != null || request.getPath() != null || request.getNodeType() != null) {
+                writeError(res, 400, "rootNodeRef, path and nodeType are not supported with source=index");
+                return;
+            }
+            if (!reportIndexService.isAvailable()) {
+                writeError(res, 503, "The permission report index is not available");
+                return;
+            }
+        }
+        if (cursor != null && !cursor.isEmpty()) {
+            PermissionReportGenerator.ReportPosition start;
+            try {
+                start = PermissionReportGenerator.ReportPosition.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                writeError(res, 400, "Invalid cursor parameter");
+                return;
+            }
+            if (!allSites && !siteShortName.equals(start.getSite())) {
+                writeError(res, 400, "The cursor does not belong to site " + siteShortName);
+                return;
+            }
+            if (!permissionReportGenerator.isResumable(start)) {
+                writeError(res, 409, "The report changed since the previous page was read, please start again");
+                return;
+            }
+            request.setStart(start);
+        }
 
-            // Process each site
-            for (String currentSiteName : sitesToProcess) {
-                try {
-                    NodeRef siteNodeRef = siteService.getSite(currentSiteName).getNodeRef();
-                    if (siteNodeRef == null) {
-                        logger.warn("Site " + currentSiteName + " not found, skipping");
-                        continue;
-                    }
-
-                    NodeRef documentLibrary = siteService.getContainer(currentSiteName, "documentLibrary");
-                    if (documentLibrary == null) {
-                        logger.warn("Document Library not found in site " + currentSiteName + ", skipping");
-                        continue;
-                    }
-
-                    // Get all nodes in the document library recursively
-                    List<NodeRef> allNodes = getAllNodesInContainer(documentLibrary);
-                    logger.info("Found " + allNodes.size() + " nodes in site " + currentSiteName);
-
-                    for (NodeRef nodeRef : allNodes) {
-                try {
-                    // Get all set permissions for this node
-                    Set<AccessPermission> setPermissions = permissionService.getAllSetPermissions(nodeRef);
-                    
-                    for (AccessPermission accessPermission : setPermissions) {
-                        totalPermissions++;
-                        String authorityName = accessPermission.getAuthority();
-                        
-                        // Skip GROUP_EVERYONE as it causes issues and is not useful for reporting
-                        if ("GROUP_EVERYONE".equals(authorityName)) {
-                            continue;
-                        }
-                        
-                        // Check if this is a user or group
-                        if (authorityName.startsWith("GROUP_")) {
-                            // This is a group permission - expand it for Phase 2
-                            groupPermissions++;
-                            logger.debug("Expanding group permission: " + authorityName + " on node: " + nodeRef);
-                            
-                            // Get all users in this group (recursive)
-                            Set<String> groupUsers = getUsersInGroup(authorityName, new HashSet<String>());
-                            
-                            for (String groupUser : groupUsers) {
-                                effectivePermissions++;
-                                
-                                // Apply filters
-                                if (shouldIncludePermission(groupUser, nodeRef, accessPermission, userStatusFilter, fromDate, usernameSearch)) {
-                                    filteredPermissions++;
-                                    
-                                                                    Map<String, String> permissionEntry = new HashMap<String, String>();
-                                    Map<String, String> groupPermissionEntry = new HashMap<String, String>();
-                                    groupPermissionEntry.put("username", groupUser);
-                                    groupPermissionEntry.put("nodePath", getNodePath(nodeRef));
-                                    groupPermissionEntry.put("role", accessPermission.getPermission());
-                                    groupPermissionEntry.put("nodeName", (String) nodeService.getProperty(nodeRef, ContentModel.PROP_NAME));
-                                //     groupPermissionEntry.put("nodeType", nodeService.getType(nodeRef).toString());
-                                    groupPermissionEntry.put("groupName", authorityName);
-                                    groupPermissionEntry.put("permissionType", "GROUP");
-                                    
-                                    groupPermissionEntry.put("site", currentSiteName);
-                                //     groupPermissionEntry.put("nodeRef", nodeRef.toString());
-                                    groupPermissionEntry.put("fromDate", getPermissionFromDate(nodeRef, accessPermission));
-                                    groupPermissionEntry.put("userStatus", getUserStatus(groupUser));
-                                    groupPermissionEntry.put("userLogin", getLastLoginDate(groupUser));
-                                    
-                                    permissions.add(groupPermissionEntry);
-                                }
-                            }
-                        } else {
-                            // This is a user permission - include it
-                            userPermissions++;
-                            
-                            // Apply filters
-                            if (shouldIncludePermission(authorityName, nodeRef, accessPermission, userStatusFilter, fromDate, usernameSearch)) {
-                                filteredPermissions++;
-                                
-                                Map<String, String> permissionEntry = new HashMap<String, String>();
-                                permissionEntry.put("username", authorityName);
-                                permissionEntry.put("nodePath", getNodePath(nodeRef));
-                                permissionEntry.put("role", accessPermission.getPermission());
-                                permissionEntry.put("nodeName", (String) nodeService.getProperty(nodeRef, ContentModel.PROP_NAME));
-                                // permissionEntry.put("nodeType", nodeService.getType(nodeRef).toString());
-                                permissionEntry.put("groupName", "");
-                                permissionEntry.put("permissionType", "DIRECT");
-                                
-                                permissionEntry.put("site", currentSiteName);
-                                // permissionEntry.put("nodeRef", nodeRef.toString());
-                                permissionEntry.put("fromDate", getPermissionFromDate(nodeRef, accessPermission));
-                                permissionEntry.put("userStatus", getUserStatus(authorityName));
-                                permissionEntry.put("userLogin", getLastLoginDate(authorityName));
-                                
-                                permissions.add(permissionEntry);
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    logger.warn("Error processing permissions for node " + nodeRef + ": " + e.getMessage());
-                }
-                    } // End of node processing loop
-                } catch (Exception e) {
-                    logger.warn("Error processing site " + currentSiteName + ": " + e.getMessage());
+        try {
+            // Determine which sites to process
+            List<String> sitesToProcess = new ArrayList<String>();
+            if (allSites) {
+                List<SiteInfo> sites = siteService.listSites(null, null, 1000);
+                for (SiteInfo siteInfo : sites) {
+                    sitesToProcess.add(siteInfo.getShortName());
                 }
-            } // End of site processing loop
-
-            model.put("success", true);
-            if (siteShortName != null && !siteShortName.isEmpty()) {
-                model.put("site", siteShortName);
-            } else {
-                model.put("site", "all");
-                model.put("sitesProcessed", sitesToProcess.size());
-            }
-            // Note: totalNodes is not available for all-sites queries as it varies per site
-            model.put("totalNodes", 0);
-            model.put("totalPermissions", totalPermissions);
-            model.put("userPermissions", userPermissions);
-            model.put("groupPermissions", groupPermissions);
-            model.put("effectivePermissions", effectivePermissions);
-            model.put("filteredPermissions", filteredPermissions);
-            model.put("permissions", permissions);
-            
-            // Add filter information to response
-            Map<String, Object> filters = new HashMap<String, Object>();
-            filters.put("userStatus", userStatusFilter != null ? userStatusFilter : "All");
-            filters.put("fromDate", fromDateFilter);
-            filters.put("usernameSearch", usernameSearch);
-            model.put("appliedFilters", filters);
-
-            if (siteShortName != null && !siteShortName.isEmpty()) {
-                logger.info("Direct permissions report for site " + siteShortName + 
-                           ": " + permissions.size() + " permissions found after filtering (direct + group-based)");
+                // Stable site order so paged reports can be resumed
+                Collections.sort(sitesToProcess);
+                logger.info("No site specified, processing all " + sitesToProcess.size() + " sites");
             } else {
-                logger.info("Direct permissions report for all sites: " + permissions.size() + 
-                           " permissions found after filtering (direct + group-based)");
+                sitesToProcess.add(siteShortName);
             }
-
+            request.setSites(sitesToProcess);
         } catch (Exception e) {
-            status.setCode(500);
-            model.put("success", false);
-            model.put("error", "Failed to get direct permissions: " + e.getMessage());
             logger.error("Error in DirectPermissionsWebScript: " + e.getMessage(), e);
+            writeError(res, 500, "Failed to get direct permissions: " + e.getMessage());
+            return;
         }
 
-        return model;
-    }
-
-    private List<NodeRef> getAllNodesInContainer(NodeRef container) {
-        List<NodeRef> allNodes = new ArrayList<NodeRef>();
-        allNodes.add(container); // Include the container itself
-        
-        List<org.alfresco.service.cmr.repository.ChildAssociationRef> childAssocs = nodeService.getChildAssocs(container);
-        for (org.alfresco.service.cmr.repository.ChildAssociationRef assoc : childAssocs) {
-            NodeRef child = assoc.getChildRef();
-            allNodes.add(child);
-            
-            // Recursively get all children
-            if (nodeService.getType(child).equals(ContentModel.TYPE_FOLDER)) {
-                allNodes.addAll(getAllNodesInContainer(child));
+        SortedMap<String, String> cacheKey = new TreeMap<String, String>();
+        cacheKey.put("site", siteShortName);
+        cacheKey.put("userStatus", userStatusFilter);
+        cacheKey.put("fromDate", fromDateFilter);
+        cacheKey.put("usernameSearch", usernameSearch);
+        cacheKey.put("rootNodeRef", rootNodeRef);
+        cacheKey.put("path", path);
+        cacheKey.put("role", roles);
+        cacheKey.put("nodeType", nodeType);
+        cacheKey.put("pageSize", pageSizeParam);
+        cacheKey.put("cursor", cursor);
+        cacheKey.put("source", fromIndex ? "index" : "live");
+        cacheKey.put("mode", mode);
+        if (async) {
+            submitJob(res, request, cacheKey);
+            return;
+        }
+        String etag = reportResponseCache.getETag("json", cacheKey);
+        if (etag != null) {
+            res.setHeader("ETag", etag);
+            res.setHeader("Cache-Control", "private, no-cache");
+            if (reportResponseCache.isNotModified(req.getHeader("If-None-Match"), etag)) {
+                res.setStatus(304);
+                return;
             }
         }
-        
-        return allNodes;
-    }
 
-    private String getNodePath(NodeRef nodeRef) {
+        res.setContentType("application/json");
+        res.setContentEncoding("UTF-8");
+        ReportResponseCache.CachedResponse cached = reportResponseCache.get(etag);
+        if (cached != null) {
+            res.getOutputStream().write(cached.getBody());
+            return;
+        }
+        ByteArrayOutputStream capture = reportResponseCache.newCapture();
+        String error;
         try {
-            Path path = nodeService.getPath(nodeRef);
-            return path.toDisplayPath(nodeService, permissionService);
-        } catch (Exception e) {
-            logger.warn("Could not get path for node " + nodeRef + ": " + e.getMessage());
-            return "Unknown Path";
+            error = writeReport(reportResponseCache.capture(res.getWriter(), capture), request, cacheKey, null);
+        } catch (IOException e) {
+            // Client went away - nothing more can be written
+            logger.debug("Stopping direct permissions report: " + e.getMessage());
+            return;
+        }
+        if (error == null) {
+            reportResponseCache.put(etag, reportResponseCache.getCaptured(capture));
         }
     }
 
-    private Set<String> getUsersInGroup(String groupName, Set<String> visitedGroups) {
-        Set<String> users = new HashSet<String>();
-        
-        // Avoid infinite loops by tracking visited groups
-        if (visitedGroups.contains(groupName)) {
-            logger.warn("Circular group reference detected: " + groupName);
-            return users;
-        }
-        
-        visitedGroups.add(groupName);
-        
+    /**
+     * Queue the report as a background job, whose file holds the same JSON as the response
+     * would, and answer with the job's status
+     */
+    private void submitJob(WebScriptResponse res, final PermissionReportGenerator.ReportRequest request,
+                           final SortedMap<String, String> parameters) throws IOException {
+        String site = parameters.get("site");
+        String fileName = "permissions_" + (site != null && !site.isEmpty() ? site : "all_sites") +
+                          (parameters.get("mode").equals("rows") ? "" : "_" + parameters.get("mode")) + ".json";
+        ReportJobService.ReportJob job;
         try {
-            // Get all authorities in this group
-            Set<String> containedAuthorities = authorityService.getContainedAuthorities(null, groupName, true);
-            logger.debug("Group " + groupName + " contains " + containedAuthorities.size() + " authorities");
-            
-            for (String authority : containedAuthorities) {
-                if (authority.startsWith("GROUP_")) {
-                    // This is a nested group - recurse
-                    Set<String> nestedUsers = getUsersInGroup(authority, visitedGroups);
-                    users.addAll(nestedUsers);
-                } else {
-                    // This is a user - add to the set
-                    users.add(authority);
+            job = reportJobService.submit("json", fileName, "application/json", parameters, new ReportJobService.ReportTask() {
+                public void write(OutputStream out, ReportJobService.ReportJob job) throws Exception {
+                    job.setSitesTotal(request.getSites().size());
+                    Writer writer = new OutputStreamWriter(out, "UTF-8");
+                    String error = writeReport(writer, request, parameters, job);
+                    writer.flush();
+                    if (error != null) {
+                        throw new IllegalStateException(error);
+                    }
                 }
-            }
-        } catch (Exception e) {
-            logger.warn("Error expanding group " + groupName + ": " + e.getMessage());
+            });
+        } catch (ReportJobService.JobLimitException e) {
+            writeError(res, 429, e.getMessage());
+            return;
         }
-        
-        return users;
+        ReportJobsWebScript.writeJob(res, 202, job);
     }
 
     /**
-     * Check if a permission should be included based on the applied filters
+     * Write the report, streaming the rows as they are produced
+     * @param parameters the report's request parameters, as in the cache key
+     * @param job the background job writing the report, or null when writing the response
+     * @return null, or the error reported in the body if the report failed
+     * @throws IOException if the report cannot be written, e.g. because the client went away
      */
-    private boolean shouldIncludePermission(String username, NodeRef nodeRef, AccessPermission accessPermission, 
-                                          String userStatusFilter, Date fromDate, String usernameSearch) {
+    private String writeReport(Writer writer, PermissionReportGenerator.ReportRequest request,
+                               Map<String, String> parameters, ReportJobService.ReportJob job) throws IOException {
+        String siteShortName = parameters.get("site");
+        boolean allSites = siteShortName == null || siteShortName.isEmpty();
+        String mode = parameters.get("mode");
+        boolean summaryMode = mode.equals("summary");
+        boolean profileMode = mode.equals("profiles");
+        boolean groupMode = mode.equals("groups");
+        boolean fromIndex = "index".equals(parameters.get("source"));
+        final JsonGenerator json = JSON_FACTORY.createGenerator(writer);
+
+        json.writeStartObject();
+        json.writeStringField("site", allSites ? "all" : siteShortName);
+        if (!summaryMode) {
+            json.writeArrayFieldStart(profileMode ? "nodes" : "permissions");
+        }
+        // Profiles in the order the report's nodes refer to them, with their node counts
+        final Map<String, Integer> profileNodes = profileMode ? new LinkedHashMap<String, Integer>() : null;
+        // Groups whose entries are in the report
+        final Set<String> groups = groupMode ? new TreeSet<String>() : null;
+
+        PermissionReportGenerator.ReportSummary summary = null;
+        String error = null;
         try {
-            // Username search filter
-            if (usernameSearch != null && !usernameSearch.isEmpty()) {
-                if (!username.toLowerCase().contains(usernameSearch.toLowerCase())) {
-                    // Also check email if available
-                    String userEmail = getUserEmail(username);
-                    if (userEmail == null || !userEmail.toLowerCase().contains(usernameSearch.toLowerCase())) {
-                        return false;
+            PermissionReportGenerator.RowHandler handler = new PermissionReportGenerator.RowHandler() {
+                @Override
+                public boolean handleRow(PermissionRow row) throws IOException {
+                    if (profileNodes != null) {
+                        writeNodeRow(json, row);
+                        Integer nodes = profileNodes.get(row.getProfile());
+                        profileNodes.put(row.getProfile(), nodes != null ? nodes + 1 : 1);
+                    } else {
+                        writeRow(json, row);
+                        if (groups != null && PermissionRow.TYPE_GROUP_ACE.equals(row.getPermissionType())) {
+                            groups.add(row.getGroupName());
+                        }
                     }
+                    return true;
                 }
-            }
 
-            // User status filter
-            if (userStatusFilter != null && !userStatusFilter.isEmpty() && !userStatusFilter.equals("All")) {
-                String userStatus = getUserStatus(username);
-                if (!userStatusFilter.equals(userStatus)) {
-                    return false;
+                @Override
+                public void siteCompleted(String site) throws IOException {
+                    json.flush();
                 }
+            };
+            if (job != null) {
+                handler = job.track(handler);
             }
+            summary = fromIndex ? reportIndexService.generate(request, handler)
+                                : permissionReportGenerator.generate(request, handler);
+        } catch (IOException e) {
+            // The output is gone - nothing more can be written
+            throw e;
+        } catch (PermissionReportGenerator.StalePositionException e) {
+            error = "The report changed since the previous page was read, please start again";
+        } catch (Exception e) {
+            // Headers are already sent, so report the failure inside the body
+            logger.error("Error in DirectPermissionsWebScript: " + e.getMessage(), e);
+            error = "Failed to get direct permissions: " + e.getMessage();
+        }
+        if (!summaryMode) {
+            json.writeEndArray();
+        }
+        if (summaryMode && error == null) {
+            writeAggregates(json, request.getAggregates());
+        }
+        if (profileMode && error == null) {
+            writeProfiles(json, request.getProfiles(), profileNodes);
+        }
+        if (groupMode && error == null) {
+            writeGroupMemberships(json, request.getGroupMemberships(), groups);
+        }
 
-            // From date filter
-            if (fromDate != null) {
-                Date permissionDate = getPermissionDate(nodeRef, accessPermission);
-                if (permissionDate != null && permissionDate.before(fromDate)) {
-                    return false;
+        json.writeBooleanField("success", error == null);
+        if (error != null) {
+            json.writeStringField("error", error);
+        } else {
+            if (allSites) {
+                json.writeNumberField("sitesProcessed", summary.getSitesProcessed());
+            }
+            // Note: totalNodes is not available for all-sites queries as it varies per site
+            json.writeNumberField("totalNodes", 0);
+            json.writeNumberField("totalPermissions", summary.getTotalPermissions());
+            json.writeNumberField("userPermissions", summary.getUserPermissions());
+            json.writeNumberField("groupPermissions", summary.getGroupPermissions());
+            json.writeNumberField("effectivePermissions", summary.getEffectivePermissions());
+            json.writeNumberField("filteredPermissions", summary.getFilteredPermissions());
+            if (request.getMaxRows() > 0) {
+                PermissionReportGenerator.ReportPosition next = summary.getNextPosition();
+                json.writeBooleanField("hasMore", next != null);
+                if (next != null) {
+                    json.writeStringField("nextCursor", next.encode());
+                } else {
+                    json.writeNullField("nextCursor");
                 }
             }
 
-            return true;
-        } catch (Exception e) {
-            logger.warn("Error applying filters for user " + username + ": " + e.getMessage());
-            return true; // Include if filter fails
+            // Add filter information to response
+            json.writeObjectFieldStart("appliedFilters");
+            String userStatusFilter = parameters.get("userStatus");
+            json.writeStringField("userStatus", userStatusFilter != null ? userStatusFilter : "All");
+            json.writeStringField("fromDate", parameters.get("fromDate"));
+            json.writeStringField("usernameSearch", parameters.get("usernameSearch"));
+            json.writeStringField("rootNodeRef", parameters.get("rootNodeRef"));
+            json.writeStringField("path", parameters.get("path"));
+            json.writeStringField("role", parameters.get("role"));
+            json.writeStringField("nodeType", parameters.get("nodeType"));
+            json.writeEndObject();
+            json.writeStringField("source", fromIndex ? "index" : "live");
+            json.writeStringField("mode", mode);
+
+            logger.info("Direct permissions report for " + (allSites ? "all sites" : "site " + siteShortName) +
+                       ": " + summary.getFilteredPermissions() + " permissions found after filtering (direct + group-based)");
         }
+        json.writeEndObject();
+        json.flush();
+        return error;
     }
 
     /**
-     * Get user email address
+     * Write the summary sections: each site with its roles, the roles over all sites, the
+     * groups with their member counts, and the totals
      */
-    private String getUserEmail(String username) {
-        try {
-            if (personService.personExists(username)) {
-                NodeRef personNode = personService.getPerson(username);
-                if (personNode != null && nodeService.exists(personNode)) {
-                    Object emailProp = nodeService.getProperty(personNode, ContentModel.PROP_EMAIL);
-                    if (emailProp != null) {
-                        return emailProp.toString();
-                    }
-                }
-            }
-            return null;
-        } catch (Exception e) {
-            logger.warn("Error getting email for user " + username + ": " + e.getMessage());
-            return null;
+    private void writeAggregates(JsonGenerator json, PermissionAggregates aggregates) throws IOException {
+        json.writeArrayFieldStart("sites");
+        for (Map.Entry<String, PermissionAggregates.SiteCounts> site : aggregates.getSites().entrySet()) {
+            json.writeStartObject();
+            json.writeStringField("site", site.getKey());
+            json.writeNumberField("nodes", site.getValue().getNodes());
+            json.writeNumberField("users", site.getValue().getUsers());
+            writeCounts(json, site.getValue());
+            writeRoles(json, site.getValue().getRoles());
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+
+        writeRoles(json, aggregates.getRoles());
+
+        json.writeArrayFieldStart("groups");
+        for (Map.Entry<String, PermissionAggregates.GroupCounts> group : aggregates.getGroups().entrySet()) {
+            json.writeStartObject();
+            json.writeStringField("group", group.getKey());
+            json.writeNumberField("members", group.getValue().getMembers());
+            json.writeNumberField("entries", group.getValue().getEntries());
+            json.writeEndObject();
         }
+        json.writeEndArray();
+
+        json.writeObjectFieldStart("totals");
+        writeCounts(json, aggregates.getTotals());
+        json.writeEndObject();
     }
 
-    /**
-     * Get user status (Active/Inactive)
-     */
-    private String getUserStatus(String username) {
-        try {
-            if (personService.personExists(username)) {
-                NodeRef personNode = personService.getPerson(username);
-                if (personNode != null && nodeService.exists(personNode)) {
-                    // For now, assume all users are active since Alfresco doesn't expose disabled status easily
-                    // In a real implementation, you would check the user's enabled status
-                    return "Active";
-                }
-            }
-            return "Unknown";
-        } catch (Exception e) {
-            logger.warn("Error getting user status for " + username + ": " + e.getMessage());
-            return "Error";
+    private void writeRoles(JsonGenerator json, Map<String, PermissionAggregates.RoleCounts> roles) throws IOException {
+        json.writeArrayFieldStart("roles");
+        for (Map.Entry<String, PermissionAggregates.RoleCounts> role : roles.entrySet()) {
+            json.writeStartObject();
+            json.writeStringField("role", role.getKey());
+            writeCounts(json, role.getValue());
+            json.writeEndObject();
         }
+        json.writeEndArray();
+    }
+
+    private void writeCounts(JsonGenerator json, PermissionAggregates.RoleCounts counts) throws IOException {
+        json.writeNumberField("entries", counts.getEntries());
+        json.writeNumberField("directEntries", counts.getDirectEntries());
+        json.writeNumberField("groupEntries", counts.getGroupEntries());
+        json.writeNumberField("effectivePermissions", counts.getEffectivePermissions());
     }
 
     /**
-     * Get permission grant date
+     * Write the profiles the report's nodes refer to, each with its entries and users
      */
-    private Date getPermissionDate(NodeRef nodeRef, AccessPermission accessPermission) {
-        try {
-            // Try to get from permission audit service first
-            if (permissionAuditService != null) {
-                PermissionAuditService.PermissionAuditEntry entry = permissionAuditService.getLatestPermissionGrant(
-                    nodeRef, accessPermission.getAuthority(), accessPermission.getPermission());
-                if (entry != null && entry.getDateGranted() != null) {
-                    return entry.getDateGranted();
-                }
+    private void writeProfiles(JsonGenerator json, PermissionProfiles profiles,
+                               Map<String, Integer> profileNodes) throws IOException {
+        json.writeArrayFieldStart("profiles");
+        for (Map.Entry<String, Integer> profileNode : profileNodes.entrySet()) {
+            PermissionProfiles.Profile profile = profiles.getProfile(profileNode.getKey());
+            json.writeStartObject();
+            json.writeStringField("profile", profile.getId());
+            json.writeNumberField("nodes", profileNode.getValue());
+            json.writeArrayFieldStart("entries");
+            for (AccessPermission entry : profile.getEntries()) {
+                json.writeStartObject();
+                json.writeStringField("authority", entry.getAuthority());
+                json.writeStringField("role", entry.getPermission());
+                json.writeEndObject();
             }
-            
-            // Fallback to node creation date
-            Object createdProp = nodeService.getProperty(nodeRef, ContentModel.PROP_CREATED);
-            if (createdProp != null) {
-                return (Date) createdProp;
+            json.writeEndArray();
+            json.writeArrayFieldStart("users");
+            for (PermissionRow user : profile.getUsers()) {
+                json.writeStartObject();
+                json.writeStringField("username", nvl(user.getUsername()));
+                json.writeStringField("role", nvl(user.getRole()));
+                json.writeStringField("userStatus", nvl(user.getUserStatus()));
+                json.writeStringField("userLogin", nvl(user.getUserLogin()));
+                json.writeStringField("groupName", nvl(user.getGroupName()));
+                json.writeStringField("permissionType", nvl(user.getPermissionType()));
+                json.writeEndObject();
             }
-            return null;
-        } catch (Exception e) {
-            logger.warn("Error getting permission date: " + e.getMessage());
-            return null;
+            json.writeEndArray();
+            json.writeEndObject();
         }
+        json.writeEndArray();
     }
 
-    private String getPermissionFromDate(NodeRef nodeRef, AccessPermission accessPermission) {
-        try {
-            // Try to get from permission audit service first
-            if (permissionAuditService != null) {
-                PermissionAuditService.PermissionAuditEntry entry = permissionAuditService.getLatestPermissionGrant(
-                    nodeRef, accessPermission.getAuthority(), accessPermission.getPermission());
-                if (entry != null && entry.getDateGranted() != null) {
-                    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-                    return sdf.format(entry.getDateGranted());
-                }
-            }
-            
-            // Fallback to node creation date
-            Object createdProp = nodeService.getProperty(nodeRef, ContentModel.PROP_CREATED);
-            if (createdProp != null) {
-                SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-                return sdf.format((Date) createdProp);
+    /**
+     * Write the members of each group in the report, then the status and last login of each
+     * distinct member
+     */
+    private void writeGroupMemberships(JsonGenerator json, GroupMemberships memberships,
+                                       Set<String> groups) throws IOException {
+        Set<String> users = new TreeSet<String>();
+        json.writeArrayFieldStart("groups");
+        for (String group : groups) {
+            List<String> members = memberships.getMembers(group);
+            json.writeStartObject();
+            json.writeStringField("group", group);
+            json.writeArrayFieldStart("members");
+            for (String member : members) {
+                json.writeString(member);
             }
-            return "Unknown";
-        } catch (Exception e) {
-            logger.warn("Error getting permission from date: " + e.getMessage());
-            return "Unknown";
+            json.writeEndArray();
+            json.writeEndObject();
+            users.addAll(members);
         }
+        json.writeEndArray();
+
+        json.writeArrayFieldStart("users");
+        for (String username : users) {
+            PermissionRow user = memberships.getUser(username);
+            json.writeStartObject();
+            json.writeStringField("username", username);
+            json.writeStringField("userStatus", nvl(user.getUserStatus()));
+            json.writeStringField("userLogin", nvl(user.getUserLogin()));
+            json.writeEndObject();
+        }
+        json.writeEndArray();
     }
 
-    private String getLastLoginDate(String username) {
-        try {
-            // Try to get login date from audit service first
-            if (loginAuditService != null) {
-                String auditLoginDate = loginAuditService.getLastLoginDate(username);
-                if (auditLoginDate != null && !auditLoginDate.contains("not available") && !auditLoginDate.contains("No login audit data")) {
-                    return auditLoginDate;
-                }
-            }
-            
-            // Fallback to user creation date
-            if (personService.personExists(username)) {
-                NodeRef personNode = personService.getPerson(username);
-                if (personNode != null && nodeService.exists(personNode)) {
-                    Object createdProp = nodeService.getProperty(personNode, ContentModel.PROP_CREATED);
-                    if (createdProp != null) {
-                        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                        return sdf.format((Date) createdProp) + " (user created)";
-                    }
-                }
-            }
-            
-            return "No login data available";
-            
-        } catch (Exception e) {
-            logger.warn("Error getting last login for " + username + ": " + e.getMessage());
-            return "Error retrieving login data";
-        }
+    private void writeNodeRow(JsonGenerator json, PermissionRow row) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("site", nvl(row.getSite()));
+        json.writeStringField("nodePath", nvl(row.getNodePath()));
+        json.writeStringField("nodeName", nvl(row.getNodeName()));
+        json.writeStringField("nodeRef", nvl(row.getNodeRef()));
+        json.writeStringField("profile", nvl(row.getProfile()));
+        json.writeEndObject();
+    }
+
+    private void writeRow(JsonGenerator json, PermissionRow row) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("username", nvl(row.getUsername()));
+        json.writeStringField("site", nvl(row.getSite()));
+        json.writeStringField("nodePath", nvl(row.getNodePath()));
+        json.writeStringField("role", nvl(row.getRole()));
+        json.writeStringField("nodeName", nvl(row.getNodeName()));
+        json.writeStringField("nodeType", nvl(row.getNodeType()));
+        json.writeStringField("nodeRef", nvl(row.getNodeRef()));
+        json.writeStringField("fromDate", nvl(row.getFromDate()));
+        json.writeStringField("userStatus", nvl(row.getUserStatus()));
+        json.writeStringField("userLogin", nvl(row.getUserLogin()));
+        json.writeStringField("groupName", nvl(row.getGroupName()));
+        json.writeStringField("permissionType", nvl(row.getPermissionType()));
+        json.writeEndObject();
+    }
+
+    private String nvl(String value) {
+        return value != null ? value : "";
     }
 
+    private void writeError(WebScriptResponse res, int status, String message) throws IOException {
+        res.setStatus(status);
+        res.setContentType("application/json");
+        JsonGenerator json = JSON_FACTORY.createGenerator(res.getWriter());
+        json.writeStartObject();
+        json.writeBooleanField("success", false);
+        json.writeStringField("error", message);
+        json.writeEndObject();
+        json.flush();
+    }
 }
@@ -19,76 +19,76 @@ package com.eisenvault.sitewisepermissions.platformsample;
 import org.springframework.extensions.webscripts.AbstractWebScript;
 import org.springframework.extensions.webscripts.WebScriptRequest;
 import org.springframework.extensions.webscripts.WebScriptResponse;
-import org.alfresco.service.cmr.repository.NodeRef;
-import org.alfresco.service.cmr.repository.NodeService;
-import org.alfresco.service.cmr.repository.Path;
-import org.alfresco.service.namespace.QName;
 import org.alfresco.service.cmr.site.SiteService;
-import org.alfresco.service.cmr.security.PermissionService;
-import org.alfresco.service.cmr.security.AuthorityService;
-import org.alfresco.service.cmr.security.PersonService;
-import org.alfresco.service.cmr.audit.AuditService;
-import org.alfresco.model.ContentModel;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFRow;
-import org.apache.poi.xssf.usermodel.XSSFCell;
-import org.apache.poi.xssf.usermodel.XSSFCellStyle;
-import org.apache.poi.xssf.usermodel.XSSFFont;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.IndexedColors;
 import org.apache.poi.ss.usermodel.BorderStyle;
 import org.apache.poi.ss.usermodel.FillPatternType;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.Map;
 import java.util.Set;
-import java.util.HashSet;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.ArrayList;
 import java.util.Date;
 import java.text.SimpleDateFormat;
-import org.alfresco.service.cmr.security.AccessPermission;
 import java.text.ParseException;
 
 public class DirectPermissionsXlsxWebScript extends AbstractWebScript {
     private static Log logger = LogFactory.getLog(DirectPermissionsXlsxWebScript.class);
 
-    private NodeService nodeService;
+    private static final String CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    /**
+     * Rows kept in memory per sheet; older rows are flushed to a temporary file, so a report
+     * of any size is written in bounded heap. Columns get fixed widths (in characters) because
+     * autosizing needs every row in memory.
+     */
+    private static final int ROW_ACCESS_WINDOW = 100;
+    private static final int[] PERMISSION_WIDTHS = {20, 20, 30, 30, 20, 12, 20, 25, 60};
+    private static final int[] NODE_WIDTHS = {20, 30, 60, 10};
+    private static final int[] PROFILE_WIDTHS = {10, 8, 20, 30, 12, 20, 25, 15};
+    private static final int[] GROUP_MEMBER_WIDTHS = {25, 20, 12, 20};
+
     private SiteService siteService;
-    private PermissionService permissionService;
-    private AuthorityService authorityService;
-    private PersonService personService;
-    private LoginAuditService loginAuditService;
-    private PermissionAuditService permissionAuditService; // Added for Phase 5
-    public void setNodeService(NodeService nodeService) {
-        this.nodeService = nodeService;
-    }
+    private PermissionReportGenerator permissionReportGenerator;
+    private ReportIndexService reportIndexService;
+    private ReportResponseCache reportResponseCache;
+    private ReportJobService reportJobService;
 
     public void setSiteService(SiteService siteService) {
         this.siteService = siteService;
     }
 
-    public void setPermissionService(PermissionService permissionService) {
-        this.permissionService = permissionService;
-    }
-
-    public void setAuthorityService(AuthorityService authorityService) {
-        this.authorityService = authorityService;
+    public void setPermissionReportGenerator(PermissionReportGenerator permissionReportGenerator) {
+        this.permissionReportGenerator = permissionReportGenerator;
     }
 
-    public void setPersonService(PersonService personService) {
-        this.personService = personService;
+    public void setReportIndexService(ReportIndexService reportIndexService) {
+        this.reportIndexService = reportIndexService;
     }
 
-    public void setLoginAuditService(LoginAuditService loginAuditService) {
-        this.loginAuditService = loginAuditService;
+    public void setReportResponseCache(ReportResponseCache reportResponseCache) {
+        this.reportResponseCache = reportResponseCache;
     }
 
-    public void setPermissionAuditService(PermissionAuditService permissionAuditService) {
-        this.permissionAuditService = permissionAuditService;
+    public void setReportJobService(ReportJobService reportJobService) {
+        this.reportJobService = reportJobService;
     }
 
     public void execute(WebScriptRequest req, WebScriptResponse res) {
@@ -98,6 +98,58 @@ public class DirectPermissionsXlsxWebScript extends AbstractWebScript {
             String userStatusFilter = req.getParameter("userStatus"); // All, Active, Inactive
             String fromDateFilter = req.getParameter("fromDate"); // yyyy-MM-dd format
             String usernameSearch = req.getParameter("usernameSearch"); // partial match
+            String rootNodeRef = req.getParameter("rootNodeRef");
+            String path = req.getParameter("path"); // folder path below each document library
+            String roles = req.getParameter("role"); // comma-separated permission names
+            String nodeType = req.getParameter("nodeType"); // e.g. cm:folder
+            boolean fromIndex = "index".equals(req.getParameter("source")); // index or live (default)
+            boolean async = "true".equals(req.getParameter("async")); // queue as a background job
+            String mode = req.getParameter("mode"); // rows (default), profiles, groups or effective
+            if (mode == null || mode.isEmpty()) {
+                mode = "rows";
+            }
+            boolean profileMode = mode.equals("profiles");
+            boolean groupMode = mode.equals("groups");
+            boolean effectiveMode = mode.equals("effective");
+
+            if (!mode.equals("rows") && !profileMode && !groupMode && !effectiveMode) {
+                writeError(res, 400, "Invalid mode parameter. Must be 'rows', 'profiles', 'groups' or 'effective'");
+                return;
+            }
+            if ((profileMode || groupMode || effectiveMode) && fromIndex) {
+                writeError(res, 400, "source=index is not supported with mode=" + mode);
+                return;
+            }
+
+            if (async && !reportJobService.isEnabled()) {
+                writeError(res, 503, "Background report jobs are not enabled");
+                return;
+            }
+
+            if (fromIndex && !reportIndexService.isAvailable()) {
+                res.setStatus(503);
+                res.setContentType("application/json");
+                res.getWriter().write("{\"success\":false,\"error\":\"The permission report index is not available\"}");
+                return;
+            }
+
+            // Subtree, role and node type scope
+            PermissionReportGenerator.ReportRequest request = new PermissionReportGenerator.ReportRequest();
+            try {
+                String rootSite = permissionReportGenerator.setScope(request, rootNodeRef, path, roles, nodeType);
+                if (rootSite != null) {
+                    if (siteShortName != null && !siteShortName.isEmpty() && !siteShortName.equals(rootSite)) {
+                        throw new IllegalArgumentException("rootNodeRef is not in site " + siteShortName);
+                    }
+                    siteShortName = rootSite;
+                }
+                if (fromIndex && (request.getRootNodeRef() != null || request.getPath() != null || request.getNodeType() != null)) {
+                    throw new IllegalArgumentException("rootNodeRef, path and nodeType are not supported with source=index");
+                }
+            } catch (IllegalArgumentException e) {
+                writeError(res, 400, e.getMessage());
+                return;
+            }
 
             // Determine which sites to process
             List<String> sitesToProcess = new ArrayList<String>();
@@ -112,6 +164,7 @@ public class DirectPermissionsXlsxWebScript extends AbstractWebScript {
                 // Specific site specified
                 sitesToProcess.add(siteShortName);
             }
+            Collections.sort(sitesToProcess);
 
             // Validate user status filter
             if (userStatusFilter != null && !userStatusFilter.isEmpty() && 
@@ -136,8 +189,7 @@ public class DirectPermissionsXlsxWebScript extends AbstractWebScript {
                 }
             }
 
-            // Generate XLSX file with filters
-            res.setContentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+            // File name from the filters
             String filename = "permissions";
             if (siteShortName != null && !siteShortName.isEmpty()) {
                 filename += "_" + siteShortName;
@@ -153,13 +205,68 @@ public class DirectPermissionsXlsxWebScript extends AbstractWebScript {
             if (usernameSearch != null && !usernameSearch.isEmpty()) {
                 filename += "_search_" + usernameSearch.replaceAll("[^a-zA-Z0-9]", "");
             }
+            if (!mode.equals("rows")) {
+                filename += "_" + mode;
+            }
             filename += ".xlsx";
+
+            request.setSites(sitesToProcess);
+            request.setUserStatus(userStatusFilter);
+            request.setFromDate(fromDate);
+            request.setUsernameSearch(usernameSearch);
+            if (profileMode) {
+                request.setProfiles(new PermissionProfiles());
+            }
+            if (groupMode) {
+                request.setGroupMemberships(new GroupMemberships());
+            }
+            if (effectiveMode) {
+                request.setEffectivePermissions(new EffectivePermissions());
+            }
+
+            // Answer conditional requests from the ACL change watermark
+            SortedMap<String, String> cacheKey = new TreeMap<String, String>();
+            cacheKey.put("site", siteShortName);
+            cacheKey.put("userStatus", userStatusFilter);
+            cacheKey.put("fromDate", fromDateFilter);
+            cacheKey.put("usernameSearch", usernameSearch);
+            cacheKey.put("rootNodeRef", rootNodeRef);
+            cacheKey.put("path", path);
+            cacheKey.put("role", roles);
+            cacheKey.put("nodeType", nodeType);
+            cacheKey.put("source", fromIndex ? "index" : "live");
+            cacheKey.put("mode", mode);
+            if (async) {
+                submitJob(res, request, filename, fromIndex, cacheKey);
+                return;
+            }
+            String etag = reportResponseCache.getETag("xlsx", cacheKey);
+            if (etag != null) {
+                res.setHeader("ETag", etag);
+                res.setHeader("Cache-Control", "private, no-cache");
+                if (reportResponseCache.isNotModified(req.getHeader("If-None-Match"), etag)) {
+                    res.setStatus(304);
+                    return;
+                }
+            }
+
+            // Generate XLSX file with filters
+            res.setContentType(CONTENT_TYPE);
+            res.setHeader("Content-Disposition", ReportJobsWebScript.contentDisposition(filename));
             
-            res.setHeader("Content-Disposition", "attachment; filename=" + filename);
-            
-            try (OutputStream out = res.getOutputStream()) {
-                generateXlsxFile(sitesToProcess, out, userStatusFilter, fromDate, usernameSearch);
+            ReportResponseCache.CachedResponse cached = reportResponseCache.get(etag);
+            if (cached != null) {
+                try (OutputStream out = res.getOutputStream()) {
+                    out.write(cached.getBody());
+                }
+                return;
+            }
+
+            ByteArrayOutputStream capture = reportResponseCache.newCapture();
+            try (OutputStream out = reportResponseCache.capture(res.getOutputStream(), capture)) {
+                generateXlsx(request, out, fromIndex, null);
             }
+            reportResponseCache.put(etag, reportResponseCache.getCaptured(capture));
 
         } catch (Exception e) {
             logger.error("Error in XLSX web script: " + e.getMessage(), e);
@@ -173,438 +280,267 @@ public class DirectPermissionsXlsxWebScript extends AbstractWebScript {
         }
     }
 
-    private void generateXlsxFile(List<String> sitesToProcess, OutputStream out, 
-                                String userStatusFilter, Date fromDate, String usernameSearch) throws Exception {
-        XSSFWorkbook workbook = new XSSFWorkbook();
-        XSSFSheet sheet = workbook.createSheet("Permissions");
-        
-        // Create header style
-        XSSFCellStyle headerStyle = workbook.createCellStyle();
-        XSSFFont headerFont = workbook.createFont();
-        headerFont.setBold(true);
-        headerFont.setColor(IndexedColors.WHITE.getIndex());
-        headerStyle.setFont(headerFont);
-        headerStyle.setFillForegroundColor(IndexedColors.DARK_BLUE.getIndex());
-        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-        headerStyle.setBorderTop(BorderStyle.THIN);
-        headerStyle.setBorderBottom(BorderStyle.THIN);
-        headerStyle.setBorderLeft(BorderStyle.THIN);
-        headerStyle.setBorderRight(BorderStyle.THIN);
+    /**
+     * Queue the workbook as a background job and answer with the job's status
+     */
+    private void submitJob(WebScriptResponse res, final PermissionReportGenerator.ReportRequest request, String filename,
+                           final boolean fromIndex, Map<String, String> parameters) throws IOException {
+        ReportJobService.ReportJob job;
+        try {
+            job = reportJobService.submit("xlsx", filename, CONTENT_TYPE, parameters, new ReportJobService.ReportTask() {
+                public void write(OutputStream out, ReportJobService.ReportJob job) throws Exception {
+                    job.setSitesTotal(request.getSites().size());
+                    generateXlsx(request, out, fromIndex, job);
+                }
+            });
+        } catch (ReportJobService.JobLimitException e) {
+            writeError(res, 429, e.getMessage());
+            return;
+        }
+        ReportJobsWebScript.writeJob(res, 202, job);
+    }
+
+    /**
+     * @param job the background job writing the workbook, or null when writing the response
+     */
+    private void generateXlsx(PermissionReportGenerator.ReportRequest request, OutputStream out, boolean fromIndex,
+                              ReportJobService.ReportJob job) throws Exception {
+        if (request.getProfiles() != null) {
+            generateProfileXlsxFile(request, out, job);
+        } else {
+            generateXlsxFile(request, out, fromIndex, job);
+        }
+    }
+
+    private void generateXlsxFile(PermissionReportGenerator.ReportRequest request, OutputStream out,
+                                  boolean fromIndex, ReportJobService.ReportJob job) throws Exception {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_ACCESS_WINDOW);
+        try {
+            writePermissionsWorkbook(workbook, request, out, fromIndex, job);
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+
+    private void writePermissionsWorkbook(Workbook workbook, PermissionReportGenerator.ReportRequest request, OutputStream out,
+                                          boolean fromIndex, ReportJobService.ReportJob job) throws Exception {
+        List<String> sitesToProcess = request.getSites();
+        final Sheet sheet = workbook.createSheet("Permissions");
         
-        // Create data style
-        XSSFCellStyle dataStyle = workbook.createCellStyle();
-        dataStyle.setBorderTop(BorderStyle.THIN);
-        dataStyle.setBorderBottom(BorderStyle.THIN);
-        dataStyle.setBorderLeft(BorderStyle.THIN);
-        dataStyle.setBorderRight(BorderStyle.THIN);
+        CellStyle headerStyle = createHeaderStyle(workbook);
+        final CellStyle dataStyle = createDataStyle(workbook);
         
         // Create headers
         String[] headers = {"Username", "Site", "Node Name", "Current Role / Permission Status", 
                            "From Date", "User Status", "User Login", "Group Name", "Document Path"};
+        writeHeaders(sheet, headers, headerStyle);
+        setColumnWidths(sheet, PERMISSION_WIDTHS);
+
+        // Groups whose entries are in a group-collapsed report
+        final Set<String> groups = new TreeSet<String>();
         
-        XSSFRow headerRow = sheet.createRow(0);
-        for (int i = 0; i < headers.length; i++) {
-            XSSFCell cell = headerRow.createCell(i);
-            cell.setCellValue(headers[i]);
-            cell.setCellStyle(headerStyle);
-        }
-        
-        // Get permissions data with filters for all sites
-        List<Map<String, String>> allPermissions = new ArrayList<Map<String, String>>();
-        
-        for (String currentSiteName : sitesToProcess) {
-            try {
-                NodeRef siteNodeRef = siteService.getSite(currentSiteName).getNodeRef();
-                if (siteNodeRef == null) {
-                    logger.warn("Site " + currentSiteName + " not found, skipping");
-                    continue;
-                }
+        // Add data rows as the generator produces them
+        PermissionReportGenerator.RowHandler handler = new PermissionReportGenerator.RowHandler() {
+            private int rowNum = 1;
 
-                NodeRef documentLibrary = siteService.getContainer(currentSiteName, "documentLibrary");
-                if (documentLibrary == null) {
-                    logger.warn("Document Library not found in site " + currentSiteName + ", skipping");
-                    continue;
+            public boolean handleRow(PermissionRow permission) {
+                if (PermissionRow.TYPE_GROUP_ACE.equals(permission.getPermissionType())) {
+                    groups.add(permission.getGroupName());
                 }
-
-                List<Map<String, String>> sitePermissions = getPermissionsData(currentSiteName, documentLibrary, userStatusFilter, fromDate, usernameSearch);
-                allPermissions.addAll(sitePermissions);
-                
-                logger.info("Processed site " + currentSiteName + ": " + sitePermissions.size() + " permissions");
-            } catch (Exception e) {
-                logger.warn("Error processing site " + currentSiteName + ": " + e.getMessage());
+                Row row = sheet.createRow(rowNum++);
+
+                row.createCell(0).setCellValue(permission.getUsername());
+                row.createCell(1).setCellValue(permission.getSite());
+                row.createCell(2).setCellValue(permission.getNodeName() != null ? permission.getNodeName() : "Unknown");
+                row.createCell(3).setCellValue(getRoleDisplayName(permission.getRole()));
+                row.createCell(4).setCellValue(permission.getFromDate());
+                row.createCell(5).setCellValue(permission.getUserStatus());
+                row.createCell(6).setCellValue(permission.getUserLogin());
+                row.createCell(7).setCellValue(permission.getGroupName());
+                row.createCell(8).setCellValue(permission.getNodePath());
+
+                // Apply data style to all cells
+                for (int i = 0; i < 9; i++) {
+                    row.getCell(i).setCellStyle(dataStyle);
+                }
+                return true;
             }
-        }
-        
-        // Add data rows
-        int rowNum = 1;
-        for (Map<String, String> permission : allPermissions) {
-            XSSFRow row = sheet.createRow(rowNum++);
-            
-            row.createCell(0).setCellValue(permission.get("username"));
-            row.createCell(1).setCellValue(permission.get("site"));
-            row.createCell(2).setCellValue(permission.get("nodeName"));
-            row.createCell(3).setCellValue(permission.get("currentRole"));
-            row.createCell(4).setCellValue(permission.get("fromDate"));
-            row.createCell(5).setCellValue(permission.get("userStatus"));
-            row.createCell(6).setCellValue(permission.get("userLogin"));
-            row.createCell(7).setCellValue(permission.get("groupName"));
-            // row.createCell(8).setCellValue(permission.get("nodeRef"));
-            // row.createCell(9).setCellValue(permission.get("nodeType"));
-            row.createCell(8).setCellValue(permission.get("documentPath"));
-            
-            // Apply data style to all cells
-            for (int i = 0; i < 9; i++) {
-                row.getCell(i).setCellStyle(dataStyle);
+
+            public void siteCompleted(String siteShortName) {
+                logger.debug("Processed site " + siteShortName + ": " + (rowNum - 1) + " rows so far");
             }
+        };
+        if (job != null) {
+            handler = job.track(handler);
         }
-        
-        // Auto-size columns
-        for (int i = 0; i < headers.length; i++) {
-            sheet.autoSizeColumn(i);
+        PermissionReportGenerator.ReportSummary summary = fromIndex
+            ? reportIndexService.generate(request, handler)
+            : permissionReportGenerator.generate(request, handler);
+
+        if (request.getGroupMemberships() != null) {
+            writeGroupMembers(workbook, request.getGroupMemberships(), groups, headerStyle, dataStyle);
         }
         
         workbook.write(out);
         
         if (sitesToProcess.size() == 1) {
             logger.info("XLSX permissions report for site " + sitesToProcess.get(0) + 
-                       ": " + allPermissions.size() + " permissions found after filtering (direct + group-based)");
+                       ": " + summary.getFilteredPermissions() + " permissions found after filtering (direct + group-based)");
         } else {
-            logger.info("XLSX permissions report for all sites: " + allPermissions.size() + 
+            logger.info("XLSX permissions report for all sites: " + summary.getFilteredPermissions() + 
                        " permissions found after filtering (direct + group-based)");
         }
     }
 
-    private List<Map<String, String>> getPermissionsData(String siteShortName, NodeRef documentLibrary, 
-                                                        String userStatusFilter, Date fromDate, String usernameSearch) {
-        List<Map<String, String>> permissions = new ArrayList<Map<String, String>>();
-        List<NodeRef> allNodes = getAllNodesInContainer(documentLibrary);
-        
-        for (NodeRef nodeRef : allNodes) {
-            try {
-                Set<AccessPermission> setPermissions = permissionService.getAllSetPermissions(nodeRef);
-                
-                for (AccessPermission accessPermission : setPermissions) {
-                    String authorityName = accessPermission.getAuthority();
-                    
-                    // Skip GROUP_EVERYONE as it causes issues and is not useful for reporting
-                    if ("GROUP_EVERYONE".equals(authorityName)) {
-                        continue;
-                    }
-                    
-                    if (authorityName.startsWith("GROUP_")) {
-                        Set<String> groupUsers = getUsersInGroup(authorityName, new HashSet<String>());
-                        
-                        for (String groupUser : groupUsers) {
-                            // Apply filters
-                            if (shouldIncludePermission(groupUser, nodeRef, accessPermission, userStatusFilter, fromDate, usernameSearch)) {
-                                Map<String, String> permissionEntry = createPermissionEntry(
-                                    groupUser, siteShortName, nodeRef, accessPermission, 
-                                    authorityName, "GROUP"
-                                );
-                                permissions.add(permissionEntry);
-                            }
-                        }
-                    } else {
-                        // Apply filters
-                        if (shouldIncludePermission(authorityName, nodeRef, accessPermission, userStatusFilter, fromDate, usernameSearch)) {
-                            Map<String, String> permissionEntry = createPermissionEntry(
-                                authorityName, siteShortName, nodeRef, accessPermission, 
-                                "", "DIRECT"
-                            );
-                            permissions.add(permissionEntry);
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                logger.warn("Error processing permissions for node " + nodeRef + ": " + e.getMessage());
-            }
-        }
-        
-        return permissions;
-    }
-
-    private Map<String, String> createPermissionEntry(String username, String site, NodeRef nodeRef, 
-                                                     AccessPermission accessPermission, String groupName, String permissionType) {
-        Map<String, String> entry = new HashMap<String, String>();
-        
-        entry.put("username", username);
-        entry.put("site", site);
-        // entry.put("nodeRef", nodeRef.toString());
-        entry.put("nodeName", getNodeName(nodeRef));
-        // entry.put("nodeType", getNodeType(nodeRef));
-        entry.put("documentPath", getNodePath(nodeRef));
-        entry.put("currentRole", getRoleDisplayName(accessPermission.getPermission()));
-        entry.put("fromDate", getPermissionFromDate(nodeRef, accessPermission));
-        entry.put("userStatus", getUserStatus(username));
-        entry.put("userLogin", getLastLoginDate(username));
-        entry.put("groupName", groupName);
-        
-        return entry;
-    }
-
-    private String getRoleDisplayName(String permission) {
-        switch (permission) {
-            case "SiteManager": return "Manager";
-            case "SiteCollaborator": return "Collaborator";
-            case "SiteContributor": return "Contributor";
-            case "SiteConsumer": return "Consumer";
-            case "Read": return "Viewer";
-            case "Write": return "Editor";
-            case "Delete": return "Manager";
-            case "CreateChildren": return "Contributor";
-            default: return permission;
-        }
-    }
-
-
-
-    private String getPermissionFromDate(NodeRef nodeRef, AccessPermission accessPermission) {
+    /**
+     * Write a profile report: a Nodes sheet with each node's profile, filled as the nodes are
+     * produced, and a Profiles sheet with the users of each profile the nodes refer to
+     */
+    private void generateProfileXlsxFile(PermissionReportGenerator.ReportRequest request, OutputStream out,
+                                         ReportJobService.ReportJob job) throws Exception {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_ACCESS_WINDOW);
         try {
-            // Try to get from permission audit service first
-            if (permissionAuditService != null) {
-                PermissionAuditService.PermissionAuditEntry entry = permissionAuditService.getLatestPermissionGrant(
-                    nodeRef, accessPermission.getAuthority(), accessPermission.getPermission());
-                if (entry != null && entry.getDateGranted() != null) {
-                    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-                    return sdf.format(entry.getDateGranted());
-                }
-            }
-            
-            // Fallback to node creation date
-            Object createdProp = nodeService.getProperty(nodeRef, ContentModel.PROP_CREATED);
-            if (createdProp != null) {
-                SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-                return sdf.format((Date) createdProp);
-            }
-            return "Unknown";
-        } catch (Exception e) {
-            logger.warn("Error getting permission from date: " + e.getMessage());
-            return "Unknown";
+            writeProfileWorkbook(workbook, request, out, job);
+        } finally {
+            workbook.dispose();
+            workbook.close();
         }
     }
 
-
-
-    /**
-     * Check if a permission should be included based on the applied filters
-     */
-    private boolean shouldIncludePermission(String username, NodeRef nodeRef, AccessPermission accessPermission, 
-                                          String userStatusFilter, Date fromDate, String usernameSearch) {
-        try {
-            // Username search filter
-            if (usernameSearch != null && !usernameSearch.isEmpty()) {
-                if (!username.toLowerCase().contains(usernameSearch.toLowerCase())) {
-                    // Also check email if available
-                    String userEmail = getUserEmail(username);
-                    if (userEmail == null || !userEmail.toLowerCase().contains(usernameSearch.toLowerCase())) {
-                        return false;
-                    }
-                }
+    private void writeProfileWorkbook(Workbook workbook, PermissionReportGenerator.ReportRequest request, OutputStream out,
+                                      ReportJobService.ReportJob job) throws Exception {
+        final Sheet nodeSheet = workbook.createSheet("Nodes");
+        Sheet profileSheet = workbook.createSheet("Profiles");
+        CellStyle headerStyle = createHeaderStyle(workbook);
+        final CellStyle dataStyle = createDataStyle(workbook);
+
+        String[] nodeHeaders = {"Site", "Node Name", "Document Path", "Profile"};
+        writeHeaders(nodeSheet, nodeHeaders, headerStyle);
+        setColumnWidths(nodeSheet, NODE_WIDTHS);
+        String[] profileHeaders = {"Profile", "Nodes", "Username", "Current Role / Permission Status",
+                                   "User Status", "User Login", "Group Name", "Permission Type"};
+        writeHeaders(profileSheet, profileHeaders, headerStyle);
+        setColumnWidths(profileSheet, PROFILE_WIDTHS);
+
+        // Profiles in the order the nodes refer to them, with their node counts
+        final Map<String, Integer> profileNodes = new LinkedHashMap<String, Integer>();
+        PermissionReportGenerator.RowHandler handler = new PermissionReportGenerator.RowHandler() {
+            private int rowNum = 1;
+
+            public boolean handleRow(PermissionRow node) {
+                writeCells(nodeSheet.createRow(rowNum++), dataStyle, node.getSite(),
+                           node.getNodeName() != null ? node.getNodeName() : "Unknown", node.getNodePath(), node.getProfile());
+                Integer nodes = profileNodes.get(node.getProfile());
+                profileNodes.put(node.getProfile(), nodes != null ? nodes + 1 : 1);
+                return true;
             }
 
-            // User status filter
-            if (userStatusFilter != null && !userStatusFilter.isEmpty() && !userStatusFilter.equals("All")) {
-                String userStatus = getUserStatus(username);
-                if (!userStatusFilter.equals(userStatus)) {
-                    return false;
-                }
+            public void siteCompleted(String siteShortName) {
+                logger.debug("Processed site " + siteShortName + ": " + (rowNum - 1) + " nodes so far");
             }
+        };
+        permissionReportGenerator.generate(request, job != null ? job.track(handler) : handler);
 
-            // From date filter
-            if (fromDate != null) {
-                Date permissionDate = getPermissionDate(nodeRef, accessPermission);
-                if (permissionDate != null && permissionDate.before(fromDate)) {
-                    return false;
-                }
+        int rowNum = 1;
+        for (Map.Entry<String, Integer> profileNode : profileNodes.entrySet()) {
+            PermissionProfiles.Profile profile = request.getProfiles().getProfile(profileNode.getKey());
+            for (PermissionRow user : profile.getUsers()) {
+                writeCells(profileSheet.createRow(rowNum++), dataStyle, profile.getId(), String.valueOf(profileNode.getValue()),
+                           user.getUsername(), getRoleDisplayName(user.getRole()), user.getUserStatus(),
+                           user.getUserLogin(), user.getGroupName(), user.getPermissionType());
             }
-
-            return true;
-        } catch (Exception e) {
-            logger.warn("Error applying filters for user " + username + ": " + e.getMessage());
-            return true; // Include if filter fails
         }
-    }
 
-    /**
-     * Get user email address
-     */
-    private String getUserEmail(String username) {
-        try {
-            if (personService.personExists(username)) {
-                NodeRef personNode = personService.getPerson(username);
-                if (personNode != null && nodeService.exists(personNode)) {
-                    Object emailProp = nodeService.getProperty(personNode, ContentModel.PROP_EMAIL);
-                    if (emailProp != null) {
-                        return emailProp.toString();
-                    }
-                }
-            }
-            return null;
-        } catch (Exception e) {
-            logger.warn("Error getting email for user " + username + ": " + e.getMessage());
-            return null;
-        }
+        workbook.write(out);
+        logger.info("XLSX permission profile report: " + profileNodes.size() + " profiles, " +
+                    nodeSheet.getLastRowNum() + " nodes");
     }
 
     /**
-     * Get user status (Active/Inactive)
+     * Add a Group Members sheet listing the members of each group in a group-collapsed report,
+     * with the status and last login resolved once per user
      */
-    private String getUserStatus(String username) {
-        try {
-            if (personService.personExists(username)) {
-                NodeRef personNode = personService.getPerson(username);
-                if (personNode != null && nodeService.exists(personNode)) {
-                    // For now, assume all users are active since Alfresco doesn't expose disabled status easily
-                    // In a real implementation, you would check the user's enabled status
-                    return "Active";
-                }
+    private void writeGroupMembers(Workbook workbook, GroupMemberships memberships, Set<String> groups,
+                                   CellStyle headerStyle, CellStyle dataStyle) {
+        Sheet sheet = workbook.createSheet("Group Members");
+        String[] headers = {"Group Name", "Username", "User Status", "User Login"};
+        writeHeaders(sheet, headers, headerStyle);
+        setColumnWidths(sheet, GROUP_MEMBER_WIDTHS);
+        int rowNum = 1;
+        for (String group : groups) {
+            for (String member : memberships.getMembers(group)) {
+                PermissionRow user = memberships.getUser(member);
+                writeCells(sheet.createRow(rowNum++), dataStyle, group, member, user.getUserStatus(), user.getUserLogin());
             }
-            return "Unknown";
-        } catch (Exception e) {
-            logger.warn("Error getting user status for " + username + ": " + e.getMessage());
-            return "Error";
         }
     }
 
-    /**
-     * Get permission grant date
-     */
-    private Date getPermissionDate(NodeRef nodeRef, AccessPermission accessPermission) {
-        try {
-            // Try to get from permission audit service first
-            if (permissionAuditService != null) {
-                PermissionAuditService.PermissionAuditEntry entry = permissionAuditService.getLatestPermissionGrant(
-                    nodeRef, accessPermission.getAuthority(), accessPermission.getPermission());
-                if (entry != null && entry.getDateGranted() != null) {
-                    return entry.getDateGranted();
-                }
-            }
-            
-            // Fallback to node creation date
-            Object createdProp = nodeService.getProperty(nodeRef, ContentModel.PROP_CREATED);
-            if (createdProp != null) {
-                return (Date) createdProp;
-            }
-            return null;
-        } catch (Exception e) {
-            logger.warn("Error getting permission date: " + e.getMessage());
-            return null;
-        }
+    private CellStyle createHeaderStyle(Workbook workbook) {
+        CellStyle headerStyle = workbook.createCellStyle();
+        Font headerFont = workbook.createFont();
+        headerFont.setBold(true);
+        headerFont.setColor(IndexedColors.WHITE.getIndex());
+        headerStyle.setFont(headerFont);
+        headerStyle.setFillForegroundColor(IndexedColors.DARK_BLUE.getIndex());
+        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+        headerStyle.setBorderTop(BorderStyle.THIN);
+        headerStyle.setBorderBottom(BorderStyle.THIN);
+        headerStyle.setBorderLeft(BorderStyle.THIN);
+        headerStyle.setBorderRight(BorderStyle.THIN);
+        return headerStyle;
     }
 
-    private String getLastLoginDate(String username) {
-        try {
-            // Try to get login date from audit service first
-            if (loginAuditService != null) {
-                String auditLoginDate = loginAuditService.getLastLoginDate(username);
-                if (auditLoginDate != null && !auditLoginDate.contains("not available") && !auditLoginDate.contains("No login audit data")) {
-                    return auditLoginDate;
-                }
-            }
-            
-            // Fallback to user creation date
-            if (personService.personExists(username)) {
-                NodeRef personNode = personService.getPerson(username);
-                if (personNode != null && nodeService.exists(personNode)) {
-                    Object createdProp = nodeService.getProperty(personNode, ContentModel.PROP_CREATED);
-                    if (createdProp != null) {
-                        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                        return sdf.format((Date) createdProp) + " (user created)";
-                    }
-                }
-            }
-            
-            return "No login data available";
-            
-        } catch (Exception e) {
-            logger.warn("Error getting last login for " + username + ": " + e.getMessage());
-            return "Error retrieving login data";
-        }
+    private CellStyle createDataStyle(Workbook workbook) {
+        CellStyle dataStyle = workbook.createCellStyle();
+        dataStyle.setBorderTop(BorderStyle.THIN);
+        dataStyle.setBorderBottom(BorderStyle.THIN);
+        dataStyle.setBorderLeft(BorderStyle.THIN);
+        dataStyle.setBorderRight(BorderStyle.THIN);
+        return dataStyle;
     }
 
-    private List<NodeRef> getAllNodesInContainer(NodeRef container) {
-        List<NodeRef> allNodes = new ArrayList<NodeRef>();
-        allNodes.add(container);
-        
-        List<org.alfresco.service.cmr.repository.ChildAssociationRef> childAssocs = nodeService.getChildAssocs(container);
-        for (org.alfresco.service.cmr.repository.ChildAssociationRef assoc : childAssocs) {
-            NodeRef child = assoc.getChildRef();
-            allNodes.add(child);
-            
-            if (nodeService.getType(child).equals(ContentModel.TYPE_FOLDER)) {
-                allNodes.addAll(getAllNodesInContainer(child));
-            }
+    private void writeHeaders(Sheet sheet, String[] headers, CellStyle headerStyle) {
+        Row headerRow = sheet.createRow(0);
+        for (int i = 0; i < headers.length; i++) {
+            Cell cell = headerRow.createCell(i);
+            cell.setCellValue(headers[i]);
+            cell.setCellStyle(headerStyle);
         }
-        
-        return allNodes;
     }
 
-    private String getNodePath(NodeRef nodeRef) {
-        try {
-            Path path = nodeService.getPath(nodeRef);
-            return path.toDisplayPath(nodeService, permissionService);
-        } catch (Exception e) {
-            logger.warn("Could not get path for node " + nodeRef + ": " + e.getMessage());
-            return "Unknown Path";
+    private void writeCells(Row row, CellStyle style, String... values) {
+        for (int i = 0; i < values.length; i++) {
+            Cell cell = row.createCell(i);
+            cell.setCellValue(values[i]);
+            cell.setCellStyle(style);
         }
     }
-    
-    private String getNodeName(NodeRef nodeRef) {
-        try {
-            if (nodeService.exists(nodeRef)) {
-                Object nameProp = nodeService.getProperty(nodeRef, ContentModel.PROP_NAME);
-                if (nameProp != null) {
-                    return nameProp.toString();
-                }
-            }
-            return "Unknown";
-        } catch (Exception e) {
-            logger.warn("Could not get name for node " + nodeRef + ": " + e.getMessage());
-            return "Unknown";
+
+    private void setColumnWidths(Sheet sheet, int[] widths) {
+        for (int i = 0; i < widths.length; i++) {
+            sheet.setColumnWidth(i, widths[i] * 256);
         }
     }
-    
-    private String getNodeType(NodeRef nodeRef) {
-        try {
-            if (nodeService.exists(nodeRef)) {
-                QName type = nodeService.getType(nodeRef);
-                if (type != null) {
-                    return type.toString();
-                }
-            }
-            return "Unknown";
-        } catch (Exception e) {
-            logger.warn("Could not get type for node " + nodeRef + ": " + e.getMessage());
-            return "Unknown";
-        }
+
+    private void writeError(WebScriptResponse res, int status, String message) throws IOException {
+        res.setStatus(status);
+        res.setContentType("application/json");
+        res.getWriter().write("{\"success\":false,\"error\":\"" +
+                              message.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}");
     }
 
-    private Set<String> getUsersInGroup(String groupName, Set<String> visitedGroups) {
-        Set<String> users = new HashSet<String>();
-        
-        if (visitedGroups.contains(groupName)) {
-            logger.warn("Circular group reference detected: " + groupName);
-            return users;
-        }
-        
-        visitedGroups.add(groupName);
-        
-        try {
-            Set<String> containedAuthorities = authorityService.getContainedAuthorities(null, groupName, true);
-            logger.debug("Group " + groupName + " contains " + containedAuthorities.size() + " authorities");
-            
-            for (String authority : containedAuthorities) {
-                if (authority.startsWith("GROUP_")) {
-                    Set<String> nestedUsers = getUsersInGroup(authority, visitedGroups);
-                    users.addAll(nestedUsers);
-                } else {
-                    users.add(authority);
-                }
-            }
-        } catch (Exception e) {
-            logger.warn("Error expanding group " + groupName + ": " + e.getMessage());
+    private String getRoleDisplayName(String permission) {
+        switch (permission) {
+            case "SiteManager": return "Manager";
+            case "SiteCollaborator": return "Collaborator";
+            case "SiteContributor": return "Contributor";
+            case "SiteConsumer": return "Consumer";
+            case "Read": return "Viewer";
+            case "Write": return "Editor";
+            case "Delete": return "Manager";
+            case "CreateChildren": return "Contributor";
+            default: return permission;
         }
-        
-        return users;
     }
 }
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.namespace.QName;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Depth-first, pre-order iterator over a document library: the root, then each child
+ * followed by everything below it when the child is a cm:folder. Only the child lists of
+ * the folders on the current path are held in memory.
+ *
+ * A traversal can be resumed at any node below the root; the ancestor chain is rebuilt
+ * from primary parents, so the iteration continues exactly where an earlier one stopped.
+ *
+ * The display path of each node (the path of its parent folder, as Path.toDisplayPath gives it)
+ * is built while descending: each frame holds the path of its children, i.e. the folder's own
+ * path plus its name. Only the root's path is resolved through the node service.
+ *
+ * With a set of child types, only children of those types are listed (and returned), so
+ * e.g. a folders-only traversal never touches the documents.
+ */
+public class DocumentLibraryTraversal {
+
+    private static Log logger = LogFactory.getLog(DocumentLibraryTraversal.class);
+
+    private final NodeService nodeService;
+    private final Set<QName> childTypes;
+    private final Deque<Frame> stack = new ArrayDeque<Frame>();
+    private NodeRef pending;
+    private boolean pendingIsRoot;
+    private String pendingPath;
+    private String currentPath;
+    private QName currentType;
+    private NodePrefetcher prefetcher;
+
+    private DocumentLibraryTraversal(NodeService nodeService, Set<QName> childTypes, NodeRef first,
+                                     boolean firstIsRoot, String firstPath) {
+        this.nodeService = nodeService;
+        this.childTypes = childTypes;
+        this.pending = first;
+        this.pendingIsRoot = firstIsRoot;
+        this.pendingPath = firstPath;
+    }
+
+    /**
+     * Start a traversal at the root of a document library
+     */
+    public static DocumentLibraryTraversal start(NodeService nodeService, PermissionService permissionService, NodeRef root) {
+        return start(nodeService, permissionService, root, null);
+    }
+
+    /**
+     * Start a traversal at the root of a document library, listing only children of the given types
+     * @param childTypes the types of the children to list, or null for all children
+     */
+    public static DocumentLibraryTraversal start(NodeService nodeService, PermissionService permissionService,
+                                                 NodeRef root, Set<QName> childTypes) {
+        return new DocumentLibraryTraversal(nodeService, childTypes, root, true,
+                                            getRootPath(nodeService, permissionService, root));
+    }
+
+    /**
+     * Start a traversal at a folder or document inside a document library: the node itself,
+     * then everything below it if it is a folder
+     * @param childTypes the types of the children to list, or null for all children
+     */
+    public static DocumentLibraryTraversal startSubtree(NodeService nodeService, PermissionService permissionService,
+                                                        NodeRef node, Set<QName> childTypes) {
+        return new DocumentLibraryTraversal(nodeService, childTypes, node, false,
+                                            getRootPath(nodeService, permissionService, node));
+    }
+
+    /**
+     * Prefetch the children of each folder in batches, just before they are returned
+     */
+    public void setPrefetcher(NodePrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
+    /**
+     * Resume a traversal so that the next node returned is the given node
+     * @return the traversal, or null if the node no longer exists or is no longer below the root
+     */
+    public static DocumentLibraryTraversal resume(NodeService nodeService, PermissionService permissionService,
+                                                  NodeRef root, NodeRef node) {
+        return resume(nodeService, permissionService, root, node, null);
+    }
+
+    /**
+     * Resume a traversal that lists only children of the given types
+     * @param childTypes the types of the children to list, or null for all children
+     * @return the traversal, or null if the node no longer exists or is no longer below the root
+     */
+    public static DocumentLibraryTraversal resume(NodeService nodeService, PermissionService permissionService,
+                                                  NodeRef root, NodeRef node, Set<QName> childTypes) {
+        if (!nodeService.exists(node)) {
+            return null;
+        }
+        if (node.equals(root)) {
+            return start(nodeService, permissionService, root, childTypes);
+        }
+
+        // Ancestor chain from the root down to the node
+        List<NodeRef> chain = new ArrayList<NodeRef>();
+        NodeRef current = node;
+        while (!current.equals(root)) {
+            chain.add(0, current);
+            ChildAssociationRef parentAssoc = nodeService.getPrimaryParent(current);
+            if (parentAssoc == null || parentAssoc.getParentRef() == null) {
+                return null;
+            }
+            current = parentAssoc.getParentRef();
+        }
+        chain.add(0, root);
+
+        // For every ancestor, continue with the siblings after the child on the path
+        List<Frame> frames = new ArrayList<Frame>();
+        String path = getRootPath(nodeService, permissionService, root);
+        for (int i = 0; i < chain.size() - 1; i++) {
+            List<ChildAssociationRef> children = listChildren(nodeService, chain.get(i), childTypes);
+            int index = indexOf(children, chain.get(i + 1));
+            if (index < 0) {
+                return null;
+            }
+            path = childPath(nodeService, path, chain.get(i));
+            frames.add(new Frame(children, index + 1, path));
+        }
+
+        DocumentLibraryTraversal traversal = new DocumentLibraryTraversal(nodeService, childTypes, node, false, path);
+        for (Frame frame : frames) {
+            traversal.stack.push(frame);
+        }
+        return traversal;
+    }
+
+    /**
+     * @return the next node, or null when the traversal is complete
+     */
+    public NodeRef next() {
+        if (pending != null) {
+            NodeRef node = pending;
+            currentPath = pendingPath;
+            expand(node, pendingIsRoot);
+            pending = null;
+            return node;
+        }
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (frame.index < frame.children.size()) {
+                if (prefetcher != null && frame.index >= frame.prefetchedTo) {
+                    frame.prefetchedTo = prefetcher.prefetch(frame.children, frame.index);
+                }
+                NodeRef child = frame.children.get(frame.index++).getChildRef();
+                currentPath = frame.path;
+                expand(child, false);
+                return child;
+            }
+            stack.pop();
+        }
+        currentPath = null;
+        currentType = null;
+        return null;
+    }
+
+    /**
+     * @return the display path of the node last returned by {@link #next()},
+     *         or null if the path of the root could not be resolved
+     */
+    public String getDisplayPath() {
+        return currentPath;
+    }
+
+    /**
+     * @return the type of the node last returned by {@link #next()}
+     */
+    public QName getType() {
+        return currentType;
+    }
+
+    private void expand(NodeRef node, boolean isRoot) {
+        currentType = nodeService.getType(node);
+        if (isRoot || ContentModel.TYPE_FOLDER.equals(currentType)) {
+            List<ChildAssociationRef> children = listChildren(nodeService, node, childTypes);
+            if (!children.isEmpty()) {
+                stack.push(new Frame(children, 0, childPath(nodeService, currentPath, node)));
+            }
+        }
+    }
+
+    private static List<ChildAssociationRef> listChildren(NodeService nodeService, NodeRef folder, Set<QName> childTypes) {
+        return childTypes != null ? nodeService.getChildAssocs(folder, childTypes) : nodeService.getChildAssocs(folder);
+    }
+
+    /**
+     * @return the display path of the children of a folder, or null if the folder's own path is unknown
+     */
+    private static String childPath(NodeService nodeService, String folderPath, NodeRef folder) {
+        if (folderPath == null) {
+            return null;
+        }
+        return folderPath + "/" + nodeService.getProperty(folder, ContentModel.PROP_NAME);
+    }
+
+    private static String getRootPath(NodeService nodeService, PermissionService permissionService, NodeRef root) {
+        try {
+            return nodeService.getPath(root).toDisplayPath(nodeService, permissionService);
+        } catch (Exception e) {
+            logger.warn("Could not get path for node " + root + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static int indexOf(List<ChildAssociationRef> children, NodeRef child) {
+        for (int i = 0; i < children.size(); i++) {
+            if (child.equals(children.get(i).getChildRef())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The children of a folder on the current path, the position of the next one and their display path
+     */
+    private static class Frame {
+        private final List<ChildAssociationRef> children;
+        private final String path;
+        private int index;
+        private int prefetchedTo;
+
+        Frame(List<ChildAssociationRef> children, int index, String path) {
+            this.children = children;
+            this.index = index;
+            this.path = path;
+            this.prefetchedTo = index;
+        }
+    }
+}
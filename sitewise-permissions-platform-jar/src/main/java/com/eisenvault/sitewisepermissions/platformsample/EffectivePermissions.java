@@ -0,0 +1,182 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.alfresco.service.cmr.security.AccessPermission;
+import org.alfresco.service.cmr.security.AccessStatus;
+
+/**
+ * Resolves the ACL of a node into what each user effectively holds, for an effective
+ * permissions report.
+ *
+ * A node's ACL holds the entries inherited from its ancestors (position above 0) as well as its
+ * own, and nodes that inherit share their parent's ACL, so the inherited set does not have to be
+ * carried down the traversal; a node whose inheritance is broken simply has no inherited
+ * entries. Resolution works per user and permission: it is granted if an ALLOWED entry for the
+ * user or one of their groups is nearer the node (lower position) than any DENIED entry.
+ *
+ * Resolving an ACL expands all its groups, so the result is kept per distinct ACL (keyed by its
+ * entries, which nodes sharing an ACL have in common), up to MAX_CACHED_ACLS, least recently used
+ * first out. Group members come from the report's lookups, i.e. the shared membership closure.
+ * One instance serves one report; its site workers share it.
+ */
+public class EffectivePermissions {
+
+    private static final int MAX_CACHED_ACLS = 1000;
+
+    private final Map<String, List<Grant>> resolved = new LinkedHashMap<String, List<Grant>>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<Grant>> eldest) {
+            return size() > MAX_CACHED_ACLS;
+        }
+    };
+
+    /**
+     * @param entries every entry of a node's ACL, inherited ones included
+     * @return the permissions users effectively hold, by user name then permission
+     */
+    List<Grant> resolve(List<AccessPermission> entries, ReportLookupContext lookups) {
+        String key = getKey(entries);
+        synchronized (resolved) {
+            List<Grant> grants = resolved.get(key);
+            if (grants != null) {
+                return grants;
+            }
+        }
+        List<Grant> grants = Collections.unmodifiableList(evaluate(entries, lookups));
+        synchronized (resolved) {
+            resolved.put(key, grants);
+        }
+        return grants;
+    }
+
+    /**
+     * @return a key that is the same for the same entries in any order; the authority is length
+     *         prefixed, so no authority and permission pair can be read as another
+     */
+    String getKey(List<AccessPermission> entries) {
+        List<String> parts = new ArrayList<String>(entries.size());
+        for (AccessPermission entry : entries) {
+            parts.add(entry.getPosition() + "\t" + entry.getAccessStatus() + "\t" +
+                      entry.getAuthority().length() + ":" + entry.getAuthority() + "\t" + entry.getPermission());
+        }
+        Collections.sort(parts);
+        StringBuilder key = new StringBuilder();
+        for (String part : parts) {
+            key.append(part).append('\n');
+        }
+        return key.toString();
+    }
+
+    private List<Grant> evaluate(List<AccessPermission> entries, ReportLookupContext lookups) {
+        Map<String, Map<String, Grant>> users = new TreeMap<String, Map<String, Grant>>();
+        for (AccessPermission entry : entries) {
+            String authorityName = entry.getAuthority();
+            // GROUP_EVERYONE is left out as in the other reports; ROLE_OWNER and the like are not users
+            if ("GROUP_EVERYONE".equals(authorityName) || authorityName.startsWith("ROLE_")) {
+                continue;
+            }
+            boolean group = authorityName.startsWith("GROUP_");
+            Set<String> members = group ? lookups.getUsersInGroup(authorityName) : Collections.singleton(authorityName);
+            for (String username : members) {
+                Map<String, Grant> permissions = users.get(username);
+                if (permissions == null) {
+                    permissions = new TreeMap<String, Grant>();
+                    users.put(username, permissions);
+                }
+                Grant grant = permissions.get(entry.getPermission());
+                if (grant == null) {
+                    grant = new Grant(username, entry.getPermission());
+                    permissions.put(entry.getPermission(), grant);
+                }
+                grant.add(entry, group ? authorityName : null);
+            }
+        }
+
+        List<Grant> grants = new ArrayList<Grant>();
+        for (Map<String, Grant> permissions : users.values()) {
+            for (Grant grant : permissions.values()) {
+                if (grant.isEffective()) {
+                    grants.add(grant);
+                }
+            }
+        }
+        return grants;
+    }
+
+    /**
+     * A permission a user effectively holds on the nodes with an ACL
+     */
+    public static class Grant {
+        private final String username;
+        private final String permission;
+        private AccessPermission entry;
+        private int denyPosition = Integer.MAX_VALUE;
+        private boolean direct;
+        private final Set<String> groups = new TreeSet<String>();
+
+        Grant(String username, String permission) {
+            this.username = username;
+            this.permission = permission;
+        }
+
+        private void add(AccessPermission accessPermission, String groupName) {
+            if (accessPermission.getAccessStatus() == AccessStatus.DENIED) {
+                denyPosition = Math.min(denyPosition, accessPermission.getPosition());
+                return;
+            }
+            if (accessPermission.getAccessStatus() != AccessStatus.ALLOWED) {
+                return;
+            }
+            if (entry == null || accessPermission.getPosition() < entry.getPosition()) {
+                entry = accessPermission;
+            }
+            if (groupName != null) {
+                groups.add(groupName);
+            } else {
+                direct = true;
+            }
+        }
+
+        private boolean isEffective() {
+            return entry != null && entry.getPosition() < denyPosition;
+        }
+
+        public String getUsername() { return username; }
+        public String getPermission() { return permission; }
+
+        /** @return the nearest entry granting the permission, which dates the grant */
+        public AccessPermission getEntry() { return entry; }
+
+        /** @return true if the permission is granted to the user directly */
+        public boolean isDirect() { return direct; }
+
+        /** @return the groups through which the permission is granted, in name order */
+        public Set<String> getGroups() { return groups; }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.extensions.webscripts.AbstractWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Web script to grant a time-bound permission.
+ * The permission is set on the node, recorded in the audit table with its expiry date, and
+ * revoked automatically by the PermissionExpiryService once the expiry date passes.
+ */
+public class GrantPermissionWebScript extends AbstractWebScript {
+
+    private static Log logger = LogFactory.getLog(GrantPermissionWebScript.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private PermissionExpiryService permissionExpiryService;
+    private NodeService nodeService;
+    private PermissionAuditService permissionAuditService;
+
+    public void setPermissionExpiryService(PermissionExpiryService permissionExpiryService) {
+        this.permissionExpiryService = permissionExpiryService;
+    }
+
+    public void setNodeService(NodeService nodeService) {
+        this.nodeService = nodeService;
+    }
+
+    public void setPermissionAuditService(PermissionAuditService permissionAuditService) {
+        this.permissionAuditService = permissionAuditService;
+    }
+
+    @Override
+    public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException {
+        String nodeRefStr = req.getParameter("nodeRef");
+        String authority = req.getParameter("authority");
+        String permission = req.getParameter("permission");
+        String expiryDateStr = req.getParameter("expiryDate");
+
+        if (isEmpty(nodeRefStr) || isEmpty(authority) || isEmpty(permission) || isEmpty(expiryDateStr)) {
+            writeResult(res, 400, false, "Missing required parameters: nodeRef, authority, permission, expiryDate");
+            return;
+        }
+
+        Date expiryDate;
+        try {
+            expiryDate = parseExpiryDate(expiryDateStr);
+        } catch (ParseException e) {
+            writeResult(res, 400, false, "Invalid expiryDate parameter. Must be in yyyy-MM-dd or yyyy-MM-dd'T'HH:mm format");
+            return;
+        }
+
+        if (!permissionAuditService.isReady()) {
+            writeResult(res, 503, false, "The permission audit table is still being initialized, please retry shortly");
+            return;
+        }
+
+        try {
+            NodeRef nodeRef = new NodeRef(nodeRefStr);
+            if (!nodeService.exists(nodeRef)) {
+                writeResult(res, 404, false, "Node not found: " + nodeRefStr);
+                return;
+            }
+
+            permissionExpiryService.grantPermissionWithExpiry(nodeRef, authority, permission, expiryDate);
+            writeResult(res, 200, true, "Granted " + permission + " to " + authority + " until " +
+                new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(expiryDate));
+
+        } catch (IllegalArgumentException e) {
+            // Thrown by the checks that run before anything is written
+            writeResult(res, 400, false, e.getMessage());
+        } catch (RuntimeException e) {
+            // Rethrown so the transaction rolls back; the permission may already be set on the node
+            logger.error("Error granting permission with expiry: " + e.getMessage(), e);
+            throw new WebScriptException(Status.STATUS_INTERNAL_SERVER_ERROR, "Internal server error", e);
+        }
+    }
+
+    private Date parseExpiryDate(String value) throws ParseException {
+        String pattern = value.contains("T") ? "yyyy-MM-dd'T'HH:mm" : "yyyy-MM-dd";
+        SimpleDateFormat sdf = new SimpleDateFormat(pattern);
+        sdf.setLenient(false);
+        return sdf.parse(value);
+    }
+
+    private boolean isEmpty(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    private void writeResult(WebScriptResponse res, int status, boolean success, String message) throws IOException {
+        res.setStatus(status);
+        res.setContentType("application/json");
+        JsonGenerator json = JSON_FACTORY.createGenerator(res.getWriter());
+        json.writeStartObject();
+        json.writeBooleanField("success", success);
+        json.writeStringField(success ? "message" : "error", message);
+        json.writeEndObject();
+        json.flush();
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.node.NodeServicePolicies;
+import org.alfresco.repo.policy.Behaviour.NotificationFrequency;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * Bounded in-process cache of the flattened user set of each group, shared by all reports.
+ * Entries are evicted least-recently-used once maxSize is reached.
+ *
+ * A change to any group membership (cm:member) or the deletion of a group can affect every
+ * group above it, so it clears the whole cache, both when it happens and again after its
+ * transaction commits. Every clear bumps the membership version; a set expanded under an
+ * older version is not cached, so a report racing with a membership change cannot put a
+ * stale set back.
+ *
+ * The behaviours only see changes made on this node. In a cluster, a background check reads
+ * the count and the highest id of the cm:member associations every clusterCheckIntervalSeconds
+ * and clears the cache when they moved: an added membership raises the highest id and a
+ * removed one lowers the count, so any net change moves one of them. The
+ * {@link AuthorityGraph} follows the membership version, so it is reloaded as well.
+ */
+public class GroupMembershipCache implements NodeServicePolicies.OnCreateChildAssociationPolicy,
+        NodeServicePolicies.OnDeleteChildAssociationPolicy, NodeServicePolicies.OnDeleteNodePolicy {
+
+    private static Log logger = LogFactory.getLog(GroupMembershipCache.class);
+
+    private static final String CONTENT_MODEL_URI = "http://www.alfresco.org/model/content/1.0";
+
+    /** Count and highest id of the cm:member associations, which change with any membership change */
+    private static final String WATERMARK_QUERY =
+        "SELECT COUNT(*) AS memberships, MAX(ca.id) AS max_id FROM alf_child_assoc ca " +
+        "JOIN alf_qname assoc_type ON assoc_type.id = ca.type_qname_id " +
+        "JOIN alf_namespace ns ON ns.id = assoc_type.ns_id " +
+        "WHERE ns.uri = ? AND assoc_type.local_name = 'member'";
+
+    private PolicyComponent policyComponent;
+    private JdbcTemplate jdbcTemplate;
+    private int maxSize = 5000;
+    private long clusterCheckIntervalMillis = 30L * 1000L;
+
+    private ScheduledExecutorService executor;
+    private String watermark;
+    private long remoteInvalidations;
+
+    private long version;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /** Bound once per transaction, however many memberships it changes */
+    private final TransactionListenerAdapter invalidateAfterCommit = new TransactionListenerAdapter() {
+        @Override
+        public void afterCommit() {
+            invalidate();
+        }
+    };
+
+    private final LinkedHashMap<String, Set<String>> entries = new LinkedHashMap<String, Set<String>>(256, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
+            if (size() > maxSize) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+
+    public void setPolicyComponent(PolicyComponent policyComponent) {
+        this.policyComponent = policyComponent;
+    }
+
+    /**
+     * The repository database, read for the membership watermark
+     */
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * How often to check for membership changes made on other cluster nodes; 0 to only see local changes
+     */
+    public void setClusterCheckIntervalSeconds(int clusterCheckIntervalSeconds) {
+        this.clusterCheckIntervalMillis = clusterCheckIntervalSeconds * 1000L;
+    }
+
+    /**
+     * Bind the membership change behaviours and start the cluster check
+     */
+    public void init() {
+        policyComponent.bindAssociationBehaviour(NodeServicePolicies.OnCreateChildAssociationPolicy.QNAME,
+            ContentModel.TYPE_AUTHORITY_CONTAINER, ContentModel.ASSOC_MEMBER,
+            new JavaBehaviour(this, "onCreateChildAssociation", NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindAssociationBehaviour(NodeServicePolicies.OnDeleteChildAssociationPolicy.QNAME,
+            ContentModel.TYPE_AUTHORITY_CONTAINER, ContentModel.ASSOC_MEMBER,
+            new JavaBehaviour(this, "onDeleteChildAssociation", NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnDeleteNodePolicy.QNAME,
+            ContentModel.TYPE_AUTHORITY_CONTAINER,
+            new JavaBehaviour(this, "onDeleteNode", NotificationFrequency.EVERY_EVENT));
+
+        if (jdbcTemplate == null || clusterCheckIntervalMillis <= 0) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "GroupMembershipCheck");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    checkWatermark();
+                } catch (Exception e) {
+                    logger.warn("Could not check for group membership changes on other nodes: " + e.getMessage());
+                }
+            }
+        }, 0L, clusterCheckIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the current membership version, to be passed to {@link #put} with a set expanded now
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the cached user set of a group, or null on a miss
+     */
+    public synchronized Set<String> get(String groupName) {
+        Set<String> users = entries.get(groupName);
+        if (users == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return users;
+    }
+
+    /**
+     * Cache the user set of a group, unless memberships have changed since it was expanded
+     * @param expandedAtVersion the membership version read before the expansion started
+     */
+    public synchronized void put(String groupName, Set<String> users, long expandedAtVersion) {
+        if (expandedAtVersion == version) {
+            entries.put(groupName, users);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        version++;
+    }
+
+    /**
+     * @return hit/miss/eviction/invalidation counters, the current size and membership version
+     */
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        long requests = hits + misses;
+        stats.put("size", entries.size());
+        stats.put("maxSize", maxSize);
+        stats.put("version", version);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("invalidations", invalidations);
+        stats.put("remoteInvalidations", remoteInvalidations);
+        stats.put("watermark", watermark);
+        stats.put("hitRatio", requests > 0 ? (double) hits / requests : 0.0d);
+        return stats;
+    }
+
+    @Override
+    public void onCreateChildAssociation(ChildAssociationRef childAssocRef, boolean isNewNode) {
+        membershipChanged();
+    }
+
+    @Override
+    public void onDeleteChildAssociation(ChildAssociationRef childAssocRef) {
+        membershipChanged();
+    }
+
+    @Override
+    public void onDeleteNode(ChildAssociationRef childAssocRef, boolean isNodeArchived) {
+        membershipChanged();
+    }
+
+    private void membershipChanged() {
+        invalidate();
+        // Clear again once the change is visible, in case a report cached the old membership meanwhile
+        AlfrescoTransactionSupport.bindListener(invalidateAfterCommit);
+    }
+
+    /**
+     * Clear the cache if the memberships in the database changed since the last check. Local
+     * changes move the watermark too, which costs one more clear after they committed.
+     */
+    private void checkWatermark() {
+        final StringBuilder current = new StringBuilder();
+        jdbcTemplate.query(WATERMARK_QUERY, new Object[] {CONTENT_MODEL_URI}, new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                current.append(rs.getLong("memberships")).append(':').append(rs.getLong("max_id"));
+            }
+        });
+        synchronized (this) {
+            if (watermark != null && !watermark.equals(current.toString())) {
+                clear();
+                remoteInvalidations++;
+                logger.debug("Group memberships changed in the database, cleared group membership cache (version " +
+                             version + ")");
+            }
+            watermark = current.toString();
+        }
+    }
+
+    private synchronized void invalidate() {
+        clear();
+        invalidations++;
+        logger.debug("Group membership changed, cleared group membership cache (version " + version + ")");
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The group memberships of a group-collapsed report. A group entry is reported as one row;
+ * each group's members are resolved once, and each distinct member's status and last login
+ * are looked up once, however many groups and nodes they appear in.
+ *
+ * Groups and users are added by the site workers of a report and read by the thread writing
+ * it, once a row referring to them has been handed over.
+ */
+public class GroupMemberships {
+
+    private final ConcurrentMap<String, List<String>> groups = new ConcurrentHashMap<String, List<String>>();
+    private final ConcurrentMap<String, PermissionRow> users = new ConcurrentHashMap<String, PermissionRow>();
+
+    /**
+     * @return the members of a group that pass the report's user filters, in name order,
+     *         or null if the group has not been resolved yet
+     */
+    public List<String> getMembers(String groupName) {
+        return groups.get(groupName);
+    }
+
+    void addGroup(String groupName, List<String> members) {
+        groups.putIfAbsent(groupName, Collections.unmodifiableList(members));
+    }
+
+    /**
+     * @return the user name, status and last login of a member, or null if not resolved yet
+     */
+    public PermissionRow getUser(String username) {
+        return users.get(username);
+    }
+
+    void addUser(PermissionRow user) {
+        users.putIfAbsent(user.getUsername(), user);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.springframework.core.InfrastructureProxy;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DataSource wrapper that records connection checkout metrics for the audit module.
+ * When the target is a dedicated DBCP pool its active/idle counts are reported as well.
+ * On the shared pool it unwraps to the repository's DataSource for transaction synchronization,
+ * so audit statements join the connection bound to the surrounding repository transaction.
+ */
+public class InstrumentedDataSource extends DelegatingDataSource implements InfrastructureProxy {
+
+    private final boolean dedicated;
+
+    private final AtomicLong connectionsAcquired = new AtomicLong();
+    private final AtomicLong acquireFailures = new AtomicLong();
+    private final AtomicLong totalAcquireNanos = new AtomicLong();
+    private final AtomicLong maxAcquireNanos = new AtomicLong();
+
+    public InstrumentedDataSource(DataSource target, boolean dedicated) {
+        super(target);
+        this.dedicated = dedicated;
+    }
+
+    /**
+     * @return true if audit traffic runs on its own pool rather than the repository's
+     */
+    public boolean isDedicated() {
+        return dedicated;
+    }
+
+    /**
+     * The key under which Spring looks up a transaction-bound connection: the repository's
+     * DataSource when sharing its pool, otherwise this dedicated pool itself
+     */
+    @Override
+    public Object getWrappedObject() {
+        return dedicated ? this : getTargetDataSource();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection connection = super.getConnection();
+            recordAcquire(System.nanoTime() - start);
+            return connection;
+        } catch (SQLException e) {
+            acquireFailures.incrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection connection = super.getConnection(username, password);
+            recordAcquire(System.nanoTime() - start);
+            return connection;
+        } catch (SQLException e) {
+            acquireFailures.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private void recordAcquire(long nanos) {
+        connectionsAcquired.incrementAndGet();
+        totalAcquireNanos.addAndGet(nanos);
+        long max = maxAcquireNanos.get();
+        while (nanos > max && !maxAcquireNanos.compareAndSet(max, nanos)) {
+            max = maxAcquireNanos.get();
+        }
+    }
+
+    /**
+     * @return connection checkout counters and, for a dedicated pool, its current usage
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        long acquired = connectionsAcquired.get();
+        stats.put("dedicatedPool", dedicated);
+        stats.put("connectionsAcquired", acquired);
+        stats.put("acquireFailures", acquireFailures.get());
+        stats.put("avgAcquireMillis", acquired > 0 ? (totalAcquireNanos.get() / acquired) / 1000000.0d : 0.0d);
+        stats.put("maxAcquireMillis", maxAcquireNanos.get() / 1000000.0d);
+
+        DataSource target = getTargetDataSource();
+        if (target instanceof BasicDataSource) {
+            BasicDataSource pool = (BasicDataSource) target;
+            stats.put("numActive", pool.getNumActive());
+            stats.put("numIdle", pool.getNumIdle());
+            stats.put("maxActive", pool.getMaxActive());
+        }
+        return stats;
+    }
+}
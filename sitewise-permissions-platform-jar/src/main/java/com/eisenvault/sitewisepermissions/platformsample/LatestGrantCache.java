@@ -0,0 +1,188 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-process cache of the latest GRANT audit entry per (node, authority, permission).
+ * Entries are evicted least-recently-used once maxSize is reached and expire after the TTL.
+ * "No grant recorded" is cached as well, since most report rows have no audit entry at all.
+ *
+ * Writers bump a write stamp shared by the keys of one stripe. A reader takes the stamp before
+ * it reads the database and caches its result only if the stamp is unchanged, so a result read
+ * before a grant or revocation committed never replaces what the writer cached.
+ */
+public class LatestGrantCache {
+
+    private static final int STAMP_STRIPES = 1024;
+
+    private int maxSize = 50000;
+    private long ttlMillis = 10L * 60L * 1000L;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    private final long[] writeStamps = new long[STAMP_STRIPES];
+
+    private final LinkedHashMap<String, CachedGrant> entries = new LinkedHashMap<String, CachedGrant>(1024, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedGrant> eldest) {
+            if (size() > maxSize) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public void setTtlSeconds(int ttlSeconds) {
+        this.ttlMillis = ttlSeconds * 1000L;
+    }
+
+    /**
+     * Build the cache key for a grant
+     */
+    public static String key(String nodeRef, String authority, String permission) {
+        return nodeRef + '\u0000' + authority + '\u0000' + permission;
+    }
+
+    /**
+     * Look up a cached grant
+     * @return the cached value (whose entry may be null for "no grant"), or null on a miss
+     */
+    public synchronized CachedGrant get(String key) {
+        CachedGrant cached = entries.get(key);
+        if (cached == null) {
+            misses++;
+            return null;
+        }
+        if (cached.expiresAt < System.currentTimeMillis()) {
+            entries.remove(key);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return cached;
+    }
+
+    /**
+     * @return the write stamp of a key, to be passed to putFromRead with the result of the read
+     */
+    public synchronized long getWriteStamp(String key) {
+        return writeStamps[stripe(key)];
+    }
+
+    /**
+     * Cache the result of a database read, unless a writer updated the key since the read began
+     * or another reader cached it meanwhile
+     * @param stamp the write stamp taken before the read
+     */
+    public synchronized void putFromRead(String key, PermissionAuditService.PermissionAuditEntry entry, long stamp) {
+        if (writeStamps[stripe(key)] != stamp) {
+            return;
+        }
+        CachedGrant cached = entries.get(key);
+        if (cached != null && cached.expiresAt >= System.currentTimeMillis()) {
+            return;
+        }
+        store(key, entry);
+    }
+
+    /**
+     * Cache the latest grant for a key (null meaning no grant is recorded)
+     */
+    public synchronized void put(String key, PermissionAuditService.PermissionAuditEntry entry) {
+        writeStamps[stripe(key)]++;
+        store(key, entry);
+    }
+
+    /**
+     * Write-through for a new grant: replace the cached entry unless it is already newer
+     */
+    public synchronized void putIfNewer(String key, PermissionAuditService.PermissionAuditEntry entry) {
+        writeStamps[stripe(key)]++;
+        CachedGrant cached = entries.get(key);
+        if (cached != null && cached.entry != null && cached.entry.getDateGranted() != null
+                && entry.getDateGranted() != null && cached.entry.getDateGranted().after(entry.getDateGranted())) {
+            return;
+        }
+        store(key, entry);
+    }
+
+    public synchronized void invalidate(String key) {
+        writeStamps[stripe(key)]++;
+        entries.remove(key);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private void store(String key, PermissionAuditService.PermissionAuditEntry entry) {
+        entries.put(key, new CachedGrant(entry, System.currentTimeMillis() + ttlMillis));
+    }
+
+    private static int stripe(String key) {
+        return (key.hashCode() & 0x7fffffff) % STAMP_STRIPES;
+    }
+
+    /**
+     * @return hit/miss/eviction counters and the current size
+     */
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        long requests = hits + misses;
+        stats.put("size", entries.size());
+        stats.put("maxSize", maxSize);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("expirations", expirations);
+        stats.put("hitRatio", requests > 0 ? (double) hits / requests : 0.0d);
+        return stats;
+    }
+
+    /**
+     * A cached lookup result
+     */
+    public static class CachedGrant {
+        private final PermissionAuditService.PermissionAuditEntry entry;
+        private final long expiresAt;
+
+        CachedGrant(PermissionAuditService.PermissionAuditEntry entry, long expiresAt) {
+            this.entry = entry;
+            this.expiresAt = expiresAt;
+        }
+
+        /** @return the latest grant, or null if none is recorded */
+        public PermissionAuditService.PermissionAuditEntry getEntry() {
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Warms the repository node caches for a batch of children before they are read one by one.
+ * NodeDAO.cacheNodes loads the node rows (including ACL ids), properties and aspects of a
+ * whole batch in a few bulk selects, so the per-node getType/getProperty/ACL reads of the
+ * report traversal and the permission scan hit warm caches.
+ */
+public class NodePrefetcher {
+
+    private static Log logger = LogFactory.getLog(NodePrefetcher.class);
+
+    private NodeDAO nodeDAO;
+    private boolean enabled = true;
+    private int batchSize = 256;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong nodes = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    public void setNodeDAO(NodeDAO nodeDAO) {
+        this.nodeDAO = nodeDAO;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the number of children to prefetch at a time
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Prefetch one batch of children, starting at the given index
+     * @return the index after the last child prefetched
+     */
+    public int prefetch(List<ChildAssociationRef> children, int fromIndex) {
+        int toIndex = Math.min(children.size(), fromIndex + batchSize);
+        if (!enabled || fromIndex >= toIndex) {
+            return toIndex;
+        }
+
+        List<NodeRef> nodeRefs = new ArrayList<NodeRef>(toIndex - fromIndex);
+        for (int i = fromIndex; i < toIndex; i++) {
+            nodeRefs.add(children.get(i).getChildRef());
+        }
+
+        long start = System.nanoTime();
+        try {
+            nodeDAO.cacheNodes(nodeRefs);
+        } catch (Exception e) {
+            // Only an optimisation: the nodes are still loaded one by one when read
+            logger.debug("Could not prefetch " + nodeRefs.size() + " nodes: " + e.getMessage());
+        }
+        nanos.addAndGet(System.nanoTime() - start);
+        batches.incrementAndGet();
+        nodes.addAndGet(nodeRefs.size());
+        return toIndex;
+    }
+
+    /**
+     * @return batch and node counts and the time spent prefetching
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("enabled", enabled);
+        stats.put("batchSize", batchSize);
+        stats.put("batches", batches.get());
+        stats.put("nodes", nodes.get());
+        stats.put("totalMillis", nanos.get() / 1000000L);
+        return stats;
+    }
+}
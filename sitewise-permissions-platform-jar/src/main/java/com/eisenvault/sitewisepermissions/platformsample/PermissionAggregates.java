@@ -0,0 +1,207 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counts collected by a summary report instead of rows: ACL entries and effective permissions
+ * per site and role, direct versus group entries, distinct users per site and members per group.
+ *
+ * The sites of a report may be processed by several workers at once; each site's counts,
+ * group counts included, are only written by the worker processing that site, and read once the
+ * report is complete. Group counts are merged over the sites then, so a site restarted by a
+ * transaction retry drops its own group counts along with the rest.
+ */
+public class PermissionAggregates {
+
+    private final Map<String, SiteCounts> sites = new ConcurrentHashMap<String, SiteCounts>();
+
+    /**
+     * Start (or restart, when a transaction is retried) the counts of a site
+     */
+    SiteCounts startSite(String siteShortName) {
+        SiteCounts counts = new SiteCounts();
+        sites.put(siteShortName, counts);
+        return counts;
+    }
+
+    SiteCounts getSite(String siteShortName) {
+        SiteCounts counts = sites.get(siteShortName);
+        return counts != null ? counts : startSite(siteShortName);
+    }
+
+    /**
+     * Count a node with at least one entry in the report
+     */
+    void addNode(String siteShortName) {
+        getSite(siteShortName).nodes++;
+    }
+
+    /**
+     * Count a group entry
+     * @param members the members of the group that pass the report's user filters
+     */
+    void addGroupEntry(String siteShortName, String groupName, String role, Collection<String> members) {
+        SiteCounts site = getSite(siteShortName);
+        site.add(role, false, members.size());
+        if (site.expandedGroups.add(groupName)) {
+            site.users.addAll(members);
+        }
+        GroupCounts group = site.groups.get(groupName);
+        if (group == null) {
+            group = new GroupCounts(members.size());
+            site.groups.put(groupName, group);
+        }
+        group.entries++;
+    }
+
+    void addDirectEntry(String siteShortName, String username, String role) {
+        SiteCounts site = getSite(siteShortName);
+        site.add(role, true, 1);
+        site.users.add(username);
+    }
+
+    /**
+     * @return the counts of each site, in site order
+     */
+    public Map<String, SiteCounts> getSites() {
+        return new TreeMap<String, SiteCounts>(sites);
+    }
+
+    /**
+     * @return the counts of each role over all sites, in role order
+     */
+    public Map<String, RoleCounts> getRoles() {
+        Map<String, RoleCounts> roles = new TreeMap<String, RoleCounts>();
+        for (SiteCounts site : sites.values()) {
+            for (Map.Entry<String, RoleCounts> role : site.roles.entrySet()) {
+                RoleCounts total = roles.get(role.getKey());
+                if (total == null) {
+                    total = new RoleCounts();
+                    roles.put(role.getKey(), total);
+                }
+                total.add(role.getValue());
+            }
+        }
+        return roles;
+    }
+
+    /**
+     * @return the groups with entries in the report, in name order
+     */
+    public Map<String, GroupCounts> getGroups() {
+        Map<String, GroupCounts> groups = new TreeMap<String, GroupCounts>();
+        for (SiteCounts site : sites.values()) {
+            for (Map.Entry<String, GroupCounts> siteGroup : site.groups.entrySet()) {
+                GroupCounts total = groups.get(siteGroup.getKey());
+                if (total == null) {
+                    total = new GroupCounts(siteGroup.getValue().members);
+                    groups.put(siteGroup.getKey(), total);
+                }
+                total.entries += siteGroup.getValue().entries;
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * @return the counts of all sites together
+     */
+    public RoleCounts getTotals() {
+        RoleCounts totals = new RoleCounts();
+        for (RoleCounts role : getRoles().values()) {
+            totals.add(role);
+        }
+        return totals;
+    }
+
+    /**
+     * Entry counts: direct and group entries, and the user permissions they amount to
+     */
+    public static class RoleCounts {
+        private long directEntries;
+        private long groupEntries;
+        private long effectivePermissions;
+
+        public long getEntries() { return directEntries + groupEntries; }
+        public long getDirectEntries() { return directEntries; }
+        public long getGroupEntries() { return groupEntries; }
+        public long getEffectivePermissions() { return effectivePermissions; }
+
+        void add(boolean direct, int users) {
+            if (direct) {
+                directEntries++;
+            } else {
+                groupEntries++;
+            }
+            effectivePermissions += users;
+        }
+
+        void add(RoleCounts counts) {
+            directEntries += counts.directEntries;
+            groupEntries += counts.groupEntries;
+            effectivePermissions += counts.effectivePermissions;
+        }
+    }
+
+    /**
+     * The counts of one site, per role
+     */
+    public static class SiteCounts extends RoleCounts {
+        private final Map<String, RoleCounts> roles = new TreeMap<String, RoleCounts>();
+        private final Set<String> users = new HashSet<String>();
+        private final Set<String> expandedGroups = new HashSet<String>();
+        private final Map<String, GroupCounts> groups = new HashMap<String, GroupCounts>();
+        private long nodes;
+
+        public Map<String, RoleCounts> getRoles() { return roles; }
+        public int getUsers() { return users.size(); }
+        public long getNodes() { return nodes; }
+
+        private void add(String role, boolean direct, int users) {
+            add(direct, users);
+            RoleCounts counts = roles.get(role);
+            if (counts == null) {
+                counts = new RoleCounts();
+                roles.put(role, counts);
+            }
+            counts.add(direct, users);
+        }
+    }
+
+    /**
+     * A group's member count and the number of entries that grant it a role
+     */
+    public static class GroupCounts {
+        private final int members;
+        private long entries;
+
+        GroupCounts(int members) {
+            this.members = members;
+        }
+
+        public int getMembers() { return members; }
+        public long getEntries() { return entries; }
+    }
+}
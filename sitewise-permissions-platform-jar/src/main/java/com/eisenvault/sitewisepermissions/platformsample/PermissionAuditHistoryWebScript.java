@@ -0,0 +1,234 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.extensions.webscripts.AbstractWebScript;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * Web script for reading the permission audit history page by page or as a stream.
+ * Supports filtering by node, user, site, action type and grant date range.
+ * - Paged: pageSize and cursor return one keyset page plus the cursor for the next one
+ * - Streamed: stream=true writes every matching entry as it is read from the database
+ */
+public class PermissionAuditHistoryWebScript extends AbstractWebScript {
+
+    private static Log logger = LogFactory.getLog(PermissionAuditHistoryWebScript.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    private PermissionAuditService permissionAuditService;
+
+    public void setPermissionAuditService(PermissionAuditService permissionAuditService) {
+        this.permissionAuditService = permissionAuditService;
+    }
+
+    @Override
+    public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException {
+        if (!permissionAuditService.isReady()) {
+            writeError(res, 503, "The permission audit table is still being initialized, please retry shortly");
+            return;
+        }
+
+        PermissionAuditService.PermissionAuditQuery query = new PermissionAuditService.PermissionAuditQuery();
+        int pageSize = DEFAULT_PAGE_SIZE;
+
+        try {
+            query.setNodeRef(emptyToNull(req.getParameter("nodeRef")));
+            query.setUsername(emptyToNull(req.getParameter("user")));
+            query.setSite(emptyToNull(req.getParameter("site")));
+
+            String actionType = emptyToNull(req.getParameter("actionType"));
+            if (actionType != null) {
+                actionType = actionType.toUpperCase();
+                if (!actionType.equals("GRANT") && !actionType.equals("REVOKE")) {
+                    writeError(res, 400, "Invalid actionType parameter. Must be 'GRANT' or 'REVOKE'");
+                    return;
+                }
+                query.setActionType(actionType);
+            }
+
+            query.setFromDate(parseDate(req.getParameter("fromDate"), false));
+            query.setToDate(parseDate(req.getParameter("toDate"), true));
+
+            String pageSizeParam = emptyToNull(req.getParameter("pageSize"));
+            if (pageSizeParam != null) {
+                pageSize = Integer.parseInt(pageSizeParam);
+                if (pageSize < 1 || pageSize > PermissionAuditService.MAX_PAGE_SIZE) {
+                    writeError(res, 400, "Invalid pageSize parameter. Must be between 1 and " + PermissionAuditService.MAX_PAGE_SIZE);
+                    return;
+                }
+            }
+        } catch (ParseException e) {
+            writeError(res, 400, "Invalid fromDate/toDate parameter. Must be in yyyy-MM-dd format");
+            return;
+        } catch (NumberFormatException e) {
+            writeError(res, 400, "Invalid pageSize parameter. Must be a number");
+            return;
+        }
+
+        try {
+            if ("true".equalsIgnoreCase(req.getParameter("stream"))) {
+                streamHistory(query, res);
+            } else {
+                writePage(query, req.getParameter("cursor"), pageSize, res);
+            }
+        } catch (IllegalArgumentException e) {
+            writeError(res, 400, e.getMessage());
+        } catch (Exception e) {
+            logger.error("Error in permission audit history web script: " + e.getMessage(), e);
+            writeError(res, 500, "Internal server error");
+        }
+    }
+
+    /**
+     * Write a single keyset page with the cursor for the next one
+     */
+    private void writePage(PermissionAuditService.PermissionAuditQuery query, String cursor, int pageSize,
+                           WebScriptResponse res) throws IOException {
+        PermissionAuditService.PermissionAuditPage page = permissionAuditService.getPermissionAuditPage(query, cursor, pageSize);
+
+        res.setContentType("application/json");
+        res.setContentEncoding("UTF-8");
+        JsonGenerator json = JSON_FACTORY.createGenerator(res.getWriter());
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+        json.writeStartObject();
+        json.writeBooleanField("success", true);
+        json.writeNumberField("count", page.getEntries().size());
+        json.writeBooleanField("hasMore", page.hasMore());
+        if (page.hasMore()) {
+            json.writeStringField("nextCursor", page.getNextCursor());
+        } else {
+            json.writeNullField("nextCursor");
+        }
+        json.writeArrayFieldStart("entries");
+        for (PermissionAuditService.PermissionAuditEntry entry : page.getEntries()) {
+            writeEntry(json, entry, sdf);
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+        json.flush();
+    }
+
+    /**
+     * Stream every matching entry straight from the result set to the response
+     */
+    private void streamHistory(PermissionAuditService.PermissionAuditQuery query, WebScriptResponse res) throws IOException {
+        res.setContentType("application/json");
+        res.setContentEncoding("UTF-8");
+        final JsonGenerator json = JSON_FACTORY.createGenerator(res.getWriter());
+        final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+        json.writeStartObject();
+        json.writeBooleanField("success", true);
+        json.writeArrayFieldStart("entries");
+
+        int count = 0;
+        try {
+            count = permissionAuditService.streamPermissionAudit(query, new PermissionAuditService.PermissionAuditCallback() {
+                @Override
+                public boolean handle(PermissionAuditService.PermissionAuditEntry entry) {
+                    try {
+                        writeEntry(json, entry, sdf);
+                        return true;
+                    } catch (IOException e) {
+                        // Client went away - stop reading rows
+                        logger.debug("Stopping permission audit stream: " + e.getMessage());
+                        return false;
+                    }
+                }
+            });
+            json.writeEndArray();
+        } catch (Exception e) {
+            // Headers are already sent, so report the failure inside the body
+            logger.error("Error streaming permission audit history: " + e.getMessage(), e);
+            json.writeEndArray();
+            json.writeStringField("error", "Failed to stream permission audit history");
+        }
+        json.writeNumberField("count", count);
+        json.writeEndObject();
+        json.flush();
+    }
+
+    private void writeEntry(JsonGenerator json, PermissionAuditService.PermissionAuditEntry entry,
+                            SimpleDateFormat sdf) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("id", entry.getId());
+        json.writeStringField("nodeRef", entry.getNodeRef());
+        json.writeStringField("site", entry.getSiteShortName());
+        json.writeStringField("user", entry.getUserGrantedTo());
+        json.writeStringField("permission", entry.getPermission());
+        json.writeStringField("actionType", entry.getActionType());
+        json.writeBooleanField("active", Boolean.TRUE.equals(entry.getIsActive()));
+        json.writeStringField("dateGranted", formatDate(entry.getDateGranted(), sdf));
+        json.writeStringField("expiryDate", formatDate(entry.getExpiryDate(), sdf));
+        json.writeStringField("revokedDate", formatDate(entry.getRevokedDate(), sdf));
+        json.writeEndObject();
+    }
+
+    private String formatDate(Date date, SimpleDateFormat sdf) {
+        return date != null ? sdf.format(date) : null;
+    }
+
+    /**
+     * Parse a yyyy-MM-dd parameter; toDate is made inclusive by moving it to the start of the next day
+     */
+    private Date parseDate(String value, boolean endOfDay) throws ParseException {
+        value = emptyToNull(value);
+        if (value == null) {
+            return null;
+        }
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
+        sdf.setLenient(false);
+        Date date = sdf.parse(value);
+        if (endOfDay) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTime(date);
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            date = calendar.getTime();
+        }
+        return date;
+    }
+
+    private String emptyToNull(String value) {
+        return (value == null || value.trim().isEmpty()) ? null : value.trim();
+    }
+
+    private void writeError(WebScriptResponse res, int status, String message) throws IOException {
+        res.setStatus(status);
+        res.setContentType("application/json");
+        JsonGenerator json = JSON_FACTORY.createGenerator(res.getWriter());
+        json.writeStartObject();
+        json.writeBooleanField("success", false);
+        json.writeStringField("error", message);
+        json.writeEndObject();
+        json.flush();
+    }
+}
@@ -23,20 +23,36 @@ import org.alfresco.service.cmr.security.PersonService;
 import org.alfresco.service.cmr.security.AuthorityService;
 import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.site.SiteInfo;
+import org.alfresco.service.cmr.site.SiteService;
 import org.alfresco.service.cmr.repository.datatype.DefaultTypeConverter;
 import org.alfresco.service.namespace.QName;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.NamespacePrefixResolver;
 import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -52,12 +68,20 @@ public class PermissionAuditService {
     
     private static Log logger = LogFactory.getLog(PermissionAuditService.class);
     
+    /** Upper bound for a single keyset page, regardless of what the caller asks for */
+    public static final int MAX_PAGE_SIZE = 1000;
+    
     private JdbcTemplate jdbcTemplate;
     private PermissionService permissionService;
     private PersonService personService;
     private AuthorityService authorityService;
     private NodeService nodeService;
     private NamespacePrefixResolver namespacePrefixResolver;
+    private SiteService siteService;
+    private DatabaseInitializer databaseInitializer;
+    private LatestGrantCache latestGrantCache;
+    private TransactionTemplate auditTransactions;
+    private int fetchSize = 500;
     
     public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
@@ -83,10 +107,51 @@ public class PermissionAuditService {
         this.namespacePrefixResolver = namespacePrefixResolver;
     }
     
+    public void setSiteService(SiteService siteService) {
+        this.siteService = siteService;
+    }
+    
+    public void setDatabaseInitializer(DatabaseInitializer databaseInitializer) {
+        this.databaseInitializer = databaseInitializer;
+    }
+    
+    public void setLatestGrantCache(LatestGrantCache latestGrantCache) {
+        this.latestGrantCache = latestGrantCache;
+    }
+    
+    /**
+     * On a dedicated pool, whose connections do not autocommit, audit writes run in a local
+     * transaction of their own; on the shared pool they join the repository transaction
+     */
+    public void setAuditDataSource(InstrumentedDataSource auditDataSource) {
+        this.auditTransactions = auditDataSource.isDedicated()
+            ? new TransactionTemplate(new DataSourceTransactionManager(auditDataSource)) : null;
+    }
+    
+    /**
+     * JDBC fetch size used by the streaming and paged history queries
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+    
     public JdbcTemplate getJdbcTemplate() {
         return jdbcTemplate;
     }
     
+    /**
+     * @return true once the permission_audit table has been created or migrated at startup
+     */
+    public boolean isReady() {
+        return databaseInitializer == null || databaseInitializer.isTableReady();
+    }
+    
+    private void checkReady() {
+        if (!isReady()) {
+            throw new IllegalStateException("The permission audit table is not ready yet");
+        }
+    }
+    
     /**
      * Record a permission grant event
      * @param nodeRef the node the permission was granted on
@@ -94,27 +159,66 @@ public class PermissionAuditService {
      * @param permission the permission that was granted
      * @param dateGranted when the permission was granted
      * @param expiryDate when the permission expires (can be null)
+     * @return the id of the new audit row, or null if the driver did not return it
      */
     @Transactional
-    public void recordPermissionGrant(NodeRef nodeRef, String authority, String permission, 
+    public Long recordPermissionGrant(NodeRef nodeRef, String authority, String permission, 
                                     Date dateGranted, Date expiryDate) {
+        checkReady();
         try {
             logger.info("RECORDING PERMISSION GRANT - NodeRef: " + nodeRef + ", Authority: " + authority + 
                        ", Permission: " + permission + 
                        ", DateGranted: " + dateGranted + ", ExpiryDate: " + expiryDate);
             
-            String sql = "INSERT INTO permission_audit (node_ref, user_granted_to, date_granted, expiry_date, permission, action_type) " +
-                        "VALUES (?, ?, ?, ?, ?, 'GRANT')";
-            
-            jdbcTemplate.update(sql, 
+            final String sql = "INSERT INTO permission_audit (node_ref, user_granted_to, date_granted, expiry_date, permission, action_type, site_short_name) " +
+                        "VALUES (?, ?, ?, ?, ?, 'GRANT', ?)";
+            final Object[] params = {
                 nodeRef.toString(),
                 authority,
-                dateGranted,
-                expiryDate,
-                permission
-            );
+                toTimestamp(dateGranted),
+                toTimestamp(expiryDate),
+                permission,
+                getSiteShortName(nodeRef)
+            };
+            
+            final KeyHolder keyHolder = new GeneratedKeyHolder();
+            inAuditTransaction(new TransactionCallback<Integer>() {
+                public Integer doInTransaction(TransactionStatus status) {
+                    return jdbcTemplate.update(new PreparedStatementCreator() {
+                        @Override
+                        public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
+                            PreparedStatement ps = connection.prepareStatement(sql, new String[]{"id"});
+                            for (int i = 0; i < params.length; i++) {
+                                ps.setObject(i + 1, params[i]);
+                            }
+                            return ps;
+                        }
+                    }, keyHolder);
+                }
+            });
             
             logger.info("SUCCESSFULLY RECORDED PERMISSION GRANT in database");
+            Long id = getGeneratedId(keyHolder);
+            
+            if (latestGrantCache != null) {
+                final String key = LatestGrantCache.key(nodeRef.toString(), authority, permission);
+                final PermissionAuditEntry entry = new PermissionAuditEntry();
+                entry.setId(id);
+                entry.setNodeRef(nodeRef.toString());
+                entry.setUserGrantedTo(authority);
+                entry.setDateGranted(dateGranted);
+                entry.setExpiryDate(expiryDate);
+                entry.setPermission(permission);
+                entry.setActionType("GRANT");
+                entry.setIsActive(Boolean.TRUE);
+                entry.setSiteShortName((String) params[5]);
+                afterCommit(new Runnable() {
+                    public void run() {
+                        latestGrantCache.putIfNewer(key, entry);
+                    }
+                });
+            }
+            return id;
         } catch (Exception e) {
             logger.error("ERROR RECORDING PERMISSION GRANT: " + e.getMessage(), e);
             throw e;
@@ -129,22 +233,42 @@ public class PermissionAuditService {
      * @param dateRevoked when the permission was revoked
      */
     @Transactional
-    public void recordPermissionRevoke(NodeRef nodeRef, String authority, String permission, 
-                                     Date dateRevoked) {
+    public void recordPermissionRevoke(final NodeRef nodeRef, final String authority, final String permission, 
+                                     final Date dateRevoked) {
+        checkReady();
         try {
             logger.info("RECORDING PERMISSION REVOKE - NodeRef: " + nodeRef + ", Authority: " + authority + 
                        ", Permission: " + permission + ", DateRevoked: " + dateRevoked);
             
             // Update the existing active record to mark it as revoked
-            String sql = "UPDATE permission_audit SET is_active = FALSE, revoked_date = ?, action_type = 'REVOKE' " +
+            final String sql = "UPDATE permission_audit SET is_active = FALSE, revoked_date = ?, action_type = 'REVOKE' " +
                         "WHERE node_ref = ? AND user_granted_to = ? AND permission = ? AND is_active = TRUE";
             
-            int updatedRows = jdbcTemplate.update(sql, 
-                dateRevoked,
-                nodeRef.toString(),
-                authority,
-                permission
-            );
+            int updatedRows = inAuditTransaction(new TransactionCallback<Integer>() {
+                public Integer doInTransaction(TransactionStatus status) {
+                    return jdbcTemplate.update(sql, 
+                        dateRevoked,
+                        nodeRef.toString(),
+                        authority,
+                        permission
+                    );
+                }
+            });
+            
+            if (latestGrantCache != null) {
+                final String key = LatestGrantCache.key(nodeRef.toString(), authority, permission);
+                final boolean revoked = updatedRows > 0;
+                afterCommit(new Runnable() {
+                    public void run() {
+                        if (revoked) {
+                            // Every active grant for the key is now a REVOKE row, so there is no latest grant
+                            latestGrantCache.put(key, null);
+                        } else {
+                            latestGrantCache.invalidate(key);
+                        }
+                    }
+                });
+            }
             
             if (updatedRows > 0) {
                 logger.info("SUCCESSFULLY RECORDED PERMISSION REVOKE in database");
@@ -199,6 +323,21 @@ public class PermissionAuditService {
      * @return the most recent grant entry or null if not found
      */
     public PermissionAuditEntry getLatestPermissionGrant(NodeRef nodeRef, String username, String permission) {
+        if (!isReady()) {
+            return null;
+        }
+        String key = null;
+        long stamp = 0L;
+        if (latestGrantCache != null) {
+            key = LatestGrantCache.key(nodeRef.toString(), username, permission);
+            LatestGrantCache.CachedGrant cached = latestGrantCache.get(key);
+            if (cached != null) {
+                return cached.getEntry();
+            }
+            // Taken before the read, so a grant or revocation that commits meanwhile wins
+            stamp = latestGrantCache.getWriteStamp(key);
+        }
+        
         try {
             String sql = "SELECT * FROM permission_audit WHERE node_ref = ? AND user_granted_to = ? " +
                         "AND permission = ? AND action_type = 'GRANT' " +
@@ -207,7 +346,11 @@ public class PermissionAuditService {
             List<PermissionAuditEntry> results = jdbcTemplate.query(sql, 
                 new PermissionAuditRowMapper(), nodeRef.toString(), username, permission);
             
-            return results.isEmpty() ? null : results.get(0);
+            PermissionAuditEntry latest = results.isEmpty() ? null : results.get(0);
+            if (key != null) {
+                latestGrantCache.putFromRead(key, latest, stamp);
+            }
+            return latest;
             
         } catch (Exception e) {
             logger.error("Error getting latest permission grant: " + e.getMessage(), e);
@@ -215,6 +358,43 @@ public class PermissionAuditService {
         }
     }
     
+    /**
+     * Get the latest grant date of every (node, authority, permission) granted since a date.
+     * Served by the date_granted index, so only the grants since that date are read; the
+     * result is the latest grant of each entry, as {@link #getLatestPermissionGrant} returns it.
+     * @param since the earliest grant date to include
+     * @param limit the maximum number of entries to return
+     * @return latest grant dates by {@link LatestGrantCache#key}, or null if there are more
+     *         than limit entries or the query failed
+     */
+    public Map<String, Date> getLatestGrantsSince(Date since, int limit) {
+        if (!isReady()) {
+            return null;
+        }
+        try {
+            String sql = "SELECT node_ref, user_granted_to, permission, MAX(date_granted) AS latest " +
+                        "FROM permission_audit WHERE action_type = 'GRANT' AND date_granted >= ? " +
+                        "GROUP BY node_ref, user_granted_to, permission";
+            List<Object> params = new ArrayList<Object>();
+            params.add(toTimestamp(since));
+
+            final Map<String, Date> grants = new HashMap<String, Date>();
+            jdbcTemplate.query(new HistoryStatementCreator(sql, params, limit + 1, fetchSize), new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    grants.put(LatestGrantCache.key(rs.getString("node_ref"), rs.getString("user_granted_to"),
+                                                    rs.getString("permission")),
+                               rs.getTimestamp("latest"));
+                }
+            });
+            return grants.size() > limit ? null : grants;
+
+        } catch (Exception e) {
+            logger.error("Error getting grants since " + since + ": " + e.getMessage(), e);
+            return null;
+        }
+    }
+
     /**
      * Check if a permission has expired
      * @param nodeRef the node
@@ -230,6 +410,124 @@ public class PermissionAuditService {
         return false;
     }
     
+    /**
+     * Get active grants whose expiry date falls on or before the given date, soonest first.
+     * Served by the (is_active, expiry_date) index, so only the due slice of the table is read.
+     * @param until the latest expiry date to include
+     * @param limit the maximum number of entries to return
+     * @return active grants that expire by the given date
+     */
+    public List<PermissionAuditEntry> getDuePermissionExpiries(Date until, int limit) {
+        try {
+            String sql = "SELECT * FROM permission_audit WHERE is_active = TRUE AND expiry_date IS NOT NULL " +
+                        "AND expiry_date <= ? ORDER BY expiry_date, id";
+            List<Object> params = new ArrayList<Object>();
+            params.add(toTimestamp(until));
+            
+            return jdbcTemplate.query(new HistoryStatementCreator(sql, params, limit, Math.min(limit, fetchSize)),
+                new PermissionAuditRowMapper());
+            
+        } catch (Exception e) {
+            logger.error("Error getting due permission expiries: " + e.getMessage(), e);
+            return new java.util.ArrayList<PermissionAuditEntry>();
+        }
+    }
+    
+    /**
+     * Check whether an audit row is still an active grant
+     * @param id the audit row id
+     * @return false if the row was revoked or never committed
+     */
+    public boolean isActiveGrant(Long id) {
+        Integer count = jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM permission_audit WHERE id = ? AND is_active = TRUE", Integer.class, id);
+        return count != null && count > 0;
+    }
+    
+    /**
+     * Check whether another active grant keeps a permission alive beyond the given date,
+     * for example a later grant without an expiry
+     * @param nodeRef the node
+     * @param authority the user/group
+     * @param permission the permission
+     * @param excludeId the audit row that is expiring
+     * @param at the expiry moment
+     * @return true if some other active grant is still valid at that moment
+     */
+    public boolean hasActiveGrantBeyond(NodeRef nodeRef, String authority, String permission, Long excludeId, Date at) {
+        String sql = "SELECT COUNT(*) FROM permission_audit WHERE node_ref = ? AND user_granted_to = ? " +
+                    "AND permission = ? AND is_active = TRUE AND id <> ? " +
+                    "AND (expiry_date IS NULL OR expiry_date > ?)";
+        Integer count = jdbcTemplate.queryForObject(sql, Integer.class,
+            nodeRef.toString(), authority, permission, excludeId, toTimestamp(at));
+        return count != null && count > 0;
+    }
+    
+    /**
+     * Mark a single expired grant row as revoked
+     * @param nodeRef the node the grant was on
+     * @param authority the user/group the grant was for
+     * @param permission the granted permission
+     * @param id the audit row id
+     * @param dateRevoked when the expiry was enforced
+     */
+    @Transactional
+    public void recordPermissionExpiry(NodeRef nodeRef, String authority, String permission, final Long id,
+                                       final Date dateRevoked) {
+        final String sql = "UPDATE permission_audit SET is_active = FALSE, revoked_date = ?, action_type = 'REVOKE' " +
+                    "WHERE id = ? AND is_active = TRUE";
+        inAuditTransaction(new TransactionCallback<Integer>() {
+            public Integer doInTransaction(TransactionStatus status) {
+                return jdbcTemplate.update(sql, toTimestamp(dateRevoked), id);
+            }
+        });
+        
+        if (latestGrantCache != null) {
+            final String key = LatestGrantCache.key(nodeRef.toString(), authority, permission);
+            afterCommit(new Runnable() {
+                public void run() {
+                    latestGrantCache.invalidate(key);
+                }
+            });
+        }
+    }
+
+    /**
+     * Run an audit write in the dedicated pool's own transaction, or directly (joining the
+     * repository transaction) on the shared pool
+     */
+    private <T> T inAuditTransaction(TransactionCallback<T> work) {
+        return auditTransactions != null ? auditTransactions.execute(work) : work.doInTransaction(null);
+    }
+    
+    /**
+     * Apply a latest-grant cache update once the surrounding repository transaction has
+     * committed, so other transactions never see an uncommitted or rolled back grant; at once
+     * if there is no transaction
+     */
+    private void afterCommit(final Runnable cacheUpdate) {
+        if (AlfrescoTransactionSupport.getTransactionId() == null) {
+            cacheUpdate.run();
+            return;
+        }
+        AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter() {
+            @Override
+            public void afterCommit() {
+                cacheUpdate.run();
+            }
+        });
+    }
+    
+    /**
+     * @return hit/miss statistics of the latest-grant cache, or an empty map if caching is off
+     */
+    public Map<String, Object> getLatestGrantCacheStatistics() {
+        if (latestGrantCache == null) {
+            return new HashMap<String, Object>();
+        }
+        return latestGrantCache.getStatistics();
+    }
+    
     /**
      * Get all permission audit entries for a specific node (active and revoked)
      * @param nodeRef the node to get audit data for
@@ -264,6 +562,290 @@ public class PermissionAuditService {
         }
     }
     
+    /**
+     * Get one page of permission audit history using keyset (seek) pagination on (date_granted, id).
+     * Pages are ordered newest first; pass the previous page's next cursor to continue, so each page
+     * costs an index range scan instead of an ever-growing OFFSET.
+     * @param query the history filters
+     * @param cursor the opaque cursor returned with the previous page, or null for the first page
+     * @param pageSize the maximum number of entries to return (capped at MAX_PAGE_SIZE)
+     * @return the page of entries with the cursor for the next page
+     */
+    public PermissionAuditPage getPermissionAuditPage(PermissionAuditQuery query, String cursor, int pageSize) {
+        final int limit = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        final List<Object> params = new ArrayList<Object>();
+        StringBuilder sql = buildHistoryQuery(query, params);
+        
+        Object[] position = decodeCursor(cursor);
+        if (position != null) {
+            sql.append(params.isEmpty() ? " WHERE " : " AND ");
+            sql.append("(date_granted < ? OR (date_granted = ? AND id < ?))");
+            params.add(position[0]);
+            params.add(position[0]);
+            params.add(position[1]);
+        }
+        sql.append(" ORDER BY date_granted DESC, id DESC");
+        
+        // Fetch one extra row to find out whether another page exists
+        List<PermissionAuditEntry> entries = jdbcTemplate.query(
+            new HistoryStatementCreator(sql.toString(), params, limit + 1, Math.min(limit + 1, fetchSize)),
+            new PermissionAuditRowMapper());
+        
+        PermissionAuditPage page = new PermissionAuditPage();
+        if (entries.size() > limit) {
+            entries = new ArrayList<PermissionAuditEntry>(entries.subList(0, limit));
+            PermissionAuditEntry last = entries.get(limit - 1);
+            page.setNextCursor(encodeCursor(last.getDateGranted(), last.getId()));
+        }
+        page.setEntries(entries);
+        return page;
+    }
+    
+    /**
+     * Stream permission audit history to a callback, newest first, without materializing the result.
+     * Rows are read with the configured JDBC fetch size; on PostgreSQL the caller must be inside a
+     * transaction for the driver to use a server-side cursor.
+     * The entry passed to the callback is reused between rows, so copy anything that must outlive the call.
+     * @param query the history filters
+     * @param callback receives each entry; return false to stop reading
+     * @return the number of entries handed to the callback
+     */
+    public int streamPermissionAudit(PermissionAuditQuery query, final PermissionAuditCallback callback) {
+        final List<Object> params = new ArrayList<Object>();
+        StringBuilder sql = buildHistoryQuery(query, params);
+        sql.append(" ORDER BY date_granted DESC, id DESC");
+        
+        final PermissionAuditEntry entry = new PermissionAuditEntry();
+        final int[] count = new int[1];
+        try {
+            jdbcTemplate.query(new HistoryStatementCreator(sql.toString(), params, 0, fetchSize), new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    PermissionAuditRowMapper.populate(rs, entry);
+                    count[0]++;
+                    if (!callback.handle(entry)) {
+                        throw new StreamStoppedException();
+                    }
+                }
+            });
+        } catch (StreamStoppedException e) {
+            logger.debug("Permission audit stream stopped by callback after " + count[0] + " entries");
+        }
+        return count[0];
+    }
+    
+    /**
+     * Build the SELECT and WHERE clauses shared by the paged and streaming history queries
+     */
+    private StringBuilder buildHistoryQuery(PermissionAuditQuery query, List<Object> params) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM permission_audit");
+        List<String> conditions = new ArrayList<String>();
+        
+        if (query != null) {
+            if (query.getNodeRef() != null) {
+                conditions.add("node_ref = ?");
+                params.add(query.getNodeRef());
+            }
+            if (query.getUsername() != null) {
+                conditions.add("user_granted_to = ?");
+                params.add(query.getUsername());
+            }
+            if (query.getSite() != null) {
+                conditions.add("site_short_name = ?");
+                params.add(query.getSite());
+            }
+            if (query.getActionType() != null) {
+                conditions.add("action_type = ?");
+                params.add(query.getActionType());
+            }
+            if (query.getFromDate() != null) {
+                conditions.add("date_granted >= ?");
+                params.add(new Timestamp(query.getFromDate().getTime()));
+            }
+            if (query.getToDate() != null) {
+                conditions.add("date_granted < ?");
+                params.add(new Timestamp(query.getToDate().getTime()));
+            }
+        }
+        
+        for (int i = 0; i < conditions.size(); i++) {
+            sql.append(i == 0 ? " WHERE " : " AND ").append(conditions.get(i));
+        }
+        return sql;
+    }
+    
+    /**
+     * Encode a keyset position as an opaque cursor string
+     */
+    static String encodeCursor(Date dateGranted, Long id) {
+        if (dateGranted == null || id == null) {
+            return null;
+        }
+        // The nanos hold the fraction of the second, so a plain Date keeps its milliseconds too
+        int nanos = (dateGranted instanceof Timestamp) ? ((Timestamp) dateGranted).getNanos()
+                                                       : toTimestamp(dateGranted).getNanos();
+        return dateGranted.getTime() + "-" + nanos + "-" + id;
+    }
+    
+    /**
+     * Decode a cursor into its (Timestamp, Long) keyset position
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    static Object[] decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        String[] parts = cursor.split("-");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        try {
+            Timestamp dateGranted = new Timestamp(Long.parseLong(parts[0]));
+            dateGranted.setNanos(Integer.parseInt(parts[1]));
+            return new Object[]{dateGranted, Long.valueOf(parts[2])};
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+    
+    private static Timestamp toTimestamp(Date date) {
+        if (date == null || date instanceof Timestamp) {
+            return (Timestamp) date;
+        }
+        return new Timestamp(date.getTime());
+    }
+    
+    private static Long getGeneratedId(KeyHolder keyHolder) {
+        try {
+            Number key = keyHolder.getKey();
+            return key != null ? key.longValue() : null;
+        } catch (Exception e) {
+            // Some drivers return every column of the new row rather than just the id
+            Map<String, Object> keys = keyHolder.getKeys();
+            if (keys != null) {
+                for (Map.Entry<String, Object> key : keys.entrySet()) {
+                    if ("id".equalsIgnoreCase(key.getKey()) && key.getValue() instanceof Number) {
+                        return ((Number) key.getValue()).longValue();
+                    }
+                }
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * Resolve the short name of the site containing a node, or null if it is not in a site
+     */
+    private String getSiteShortName(NodeRef nodeRef) {
+        if (siteService == null) {
+            return null;
+        }
+        try {
+            SiteInfo site = siteService.getSite(nodeRef);
+            return site != null ? site.getShortName() : null;
+        } catch (Exception e) {
+            logger.debug("Could not resolve site for node " + nodeRef + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Prepared statement creator that applies a row limit and fetch size to the history queries
+     */
+    private static class HistoryStatementCreator implements PreparedStatementCreator {
+        private final String sql;
+        private final List<Object> params;
+        private final int maxRows;
+        private final int fetchSize;
+        
+        HistoryStatementCreator(String sql, List<Object> params, int maxRows, int fetchSize) {
+            this.sql = sql;
+            this.params = params;
+            this.maxRows = maxRows;
+            this.fetchSize = fetchSize;
+        }
+        
+        @Override
+        public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
+            PreparedStatement ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            if (maxRows > 0) {
+                ps.setMaxRows(maxRows);
+            }
+            if (fetchSize > 0) {
+                ps.setFetchSize(fetchSize);
+            }
+            for (int i = 0; i < params.size(); i++) {
+                ps.setObject(i + 1, params.get(i));
+            }
+            return ps;
+        }
+    }
+    
+    /**
+     * Thrown inside the row callback to stop reading once the consumer has had enough
+     */
+    private static class StreamStoppedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+    
+    /**
+     * Callback for streamed permission audit history
+     */
+    public interface PermissionAuditCallback {
+        /**
+         * @param entry the current entry (reused between rows)
+         * @return true to keep reading, false to stop
+         */
+        boolean handle(PermissionAuditEntry entry);
+    }
+    
+    /**
+     * Filters for the paged and streaming history queries; null fields are not filtered on
+     */
+    public static class PermissionAuditQuery {
+        private String nodeRef;
+        private String username;
+        private String site;
+        private String actionType;
+        private Date fromDate;
+        private Date toDate;
+        
+        public String getNodeRef() { return nodeRef; }
+        public void setNodeRef(String nodeRef) { this.nodeRef = nodeRef; }
+        
+        public String getUsername() { return username; }
+        public void setUsername(String username) { this.username = username; }
+        
+        public String getSite() { return site; }
+        public void setSite(String site) { this.site = site; }
+        
+        public String getActionType() { return actionType; }
+        public void setActionType(String actionType) { this.actionType = actionType; }
+        
+        public Date getFromDate() { return fromDate; }
+        public void setFromDate(Date fromDate) { this.fromDate = fromDate; }
+        
+        public Date getToDate() { return toDate; }
+        public void setToDate(Date toDate) { this.toDate = toDate; }
+    }
+    
+    /**
+     * One page of permission audit history
+     */
+    public static class PermissionAuditPage {
+        private List<PermissionAuditEntry> entries;
+        private String nextCursor;
+        
+        public List<PermissionAuditEntry> getEntries() { return entries; }
+        public void setEntries(List<PermissionAuditEntry> entries) { this.entries = entries; }
+        
+        /** @return the cursor for the next page, or null if this is the last page */
+        public String getNextCursor() { return nextCursor; }
+        public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+        
+        public boolean hasMore() { return nextCursor != null; }
+    }
+    
     /**
      * Row mapper for permission audit entries
      */
@@ -271,6 +853,11 @@ public class PermissionAuditService {
         @Override
         public PermissionAuditEntry mapRow(ResultSet rs, int rowNum) throws SQLException {
             PermissionAuditEntry entry = new PermissionAuditEntry();
+            populate(rs, entry);
+            return entry;
+        }
+        
+        static void populate(ResultSet rs, PermissionAuditEntry entry) throws SQLException {
             entry.setId(rs.getLong("id"));
             entry.setNodeRef(rs.getString("node_ref"));
             entry.setUserGrantedTo(rs.getString("user_granted_to"));
@@ -280,8 +867,8 @@ public class PermissionAuditService {
             entry.setActionType(rs.getString("action_type"));
             entry.setIsActive(rs.getBoolean("is_active"));
             entry.setRevokedDate(rs.getTimestamp("revoked_date"));
+            entry.setSiteShortName(rs.getString("site_short_name"));
             entry.setCreatedAt(rs.getTimestamp("created_at"));
-            return entry;
         }
     }
     
@@ -298,6 +885,7 @@ public class PermissionAuditService {
         private String actionType;
         private Boolean isActive;
         private Date revokedDate;
+        private String siteShortName;
         private Date createdAt;
         
         // Getters and setters
@@ -328,6 +916,9 @@ public class PermissionAuditService {
         public Date getRevokedDate() { return revokedDate; }
         public void setRevokedDate(Date revokedDate) { this.revokedDate = revokedDate; }
         
+        public String getSiteShortName() { return siteShortName; }
+        public void setSiteShortName(String siteShortName) { this.siteShortName = siteShortName; }
+        
         public Date getCreatedAt() { return createdAt; }
         public void setCreatedAt(Date createdAt) { this.createdAt = createdAt; }
     }
@@ -30,6 +30,7 @@ public class PermissionChangeScheduler {
     private NodeService nodeService;
     private PermissionService permissionService;
     private PermissionAuditService permissionAuditService;
+    private NodePrefetcher nodePrefetcher;
     
     // Track which nodes we've already processed to avoid reprocessing
     private final Set<NodeRef> processedNodes = new HashSet<>();
@@ -53,6 +54,10 @@ public class PermissionChangeScheduler {
         this.permissionAuditService = permissionAuditService;
     }
     
+    public void setNodePrefetcher(NodePrefetcher nodePrefetcher) {
+        this.nodePrefetcher = nodePrefetcher;
+    }
+    
     /**
      * Check permissions for a specific node and detect changes
      */
@@ -76,6 +81,11 @@ public class PermissionChangeScheduler {
      */
     public void checkPermissionChanges() {
         try {
+            if (!permissionAuditService.isReady()) {
+                logger.warn("Permission audit table is still being initialized, skipping permission change check");
+                return;
+            }
+            
             logger.info("=== PERMISSION CHANGE CHECKER STARTED ===");
             
             // Clear the processed nodes cache to ensure we check all nodes
@@ -264,8 +274,13 @@ public class PermissionChangeScheduler {
             List<org.alfresco.service.cmr.repository.ChildAssociationRef> childAssocs = nodeService.getChildAssocs(parentNode);
             logger.debug("Found " + childAssocs.size() + " child nodes under " + parentNode);
             
-            for (org.alfresco.service.cmr.repository.ChildAssociationRef assoc : childAssocs) {
-                NodeRef childNode = assoc.getChildRef();
+            int prefetchedTo = 0;
+            for (int i = 0; i < childAssocs.size(); i++) {
+                // Load the next batch of children in bulk before reading them one by one
+                if (nodePrefetcher != null && i >= prefetchedTo) {
+                    prefetchedTo = nodePrefetcher.prefetch(childAssocs, i);
+                }
+                NodeRef childNode = childAssocs.get(i).getChildRef();
                 
                 if (nodeService.exists(childNode)) {
                     nodesChecked++;
@@ -23,6 +23,10 @@ import java.util.ArrayList;
  * - Check specific site
  * - Check specific node
  * - Clear cache
+ * - Show latest-grant cache statistics
+ * - Show audit connection pool statistics
+ * - Show audit schema version and migration progress
+ * - Rebuild the permission report index, or show its state
  */
 public class PermissionCheckerWebScript extends AbstractWebScript {
     
@@ -31,6 +35,15 @@ public class PermissionCheckerWebScript extends AbstractWebScript {
     private PermissionChangeScheduler permissionChangeScheduler;
     private SiteService siteService;
     private NodeService nodeService;
+    private PermissionAuditService permissionAuditService;
+    private InstrumentedDataSource auditDataSource;
+    private DatabaseInitializer databaseInitializer;
+    private GroupMembershipCache groupMembershipCache;
+    private AuthorityGraph authorityGraph;
+    private NodePrefetcher nodePrefetcher;
+    private SqlReportEngine sqlReportEngine;
+    private ReportIndexService reportIndexService;
+    private ReportResponseCache reportResponseCache;
     
     public void setPermissionChangeScheduler(PermissionChangeScheduler permissionChangeScheduler) {
         this.permissionChangeScheduler = permissionChangeScheduler;
@@ -44,6 +57,42 @@ public class PermissionCheckerWebScript extends AbstractWebScript {
         this.nodeService = nodeService;
     }
     
+    public void setPermissionAuditService(PermissionAuditService permissionAuditService) {
+        this.permissionAuditService = permissionAuditService;
+    }
+    
+    public void setAuditDataSource(InstrumentedDataSource auditDataSource) {
+        this.auditDataSource = auditDataSource;
+    }
+    
+    public void setDatabaseInitializer(DatabaseInitializer databaseInitializer) {
+        this.databaseInitializer = databaseInitializer;
+    }
+    
+    public void setGroupMembershipCache(GroupMembershipCache groupMembershipCache) {
+        this.groupMembershipCache = groupMembershipCache;
+    }
+    
+    public void setAuthorityGraph(AuthorityGraph authorityGraph) {
+        this.authorityGraph = authorityGraph;
+    }
+    
+    public void setNodePrefetcher(NodePrefetcher nodePrefetcher) {
+        this.nodePrefetcher = nodePrefetcher;
+    }
+    
+    public void setSqlReportEngine(SqlReportEngine sqlReportEngine) {
+        this.sqlReportEngine = sqlReportEngine;
+    }
+    
+    public void setReportIndexService(ReportIndexService reportIndexService) {
+        this.reportIndexService = reportIndexService;
+    }
+    
+    public void setReportResponseCache(ReportResponseCache reportResponseCache) {
+        this.reportResponseCache = reportResponseCache;
+    }
+    
     @Override
     public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException {
         try {
@@ -56,10 +105,53 @@ public class PermissionCheckerWebScript extends AbstractWebScript {
             if ("clear-cache".equals(action)) {
                 // Clear the processed nodes cache
                 permissionChangeScheduler.clearProcessedNodesCache();
+                groupMembershipCache.clear();
+                reportResponseCache.clear();
                 result.put("status", "success");
                 result.put("message", "Permission cache cleared successfully");
                 result.put("action", "clear-cache");
                 
+            } else if ("cache-stats".equals(action)) {
+                // Report latest-grant cache statistics
+                result.put("status", "success");
+                result.put("message", "Latest grant cache: " + permissionAuditService.getLatestGrantCacheStatistics() +
+                           "; group membership cache: " + groupMembershipCache.getStatistics() +
+                           "; authority graph: " + authorityGraph.getStatistics() +
+                           "; node prefetch: " + nodePrefetcher.getStatistics() +
+                           "; SQL report engine: " + sqlReportEngine.getStatistics() +
+                           "; report response cache: " + reportResponseCache.getStatistics());
+                result.put("action", "cache-stats");
+                
+            } else if ("pool-stats".equals(action)) {
+                // Report audit connection pool statistics
+                result.put("status", "success");
+                result.put("message", "Audit connection pool: " + auditDataSource.getStatistics());
+                result.put("action", "pool-stats");
+                
+            } else if ("schema-status".equals(action)) {
+                // Report the audit schema version and migration progress
+                result.put("status", "success");
+                result.put("message", "Audit schema: " + databaseInitializer.getSchemaStatus());
+                result.put("action", "schema-status");
+                
+            } else if ("rebuild-report-index".equals(action)) {
+                // Queue a full rebuild of the permission report index
+                if (reportIndexService.requestRebuild()) {
+                    result.put("status", "success");
+                    result.put("message", "Permission report index rebuild queued");
+                } else {
+                    res.setStatus(409);
+                    result.put("status", "error");
+                    result.put("message", "The permission report index is disabled");
+                }
+                result.put("action", "rebuild-report-index");
+                
+            } else if ("report-index-status".equals(action)) {
+                // Report the state of the permission report index
+                result.put("status", "success");
+                result.put("message", "Permission report index: " + reportIndexService.getStatistics());
+                result.put("action", "report-index-status");
+                
             } else if ("check-permissions".equals(action) || action == null) {
                 // Trigger comprehensive permission checking
                 permissionChangeScheduler.checkPermissionChanges();
@@ -119,7 +211,7 @@ public class PermissionCheckerWebScript extends AbstractWebScript {
                 res.setStatus(400);
                 result.put("status", "error");
                 result.put("message", "Missing required parameters");
-                result.put("usage", "Use one of: ?action=check-permissions | ?action=clear-cache | ?site=<siteName> | ?nodeRef=<nodeRef>");
+                result.put("usage", "Use one of: ?action=check-permissions | ?action=clear-cache | ?action=cache-stats | ?action=pool-stats | ?action=schema-status | ?action=rebuild-report-index | ?action=report-index-status | ?site=<siteName> | ?nodeRef=<nodeRef>");
             }
             
             // Write JSON response
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enforces permission expiry dates recorded in the permission_audit table.
+ *
+ * Only the slice of active grants expiring within the look-ahead window is held in memory, in a
+ * priority queue ordered by expiry date. A single background thread sleeps until the head of the
+ * queue is due, revokes everything due in batches through PermissionService and records the
+ * revocation, then reloads the next window from the (is_active, expiry_date) index. There is no
+ * periodic sweep of the whole table.
+ *
+ * A batch that fails is revoked again one expiry per transaction, so one expiry that cannot be
+ * revoked (unknown authority, bad permission name, locked node) does not hold up the others.
+ * Such an expiry is retried after RETRY_DELAY_MILLIS; after MAX_ATTEMPTS failures it is parked
+ * and logged, and not loaded again until the next restart.
+ */
+public class PermissionExpiryService {
+
+    private static final Log logger = LogFactory.getLog(PermissionExpiryService.class);
+
+    /** How long to wait before retrying an expiry whose revocation failed */
+    private static final long RETRY_DELAY_MILLIS = 5L * 60L * 1000L;
+
+    /** Failed revocation attempts after which an expiry is parked until the next restart */
+    private static final int MAX_ATTEMPTS = 5;
+
+    /** How often to check again while the audit table is still being initialized */
+    private static final long NOT_READY_DELAY_MILLIS = 30L * 1000L;
+
+    private PermissionService permissionService;
+    private NodeService nodeService;
+    private PermissionAuditService permissionAuditService;
+    private RetryingTransactionHelper retryingTransactionHelper;
+
+    private boolean enabled = true;
+    private long lookAheadMillis = 60L * 60L * 1000L;
+    private int batchSize = 100;
+    private int maxQueued = 10000;
+    private long startupDelayMillis = 60L * 1000L;
+
+    private final PriorityQueue<ExpiryItem> queue = new PriorityQueue<ExpiryItem>(64, new Comparator<ExpiryItem>() {
+        public int compare(ExpiryItem a, ExpiryItem b) {
+            int result = Long.compare(a.dueTime, b.dueTime);
+            return result != 0 ? result : Long.compare(a.id, b.id);
+        }
+    });
+    private final Set<Long> queuedIds = new HashSet<Long>();
+    /** Expiries given up on after MAX_ATTEMPTS failures; still active in the table */
+    private final Set<Long> parkedIds = new HashSet<Long>();
+
+    /** Everything expiring up to this time is guaranteed to be in the queue */
+    private long loadedUntil = 0L;
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> nextWakeUp;
+    private long nextWakeUpTime = Long.MAX_VALUE;
+
+    public void setPermissionService(PermissionService permissionService) {
+        this.permissionService = permissionService;
+    }
+
+    public void setNodeService(NodeService nodeService) {
+        this.nodeService = nodeService;
+    }
+
+    public void setPermissionAuditService(PermissionAuditService permissionAuditService) {
+        this.permissionAuditService = permissionAuditService;
+    }
+
+    public void setRetryingTransactionHelper(RetryingTransactionHelper retryingTransactionHelper) {
+        this.retryingTransactionHelper = retryingTransactionHelper;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setLookAheadMinutes(int lookAheadMinutes) {
+        this.lookAheadMillis = lookAheadMinutes * 60L * 1000L;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setMaxQueued(int maxQueued) {
+        this.maxQueued = maxQueued;
+    }
+
+    public void setStartupDelaySeconds(int startupDelaySeconds) {
+        this.startupDelayMillis = startupDelaySeconds * 1000L;
+    }
+
+    /**
+     * Start the expiry thread; the first load waits for the startup delay so the repository can finish starting
+     */
+    public void init() {
+        if (!enabled) {
+            logger.info("Permission expiry enforcement is disabled");
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PermissionExpiry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        synchronized (this) {
+            scheduleWakeUp(System.currentTimeMillis() + startupDelayMillis);
+        }
+        logger.info("Permission expiry enforcement started (look-ahead " + (lookAheadMillis / 60000L) + " minutes)");
+    }
+
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Grant a permission that is revoked automatically once the expiry date passes
+     * @param nodeRef the node to grant the permission on
+     * @param authority the user/group to grant the permission to
+     * @param permission the permission to grant
+     * @param expiryDate when the permission expires
+     */
+    public void grantPermissionWithExpiry(NodeRef nodeRef, String authority, String permission, Date expiryDate) {
+        if (expiryDate == null) {
+            throw new IllegalArgumentException("An expiry date is required");
+        }
+        Date now = new Date();
+        if (!expiryDate.after(now)) {
+            throw new IllegalArgumentException("The expiry date must be in the future");
+        }
+
+        permissionService.setPermission(nodeRef, authority, permission, true);
+        Long id = permissionAuditService.recordPermissionGrant(nodeRef, authority, permission, now, expiryDate);
+        logger.info("Granted " + permission + " to " + authority + " on " + nodeRef + " until " + expiryDate);
+
+        // Queued once the grant has committed, so a rolled back grant is never queued. Grants
+        // beyond the loaded window are picked up by the next reload.
+        if (id != null && executor != null) {
+            final ExpiryItem item = new ExpiryItem(id, nodeRef, authority, permission, expiryDate.getTime());
+            if (AlfrescoTransactionSupport.getTransactionId() == null) {
+                enqueueGranted(item);
+            } else {
+                AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter() {
+                    @Override
+                    public void afterCommit() {
+                        enqueueGranted(item);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Queue a new grant if it expires within the loaded window
+     */
+    private synchronized void enqueueGranted(ExpiryItem item) {
+        if (item.expiryTime <= loadedUntil) {
+            enqueue(item);
+            scheduleWakeUp(item.expiryTime);
+        }
+    }
+
+    /**
+     * @return the number of expiries currently held in memory
+     */
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Background tick: reload the window if needed, then revoke everything that is due
+     */
+    private void wakeUp() {
+        try {
+            synchronized (this) {
+                nextWakeUp = null;
+                nextWakeUpTime = Long.MAX_VALUE;
+            }
+            if (!permissionAuditService.isReady()) {
+                // Schema initialization still running; the finally block reschedules us
+                logger.debug("Permission audit table not ready, postponing expiry enforcement");
+                return;
+            }
+            if (System.currentTimeMillis() >= loadedUntil) {
+                reloadWindow();
+            }
+
+            List<ExpiryItem> batch = takeDueBatch();
+            while (!batch.isEmpty()) {
+                processBatch(batch);
+                batch = takeDueBatch();
+            }
+        } catch (Throwable e) {
+            logger.error("Error enforcing permission expiries: " + e.getMessage(), e);
+        } finally {
+            synchronized (this) {
+                long next = permissionAuditService.isReady() ? loadedUntil : System.currentTimeMillis() + NOT_READY_DELAY_MILLIS;
+                ExpiryItem head = queue.peek();
+                if (head != null && head.dueTime < next) {
+                    next = head.dueTime;
+                }
+                scheduleWakeUp(Math.max(next, System.currentTimeMillis() + 1000L));
+            }
+        }
+    }
+
+    /**
+     * Load active grants expiring within the look-ahead window from the expiry index
+     */
+    private void reloadWindow() {
+        long now = System.currentTimeMillis();
+        long until = now + lookAheadMillis;
+        List<PermissionAuditService.PermissionAuditEntry> entries =
+            permissionAuditService.getDuePermissionExpiries(new Date(until), maxQueued);
+
+        synchronized (this) {
+            for (PermissionAuditService.PermissionAuditEntry entry : entries) {
+                if (queuedIds.contains(entry.getId()) || parkedIds.contains(entry.getId())) {
+                    continue;
+                }
+                try {
+                    enqueue(new ExpiryItem(entry.getId(), new NodeRef(entry.getNodeRef()), entry.getUserGrantedTo(),
+                        entry.getPermission(), entry.getExpiryDate().getTime()));
+                } catch (Exception e) {
+                    logger.warn("Skipping expiry for audit row " + entry.getId() + ": " + e.getMessage());
+                }
+            }
+            // A full result means there may be more rows inside the window than we loaded
+            if (entries.size() >= maxQueued && !entries.isEmpty()) {
+                loadedUntil = entries.get(entries.size() - 1).getExpiryDate().getTime();
+            } else {
+                loadedUntil = until;
+            }
+        }
+        logger.debug("Loaded " + entries.size() + " permission expiries due before " + new Date(loadedUntil));
+    }
+
+    private synchronized List<ExpiryItem> takeDueBatch() {
+        List<ExpiryItem> batch = new ArrayList<ExpiryItem>();
+        long now = System.currentTimeMillis();
+        while (batch.size() < batchSize && !queue.isEmpty() && queue.peek().dueTime <= now) {
+            ExpiryItem item = queue.poll();
+            queuedIds.remove(item.id);
+            batch.add(item);
+        }
+        return batch;
+    }
+
+    /**
+     * Revoke a batch of due permissions as the system user in a single transaction, or one per
+     * transaction if the batch fails
+     */
+    private void processBatch(List<ExpiryItem> batch) {
+        try {
+            revokeInTransaction(batch);
+            logger.info("Enforced " + batch.size() + " permission expiries");
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                failed(batch.get(0), e);
+                return;
+            }
+            logger.warn("Error revoking a batch of " + batch.size() + " expired permissions, revoking them one by one: " +
+                        e.getMessage());
+            int enforced = 0;
+            for (ExpiryItem item : batch) {
+                try {
+                    revokeInTransaction(Collections.singletonList(item));
+                    enforced++;
+                } catch (Exception itemError) {
+                    failed(item, itemError);
+                }
+            }
+            logger.info("Enforced " + enforced + " of " + batch.size() + " permission expiries");
+        }
+    }
+
+    private void revokeInTransaction(final List<ExpiryItem> items) {
+        AuthenticationUtil.runAsSystem(new RunAsWork<Void>() {
+            public Void doWork() throws Exception {
+                retryingTransactionHelper.doInTransaction(new RetryingTransactionCallback<Void>() {
+                    public Void execute() throws Throwable {
+                        Date now = new Date();
+                        for (ExpiryItem item : items) {
+                            revoke(item, now);
+                        }
+                        return null;
+                    }
+                }, false, true);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Retry an expiry whose revocation failed later, or park it once it has failed MAX_ATTEMPTS times
+     */
+    private synchronized void failed(ExpiryItem item, Exception e) {
+        item.attempts++;
+        if (item.attempts >= MAX_ATTEMPTS) {
+            parkedIds.add(item.id);
+            logger.error("Giving up on the expiry of audit row " + item.id + " (node " + item.nodeRef + ", authority " +
+                         item.authority + ", permission " + item.permission + ") after " + item.attempts +
+                         " attempts; it stays granted until revoked by hand or the next restart: " + e.getMessage(), e);
+            return;
+        }
+        logger.error("Error revoking expired permission of audit row " + item.id + ", will retry (attempt " +
+                     item.attempts + " of " + MAX_ATTEMPTS + "): " + e.getMessage(), e);
+        item.dueTime = System.currentTimeMillis() + RETRY_DELAY_MILLIS;
+        enqueue(item);
+    }
+
+    private void revoke(ExpiryItem item, Date now) {
+        if (!permissionAuditService.isActiveGrant(item.id)) {
+            // Revoked meanwhile, or the granting transaction rolled back
+            logger.debug("Audit row " + item.id + " is no longer an active grant, skipping expiry");
+            return;
+        }
+        Date expiry = new Date(item.expiryTime);
+        boolean stillGranted = permissionAuditService.hasActiveGrantBeyond(
+            item.nodeRef, item.authority, item.permission, item.id, expiry);
+
+        if (stillGranted) {
+            // A later grant keeps the permission alive; only retire this row
+            permissionAuditService.recordPermissionExpiry(item.nodeRef, item.authority, item.permission, item.id, now);
+            logger.debug("Expiry of audit row " + item.id + " superseded by a later grant");
+            return;
+        }
+
+        if (nodeService.exists(item.nodeRef)) {
+            permissionService.deletePermission(item.nodeRef, item.authority, item.permission);
+        }
+        permissionAuditService.recordPermissionRevoke(item.nodeRef, item.authority, item.permission, now);
+        logger.info("[PERMISSION EXPIRED] Node: " + item.nodeRef +
+                   " | Authority: " + item.authority +
+                   " | Permission: " + item.permission);
+    }
+
+    private void enqueue(ExpiryItem item) {
+        if (queuedIds.add(item.id)) {
+            queue.add(item);
+        }
+    }
+
+    /**
+     * Make sure the expiry thread wakes up no later than the given time
+     */
+    private void scheduleWakeUp(long time) {
+        if (executor == null || executor.isShutdown()) {
+            return;
+        }
+        if (nextWakeUp != null && nextWakeUpTime <= time) {
+            return;
+        }
+        if (nextWakeUp != null) {
+            nextWakeUp.cancel(false);
+        }
+        long delay = Math.max(0L, time - System.currentTimeMillis());
+        nextWakeUpTime = time;
+        nextWakeUp = executor.schedule(new Runnable() {
+            public void run() {
+                wakeUp();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A grant waiting for its expiry
+     */
+    private static class ExpiryItem {
+        private final long id;
+        private final NodeRef nodeRef;
+        private final String authority;
+        private final String permission;
+        private final long expiryTime;
+        private long dueTime;
+        private int attempts;
+
+        ExpiryItem(long id, NodeRef nodeRef, String authority, String permission, long expiryTime) {
+            this.id = id;
+            this.nodeRef = nodeRef;
+            this.authority = authority;
+            this.permission = permission;
+            this.expiryTime = expiryTime;
+            this.dueTime = expiryTime;
+        }
+    }
+}
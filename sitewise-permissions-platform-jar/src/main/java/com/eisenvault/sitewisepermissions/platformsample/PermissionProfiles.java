@@ -0,0 +1,89 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.alfresco.service.cmr.security.AccessPermission;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * The permission profiles of a profile report. Nodes with the same set of ACL entries share a
+ * profile, identified by a hash of the entries, whose users are expanded once; the report
+ * then lists each node with its profile id instead of a row per user.
+ *
+ * Profiles are added by the site workers of a report and read by the thread writing it, once
+ * a node referring to them has been handed over.
+ */
+public class PermissionProfiles {
+
+    private final ConcurrentMap<String, Profile> profiles = new ConcurrentHashMap<String, Profile>();
+
+    /**
+     * @param key the sorted authorities and permissions of a node's entries
+     * @return the id of the profile with those entries
+     */
+    static String getId(CharSequence key) {
+        return DigestUtils.sha1Hex(key.toString()).substring(0, 16);
+    }
+
+    /**
+     * @return the profile with an id, or null if no node had it yet
+     */
+    public Profile getProfile(String id) {
+        return profiles.get(id);
+    }
+
+    /**
+     * Add a profile, unless another worker added it first
+     * @return the profile stored under the id
+     */
+    Profile add(String id, List<AccessPermission> entries, List<PermissionRow> users) {
+        Profile profile = new Profile(id, entries, users);
+        Profile previous = profiles.putIfAbsent(id, profile);
+        return previous != null ? previous : profile;
+    }
+
+    /**
+     * A set of ACL entries and the users they grant a role to
+     */
+    public static class Profile {
+        private final String id;
+        private final List<AccessPermission> entries;
+        private final List<PermissionRow> users;
+
+        Profile(String id, List<AccessPermission> entries, List<PermissionRow> users) {
+            this.id = id;
+            this.entries = Collections.unmodifiableList(entries);
+            this.users = Collections.unmodifiableList(users);
+        }
+
+        public String getId() { return id; }
+
+        /** @return the entries, by authority then permission */
+        public List<AccessPermission> getEntries() { return entries; }
+
+        /**
+         * @return a row per user and entry that passes the report filters, without node or
+         *         date columns, which belong to the nodes
+         */
+        public List<PermissionRow> getUsers() { return users; }
+    }
+}
@@ -0,0 +1,1439 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.security.AccessPermission;
+import org.alfresco.service.cmr.security.AuthorityService;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.cmr.security.PersonService;
+import org.alfresco.service.cmr.site.SiteInfo;
+import org.alfresco.service.cmr.site.SiteService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.dao.DataAccessException;
+
+/**
+ * Walks the document libraries of the requested sites and hands every permission row that
+ * passes the report filters to a {@link RowHandler} as soon as it is produced, so callers can
+ * write rows out without holding the whole report in memory. Rows come in a stable order, so
+ * a report can be returned page by page, each page resuming the traversal at a {@link ReportPosition}.
+ * When the {@link SqlReportEngine} is enabled, the nodes and ACL entries of each document
+ * library are read with one query instead, in path order.
+ *
+ * A report can be scoped to a subtree (a node, or a path below each document library), in
+ * which case only that subtree is traversed, and to node types, in which case only children of
+ * those types (and folders) are listed.
+ *
+ * A request with {@link PermissionAggregates} is counted instead: the same traversal, without
+ * building rows or looking up anything per user that the filters do not need. A request with
+ * {@link PermissionProfiles} produces one row per node instead, naming the node's profile; the
+ * users of each distinct set of entries are expanded once. A request with
+ * {@link GroupMemberships} produces one row per group entry instead of one per member, and
+ * resolves each group's members once. A request with {@link EffectivePermissions} produces a
+ * row per permission each user effectively holds, with denials and nested groups resolved.
+ */
+public class PermissionReportGenerator {
+
+    private static Log logger = LogFactory.getLog(PermissionReportGenerator.class);
+
+    /** Marks the end of a site worker's rows */
+    private static final Object END = new Object();
+
+    /** Order of the ACEs of a node: by authority, then permission */
+    private static final Comparator<AccessPermission> ACE_ORDER = new Comparator<AccessPermission>() {
+        public int compare(AccessPermission a, AccessPermission b) {
+            int result = a.getAuthority().compareTo(b.getAuthority());
+            return result != 0 ? result : a.getPermission().compareTo(b.getPermission());
+        }
+    };
+
+    private NodeService nodeService;
+    private SiteService siteService;
+    private PermissionService permissionService;
+    private AuthorityService authorityService;
+    private PersonService personService;
+    private LoginAuditService loginAuditService;
+    private PermissionAuditService permissionAuditService;
+    private GroupMembershipCache groupMembershipCache;
+    private AuthorityGraph authorityGraph;
+    private NodePrefetcher nodePrefetcher;
+    private SqlReportEngine sqlReportEngine;
+    private PersonSearch personSearch;
+    private NamespaceService namespaceService;
+    private TransactionService transactionService;
+    private int parallelSites = 4;
+    private int workerThreads = 8;
+    private int queueCapacity = 1000;
+    private int filterLimit = 100000;
+    private ExecutorService executor;
+
+    public void setNodeService(NodeService nodeService) {
+        this.nodeService = nodeService;
+    }
+
+    public void setSiteService(SiteService siteService) {
+        this.siteService = siteService;
+    }
+
+    public void setPermissionService(PermissionService permissionService) {
+        this.permissionService = permissionService;
+    }
+
+    public void setAuthorityService(AuthorityService authorityService) {
+        this.authorityService = authorityService;
+    }
+
+    public void setPersonService(PersonService personService) {
+        this.personService = personService;
+    }
+
+    public void setLoginAuditService(LoginAuditService loginAuditService) {
+        this.loginAuditService = loginAuditService;
+    }
+
+    public void setPermissionAuditService(PermissionAuditService permissionAuditService) {
+        this.permissionAuditService = permissionAuditService;
+    }
+
+    public void setGroupMembershipCache(GroupMembershipCache groupMembershipCache) {
+        this.groupMembershipCache = groupMembershipCache;
+    }
+
+    public void setAuthorityGraph(AuthorityGraph authorityGraph) {
+        this.authorityGraph = authorityGraph;
+    }
+
+    public void setNodePrefetcher(NodePrefetcher nodePrefetcher) {
+        this.nodePrefetcher = nodePrefetcher;
+    }
+
+    public void setSqlReportEngine(SqlReportEngine sqlReportEngine) {
+        this.sqlReportEngine = sqlReportEngine;
+    }
+
+    public void setPersonSearch(PersonSearch personSearch) {
+        this.personSearch = personSearch;
+    }
+
+    public void setNamespaceService(NamespaceService namespaceService) {
+        this.namespaceService = namespaceService;
+    }
+
+    public void setTransactionService(TransactionService transactionService) {
+        this.transactionService = transactionService;
+    }
+
+    /**
+     * @param parallelSites the number of sites of one report processed at the same time; 1 processes them on the request thread
+     */
+    public void setParallelSites(int parallelSites) {
+        this.parallelSites = parallelSites;
+    }
+
+    /**
+     * @param workerThreads the size of the worker pool shared by all reports
+     */
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * @param queueCapacity the number of rows a site worker can produce ahead of the output
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @param filterLimit the most matching people or recent grants a report resolves up front
+     *                    for its filters; beyond that rows are filtered one by one
+     */
+    public void setFilterLimit(int filterLimit) {
+        this.filterLimit = filterLimit;
+    }
+
+    /**
+     * Start the site workers, unless sites are processed one at a time
+     */
+    public void init() {
+        if (parallelSites > 1 && workerThreads > 0) {
+            executor = Executors.newFixedThreadPool(workerThreads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "PermissionReportWorker-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Generate the report, passing each matching row to the handler
+     * @param request the sites and filters of the report, and optionally where to resume and how many rows to return
+     * @param handler receives the rows in site and traversal order
+     * @return the report counters, and the position of the next row if the row limit was reached
+     * @throws StalePositionException if the node to resume a traversal at has been deleted or moved out
+     *         of its site, or a site started with the SQL engine can no longer be read with it
+     */
+    public ReportSummary generate(ReportRequest request, RowHandler handler) throws IOException {
+        resolveFilter(request);
+        ReportPosition start = request.getStart();
+        List<String> sites = new ArrayList<String>();
+        for (String siteShortName : request.getSites()) {
+            // Sites are processed in name order, so everything before the resume site is done
+            if (start == null || siteShortName.compareTo(start.getSite()) >= 0) {
+                sites.add(siteShortName);
+            }
+        }
+
+        if (executor != null && sites.size() > 1) {
+            return generateInParallel(sites, request, handler);
+        }
+
+        final ReportSummary summary = new ReportSummary();
+        final ReportRequest sequentialRequest = request;
+        final RowHandler sequentialHandler = handler;
+        RowSink sink = new RowSink() {
+            public boolean accept(PermissionRow row, ReportPosition node, int rowIndex) throws IOException {
+                return emit(row, node, rowIndex, sequentialRequest, sequentialHandler, summary);
+            }
+
+            public boolean isStopped() {
+                return summary.stopped;
+            }
+        };
+        ReportLookupContext lookups = newLookupContext();
+
+        for (String siteShortName : sites) {
+            if (summary.stopped) {
+                break;
+            }
+            boolean completed = processSite(siteShortName, request, summary, lookups, sink);
+            if (completed && !summary.stopped) {
+                summary.sitesProcessed++;
+            }
+            handler.siteCompleted(siteShortName);
+        }
+
+        return summary;
+    }
+
+    /**
+     * Process up to parallelSites sites at once on the worker threads, each as the requesting
+     * user in its own read-only transaction. Each worker buffers a bounded number of rows; this
+     * thread hands them to the handler one site after the other, so the output order is the
+     * same as when the sites are processed one at a time. Counters of a site cut short by the
+     * row limit are not included.
+     */
+    private ReportSummary generateInParallel(List<String> sites, ReportRequest request, RowHandler handler) throws IOException {
+        ReportSummary summary = new ReportSummary();
+        String runAsUser = AuthenticationUtil.getRunAsUser();
+        List<SiteWorker> workers = new ArrayList<SiteWorker>(sites.size());
+        for (String siteShortName : sites) {
+            workers.add(new SiteWorker(siteShortName, request, runAsUser));
+        }
+
+        try {
+            int submitted = 0;
+            for (int i = 0; i < workers.size() && !summary.stopped; i++) {
+                // Sites are started in order, so the one being drained is always running or done
+                while (submitted < workers.size() && submitted < i + parallelSites) {
+                    executor.execute(workers.get(submitted++));
+                }
+                SiteWorker worker = workers.get(i);
+                boolean completed = worker.drainTo(handler, request, summary);
+                if (!summary.stopped) {
+                    summary.add(worker.counters);
+                    if (completed) {
+                        summary.sitesProcessed++;
+                    }
+                }
+                handler.siteCompleted(worker.siteShortName);
+            }
+        } finally {
+            for (SiteWorker worker : workers) {
+                worker.cancel();
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * @return a fresh set of memoized lookups for one report
+     */
+    ReportLookupContext newLookupContext() {
+        return new ReportLookupContext(nodeService, permissionService, authorityService, personService,
+                                       loginAuditService, permissionAuditService, groupMembershipCache,
+                                       authorityGraph, namespaceService);
+    }
+
+    /**
+     * Scope a report to a subtree, roles and a node type, from request parameters
+     * @param rootNodeRef a folder or document in a document library to report on, or null
+     * @param path a folder path below each document library (e.g. Projects/Plans) to report on, or null
+     * @param roles comma-separated permission names to report, or null for all
+     * @param nodeType the prefixed type (e.g. cm:folder) of the nodes to report, or null for all
+     * @return the site of rootNodeRef, or null if no rootNodeRef is given
+     * @throws IllegalArgumentException with a message for the client if a parameter is invalid
+     */
+    public String setScope(ReportRequest request, String rootNodeRef, String path, String roles, String nodeType) {
+        String site = null;
+        boolean hasRoot = rootNodeRef != null && !rootNodeRef.isEmpty();
+        boolean hasPath = path != null && !path.isEmpty();
+        if (hasRoot && hasPath) {
+            throw new IllegalArgumentException("Use either rootNodeRef or path, not both");
+        }
+        if (hasRoot) {
+            if (!NodeRef.isNodeRef(rootNodeRef) || !nodeService.exists(new NodeRef(rootNodeRef))) {
+                throw new IllegalArgumentException("Invalid rootNodeRef parameter. Must be an existing node");
+            }
+            NodeRef root = new NodeRef(rootNodeRef);
+            SiteInfo siteInfo = siteService.getSite(root);
+            if (siteInfo == null) {
+                throw new IllegalArgumentException("rootNodeRef is not in a site");
+            }
+            site = siteInfo.getShortName();
+            NodeRef documentLibrary = siteService.getContainer(site, "documentLibrary");
+            if (documentLibrary == null || !isInFolder(root, documentLibrary)) {
+                throw new IllegalArgumentException("rootNodeRef is not in the document library of site " + site);
+            }
+            request.setRootNodeRef(root);
+        }
+        if (hasPath) {
+            List<String> names = new ArrayList<String>();
+            for (String name : path.split("/")) {
+                if (!name.isEmpty()) {
+                    names.add(name);
+                }
+            }
+            request.setPath(names.isEmpty() ? null : names);
+        }
+        if (roles != null && !roles.isEmpty()) {
+            Set<String> roleSet = new TreeSet<String>();
+            for (String role : roles.split(",")) {
+                if (!role.trim().isEmpty()) {
+                    roleSet.add(role.trim());
+                }
+            }
+            request.setRoles(roleSet.isEmpty() ? null : roleSet);
+        }
+        if (nodeType != null && !nodeType.isEmpty()) {
+            try {
+                request.setNodeType(nodeType.startsWith("{") ? QName.createQName(nodeType)
+                                                             : QName.createQName(nodeType, namespaceService));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid nodeType parameter. Must be a type such as cm:folder or cm:content");
+            }
+        }
+        return site;
+    }
+
+    /**
+     * @return true if the node is the folder or below it through primary parents
+     */
+    private boolean isInFolder(NodeRef nodeRef, NodeRef folder) {
+        NodeRef current = nodeRef;
+        while (current != null) {
+            if (current.equals(folder)) {
+                return true;
+            }
+            ChildAssociationRef parentAssoc = nodeService.getPrimaryParent(current);
+            current = parentAssoc != null ? parentAssoc.getParentRef() : null;
+        }
+        return false;
+    }
+
+    /**
+     * @return the root of the part of a document library the report covers, or null if the
+     *         report's path does not exist in it
+     */
+    private NodeRef getReportRoot(NodeRef documentLibrary, ReportRequest request) {
+        if (request.getRootNodeRef() != null) {
+            return isInFolder(request.getRootNodeRef(), documentLibrary) ? request.getRootNodeRef() : null;
+        }
+        NodeRef root = documentLibrary;
+        if (request.getPath() != null) {
+            for (String name : request.getPath()) {
+                root = nodeService.getChildByName(root, ContentModel.ASSOC_CONTAINS, name);
+                if (root == null) {
+                    return null;
+                }
+            }
+        }
+        return root;
+    }
+
+    /**
+     * @return the child types to list for the report's node type: folders, to descend into, and
+     *         that type; or null to list all children
+     */
+    private Set<QName> getChildTypes(ReportRequest request) {
+        if (request.getNodeType() == null) {
+            return null;
+        }
+        Set<QName> childTypes = new HashSet<QName>();
+        childTypes.add(ContentModel.TYPE_FOLDER);
+        childTypes.add(request.getNodeType());
+        return childTypes;
+    }
+
+    /**
+     * Resolve the filters of a report once, before its sites are processed
+     */
+    ReportFilter resolveFilter(ReportRequest request) {
+        if (request.filter == null) {
+            request.filter = ReportFilter.resolve(request, personSearch, permissionAuditService, filterLimit);
+        }
+        return request.filter;
+    }
+
+    /**
+     * Check that a report can be resumed at the given position
+     * @return false if the traversal's node has been deleted or is no longer in the site's document
+     *         library, or the position is in a site read by the SQL engine and that engine is off
+     */
+    public boolean isResumable(ReportPosition position) {
+        SiteInfo site = siteService.getSite(position.getSite());
+        if (site == null) {
+            // Deleted sites are skipped, the report continues with the next one
+            return true;
+        }
+        if (position.getSqlKey() != null) {
+            // The SQL engine resumes after the key whether or not the node is still there
+            return sqlReportEngine != null && sqlReportEngine.isEnabled();
+        }
+        NodeRef documentLibrary = siteService.getContainer(position.getSite(), "documentLibrary");
+        return documentLibrary != null &&
+               DocumentLibraryTraversal.resume(nodeService, permissionService, documentLibrary, position.getNodeRef()) != null;
+    }
+
+    /**
+     * Produce the rows of one site's document library, resuming at the request's start position
+     * if it is in this site
+     * @return true if the whole document library was traversed
+     */
+    private boolean processSite(String siteShortName, ReportRequest request, ReportSummary counters,
+                                ReportLookupContext lookups, RowSink sink) throws IOException {
+        ReportPosition start = request.getStart();
+        if (request.getAggregates() != null) {
+            request.getAggregates().startSite(siteShortName);
+        }
+        try {
+            SiteInfo site = siteService.getSite(siteShortName);
+            if (site == null || site.getNodeRef() == null) {
+                logger.warn("Site " + siteShortName + " not found, skipping");
+                return false;
+            }
+
+            NodeRef documentLibrary = siteService.getContainer(siteShortName, "documentLibrary");
+            if (documentLibrary == null) {
+                logger.warn("Document Library not found in site " + siteShortName + ", skipping");
+                return false;
+            }
+
+            NodeRef root = getReportRoot(documentLibrary, request);
+            if (root == null) {
+                // The subtree is not in this site
+                return true;
+            }
+            boolean subtree = !root.equals(documentLibrary);
+            Set<QName> childTypes = getChildTypes(request);
+
+            ReportPosition resume = null;
+            NodeRef resumeNode = null;
+            int skipRows = 0;
+            if (start != null && siteShortName.equals(start.getSite())) {
+                resume = start;
+                resumeNode = start.getNodeRef();
+                skipRows = start.getRowOffset();
+            }
+
+            // A site is finished with the engine it was started with, as each has its own node order
+            boolean useSql = sqlReportEngine != null && sqlReportEngine.isEnabled() &&
+                (!subtree || ContentModel.TYPE_FOLDER.equals(nodeService.getType(root)));
+            if (resume != null && resume.getSqlKey() == null) {
+                useSql = false;
+            }
+            if (useSql) {
+                Boolean completed = processSiteWithSql(siteShortName, root, resume, request, counters, lookups, sink);
+                if (completed != null) {
+                    return completed;
+                }
+            }
+            if (resume != null && resume.getSqlKey() != null) {
+                throw new StalePositionException("Site " + siteShortName + " can no longer be read with the SQL report engine");
+            }
+
+            DocumentLibraryTraversal traversal;
+            if (resumeNode != null && !(subtree && resumeNode.equals(root))) {
+                traversal = DocumentLibraryTraversal.resume(nodeService, permissionService, root, resumeNode, childTypes);
+                if (traversal == null) {
+                    throw new StalePositionException("Node " + resumeNode + " is no longer in site " + siteShortName);
+                }
+            } else if (subtree) {
+                traversal = DocumentLibraryTraversal.startSubtree(nodeService, permissionService, root, childTypes);
+            } else {
+                traversal = DocumentLibraryTraversal.start(nodeService, permissionService, root, childTypes);
+            }
+
+            return processTraversal(traversal, siteShortName, skipRows, request, counters, lookups, sink);
+        } catch (IOException | StalePositionException e) {
+            throw e;
+        } catch (Exception e) {
+            failIfIndexing(e, request);
+            logger.warn("Error processing site " + siteShortName + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * An index rebuild replaces the rows of a site or subtree in the same transaction, so an
+     * error must roll it back rather than leave the rows deleted; a report just skips the part
+     * that failed
+     */
+    private void failIfIndexing(Exception e, ReportRequest request) {
+        if (!request.isIndexing()) {
+            return;
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        throw new IllegalStateException(e.getMessage(), e);
+    }
+
+    /**
+     * Produce the rows of every node a traversal returns
+     * @param skipRows the number of matching rows of the first node already returned
+     * @return true if the traversal was completed
+     */
+    private boolean processTraversal(DocumentLibraryTraversal traversal, String siteShortName, int skipRows,
+                                     ReportRequest request, ReportSummary counters,
+                                     ReportLookupContext lookups, RowSink sink) throws IOException {
+        traversal.setPrefetcher(nodePrefetcher);
+        int nodes = 0;
+        NodeRef nodeRef;
+        while (!sink.isStopped() && (nodeRef = traversal.next()) != null) {
+            if (request.getNodeType() != null && !request.getNodeType().equals(traversal.getType())) {
+                // A folder on the way to the requested nodes
+                skipRows = 0;
+                continue;
+            }
+            lookups.setNodePath(nodeRef, traversal.getDisplayPath(), traversal.getType());
+            if (!processNode(nodeRef, siteShortName, skipRows, request, counters, lookups, sink)) {
+                return false;
+            }
+            skipRows = 0;
+            nodes++;
+        }
+        logger.debug("Processed " + nodes + " nodes in site " + siteShortName);
+        return !sink.isStopped();
+    }
+
+    /**
+     * Produce the rows of a document library from the nodes and ACL entries read by the SQL engine
+     * @return true if the whole document library was read, or null if the query failed before any
+     *         row was produced and the site should be traversed instead
+     */
+    private Boolean processSiteWithSql(String siteShortName, NodeRef root, ReportPosition resume,
+                                       ReportRequest request, ReportSummary counters,
+                                       ReportLookupContext lookups, RowSink sink) throws IOException {
+        SqlSiteReader reader = new SqlSiteReader(siteShortName, resume, request, counters, lookups, sink);
+        try {
+            sqlReportEngine.readDocumentLibrary(root, lookups.getNodePath(root), request.getNodeType(),
+                                                resume != null ? resume.getSqlKey() : null, reader);
+        } catch (DataAccessException e) {
+            if (reader.produced) {
+                throw e;
+            }
+            logger.warn("SQL report engine failed for site " + siteShortName + ", traversing it instead: " + e.getMessage());
+            return null;
+        }
+        return !reader.stopped && !sink.isStopped();
+    }
+
+    /**
+     * Produce the rows of a folder or document and, for a folder, of everything below it, on the
+     * calling thread. Used to refresh the part of a site whose permissions changed.
+     * @param root a node in the document library of the site
+     */
+    public ReportSummary generateSubtree(String siteShortName, NodeRef root, ReportRequest request,
+                                         RowHandler handler) throws IOException {
+        resolveFilter(request);
+        final ReportSummary summary = new ReportSummary();
+        final ReportRequest subtreeRequest = request;
+        final RowHandler subtreeHandler = handler;
+        RowSink sink = new RowSink() {
+            public boolean accept(PermissionRow row, ReportPosition node, int rowIndex) throws IOException {
+                return emit(row, node, rowIndex, subtreeRequest, subtreeHandler, summary);
+            }
+
+            public boolean isStopped() {
+                return summary.stopped;
+            }
+        };
+        DocumentLibraryTraversal traversal = DocumentLibraryTraversal.startSubtree(nodeService, permissionService, root, null);
+        processTraversal(traversal, siteShortName, 0, request, summary, newLookupContext(), sink);
+        return summary;
+    }
+
+    /**
+     * Produce the rows of one node. ACEs and group members are sorted so a node always yields
+     * its rows in the same order and a position inside the node can be resumed.
+     * @param skipRows the number of matching rows already returned for this node
+     * @return false if the sink stopped the report
+     */
+    private boolean processNode(NodeRef nodeRef, String siteShortName, int skipRows, ReportRequest request,
+                                ReportSummary counters, ReportLookupContext lookups, RowSink sink) throws IOException {
+        Collection<AccessPermission> entries;
+        try {
+            entries = permissionService.getAllSetPermissions(nodeRef);
+        } catch (Exception e) {
+            failIfIndexing(e, request);
+            logger.warn("Error processing permissions for node " + nodeRef + ": " + e.getMessage());
+            return true;
+        }
+        return processEntries(new ReportPosition(siteShortName, nodeRef, 0), entries, siteShortName, skipRows,
+                              request, counters, lookups, sink);
+    }
+
+    /**
+     * Produce the rows of one node from its ACL entries
+     * @param node the position of the node's first row
+     */
+    private boolean processEntries(ReportPosition node, Collection<AccessPermission> entries, String siteShortName,
+                                   int skipRows, ReportRequest request, ReportSummary counters,
+                                   ReportLookupContext lookups, RowSink sink) throws IOException {
+        NodeRef nodeRef = node.getNodeRef();
+        if (request.getAggregates() != null) {
+            countEntries(nodeRef, entries, siteShortName, request, counters, lookups);
+            return true;
+        }
+        try {
+            List<AccessPermission> setPermissions = new ArrayList<AccessPermission>(entries);
+            Collections.sort(setPermissions, ACE_ORDER);
+            if (request.getProfiles() != null) {
+                return processProfile(node, setPermissions, siteShortName, skipRows, request, counters, lookups, sink);
+            }
+            if (request.getEffectivePermissions() != null) {
+                return processEffective(node, setPermissions, siteShortName, skipRows, request, counters, lookups, sink);
+            }
+            ReportFilter filter = request.filter;
+            int rowIndex = 0;
+
+            for (AccessPermission accessPermission : setPermissions) {
+                counters.totalPermissions++;
+                String authorityName = accessPermission.getAuthority();
+
+                // Skip GROUP_EVERYONE as it causes issues and is not useful for reporting
+                if ("GROUP_EVERYONE".equals(authorityName)) {
+                    continue;
+                }
+
+                if (authorityName.startsWith("GROUP_")) {
+                    // Group permission - expand it to its (nested) members
+                    counters.groupPermissions++;
+                    logger.debug("Expanding group permission: " + authorityName + " on node: " + nodeRef);
+
+                    if (request.isIndexing()) {
+                        // Record the group entry itself, so membership changes can be applied without a traversal
+                        if (rowIndex++ >= skipRows && !sink.accept(createRow(authorityName, nodeRef, accessPermission,
+                                siteShortName, authorityName, PermissionRow.TYPE_GROUP_ACE, request, lookups), node, rowIndex - 1)) {
+                            return false;
+                        }
+                    }
+
+                    Set<String> groupUsers = lookups.getUsersInGroup(authorityName);
+                    counters.effectivePermissions += groupUsers.size();
+                    if (!filter.matchesEntry(nodeRef, accessPermission, lookups)) {
+                        continue;
+                    }
+                    if (request.getGroupMemberships() != null) {
+                        // One row for the group entry; its members are listed once per report
+                        if (resolveMembers(authorityName, groupUsers, request, lookups).isEmpty() || rowIndex++ < skipRows) {
+                            continue;
+                        }
+                        if (!sink.accept(createRow(authorityName, nodeRef, accessPermission, siteShortName,
+                                authorityName, PermissionRow.TYPE_GROUP_ACE, request, lookups), node, rowIndex - 1)) {
+                            return false;
+                        }
+                        continue;
+                    }
+                    for (String groupUser : filter.selectMembers(groupUsers)) {
+                        if (filter.matchesUser(groupUser, lookups)) {
+                            if (rowIndex++ < skipRows) {
+                                continue;
+                            }
+                            if (!sink.accept(createRow(groupUser, nodeRef, accessPermission, siteShortName,
+                                    authorityName, PermissionRow.TYPE_GROUP, request, lookups), node, rowIndex - 1)) {
+                                return false;
+                            }
+                        }
+                    }
+                } else {
+                    counters.userPermissions++;
+                    if (filter.matchesEntry(nodeRef, accessPermission, lookups) &&
+                        filter.matchesUser(authorityName, lookups)) {
+                        if (rowIndex++ < skipRows) {
+                            continue;
+                        }
+                        if (!sink.accept(createRow(authorityName, nodeRef, accessPermission, siteShortName,
+                                "", PermissionRow.TYPE_DIRECT, request, lookups), node, rowIndex - 1)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            failIfIndexing(e, request);
+            logger.warn("Error processing permissions for node " + nodeRef + ": " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Produce the row of one node in a profile report: its entries that pass the entry filters
+     * make up its profile, whose users are expanded the first time the profile is seen
+     * @param entries the node's entries in ACE_ORDER
+     * @param skipRows 1 if the node's row was already returned
+     */
+    private boolean processProfile(ReportPosition node, List<AccessPermission> entries, String siteShortName,
+                                   int skipRows, ReportRequest request, ReportSummary counters,
+                                   ReportLookupContext lookups, RowSink sink) throws IOException {
+        NodeRef nodeRef = node.getNodeRef();
+        ReportFilter filter = request.filter;
+        List<AccessPermission> profileEntries = new ArrayList<AccessPermission>();
+        StringBuilder key = new StringBuilder();
+        for (AccessPermission accessPermission : entries) {
+            counters.totalPermissions++;
+            String authorityName = accessPermission.getAuthority();
+            if ("GROUP_EVERYONE".equals(authorityName)) {
+                continue;
+            }
+            if (authorityName.startsWith("GROUP_")) {
+                counters.groupPermissions++;
+                counters.effectivePermissions += lookups.getUsersInGroup(authorityName).size();
+            } else {
+                counters.userPermissions++;
+            }
+            if (filter.matchesEntry(nodeRef, accessPermission, lookups)) {
+                profileEntries.add(accessPermission);
+                key.append(authorityName).append('\t').append(accessPermission.getPermission()).append('\n');
+            }
+        }
+        if (profileEntries.isEmpty()) {
+            return true;
+        }
+
+        String id = PermissionProfiles.getId(key);
+        PermissionProfiles.Profile profile = request.getProfiles().getProfile(id);
+        if (profile == null) {
+            profile = request.getProfiles().add(id, profileEntries, expandProfile(profileEntries, filter, lookups));
+        }
+        if (profile.getUsers().isEmpty() || skipRows > 0) {
+            return true;
+        }
+        PermissionRow row = new PermissionRow();
+        row.setSite(siteShortName);
+        row.setNodeRef(nodeRef.toString());
+        row.setNodePath(lookups.getNodePath(nodeRef));
+        row.setNodeName(lookups.getNodeName(nodeRef));
+        row.setNodeType(lookups.getNodeType(nodeRef));
+        row.setProfile(id);
+        return sink.accept(row, node, 0);
+    }
+
+    /**
+     * @return a row per user of a profile that passes the user filters
+     */
+    private List<PermissionRow> expandProfile(List<AccessPermission> entries, ReportFilter filter,
+                                              ReportLookupContext lookups) {
+        List<PermissionRow> users = new ArrayList<PermissionRow>();
+        for (AccessPermission accessPermission : entries) {
+            String authorityName = accessPermission.getAuthority();
+            if (authorityName.startsWith("GROUP_")) {
+                for (String groupUser : filter.selectMembers(lookups.getUsersInGroup(authorityName))) {
+                    if (filter.matchesUser(groupUser, lookups)) {
+                        users.add(createUserRow(groupUser, accessPermission, authorityName, PermissionRow.TYPE_GROUP, lookups));
+                    }
+                }
+            } else if (filter.matchesUser(authorityName, lookups)) {
+                users.add(createUserRow(authorityName, accessPermission, "", PermissionRow.TYPE_DIRECT, lookups));
+            }
+        }
+        return users;
+    }
+
+    private PermissionRow createUserRow(String username, AccessPermission accessPermission, String groupName,
+                                        String permissionType, ReportLookupContext lookups) {
+        PermissionRow row = new PermissionRow();
+        row.setUsername(username);
+        row.setRole(accessPermission.getPermission());
+        row.setGroupName(groupName);
+        row.setPermissionType(permissionType);
+        row.setUserStatus(lookups.getUserStatus(username));
+        row.setUserLogin(lookups.getLastLoginDate(username));
+        return row;
+    }
+
+    /**
+     * Add the ACL entries of one node to the request's aggregates instead of producing rows. No
+     * row is built, so paths, names, grant dates, user status and last login are not looked up
+     * unless a filter needs them.
+     */
+    private void countEntries(NodeRef nodeRef, Collection<AccessPermission> entries, String siteShortName,
+                              ReportRequest request, ReportSummary counters, ReportLookupContext lookups) {
+        PermissionAggregates aggregates = request.getAggregates();
+        ReportFilter filter = request.filter;
+        boolean counted = false;
+        for (AccessPermission accessPermission : entries) {
+            counters.totalPermissions++;
+            String authorityName = accessPermission.getAuthority();
+            if ("GROUP_EVERYONE".equals(authorityName)) {
+                continue;
+            }
+            try {
+                if (authorityName.startsWith("GROUP_")) {
+                    counters.groupPermissions++;
+                    Set<String> groupUsers = lookups.getUsersInGroup(authorityName);
+                    counters.effectivePermissions += groupUsers.size();
+                    if (!filter.matchesEntry(nodeRef, accessPermission, lookups)) {
+                        continue;
+                    }
+                    Collection<String> members = groupUsers;
+                    if (filter.hasUserFilter()) {
+                        members = new ArrayList<String>();
+                        for (String groupUser : filter.selectMembers(groupUsers)) {
+                            if (filter.matchesUser(groupUser, lookups)) {
+                                members.add(groupUser);
+                            }
+                        }
+                    }
+                    aggregates.addGroupEntry(siteShortName, authorityName, accessPermission.getPermission(), members);
+                } else {
+                    counters.userPermissions++;
+                    if (!filter.matchesEntry(nodeRef, accessPermission, lookups) ||
+                        !filter.matchesUser(authorityName, lookups)) {
+                        continue;
+                    }
+                    aggregates.addDirectEntry(siteShortName, authorityName, accessPermission.getPermission());
+                }
+                counters.filteredPermissions++;
+                counted = true;
+            } catch (Exception e) {
+                logger.warn("Error counting permission " + authorityName + " on node " + nodeRef + ": " + e.getMessage());
+            }
+        }
+        if (counted) {
+            aggregates.addNode(siteShortName);
+        }
+    }
+
+    /**
+     * Produce the rows of one node in an effective permissions report: a row per user and
+     * permission the node's ACL grants, through the nearest entry that grants it
+     */
+    private boolean processEffective(ReportPosition node, List<AccessPermission> entries, String siteShortName,
+                                     int skipRows, ReportRequest request, ReportSummary counters,
+                                     ReportLookupContext lookups, RowSink sink) throws IOException {
+        NodeRef nodeRef = node.getNodeRef();
+        for (AccessPermission accessPermission : entries) {
+            counters.totalPermissions++;
+            if (accessPermission.getAuthority().startsWith("GROUP_")) {
+                counters.groupPermissions++;
+            } else {
+                counters.userPermissions++;
+            }
+        }
+        List<EffectivePermissions.Grant> grants = request.getEffectivePermissions().resolve(entries, lookups);
+        counters.effectivePermissions += grants.size();
+
+        ReportFilter filter = request.filter;
+        int rowIndex = 0;
+        for (EffectivePermissions.Grant grant : grants) {
+            if (!filter.matchesEntry(nodeRef, grant.getEntry(), lookups) ||
+                !filter.matchesUser(grant.getUsername(), lookups)) {
+                continue;
+            }
+            if (rowIndex++ < skipRows) {
+                continue;
+            }
+            StringBuilder groups = new StringBuilder();
+            for (String group : grant.getGroups()) {
+                groups.append(groups.length() > 0 ? "," : "").append(group);
+            }
+            if (!sink.accept(createRow(grant.getUsername(), nodeRef, grant.getEntry(), siteShortName, groups.toString(),
+                    grant.isDirect() ? PermissionRow.TYPE_DIRECT : PermissionRow.TYPE_GROUP, request, lookups),
+                    node, rowIndex - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Resolve the members of a group for a group-collapsed report, the first time the report
+     * comes across the group, and the status and last login of members not seen before
+     * @return the members that pass the user filters
+     */
+    private List<String> resolveMembers(String groupName, Set<String> groupUsers, ReportRequest request,
+                                        ReportLookupContext lookups) {
+        GroupMemberships memberships = request.getGroupMemberships();
+        List<String> members = memberships.getMembers(groupName);
+        if (members != null) {
+            return members;
+        }
+        members = new ArrayList<String>();
+        for (String groupUser : request.filter.selectMembers(groupUsers)) {
+            if (request.filter.matchesUser(groupUser, lookups)) {
+                members.add(groupUser);
+                if (memberships.getUser(groupUser) == null) {
+                    PermissionRow user = new PermissionRow();
+                    user.setUsername(groupUser);
+                    user.setUserStatus(lookups.getUserStatus(groupUser));
+                    user.setUserLogin(lookups.getLastLoginDate(groupUser));
+                    memberships.addUser(user);
+                }
+            }
+        }
+        memberships.addGroup(groupName, members);
+        return members;
+    }
+
+    /**
+     * Hand a row to the handler unless the row limit has been reached, in which case the
+     * row's position is recorded as the place to resume
+     * @return false if the report stops here
+     */
+    private boolean emit(PermissionRow row, ReportPosition node, int rowIndex,
+                         ReportRequest request, RowHandler handler, ReportSummary summary) throws IOException {
+        if (request.getMaxRows() > 0 && summary.filteredPermissions >= request.getMaxRows()) {
+            summary.nextPosition = node.withRowOffset(rowIndex);
+            summary.stopped = true;
+            return false;
+        }
+        summary.filteredPermissions++;
+        if (!handler.handleRow(row)) {
+            summary.stopped = true;
+            return false;
+        }
+        return true;
+    }
+
+    private PermissionRow createRow(String username, NodeRef nodeRef, AccessPermission accessPermission,
+                                    String siteShortName, String groupName, String permissionType,
+                                    ReportRequest request, ReportLookupContext lookups) {
+        PermissionRow row = new PermissionRow();
+        row.setUsername(username);
+        row.setNodePath(lookups.getNodePath(nodeRef));
+        row.setRole(accessPermission.getPermission());
+        row.setNodeName(lookups.getNodeName(nodeRef));
+        row.setNodeType(lookups.getNodeType(nodeRef));
+        row.setNodeRef(nodeRef.toString());
+        row.setGroupName(groupName);
+        row.setPermissionType(permissionType);
+        row.setSite(siteShortName);
+        row.setGrantDate(lookups.getPermissionDate(nodeRef, accessPermission));
+        row.setFromDate(lookups.getPermissionFromDate(nodeRef, accessPermission));
+        if (!request.isIndexing() && !PermissionRow.TYPE_GROUP_ACE.equals(permissionType)) {
+            // User attributes change independently of permissions, so they are not indexed
+            row.setUserStatus(lookups.getUserStatus(username));
+            row.setUserLogin(lookups.getLastLoginDate(username));
+        }
+        return row;
+    }
+
+    /**
+     * Receives the rows of a site as they are produced, with their position in the report
+     */
+    private interface RowSink {
+        /**
+         * @param node the position of the first row of the row's node
+         * @return false to stop producing rows
+         */
+        boolean accept(PermissionRow row, ReportPosition node, int rowIndex) throws IOException;
+
+        /**
+         * @return true once no more rows are wanted
+         */
+        boolean isStopped();
+    }
+
+    /**
+     * A row buffered by a site worker
+     */
+    private static class QueuedRow {
+        private final PermissionRow row;
+        private final ReportPosition node;
+        private final int rowIndex;
+
+        QueuedRow(PermissionRow row, ReportPosition node, int rowIndex) {
+            this.row = row;
+            this.node = node;
+            this.rowIndex = rowIndex;
+        }
+    }
+
+    /**
+     * Produces the rows of one site on a worker thread into a bounded queue, ended by END
+     */
+    private class SiteWorker implements Runnable, RowSink {
+        private final String siteShortName;
+        private final ReportRequest request;
+        private final String runAsUser;
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(queueCapacity);
+        private volatile boolean cancelled;
+        private volatile boolean completed;
+        private volatile RuntimeException failure;
+        private volatile ReportSummary counters = new ReportSummary();
+        /** Rows queued so far, and rows produced by the current transaction attempt */
+        private int queuedRows;
+        private int attemptRows;
+
+        SiteWorker(String siteShortName, ReportRequest request, String runAsUser) {
+            this.siteShortName = siteShortName;
+            this.request = request;
+            this.runAsUser = runAsUser;
+        }
+
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                completed = AuthenticationUtil.runAs(new AuthenticationUtil.RunAsWork<Boolean>() {
+                    public Boolean doWork() throws Exception {
+                        return transactionService.getRetryingTransactionHelper().doInTransaction(
+                            new RetryingTransactionHelper.RetryingTransactionCallback<Boolean>() {
+                                public Boolean execute() throws Throwable {
+                                    // A retried attempt produces the same rows again; those already queued are skipped
+                                    attemptRows = 0;
+                                    counters = new ReportSummary();
+                                    return processSite(siteShortName, request, counters, newLookupContext(), SiteWorker.this);
+                                }
+                            }, true, true);
+                    }
+                }, runAsUser);
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                put(END);
+            }
+        }
+
+        public boolean accept(PermissionRow row, ReportPosition node, int rowIndex) {
+            if (attemptRows++ < queuedRows) {
+                return true;
+            }
+            if (!put(new QueuedRow(row, node, rowIndex))) {
+                return false;
+            }
+            queuedRows++;
+            return true;
+        }
+
+        public boolean isStopped() {
+            return cancelled;
+        }
+
+        /**
+         * @return false if the report no longer wants rows from this site
+         */
+        private boolean put(Object item) {
+            try {
+                while (!cancelled) {
+                    if (queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        /**
+         * Hand this site's rows to the handler as the worker produces them
+         * @return true if the whole document library was traversed
+         */
+        boolean drainTo(RowHandler handler, ReportRequest request, ReportSummary summary) throws IOException {
+            try {
+                while (true) {
+                    Object item = queue.take();
+                    if (item == END) {
+                        if (failure != null) {
+                            throw failure;
+                        }
+                        return completed;
+                    }
+                    QueuedRow queued = (QueuedRow) item;
+                    if (!emit(queued.row, queued.node, queued.rowIndex, request, handler, summary)) {
+                        cancel();
+                        return false;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the rows of site " + siteShortName);
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            queue.clear();
+        }
+    }
+
+    /**
+     * Hands the nodes read by the SQL engine to {@link #processEntries}. The query starts at the
+     * resume position's key, so only the rows of the resume node already returned are skipped;
+     * if that node has gone, the report continues with the node after it.
+     */
+    private class SqlSiteReader implements SqlReportEngine.NodeHandler {
+        private final String siteShortName;
+        private final ReportPosition resume;
+        private final ReportRequest request;
+        private final ReportSummary counters;
+        private final ReportLookupContext lookups;
+        private final RowSink sink;
+        private boolean produced;
+        private boolean stopped;
+
+        SqlSiteReader(String siteShortName, ReportPosition resume, ReportRequest request,
+                      ReportSummary counters, ReportLookupContext lookups, RowSink sink) {
+            this.siteShortName = siteShortName;
+            this.resume = resume;
+            this.request = request;
+            this.counters = counters;
+            this.lookups = lookups;
+            this.sink = sink;
+        }
+
+        public boolean handleNode(SqlReportEngine.NodeKey key, NodeRef nodeRef, QName type, String name, Date created,
+                                  String path, List<AccessPermission> entries) throws IOException {
+            int skip = 0;
+            if (!produced && resume != null && key.equals(resume.getSqlKey())) {
+                skip = resume.getRowOffset();
+            }
+            produced = true;
+            lookups.setNode(nodeRef, name, created, path, type);
+            ReportPosition node = new ReportPosition(siteShortName, nodeRef, 0, key);
+            if (!processEntries(node, entries, siteShortName, skip, request, counters, lookups, sink)) {
+                stopped = true;
+                return false;
+            }
+            return !sink.isStopped();
+        }
+    }
+
+    /**
+     * Receives report rows as they are produced
+     */
+    public interface RowHandler {
+        /**
+         * @return false to stop the report, e.g. because the client went away
+         */
+        boolean handleRow(PermissionRow row) throws IOException;
+
+        /**
+         * Called after all rows of a site have been handled; a good point to flush output
+         */
+        void siteCompleted(String siteShortName) throws IOException;
+    }
+
+    /**
+     * The sites and filters of a report
+     */
+    public static class ReportRequest {
+        private List<String> sites;
+        private String userStatus;
+        private Date fromDate;
+        private String usernameSearch;
+        private NodeRef rootNodeRef;
+        private List<String> path;
+        private Set<String> roles;
+        private QName nodeType;
+        private ReportPosition start;
+        private int maxRows;
+        private boolean indexing;
+        private PermissionAggregates aggregates;
+        private PermissionProfiles profiles;
+        private GroupMemberships groupMemberships;
+        private EffectivePermissions effectivePermissions;
+        /** The filters resolved for this report, see {@link PermissionReportGenerator#resolveFilter} */
+        ReportFilter filter;
+
+        /** @return the sites to report on, in short name order */
+        public List<String> getSites() { return sites; }
+        public void setSites(List<String> sites) { this.sites = sites; }
+
+        public String getUserStatus() { return userStatus; }
+        public void setUserStatus(String userStatus) { this.userStatus = userStatus; }
+
+        public Date getFromDate() { return fromDate; }
+        public void setFromDate(Date fromDate) { this.fromDate = fromDate; }
+
+        public String getUsernameSearch() { return usernameSearch; }
+        public void setUsernameSearch(String usernameSearch) { this.usernameSearch = usernameSearch; }
+
+        /** @return the folder or document to report on instead of the whole document library, or null */
+        public NodeRef getRootNodeRef() { return rootNodeRef; }
+        public void setRootNodeRef(NodeRef rootNodeRef) { this.rootNodeRef = rootNodeRef; }
+
+        /** @return the folder names leading from each document library to the folder to report on, or null */
+        public List<String> getPath() { return path; }
+        public void setPath(List<String> path) { this.path = path; }
+
+        /** @return the permission names to report, or null for all */
+        public Set<String> getRoles() { return roles; }
+        public void setRoles(Set<String> roles) { this.roles = roles; }
+
+        /** @return the exact type of the nodes to report, or null for all */
+        public QName getNodeType() { return nodeType; }
+        public void setNodeType(QName nodeType) { this.nodeType = nodeType; }
+
+        /** @return where to resume an earlier report, or null to start at the beginning */
+        public ReportPosition getStart() { return start; }
+        public void setStart(ReportPosition start) { this.start = start; }
+
+        /** @return the maximum number of rows to return, or 0 for no limit */
+        public int getMaxRows() { return maxRows; }
+        public void setMaxRows(int maxRows) { this.maxRows = maxRows; }
+
+        /**
+         * @return true to produce rows for the report index: a GROUP_ACE row for each group entry
+         *         ahead of its members' rows, and no user status or last login
+         */
+        public boolean isIndexing() { return indexing; }
+        public void setIndexing(boolean indexing) { this.indexing = indexing; }
+
+        /** @return where to count the report's ACL entries instead of producing rows, or null for rows */
+        public PermissionAggregates getAggregates() { return aggregates; }
+        public void setAggregates(PermissionAggregates aggregates) { this.aggregates = aggregates; }
+
+        /** @return where to collect permission profiles, producing a row per node instead of per user, or null */
+        public PermissionProfiles getProfiles() { return profiles; }
+        public void setProfiles(PermissionProfiles profiles) { this.profiles = profiles; }
+
+        /** @return where to collect group members, producing a GROUP_ACE row per group entry instead of a row per member, or null */
+        public GroupMemberships getGroupMemberships() { return groupMemberships; }
+        public void setGroupMemberships(GroupMemberships groupMemberships) { this.groupMemberships = groupMemberships; }
+
+        /** @return where to resolve each node's ACL into effective user permissions, producing one row per user and permission, or null */
+        public EffectivePermissions getEffectivePermissions() { return effectivePermissions; }
+        public void setEffectivePermissions(EffectivePermissions effectivePermissions) { this.effectivePermissions = effectivePermissions; }
+    }
+
+    /**
+     * Counters collected while generating a report
+     */
+    public static class ReportSummary {
+        private int sitesProcessed;
+        private int totalPermissions;
+        private int userPermissions;
+        private int groupPermissions;
+        private int effectivePermissions;
+        private int filteredPermissions;
+        private boolean stopped;
+        private ReportPosition nextPosition;
+
+        public int getSitesProcessed() { return sitesProcessed; }
+        public int getTotalPermissions() { return totalPermissions; }
+        public int getUserPermissions() { return userPermissions; }
+        public int getGroupPermissions() { return groupPermissions; }
+        public int getEffectivePermissions() { return effectivePermissions; }
+        public int getFilteredPermissions() { return filteredPermissions; }
+
+        private void add(ReportSummary counters) {
+            totalPermissions += counters.totalPermissions;
+            userPermissions += counters.userPermissions;
+            groupPermissions += counters.groupPermissions;
+            effectivePermissions += counters.effectivePermissions;
+            // Rows are counted as they are emitted; a worker only counts the entries of a summary
+            filteredPermissions += counters.filteredPermissions;
+        }
+
+        /**
+         * Record the counts of a report read from the report index
+         */
+        void addIndexCounts(int sites, int userPermissions, int groupPermissions, int effectivePermissions) {
+            this.sitesProcessed += sites;
+            this.totalPermissions += userPermissions + groupPermissions;
+            this.userPermissions += userPermissions;
+            this.groupPermissions += groupPermissions;
+            this.effectivePermissions += effectivePermissions;
+        }
+
+        /**
+         * Record a row read from the report index that passed the filters
+         */
+        void addFilteredRow() {
+            filteredPermissions++;
+        }
+
+        void setStopped() {
+            stopped = true;
+        }
+
+        /** @return true if the report stopped before it was complete */
+        public boolean isStopped() { return stopped; }
+
+        /** @return the position of the first row after the row limit, or null if there are no more rows */
+        public ReportPosition getNextPosition() { return nextPosition; }
+    }
+
+    /**
+     * A position in a report: the site, the node and the number of that node's rows already returned.
+     * A position in a site read by the SQL engine also holds the node's key in the query order,
+     * so the site is resumed with the same engine, in SQL. Encoded as an opaque, URL-safe cursor
+     * string that starts with the engine.
+     */
+    public static class ReportPosition {
+        private static final String ENGINE_TRAVERSAL = "traversal";
+        private static final String ENGINE_SQL = "sql";
+
+        private final String site;
+        private final NodeRef nodeRef;
+        private final int rowOffset;
+        private final SqlReportEngine.NodeKey sqlKey;
+
+        /**
+         * A position in a site read by traversing it
+         */
+        public ReportPosition(String site, NodeRef nodeRef, int rowOffset) {
+            this(site, nodeRef, rowOffset, null);
+        }
+
+        /**
+         * @param sqlKey the node's key in the SQL engine's order, or null for a traversed site
+         */
+        public ReportPosition(String site, NodeRef nodeRef, int rowOffset, SqlReportEngine.NodeKey sqlKey) {
+            this.site = site;
+            this.nodeRef = nodeRef;
+            this.rowOffset = rowOffset;
+            this.sqlKey = sqlKey;
+        }
+
+        public String getSite() { return site; }
+        public NodeRef getNodeRef() { return nodeRef; }
+        public int getRowOffset() { return rowOffset; }
+        /** @return the node's key in the SQL engine's order, or null if the site was traversed */
+        public SqlReportEngine.NodeKey getSqlKey() { return sqlKey; }
+
+        /**
+         * @return the same node's position with the given number of rows already returned
+         */
+        public ReportPosition withRowOffset(int offset) {
+            return new ReportPosition(site, nodeRef, offset, sqlKey);
+        }
+
+        public String encode() {
+            StringBuilder value = new StringBuilder();
+            value.append(sqlKey != null ? ENGINE_SQL : ENGINE_TRAVERSAL)
+                 .append('\n').append(site).append('\n').append(nodeRef).append('\n').append(rowOffset);
+            if (sqlKey != null) {
+                // Names may hold any character, so the path and name are encoded on their own
+                value.append('\n').append(sqlKey.getNodeId())
+                     .append('\n').append(encodePart(sqlKey.getPath()))
+                     .append('\n').append(encodePart(sqlKey.getName()));
+            }
+            return encodePart(value.toString());
+        }
+
+        /**
+         * @throws IllegalArgumentException if the cursor is malformed
+         */
+        public static ReportPosition decode(String cursor) {
+            try {
+                String[] parts = decodePart(cursor).split("\n", -1);
+                boolean sql = ENGINE_SQL.equals(parts[0]);
+                if (!(sql ? parts.length == 7 : ENGINE_TRAVERSAL.equals(parts[0]) && parts.length == 4)) {
+                    throw new IllegalArgumentException("Invalid cursor");
+                }
+                int rowOffset = Integer.parseInt(parts[3]);
+                if (rowOffset < 0) {
+                    throw new IllegalArgumentException("Invalid cursor");
+                }
+                SqlReportEngine.NodeKey sqlKey = sql
+                    ? new SqlReportEngine.NodeKey(decodePart(parts[5]), decodePart(parts[6]), Long.parseLong(parts[4]))
+                    : null;
+                return new ReportPosition(parts[1], new NodeRef(parts[2]), rowOffset, sqlKey);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid cursor", e);
+            }
+        }
+
+        private static String encodePart(String value) {
+            return Base64.encodeBase64URLSafeString(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static String decodePart(String value) {
+            return new String(Base64.decodeBase64(value), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Thrown when a report cannot be resumed because the node it stopped at has been deleted or moved,
+     * or the engine that read its site is no longer available
+     */
+    public static class StalePositionException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public StalePositionException(String message) {
+            super(message);
+        }
+    }
+}
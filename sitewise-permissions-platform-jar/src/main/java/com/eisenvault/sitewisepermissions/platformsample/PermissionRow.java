@@ -0,0 +1,90 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.util.Date;
+
+/**
+ * One row of the permissions report: a user's permission on a node, either set directly
+ * or inherited through a group the user belongs to.
+ */
+public class PermissionRow {
+
+    public static final String TYPE_DIRECT = "DIRECT";
+    public static final String TYPE_GROUP = "GROUP";
+    /** A group's own entry on a node; produced for the report index and group-collapsed reports */
+    public static final String TYPE_GROUP_ACE = "GROUP_ACE";
+
+    private String username;
+    private String site;
+    private String nodePath;
+    private String role;
+    private String nodeName;
+    private String nodeType;
+    private String nodeRef;
+    private String fromDate;
+    private Date grantDate;
+    private String userStatus;
+    private String userLogin;
+    private String groupName;
+    private String permissionType;
+    private String profile;
+
+    public String getUsername() { return username; }
+    public void setUsername(String username) { this.username = username; }
+
+    public String getSite() { return site; }
+    public void setSite(String site) { this.site = site; }
+
+    public String getNodePath() { return nodePath; }
+    public void setNodePath(String nodePath) { this.nodePath = nodePath; }
+
+    public String getRole() { return role; }
+    public void setRole(String role) { this.role = role; }
+
+    public String getNodeName() { return nodeName; }
+    public void setNodeName(String nodeName) { this.nodeName = nodeName; }
+
+    public String getNodeType() { return nodeType; }
+    public void setNodeType(String nodeType) { this.nodeType = nodeType; }
+
+    public String getNodeRef() { return nodeRef; }
+    public void setNodeRef(String nodeRef) { this.nodeRef = nodeRef; }
+
+    public String getFromDate() { return fromDate; }
+    public void setFromDate(String fromDate) { this.fromDate = fromDate; }
+
+    /** @return the date the permission was granted, as resolved for fromDate */
+    public Date getGrantDate() { return grantDate; }
+    public void setGrantDate(Date grantDate) { this.grantDate = grantDate; }
+
+    public String getUserStatus() { return userStatus; }
+    public void setUserStatus(String userStatus) { this.userStatus = userStatus; }
+
+    public String getUserLogin() { return userLogin; }
+    public void setUserLogin(String userLogin) { this.userLogin = userLogin; }
+
+    public String getGroupName() { return groupName; }
+    public void setGroupName(String groupName) { this.groupName = groupName; }
+
+    public String getPermissionType() { return permissionType; }
+    public void setPermissionType(String permissionType) { this.permissionType = permissionType; }
+
+    /** @return the id of the node's {@link PermissionProfiles.Profile}, in profile reports */
+    public String getProfile() { return profile; }
+    public void setProfile(String profile) { this.profile = profile; }
+}
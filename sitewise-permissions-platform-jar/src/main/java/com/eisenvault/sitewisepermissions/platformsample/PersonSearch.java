@@ -0,0 +1,117 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * Finds the users matching a report's username search with one query over the cm:person nodes,
+ * instead of loading the person node of every user the report comes across to compare its email.
+ */
+public class PersonSearch {
+
+    private static Log logger = LogFactory.getLog(PersonSearch.class);
+
+    private static final String CONTENT_MODEL_URI = "http://www.alfresco.org/model/content/1.0";
+
+    /** User names of the live people whose user name or email contains a (lower case) pattern */
+    private static final String PERSON_QUERY =
+        "SELECT user_name.string_value AS user_name " +
+        "FROM alf_node n " +
+        "JOIN alf_store s ON s.id = n.store_id " +
+        "JOIN alf_qname node_type ON node_type.id = n.type_qname_id " +
+        "JOIN alf_namespace ns ON ns.id = node_type.ns_id " +
+        "JOIN alf_node_properties user_name ON user_name.node_id = n.id " +
+        "JOIN alf_qname user_prop ON user_prop.id = user_name.qname_id " +
+        "LEFT JOIN (" +
+        "SELECT np.node_id, np.string_value FROM alf_node_properties np " +
+        "JOIN alf_qname q ON q.id = np.qname_id AND q.local_name = 'email' " +
+        "JOIN alf_namespace qns ON qns.id = q.ns_id AND qns.uri = ?" +
+        ") email ON email.node_id = n.id " +
+        "WHERE ns.uri = ? AND node_type.local_name = 'person' " +
+        "AND s.protocol = 'workspace' AND s.identifier = 'SpacesStore' " +
+        "AND user_prop.ns_id = ns.id AND user_prop.local_name = 'userName' " +
+        "AND (LOWER(user_name.string_value) LIKE ? ESCAPE '!' OR LOWER(email.string_value) LIKE ? ESCAPE '!')";
+
+    private JdbcTemplate jdbcTemplate;
+    private boolean enabled = true;
+
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Find the users whose user name or email contains a search string, ignoring case
+     * @param limit the maximum number of users to return
+     * @return the matching user names in name order, or null if there are more than limit
+     *         matches or the query failed, and users must be matched one by one instead
+     */
+    public Set<String> findUsers(String search, final int limit) {
+        if (!enabled || search == null || search.isEmpty()) {
+            return null;
+        }
+        String pattern = "%" + escapeLike(search.toLowerCase()) + "%";
+        final Object[] params = { CONTENT_MODEL_URI, CONTENT_MODEL_URI, pattern, pattern };
+        final Set<String> users = new TreeSet<String>();
+        try {
+            jdbcTemplate.query(new PreparedStatementCreator() {
+                public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
+                    PreparedStatement ps = connection.prepareStatement(PERSON_QUERY);
+                    ps.setMaxRows(limit + 1);
+                    for (int i = 0; i < params.length; i++) {
+                        ps.setObject(i + 1, params[i]);
+                    }
+                    return ps;
+                }
+            }, new RowCallbackHandler() {
+                public void processRow(ResultSet rs) throws SQLException {
+                    users.add(rs.getString("user_name"));
+                }
+            });
+        } catch (Exception e) {
+            logger.warn("Could not search people for '" + search + "': " + e.getMessage());
+            return null;
+        }
+        if (users.size() > limit) {
+            logger.debug("More than " + limit + " people match '" + search + "', matching users one by one");
+            return null;
+        }
+        return users;
+    }
+
+    /**
+     * Escape LIKE wildcards with '!'
+     */
+    static String escapeLike(String value) {
+        return value.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.security.AccessPermission;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The role, user and date filters of one report, resolved once before the traversal starts:
+ * <ul>
+ * <li>roles: checked on each ACL entry, so a group entry with another role is not expanded</li>
+ * <li>usernameSearch: the people whose user name or email match are found with one query, so
+ *     emails are not loaded per user, and a group entry only visits the members that can match</li>
+ * <li>fromDate: the latest grant of everything granted since that date is read with one query
+ *     on the audit date index; an entry not among them passes only if its node is newer than
+ *     fromDate, so no per-entry audit query is needed, and a group entry that fails is not
+ *     expanded at all</li>
+ * </ul>
+ * When a query fails or returns too many entries, the filter falls back to checking each row
+ * through the {@link ReportLookupContext}, with the same result. Immutable, so the site workers
+ * of a report share one instance.
+ */
+class ReportFilter {
+
+    private static Log logger = LogFactory.getLog(ReportFilter.class);
+
+    /** A filter that lets every row through */
+    static final ReportFilter NONE = new ReportFilter(null, null, null, null, null, null);
+
+    private final Set<String> roles;
+    private final String search;
+    private final Set<String> searchMatches;
+    private final Set<String> searchMatchesLowerCase;
+    private final String userStatus;
+    private final Date fromDate;
+    private final Map<String, Date> grantsSinceFromDate;
+
+    private ReportFilter(Set<String> roles, String search, Set<String> searchMatches, String userStatus, Date fromDate,
+                         Map<String, Date> grantsSinceFromDate) {
+        this.roles = roles;
+        this.search = search;
+        this.searchMatches = searchMatches;
+        this.userStatus = userStatus;
+        this.fromDate = fromDate;
+        this.grantsSinceFromDate = grantsSinceFromDate;
+        if (searchMatches != null) {
+            searchMatchesLowerCase = new HashSet<String>();
+            for (String username : searchMatches) {
+                searchMatchesLowerCase.add(username.toLowerCase());
+            }
+        } else {
+            searchMatchesLowerCase = null;
+        }
+    }
+
+    /**
+     * Resolve the filters of a report request
+     * @param limit the most people or grants to resolve up front; beyond that rows are checked one by one
+     */
+    static ReportFilter resolve(PermissionReportGenerator.ReportRequest request, PersonSearch personSearch,
+                                PermissionAuditService permissionAuditService, int limit) {
+        String search = request.getUsernameSearch();
+        search = search != null && !search.isEmpty() ? search.toLowerCase() : null;
+        String userStatus = request.getUserStatus();
+        if (userStatus != null && (userStatus.isEmpty() || userStatus.equals("All"))) {
+            userStatus = null;
+        }
+        Date fromDate = request.getFromDate();
+        Set<String> roles = request.getRoles();
+        if (roles == null && search == null && userStatus == null && fromDate == null) {
+            return NONE;
+        }
+
+        Set<String> searchMatches = null;
+        if (search != null && personSearch != null) {
+            searchMatches = personSearch.findUsers(search, limit);
+        }
+        Map<String, Date> grants = null;
+        if (fromDate != null && permissionAuditService != null) {
+            grants = permissionAuditService.getLatestGrantsSince(fromDate, limit);
+        }
+        logger.debug("Report filter: " + (searchMatches != null ? searchMatches.size() + " matching people" : "search per user") +
+                     ", " + (grants != null ? grants.size() + " grants since " + fromDate : "grant dates per entry"));
+        return new ReportFilter(roles, search, searchMatches, userStatus, fromDate, grants);
+    }
+
+    /**
+     * @return true if the filter lets every row through
+     */
+    boolean isEmpty() {
+        return roles == null && search == null && userStatus == null && fromDate == null;
+    }
+
+    /**
+     * @return true if rows are filtered by user as well as by entry
+     */
+    boolean hasUserFilter() {
+        return search != null || userStatus != null;
+    }
+
+    /**
+     * Check the role and fromDate filters, which depend on the ACL entry only
+     */
+    boolean matchesEntry(NodeRef nodeRef, AccessPermission accessPermission, ReportLookupContext lookups) {
+        if (roles != null && !roles.contains(accessPermission.getPermission())) {
+            return false;
+        }
+        if (fromDate == null) {
+            return true;
+        }
+        try {
+            if (grantsSinceFromDate != null) {
+                Date latest = grantsSinceFromDate.get(LatestGrantCache.key(nodeRef.toString(),
+                    accessPermission.getAuthority(), accessPermission.getPermission()));
+                if (latest != null) {
+                    lookups.setPermissionDate(nodeRef, accessPermission, latest);
+                    return true;
+                }
+                // Not granted since fromDate: only a node created since then can still pass, by its creation date
+                Date created = lookups.getNodeCreated(nodeRef);
+                if (created != null && created.before(fromDate)) {
+                    return false;
+                }
+            }
+            Date permissionDate = lookups.getPermissionDate(nodeRef, accessPermission);
+            return permissionDate == null || !permissionDate.before(fromDate);
+        } catch (Exception e) {
+            logger.warn("Error applying date filter on node " + nodeRef + ": " + e.getMessage());
+            return true; // Include if filter fails
+        }
+    }
+
+    /**
+     * Check the usernameSearch and userStatus filters
+     */
+    boolean matchesUser(String username, ReportLookupContext lookups) {
+        try {
+            if (search != null && !username.toLowerCase().contains(search)) {
+                if (searchMatchesLowerCase != null) {
+                    if (!searchMatchesLowerCase.contains(username.toLowerCase())) {
+                        return false;
+                    }
+                } else {
+                    String userEmail = lookups.getUserEmail(username);
+                    if (userEmail == null || !userEmail.toLowerCase().contains(search)) {
+                        return false;
+                    }
+                }
+            }
+            return userStatus == null || userStatus.equals(lookups.getUserStatus(username));
+        } catch (Exception e) {
+            logger.warn("Error applying filters for user " + username + ": " + e.getMessage());
+            return true; // Include if filter fails
+        }
+    }
+
+    /**
+     * @param members the users of a group, in name order
+     * @return the members that can pass the username search, in name order: the matching people
+     *         in the group if there are fewer of them than members, otherwise all members
+     */
+    Collection<String> selectMembers(Set<String> members) {
+        if (searchMatches == null || searchMatches.size() >= members.size()) {
+            return members;
+        }
+        List<String> selected = new ArrayList<String>();
+        for (String username : searchMatches) {
+            if (members.contains(username)) {
+                selected.add(username);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @return the people matching the username search, or null if they were not resolved up front
+     */
+    Set<String> getSearchMatches() {
+        return searchMatches;
+    }
+
+    String getSearch() {
+        return search;
+    }
+}
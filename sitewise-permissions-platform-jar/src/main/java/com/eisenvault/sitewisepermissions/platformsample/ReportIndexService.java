@@ -0,0 +1,974 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.security.AuthorityService;
+import org.alfresco.service.cmr.security.AuthorityType;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.cmr.site.SiteInfo;
+import org.alfresco.service.cmr.site.SiteService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * Maintains permission_report_index, a denormalized copy of the direct permissions report:
+ * one row per (site, node, user, role, via-group) with the node name, path and grant date
+ * already resolved, plus one GROUP_ACE row per group entry of a node. Reports can then be
+ * read from the table with indexed filters instead of traversing every document library.
+ *
+ * A single background thread keeps the table current:
+ * - a full rebuild on first use, every fullRebuildIntervalHours and on request, one site per
+ *   transaction;
+ * - an incremental refresh every refreshIntervalSeconds, which re-indexes the subtree of every
+ *   node whose ACL changed in a repository change set since the previous refresh (however the
+ *   permissions or their inheritance were changed) or with a grant or revocation recorded in
+ *   permission_audit, and re-expands the GROUP_ACE rows of every group whose membership no
+ *   longer matches.
+ *
+ * User status and last login change independently of permissions, so they are resolved when
+ * the report is read, as is the username/email search.
+ *
+ * The access of a single user is read from the user's DIRECT rows plus the GROUP_ACE rows of
+ * every group the user is in, directly or through nested groups, so it reflects membership
+ * changes at once, without waiting for the member rows to be re-expanded.
+ */
+public class ReportIndexService {
+
+    private static final Log logger = LogFactory.getLog(ReportIndexService.class);
+
+    private static final String TABLE = DatabaseInitializer.REPORT_INDEX_TABLE;
+
+    private static final String INSERT_SQL = "INSERT INTO " + TABLE +
+        " (site_short_name, node_ref, node_name, node_path, username, role, group_name, permission_type, grant_date, indexed_at)" +
+        " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final int[] INSERT_TYPES = {
+        Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+        Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.TIMESTAMP, Types.TIMESTAMP
+    };
+
+    private static final int MAX_NAME_LENGTH = 1024;
+    private static final int MAX_PATH_LENGTH = 2000;
+
+    /** Changes are looked up from slightly before the previous refresh, for commit lag and clock skew */
+    private static final long WATERMARK_MARGIN_MILLIS = 60L * 1000L;
+
+    /** Most people matching a username search that are passed to the index query */
+    private static final int MAX_USERNAMES_IN_QUERY = 500;
+
+    /** Most group names passed to one user access query */
+    private static final int MAX_GROUPS_IN_QUERY = 500;
+
+    /** How often to check again while the schema migrations are still running */
+    private static final long NOT_READY_DELAY_MILLIS = 30L * 1000L;
+
+    private JdbcTemplate jdbcTemplate;
+    private JdbcTemplate auditJdbcTemplate;
+    private DatabaseInitializer databaseInitializer;
+    private PermissionReportGenerator permissionReportGenerator;
+    private SiteService siteService;
+    private NodeService nodeService;
+    private PermissionService permissionService;
+    private GroupMembershipCache groupMembershipCache;
+    private AuthorityGraph authorityGraph;
+    private AuthorityService authorityService;
+    private RetryingTransactionHelper retryingTransactionHelper;
+
+    private boolean enabled = false;
+    private long refreshIntervalMillis = 300L * 1000L;
+    private long fullRebuildIntervalMillis = 24L * 60L * 60L * 1000L;
+    private long startupDelayMillis = 120L * 1000L;
+    private int batchSize = 500;
+    private int fetchSize = 1000;
+
+    private ScheduledExecutorService executor;
+    private volatile boolean available;
+    private volatile boolean rebuilding;
+
+    // Only used on the index thread
+    private Date watermark;
+    private long membershipVersion = -1L;
+    private long lastRebuildTime;
+
+    private volatile Date lastRebuild;
+    private volatile long lastRebuildMillis;
+    private volatile Date lastRefresh;
+    private volatile long nodesRefreshed;
+    private volatile long groupsRefreshed;
+
+    /**
+     * The repository database, which holds the index table: index statements then join the
+     * repository transaction, so a site or subtree is replaced atomically
+     */
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * The permission_audit database, read for the grants and revocations since the last refresh
+     */
+    public void setAuditJdbcTemplate(JdbcTemplate auditJdbcTemplate) {
+        this.auditJdbcTemplate = auditJdbcTemplate;
+    }
+
+    public void setDatabaseInitializer(DatabaseInitializer databaseInitializer) {
+        this.databaseInitializer = databaseInitializer;
+    }
+
+    public void setPermissionReportGenerator(PermissionReportGenerator permissionReportGenerator) {
+        this.permissionReportGenerator = permissionReportGenerator;
+    }
+
+    public void setSiteService(SiteService siteService) {
+        this.siteService = siteService;
+    }
+
+    public void setNodeService(NodeService nodeService) {
+        this.nodeService = nodeService;
+    }
+
+    public void setPermissionService(PermissionService permissionService) {
+        this.permissionService = permissionService;
+    }
+
+    public void setGroupMembershipCache(GroupMembershipCache groupMembershipCache) {
+        this.groupMembershipCache = groupMembershipCache;
+    }
+
+    public void setAuthorityGraph(AuthorityGraph authorityGraph) {
+        this.authorityGraph = authorityGraph;
+    }
+
+    public void setAuthorityService(AuthorityService authorityService) {
+        this.authorityService = authorityService;
+    }
+
+    public void setRetryingTransactionHelper(RetryingTransactionHelper retryingTransactionHelper) {
+        this.retryingTransactionHelper = retryingTransactionHelper;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setRefreshIntervalSeconds(int refreshIntervalSeconds) {
+        this.refreshIntervalMillis = refreshIntervalSeconds * 1000L;
+    }
+
+    /**
+     * @param fullRebuildIntervalHours hours between full rebuilds, or 0 to rebuild only on request
+     */
+    public void setFullRebuildIntervalHours(int fullRebuildIntervalHours) {
+        this.fullRebuildIntervalMillis = fullRebuildIntervalHours * 60L * 60L * 1000L;
+    }
+
+    public void setStartupDelaySeconds(int startupDelaySeconds) {
+        this.startupDelayMillis = startupDelaySeconds * 1000L;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Start the index thread; the first refresh or rebuild waits for the startup delay
+     */
+    public void init() {
+        if (!enabled) {
+            logger.info("Permission report index is disabled");
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PermissionReportIndex");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.schedule(new Runnable() {
+            public void run() {
+                start();
+            }
+        }, startupDelayMillis, TimeUnit.MILLISECONDS);
+        logger.info("Permission report index started (refresh every " + (refreshIntervalMillis / 1000L) + " seconds)");
+    }
+
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return true if reports can be read from the index
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * Queue a full rebuild on the index thread
+     * @return false if the index is disabled
+     */
+    public boolean requestRebuild() {
+        if (executor == null || executor.isShutdown()) {
+            return false;
+        }
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    rebuild();
+                } catch (Exception e) {
+                    logger.error("Permission report index rebuild failed: " + e.getMessage(), e);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * @return the index state and the times and sizes of the last rebuild and refresh
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("enabled", enabled);
+        stats.put("available", available);
+        stats.put("rebuilding", rebuilding);
+        stats.put("lastRebuild", lastRebuild);
+        stats.put("lastRebuildMillis", lastRebuildMillis);
+        stats.put("lastRefresh", lastRefresh);
+        stats.put("nodesRefreshed", nodesRefreshed);
+        stats.put("groupsRefreshed", groupsRefreshed);
+        return stats;
+    }
+
+    /**
+     * Read a report from the index, in site, path and node order. Of the report scopes only
+     * roles are supported; the index holds no node types and is read per site.
+     * @throws IllegalStateException if the index is not available
+     */
+    public PermissionReportGenerator.ReportSummary generate(PermissionReportGenerator.ReportRequest request,
+                                                            final PermissionReportGenerator.RowHandler handler) throws IOException {
+        if (!available) {
+            throw new IllegalStateException("The permission report index is not available");
+        }
+        final ReportFilter filter = permissionReportGenerator.resolveFilter(request);
+        final PermissionReportGenerator.ReportSummary summary = new PermissionReportGenerator.ReportSummary();
+        final ReportLookupContext lookups = permissionReportGenerator.newLookupContext();
+        List<String> sites = request.getSites();
+        if (sites.isEmpty()) {
+            return summary;
+        }
+
+        final List<Object> params = new ArrayList<Object>(sites);
+        String siteCondition = "site_short_name IN (" + placeholders(sites.size()) + ")";
+        addCounts(siteCondition, params, sites.size(), summary);
+
+        StringBuilder sql = new StringBuilder("SELECT site_short_name, node_ref, node_name, node_path, username, role, " +
+            "group_name, permission_type, grant_date FROM " + TABLE + " WHERE ");
+        sql.append(siteCondition);
+        sql.append(" AND permission_type <> '").append(PermissionRow.TYPE_GROUP_ACE).append("'");
+        if (request.getFromDate() != null) {
+            sql.append(" AND (grant_date IS NULL OR grant_date >= ?)");
+            params.add(new Timestamp(request.getFromDate().getTime()));
+        }
+        if (request.getRoles() != null) {
+            sql.append(" AND role IN (").append(placeholders(request.getRoles().size())).append(")");
+            params.addAll(request.getRoles());
+        }
+        Set<String> searchMatches = filter.getSearchMatches();
+        if (searchMatches != null && searchMatches.size() <= MAX_USERNAMES_IN_QUERY) {
+            // Only the user names that contain the search, or of people whose email does
+            sql.append(" AND (LOWER(username) LIKE ? ESCAPE '!'");
+            params.add("%" + escapeLike(filter.getSearch()) + "%");
+            if (!searchMatches.isEmpty()) {
+                sql.append(" OR username IN (").append(placeholders(searchMatches.size())).append(")");
+                params.addAll(searchMatches);
+            }
+            sql.append(")");
+        }
+        sql.append(" ORDER BY site_short_name, node_path, node_name, node_ref, id");
+
+        final String siteSql = sql.toString();
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        final String[] currentSite = new String[1];
+        try {
+            jdbcTemplate.query(new FetchSizeStatementCreator(siteSql, params), new RowCallbackHandler() {
+                public void processRow(ResultSet rs) throws SQLException {
+                    if (summary.isStopped()) {
+                        return;
+                    }
+                    String site = rs.getString("site_short_name");
+                    String username = rs.getString("username");
+                    try {
+                        if (currentSite[0] != null && !currentSite[0].equals(site)) {
+                            handler.siteCompleted(currentSite[0]);
+                        }
+                        currentSite[0] = site;
+                        if (!filter.matchesUser(username, lookups)) {
+                            return;
+                        }
+                        Date grantDate = rs.getTimestamp("grant_date");
+                        String groupName = rs.getString("group_name");
+
+                        PermissionRow row = new PermissionRow();
+                        row.setUsername(username);
+                        row.setSite(site);
+                        row.setNodePath(rs.getString("node_path"));
+                        row.setRole(rs.getString("role"));
+                        row.setNodeName(rs.getString("node_name"));
+                        row.setNodeRef(rs.getString("node_ref"));
+                        row.setGroupName(groupName != null ? groupName : "");
+                        row.setPermissionType(rs.getString("permission_type"));
+                        row.setGrantDate(grantDate);
+                        row.setFromDate(grantDate != null ? dateFormat.format(grantDate) : "Unknown");
+                        row.setUserStatus(lookups.getUserStatus(username));
+                        row.setUserLogin(lookups.getLastLoginDate(username));
+
+                        summary.addFilteredRow();
+                        if (!handler.handleRow(row)) {
+                            summary.setStopped();
+                        }
+                    } catch (IOException e) {
+                        throw new HandlerIOException(e);
+                    }
+                }
+            });
+            if (currentSite[0] != null && !summary.isStopped()) {
+                handler.siteCompleted(currentSite[0]);
+            }
+        } catch (HandlerIOException e) {
+            throw e.getCause();
+        }
+        return summary;
+    }
+
+    /**
+     * @return the groups a user belongs to directly or through nested groups, in name order
+     */
+    public Set<String> getGroupsOfUser(final String username) {
+        Set<String> groups = authorityGraph != null ? authorityGraph.getGroupsOfUser(username) : null;
+        if (groups == null) {
+            groups = AuthenticationUtil.runAsSystem(new RunAsWork<Set<String>>() {
+                public Set<String> doWork() throws Exception {
+                    return new TreeSet<String>(authorityService.getContainingAuthorities(AuthorityType.GROUP, username, false));
+                }
+            });
+        }
+        return groups;
+    }
+
+    /**
+     * Read everything a user has a role on from the index: the user's DIRECT rows, then a GROUP
+     * row for each GROUP_ACE row of the user's groups, each part in site and path order
+     * @param groups the groups of the user, see {@link #getGroupsOfUser}
+     * @param site the site to read, or null for all sites
+     * @param roles the roles to read, or null for all roles
+     * @return the number of rows handled
+     * @throws IllegalStateException if the index is not available
+     */
+    public int getUserAccess(final String username, Set<String> groups, String site, Set<String> roles,
+                             final PermissionReportGenerator.RowHandler handler) throws IOException {
+        if (!available) {
+            throw new IllegalStateException("The permission report index is not available");
+        }
+        StringBuilder conditions = new StringBuilder();
+        List<Object> scope = new ArrayList<Object>();
+        if (site != null) {
+            conditions.append(" AND site_short_name = ?");
+            scope.add(site);
+        }
+        if (roles != null) {
+            conditions.append(" AND role IN (").append(placeholders(roles.size())).append(")");
+            scope.addAll(roles);
+        }
+        String select = "SELECT site_short_name, node_ref, node_name, node_path, role, group_name, grant_date FROM " +
+                        TABLE + " WHERE permission_type = ? AND ";
+        String order = " ORDER BY site_short_name, node_path, node_name, node_ref, id";
+
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        final int[] count = new int[1];
+        final boolean[] stopped = new boolean[1];
+        RowCallbackHandler writer = new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                if (stopped[0]) {
+                    return;
+                }
+                String groupName = rs.getString("group_name");
+                Date grantDate = rs.getTimestamp("grant_date");
+                PermissionRow row = new PermissionRow();
+                row.setUsername(username);
+                row.setSite(rs.getString("site_short_name"));
+                row.setNodeRef(rs.getString("node_ref"));
+                row.setNodeName(rs.getString("node_name"));
+                row.setNodePath(rs.getString("node_path"));
+                row.setRole(rs.getString("role"));
+                row.setGroupName(groupName != null ? groupName : "");
+                row.setPermissionType(groupName != null ? PermissionRow.TYPE_GROUP : PermissionRow.TYPE_DIRECT);
+                row.setGrantDate(grantDate);
+                row.setFromDate(grantDate != null ? dateFormat.format(grantDate) : "Unknown");
+                count[0]++;
+                try {
+                    stopped[0] = !handler.handleRow(row);
+                } catch (IOException e) {
+                    throw new HandlerIOException(e);
+                }
+            }
+        };
+
+        try {
+            List<Object> params = new ArrayList<Object>();
+            params.add(PermissionRow.TYPE_DIRECT);
+            params.add(username);
+            params.addAll(scope);
+            jdbcTemplate.query(new FetchSizeStatementCreator(select + "username = ?" + conditions + order, params), writer);
+
+            List<String> groupList = new ArrayList<String>(groups);
+            for (int i = 0; i < groupList.size() && !stopped[0]; i += MAX_GROUPS_IN_QUERY) {
+                List<String> chunk = groupList.subList(i, Math.min(i + MAX_GROUPS_IN_QUERY, groupList.size()));
+                params = new ArrayList<Object>();
+                params.add(PermissionRow.TYPE_GROUP_ACE);
+                params.addAll(chunk);
+                params.addAll(scope);
+                jdbcTemplate.query(new FetchSizeStatementCreator(select + "group_name IN (" + placeholders(chunk.size()) + ")" +
+                                                                 conditions + order, params), writer);
+            }
+        } catch (HandlerIOException e) {
+            throw e.getCause();
+        }
+        return count[0];
+    }
+
+    /**
+     * Add the permission counts of the requested sites, the same counts a traversal reports
+     * before any filter is applied
+     */
+    private void addCounts(String siteCondition, List<Object> params, int sites,
+                           PermissionReportGenerator.ReportSummary summary) {
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        jdbcTemplate.query("SELECT permission_type, COUNT(*) AS row_count FROM " + TABLE + " WHERE " + siteCondition +
+                           " GROUP BY permission_type", params.toArray(), new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                counts.put(rs.getString("permission_type"), rs.getInt("row_count"));
+            }
+        });
+        int direct = count(counts, PermissionRow.TYPE_DIRECT);
+        int groupAces = count(counts, PermissionRow.TYPE_GROUP_ACE);
+        int groupMembers = count(counts, PermissionRow.TYPE_GROUP);
+        summary.addIndexCounts(sites, direct, groupAces, groupMembers);
+    }
+
+    private static int count(Map<String, Integer> counts, String type) {
+        Integer count = counts.get(type);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * First run: rebuild an empty index, otherwise continue from its newest rows
+     */
+    private void start() {
+        try {
+            if (!databaseInitializer.isReportIndexReady()) {
+                logger.debug("Permission report index table not ready, postponing");
+                executor.schedule(new Runnable() {
+                    public void run() {
+                        start();
+                    }
+                }, NOT_READY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            }
+            Timestamp newest = jdbcTemplate.queryForObject("SELECT MAX(indexed_at) FROM " + TABLE, Timestamp.class);
+            if (newest == null || fullRebuildIntervalMillis > 0 &&
+                    System.currentTimeMillis() - newest.getTime() > fullRebuildIntervalMillis) {
+                rebuild();
+            } else {
+                // The group rows may be stale, so the first refresh compares every group
+                watermark = new Date(newest.getTime() - WATERMARK_MARGIN_MILLIS);
+                lastRebuildTime = System.currentTimeMillis();
+                available = true;
+                refresh();
+            }
+        } catch (Exception e) {
+            logger.error("Could not start the permission report index: " + e.getMessage(), e);
+        }
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    if (fullRebuildIntervalMillis > 0 && System.currentTimeMillis() - lastRebuildTime >= fullRebuildIntervalMillis) {
+                        rebuild();
+                    } else if (watermark != null) {
+                        refresh();
+                    }
+                } catch (Exception e) {
+                    logger.error("Permission report index refresh failed: " + e.getMessage(), e);
+                }
+            }
+        }, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Re-index every site, one per transaction, and drop the rows of sites that no longer exist
+     */
+    private void rebuild() {
+        long start = System.currentTimeMillis();
+        long version = groupMembershipCache.getVersion();
+        rebuilding = true;
+        try {
+            List<String> sites = AuthenticationUtil.runAsSystem(new RunAsWork<List<String>>() {
+                public List<String> doWork() throws Exception {
+                    List<String> names = new ArrayList<String>();
+                    for (SiteInfo site : siteService.listSites(null, null, 1000)) {
+                        names.add(site.getShortName());
+                    }
+                    return names;
+                }
+            });
+            Collections.sort(sites);
+            int rows = 0;
+            for (String site : sites) {
+                try {
+                    rows += indexSite(site);
+                } catch (RuntimeException e) {
+                    // Rolled back, so the site keeps the rows of its last successful indexing
+                    logger.warn("Could not re-index site " + site + " for the permission report index: " + e.getMessage());
+                }
+            }
+
+            List<String> indexedSites = jdbcTemplate.queryForList("SELECT DISTINCT site_short_name FROM " + TABLE, String.class);
+            for (final String site : indexedSites) {
+                if (Collections.binarySearch(sites, site) < 0) {
+                    runInTransaction(new RetryingTransactionCallback<Integer>() {
+                        public Integer execute() throws Throwable {
+                            return jdbcTemplate.update("DELETE FROM " + TABLE + " WHERE site_short_name = ?", site);
+                        }
+                    });
+                }
+            }
+
+            watermark = new Date(start - WATERMARK_MARGIN_MILLIS);
+            membershipVersion = version;
+            lastRebuildTime = start;
+            lastRebuild = new Date(start);
+            lastRebuildMillis = System.currentTimeMillis() - start;
+            available = true;
+            logger.info("Rebuilt permission report index: " + sites.size() + " sites, " + rows + " rows in " +
+                        lastRebuildMillis + " ms");
+        } finally {
+            rebuilding = false;
+        }
+    }
+
+    /**
+     * Replace the rows of one site in a single transaction
+     * @return the number of rows written
+     */
+    private int indexSite(final String siteShortName) {
+        return runInTransaction(new RetryingTransactionCallback<Integer>() {
+            public Integer execute() throws Throwable {
+                jdbcTemplate.update("DELETE FROM " + TABLE + " WHERE site_short_name = ?", siteShortName);
+                PermissionReportGenerator.ReportRequest request = newIndexRequest();
+                request.setSites(Collections.singletonList(siteShortName));
+                RowWriter writer = new RowWriter();
+                permissionReportGenerator.generate(request, writer);
+                writer.flush();
+                return writer.written;
+            }
+        });
+    }
+
+    /**
+     * Re-index the nodes with permission changes committed since the last refresh, then the
+     * member rows of groups whose membership changed
+     */
+    private void refresh() {
+        long start = System.currentTimeMillis();
+        long version = groupMembershipCache.getVersion();
+        Timestamp since = new Timestamp(watermark.getTime());
+
+        final Map<String, String> changedNodes = new LinkedHashMap<String, String>();
+        for (String nodeRef : readAclChanges(watermark.getTime())) {
+            changedNodes.put(nodeRef, null);
+        }
+        // Plus the grants and revocations recorded by this module, which include expiries.
+        // One branch per date column, so each reads its own index (an OR would scan the table)
+        auditJdbcTemplate.query("SELECT node_ref, site_short_name FROM permission_audit WHERE date_granted >= ? " +
+                           "UNION SELECT node_ref, site_short_name FROM permission_audit WHERE created_at >= ? " +
+                           "UNION SELECT node_ref, site_short_name FROM permission_audit WHERE revoked_date >= ?",
+                           new Object[] {since, since, since}, new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                changedNodes.put(rs.getString("node_ref"), rs.getString("site_short_name"));
+            }
+        });
+        for (String nodeRef : changedNodes.keySet()) {
+            try {
+                refreshNode(new NodeRef(nodeRef));
+                nodesRefreshed++;
+            } catch (Exception e) {
+                logger.warn("Could not refresh the permission report index for node " + nodeRef + ": " + e.getMessage());
+            }
+        }
+
+        if (version != membershipVersion) {
+            refreshGroups();
+            membershipVersion = version;
+        }
+
+        watermark = new Date(start - WATERMARK_MARGIN_MILLIS);
+        lastRefresh = new Date(start);
+        if (!changedNodes.isEmpty()) {
+            logger.debug("Refreshed permission report index for " + changedNodes.size() + " changed nodes in " +
+                         (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /**
+     * Read the nodes whose ACL was replaced in a repository change set committed since the given
+     * time. Every permission change, through this module, Share, REST or the Java API, and every
+     * change of permission inheritance gives the node a new ACL. The nodes below it that inherit
+     * get new shared ACLs in the same change set, so a node whose primary parent's ACL changed
+     * too is left out: its subtree is re-indexed with the parent's.
+     * @return the node refs of the topmost changed nodes in the workspace store
+     */
+    private Set<String> readAclChanges(final long sinceMillis) {
+        final Set<String> nodeRefs = new LinkedHashSet<String>();
+        retryingTransactionHelper.doInTransaction(new RetryingTransactionCallback<Void>() {
+            public Void execute() throws Throwable {
+                nodeRefs.clear();
+                jdbcTemplate.query(
+                    "SELECT n.uuid FROM alf_acl_change_set cs" +
+                    " JOIN alf_access_control_list acl ON acl.acl_change_set = cs.id" +
+                    " JOIN alf_node n ON n.acl_id = acl.id" +
+                    " JOIN alf_store s ON s.id = n.store_id" +
+                    " LEFT JOIN alf_child_assoc pa ON pa.child_node_id = n.id AND pa.is_primary = ?" +
+                    " LEFT JOIN alf_node p ON p.id = pa.parent_node_id" +
+                    " LEFT JOIN alf_access_control_list pacl ON pacl.id = p.acl_id" +
+                    " LEFT JOIN alf_acl_change_set pcs ON pcs.id = pacl.acl_change_set" +
+                    " WHERE cs.commit_time_ms >= ? AND s.protocol = ? AND s.identifier = ?" +
+                    " AND (pcs.commit_time_ms IS NULL OR pcs.commit_time_ms < ?)",
+                    new Object[] {Boolean.TRUE, sinceMillis, StoreRef.STORE_REF_WORKSPACE_SPACESSTORE.getProtocol(),
+                                  StoreRef.STORE_REF_WORKSPACE_SPACESSTORE.getIdentifier(), sinceMillis},
+                    new RowCallbackHandler() {
+                        public void processRow(ResultSet rs) throws SQLException {
+                            nodeRefs.add(new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE,
+                                                     rs.getString("uuid")).toString());
+                        }
+                    });
+                return null;
+            }
+        }, true, true);
+        return nodeRefs;
+    }
+
+    /**
+     * Replace the rows of a node and everything below it. Rows are removed from where the node
+     * was last indexed and re-created where it is now, so a node that moved or was deleted
+     * since is handled as well.
+     */
+    private void refreshNode(final NodeRef nodeRef) {
+        runInTransaction(new RetryingTransactionCallback<Integer>() {
+            public Integer execute() throws Throwable {
+                // Where the node was indexed before
+                List<Map<String, Object>> indexed = jdbcTemplate.queryForList(
+                    "SELECT site_short_name, node_path, node_name FROM " + TABLE + " WHERE node_ref = ?", nodeRef.toString());
+                if (!indexed.isEmpty()) {
+                    Map<String, Object> old = indexed.get(0);
+                    deleteSubtree((String) old.get("site_short_name"), nodeRef,
+                                  (String) old.get("node_path"), (String) old.get("node_name"));
+                }
+
+                // Where the node is now, if it is still in a document library
+                String siteShortName = getDocumentLibrarySite(nodeRef);
+                if (siteShortName == null) {
+                    return 0;
+                }
+                String path = nodeService.getPath(nodeRef).toDisplayPath(nodeService, permissionService);
+                String name = (String) nodeService.getProperty(nodeRef, ContentModel.PROP_NAME);
+                deleteSubtree(siteShortName, nodeRef, path, name);
+
+                RowWriter writer = new RowWriter();
+                permissionReportGenerator.generateSubtree(siteShortName, nodeRef, newIndexRequest(), writer);
+                writer.flush();
+                return writer.written;
+            }
+        });
+    }
+
+    /**
+     * Delete the rows of a node and of everything whose path is below it
+     */
+    private void deleteSubtree(String siteShortName, NodeRef nodeRef, String path, String name) {
+        jdbcTemplate.update("DELETE FROM " + TABLE + " WHERE node_ref = ?", nodeRef.toString());
+        if (path != null && name != null) {
+            String childPath = path + "/" + name;
+            jdbcTemplate.update("DELETE FROM " + TABLE + " WHERE site_short_name = ? AND " +
+                                "(node_path = ? OR node_path LIKE ? ESCAPE '!')",
+                                siteShortName, childPath, escapeLike(childPath) + "/%");
+        }
+    }
+
+    /**
+     * @return the site whose document library contains the node, or null if the node is deleted or elsewhere
+     */
+    private String getDocumentLibrarySite(NodeRef nodeRef) {
+        if (!nodeService.exists(nodeRef)) {
+            return null;
+        }
+        SiteInfo site = siteService.getSite(nodeRef);
+        if (site == null) {
+            return null;
+        }
+        NodeRef documentLibrary = siteService.getContainer(site.getShortName(), "documentLibrary");
+        NodeRef current = nodeRef;
+        while (current != null) {
+            if (current.equals(documentLibrary)) {
+                return site.getShortName();
+            }
+            ChildAssociationRef parent = nodeService.getPrimaryParent(current);
+            current = parent != null ? parent.getParentRef() : null;
+        }
+        return null;
+    }
+
+    /**
+     * Bring the member rows of every indexed group entry in line with the group's current members.
+     * The GROUP_ACE rows hold everything else a member row needs, so no node is read.
+     */
+    private void refreshGroups() {
+        final ReportLookupContext lookups = permissionReportGenerator.newLookupContext();
+        List<String> groups = jdbcTemplate.queryForList("SELECT DISTINCT group_name FROM " + TABLE +
+            " WHERE permission_type = ?", String.class, PermissionRow.TYPE_GROUP_ACE);
+        for (final String groupName : groups) {
+            try {
+                final Set<String> members = AuthenticationUtil.runAsSystem(new RunAsWork<Set<String>>() {
+                    public Set<String> doWork() throws Exception {
+                        return lookups.getUsersInGroup(groupName);
+                    }
+                });
+                Set<String> indexedMembers = new HashSet<String>(jdbcTemplate.queryForList(
+                    "SELECT DISTINCT username FROM " + TABLE + " WHERE permission_type = ? AND group_name = ?",
+                    String.class, PermissionRow.TYPE_GROUP, groupName));
+                if (indexedMembers.equals(members)) {
+                    continue;
+                }
+                runInTransaction(new RetryingTransactionCallback<Integer>() {
+                    public Integer execute() throws Throwable {
+                        return expandGroupRows(groupName, members);
+                    }
+                });
+                groupsRefreshed++;
+            } catch (Exception e) {
+                logger.warn("Could not refresh the permission report index for group " + groupName + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Replace the member rows of a group with one row per member for each of its entries
+     */
+    private int expandGroupRows(String groupName, Set<String> members) {
+        jdbcTemplate.update("DELETE FROM " + TABLE + " WHERE permission_type = ? AND group_name = ?",
+                            PermissionRow.TYPE_GROUP, groupName);
+        final List<PermissionRow> entries = new ArrayList<PermissionRow>();
+        jdbcTemplate.query("SELECT site_short_name, node_ref, node_name, node_path, role, grant_date FROM " + TABLE +
+                           " WHERE permission_type = ? AND group_name = ?",
+                           new Object[] {PermissionRow.TYPE_GROUP_ACE, groupName}, new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                PermissionRow entry = new PermissionRow();
+                entry.setSite(rs.getString("site_short_name"));
+                entry.setNodeRef(rs.getString("node_ref"));
+                entry.setNodeName(rs.getString("node_name"));
+                entry.setNodePath(rs.getString("node_path"));
+                entry.setRole(rs.getString("role"));
+                entry.setGrantDate(rs.getTimestamp("grant_date"));
+                entries.add(entry);
+            }
+        });
+
+        RowWriter writer = new RowWriter();
+        for (PermissionRow entry : entries) {
+            for (String member : members) {
+                PermissionRow row = new PermissionRow();
+                row.setSite(entry.getSite());
+                row.setNodeRef(entry.getNodeRef());
+                row.setNodeName(entry.getNodeName());
+                row.setNodePath(entry.getNodePath());
+                row.setRole(entry.getRole());
+                row.setGrantDate(entry.getGrantDate());
+                row.setUsername(member);
+                row.setGroupName(groupName);
+                row.setPermissionType(PermissionRow.TYPE_GROUP);
+                writer.handleRow(row);
+            }
+        }
+        writer.flush();
+        return writer.written;
+    }
+
+    private PermissionReportGenerator.ReportRequest newIndexRequest() {
+        PermissionReportGenerator.ReportRequest request = new PermissionReportGenerator.ReportRequest();
+        request.setIndexing(true);
+        return request;
+    }
+
+    /**
+     * Run as the system user in a new read-write repository transaction, which the index statements join
+     */
+    private <T> T runInTransaction(final RetryingTransactionCallback<T> callback) {
+        return AuthenticationUtil.runAsSystem(new RunAsWork<T>() {
+            public T doWork() throws Exception {
+                return retryingTransactionHelper.doInTransaction(callback, false, true);
+            }
+        });
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(i > 0 ? ", ?" : "?");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Escape LIKE wildcards with '!'; '[' is a wildcard on SQL Server
+     */
+    private static String escapeLike(String value) {
+        return value.replace("!", "!!").replace("%", "!%").replace("_", "!_").replace("[", "![");
+    }
+
+    private static String truncate(String value, int maxLength) {
+        return value != null && value.length() > maxLength ? value.substring(0, maxLength) : value;
+    }
+
+    /**
+     * Writes index rows in JDBC batches
+     */
+    private class RowWriter implements PermissionReportGenerator.RowHandler {
+        private final Timestamp indexedAt = new Timestamp(System.currentTimeMillis());
+        private final List<Object[]> batch = new ArrayList<Object[]>(batchSize);
+        private int written;
+
+        public boolean handleRow(PermissionRow row) {
+            String groupName = row.getGroupName();
+            batch.add(new Object[] {
+                row.getSite(),
+                row.getNodeRef(),
+                truncate(row.getNodeName(), MAX_NAME_LENGTH),
+                truncate(row.getNodePath(), MAX_PATH_LENGTH),
+                row.getUsername(),
+                row.getRole(),
+                groupName != null && !groupName.isEmpty() ? groupName : null,
+                row.getPermissionType(),
+                row.getGrantDate() != null ? new Timestamp(row.getGrantDate().getTime()) : null,
+                indexedAt
+            });
+            if (batch.size() >= batchSize) {
+                flush();
+            }
+            return true;
+        }
+
+        public void siteCompleted(String siteShortName) {
+            flush();
+        }
+
+        void flush() {
+            if (!batch.isEmpty()) {
+                jdbcTemplate.batchUpdate(INSERT_SQL, batch, INSERT_TYPES);
+                written += batch.size();
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Streams a query with the configured fetch size, without changing the shared JdbcTemplate
+     */
+    private class FetchSizeStatementCreator implements PreparedStatementCreator {
+        private final String sql;
+        private final List<Object> params;
+
+        FetchSizeStatementCreator(String sql, List<Object> params) {
+            this.sql = sql;
+            this.params = params;
+        }
+
+        public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
+            PreparedStatement ps = connection.prepareStatement(sql);
+            ps.setFetchSize(fetchSize);
+            for (int i = 0; i < params.size(); i++) {
+                ps.setObject(i + 1, params.get(i));
+            }
+            return ps;
+        }
+    }
+
+    /**
+     * Carries a RowHandler IOException out of a JDBC row callback
+     */
+    private static class HandlerIOException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        HandlerIOException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
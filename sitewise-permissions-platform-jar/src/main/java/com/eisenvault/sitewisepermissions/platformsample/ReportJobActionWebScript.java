@@ -0,0 +1,73 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.io.IOException;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.springframework.extensions.webscripts.AbstractWebScript;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+/**
+ * Cancellation and removal of background report jobs (see {@link ReportJobService}). These
+ * change state, so they are served by POST, where the repository's CSRF filter applies, and
+ * not by the GET of {@link ReportJobsWebScript}. action is cancel, to stop a queued or running
+ * job, or delete, to remove a finished job and its file. Users only see their own jobs.
+ */
+public class ReportJobActionWebScript extends AbstractWebScript {
+
+    private ReportJobService reportJobService;
+
+    public void setReportJobService(ReportJobService reportJobService) {
+        this.reportJobService = reportJobService;
+    }
+
+    @Override
+    public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException {
+        String jobId = req.getParameter("jobId");
+        String action = req.getParameter("action");
+        if (action == null || (!action.equals("cancel") && !action.equals("delete"))) {
+            ReportJobsWebScript.writeError(res, 400, "Invalid action parameter. Must be 'cancel' or 'delete'");
+            return;
+        }
+        if (jobId == null || jobId.isEmpty()) {
+            ReportJobsWebScript.writeError(res, 400, "Missing jobId parameter");
+            return;
+        }
+
+        ReportJobService.ReportJob job = reportJobService.getJob(jobId);
+        if (job == null || !job.getOwner().equals(AuthenticationUtil.getFullyAuthenticatedUser())) {
+            ReportJobsWebScript.writeError(res, 404, "No report job " + jobId + "; finished jobs are removed after the retention period");
+            return;
+        }
+
+        if (action.equals("cancel")) {
+            if (!reportJobService.cancel(job)) {
+                ReportJobsWebScript.writeError(res, 409, "The report job has already finished");
+                return;
+            }
+        } else {
+            if (!job.isFinished()) {
+                ReportJobsWebScript.writeError(res, 409, "The report job is still " + job.getStatus().toLowerCase() + ", cancel it first");
+                return;
+            }
+            reportJobService.remove(job);
+        }
+        ReportJobsWebScript.writeJob(res, 200, job);
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.transaction.TransactionService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs reports in the background, for reports too large to be generated within one request.
+ * A report web script submits a job and gets its id back at once; the job writes the report
+ * to a file in the job directory, as the submitting user in a read-only transaction, counting
+ * the sites and rows done. The file can then be downloaded until the retention period has
+ * passed, after which the job and its file are removed.
+ *
+ * At most maxConcurrentJobs jobs run at a time, the others wait in order. Submissions are
+ * refused beyond maxPendingJobs queued or running jobs, or maxJobsPerUser of the same user.
+ * Jobs are kept in memory only: the files of a previous run are removed at startup.
+ */
+public class ReportJobService {
+
+    private static final Log logger = LogFactory.getLog(ReportJobService.class);
+
+    public static final String STATUS_QUEUED = "QUEUED";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_FAILED = "FAILED";
+    public static final String STATUS_CANCELLED = "CANCELLED";
+
+    /** Longest time between two looks for expired jobs */
+    private static final long MAX_CLEANUP_INTERVAL_MILLIS = 60L * 60L * 1000L;
+
+    private TransactionService transactionService;
+
+    private boolean enabled = true;
+    private int maxConcurrentJobs = 2;
+    private int maxPendingJobs = 10;
+    private int maxJobsPerUser = 2;
+    private long retentionMillis = 24L * 60L * 60L * 1000L;
+    private String directory;
+
+    private final Map<String, ReportJob> jobs = new ConcurrentHashMap<String, ReportJob>();
+    private File jobDirectory;
+    private ExecutorService executor;
+    private ScheduledExecutorService cleaner;
+
+    public void setTransactionService(TransactionService transactionService) {
+        this.transactionService = transactionService;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setMaxConcurrentJobs(int maxConcurrentJobs) {
+        this.maxConcurrentJobs = maxConcurrentJobs;
+    }
+
+    public void setMaxPendingJobs(int maxPendingJobs) {
+        this.maxPendingJobs = maxPendingJobs;
+    }
+
+    public void setMaxJobsPerUser(int maxJobsPerUser) {
+        this.maxJobsPerUser = maxJobsPerUser;
+    }
+
+    public void setRetentionHours(int retentionHours) {
+        this.retentionMillis = retentionHours * 60L * 60L * 1000L;
+    }
+
+    /**
+     * @param directory where job output is written; empty for a directory below java.io.tmpdir
+     */
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Prepare the job directory, removing the output of jobs from a previous run, and start
+     * the job threads
+     */
+    public void init() {
+        if (!enabled) {
+            logger.info("Background report jobs are disabled");
+            return;
+        }
+        jobDirectory = directory != null && !directory.trim().isEmpty()
+            ? new File(directory.trim())
+            : new File(System.getProperty("java.io.tmpdir"), "sitewise-report-jobs");
+        if (!jobDirectory.isDirectory() && !jobDirectory.mkdirs()) {
+            logger.error("Background report jobs are disabled: cannot create " + jobDirectory);
+            enabled = false;
+            return;
+        }
+        File[] leftovers = jobDirectory.listFiles();
+        if (leftovers != null) {
+            for (File file : leftovers) {
+                if (file.isFile() && !file.delete()) {
+                    logger.warn("Could not delete old report job file " + file);
+                }
+            }
+        }
+
+        executor = Executors.newFixedThreadPool(Math.max(1, maxConcurrentJobs), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PermissionReportJob-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        cleaner = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PermissionReportJobCleaner");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long interval = Math.max(60L * 1000L, Math.min(retentionMillis, MAX_CLEANUP_INTERVAL_MILLIS));
+        cleaner.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                removeExpiredJobs();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        logger.info("Background report jobs started in " + jobDirectory + " (" + maxConcurrentJobs +
+                    " at a time, kept " + (retentionMillis / (60L * 60L * 1000L)) + " hours)");
+    }
+
+    public void destroy() {
+        if (cleaner != null) {
+            cleaner.shutdownNow();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled && executor != null;
+    }
+
+    /**
+     * Queue a report for the current user
+     * @param type the report format, json or xlsx
+     * @param fileName the name the finished report is downloaded as
+     * @param parameters the report's request parameters, returned with the job status
+     * @return the queued job
+     * @throws JobLimitException if the user or the server already has as many jobs as allowed
+     */
+    public synchronized ReportJob submit(String type, String fileName, String contentType,
+                                         Map<String, String> parameters, ReportTask task) {
+        String owner = AuthenticationUtil.getFullyAuthenticatedUser();
+        int pending = 0;
+        int pendingOfOwner = 0;
+        for (ReportJob job : jobs.values()) {
+            if (!job.isFinished()) {
+                pending++;
+                if (job.getOwner().equals(owner)) {
+                    pendingOfOwner++;
+                }
+            }
+        }
+        if (pendingOfOwner >= maxJobsPerUser) {
+            throw new JobLimitException("You already have " + pendingOfOwner + " report jobs queued or running");
+        }
+        if (pending >= maxPendingJobs) {
+            throw new JobLimitException("Too many report jobs are queued or running, please try again later");
+        }
+
+        String id = UUID.randomUUID().toString();
+        final ReportJob job = new ReportJob(id, owner, type, fileName, contentType, parameters,
+                                            new File(jobDirectory, id + "." + type), task);
+        // Visible to cancel only once its future is set
+        job.future = executor.submit(new Runnable() {
+            public void run() {
+                runJob(job);
+            }
+        });
+        jobs.put(id, job);
+        logger.info("Report job " + id + " (" + type + ") queued for " + owner);
+        return job;
+    }
+
+    /**
+     * @return the job, or null if there is no such job or it has expired
+     */
+    public ReportJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * @return the jobs of a user, newest first
+     */
+    public List<ReportJob> getJobs(String owner) {
+        List<ReportJob> ownJobs = new ArrayList<ReportJob>();
+        for (ReportJob job : jobs.values()) {
+            if (job.getOwner().equals(owner)) {
+                ownJobs.add(job);
+            }
+        }
+        Collections.sort(ownJobs, new Comparator<ReportJob>() {
+            public int compare(ReportJob a, ReportJob b) {
+                return b.getCreated().compareTo(a.getCreated());
+            }
+        });
+        return ownJobs;
+    }
+
+    /**
+     * Cancel a job: a queued job does not start, a running job stops at its next row
+     * @return false if the job had already finished
+     */
+    public boolean cancel(ReportJob job) {
+        synchronized (job) {
+            if (job.isFinished()) {
+                return false;
+            }
+            job.cancelled = true;
+            if (STATUS_QUEUED.equals(job.status) && job.future.cancel(false)) {
+                job.finish(STATUS_CANCELLED, null);
+            }
+        }
+        logger.info("Report job " + job.getId() + " cancelled");
+        return true;
+    }
+
+    /**
+     * Remove a finished job and its output
+     */
+    public void remove(ReportJob job) {
+        jobs.remove(job.getId());
+        deleteFile(job.getFile());
+    }
+
+    private void runJob(final ReportJob job) {
+        synchronized (job) {
+            if (job.cancelled) {
+                job.finish(STATUS_CANCELLED, null);
+                return;
+            }
+            job.status = STATUS_RUNNING;
+            job.started = new Date();
+        }
+        logger.info("Report job " + job.getId() + " started");
+        String error = null;
+        try {
+            AuthenticationUtil.runAs(new RunAsWork<Void>() {
+                public Void doWork() throws Exception {
+                    return transactionService.getRetryingTransactionHelper().doInTransaction(
+                        new RetryingTransactionCallback<Void>() {
+                            public Void execute() throws Throwable {
+                                // A retried attempt starts the file and the counts again
+                                job.sitesCompleted.set(0);
+                                job.rows.set(0);
+                                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(job.getFile()))) {
+                                    job.task.write(out, job);
+                                }
+                                return null;
+                            }
+                        }, true, true);
+                }
+            }, job.getOwner());
+        } catch (Exception e) {
+            logger.error("Report job " + job.getId() + " failed: " + e.getMessage(), e);
+            error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        }
+
+        synchronized (job) {
+            if (job.cancelled) {
+                deleteFile(job.getFile());
+                job.finish(STATUS_CANCELLED, null);
+            } else if (error != null) {
+                deleteFile(job.getFile());
+                job.finish(STATUS_FAILED, error);
+            } else {
+                job.size = job.getFile().length();
+                job.finish(STATUS_COMPLETED, null);
+            }
+        }
+        logger.info("Report job " + job.getId() + " " + job.getStatus().toLowerCase() + ": " + job.getRows() +
+                    " rows in " + (job.getFinished().getTime() - job.getStarted().getTime()) + " ms");
+    }
+
+    private void removeExpiredJobs() {
+        try {
+            long expiry = System.currentTimeMillis() - retentionMillis;
+            for (ReportJob job : jobs.values()) {
+                Date finished = job.getFinished();
+                if (finished != null && finished.getTime() < expiry) {
+                    remove(job);
+                    logger.debug("Removed expired report job " + job.getId());
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Error removing expired report jobs: " + e.getMessage(), e);
+        }
+    }
+
+    private void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            logger.warn("Could not delete report job file " + file);
+        }
+    }
+
+    /**
+     * Writes a job's report
+     */
+    public interface ReportTask {
+        /**
+         * @param out the job's file; rows should be passed through {@link ReportJob#track} so
+         *            the job counts them and can be cancelled
+         */
+        void write(OutputStream out, ReportJob job) throws Exception;
+    }
+
+    /**
+     * A background report and its progress
+     */
+    public static class ReportJob {
+        private final String id;
+        private final String owner;
+        private final String type;
+        private final String fileName;
+        private final String contentType;
+        private final SortedMap<String, String> parameters;
+        private final File file;
+        private final ReportTask task;
+        private final Date created = new Date();
+        private final AtomicInteger sitesCompleted = new AtomicInteger();
+        private final AtomicLong rows = new AtomicLong();
+        private volatile String status = STATUS_QUEUED;
+        private volatile boolean cancelled;
+        private volatile int sitesTotal;
+        private volatile Date started;
+        private volatile Date finished;
+        private volatile long size;
+        private volatile String error;
+        private Future<?> future;
+
+        ReportJob(String id, String owner, String type, String fileName, String contentType,
+                  Map<String, String> parameters, File file, ReportTask task) {
+            this.id = id;
+            this.owner = owner;
+            this.type = type;
+            this.fileName = fileName;
+            this.contentType = contentType;
+            this.parameters = new TreeMap<String, String>(parameters);
+            this.file = file;
+            this.task = task;
+        }
+
+        /**
+         * Wrap a report's row handler so the job counts its rows and sites, and stops it
+         * once cancelled
+         */
+        public PermissionReportGenerator.RowHandler track(final PermissionReportGenerator.RowHandler handler) {
+            return new PermissionReportGenerator.RowHandler() {
+                public boolean handleRow(PermissionRow row) throws IOException {
+                    if (cancelled) {
+                        return false;
+                    }
+                    rows.incrementAndGet();
+                    return handler.handleRow(row);
+                }
+
+                public void siteCompleted(String siteShortName) throws IOException {
+                    sitesCompleted.incrementAndGet();
+                    handler.siteCompleted(siteShortName);
+                }
+            };
+        }
+
+        /**
+         * The finished date is set last: a reader that sees the job finished sees its final status
+         */
+        private void finish(String status, String error) {
+            this.error = error;
+            this.status = status;
+            this.finished = new Date();
+        }
+
+        public boolean isFinished() {
+            return finished != null;
+        }
+
+        public boolean isCancelled() { return cancelled; }
+        public String getId() { return id; }
+        public String getOwner() { return owner; }
+        public String getType() { return type; }
+        public String getFileName() { return fileName; }
+        public String getContentType() { return contentType; }
+        public SortedMap<String, String> getParameters() { return parameters; }
+        public File getFile() { return file; }
+        public String getStatus() { return status; }
+        public Date getCreated() { return created; }
+        public Date getStarted() { return started; }
+        public Date getFinished() { return finished; }
+        public int getSitesTotal() { return sitesTotal; }
+        public void setSitesTotal(int sitesTotal) { this.sitesTotal = sitesTotal; }
+        public int getSitesCompleted() { return sitesCompleted.get(); }
+        public long getRows() { return rows.get(); }
+        public long getSize() { return size; }
+        public String getError() { return error; }
+    }
+
+    /**
+     * Thrown when a job is submitted beyond the per-user or overall job limit
+     */
+    public static class JobLimitException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public JobLimitException(String message) {
+            super(message);
+        }
+    }
+}
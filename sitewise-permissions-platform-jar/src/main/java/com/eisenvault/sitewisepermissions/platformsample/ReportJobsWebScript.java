@@ -0,0 +1,183 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.springframework.extensions.webscripts.AbstractWebScript;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Status and download of background report jobs (see {@link ReportJobService}), submitted
+ * with async=true on the direct permissions reports. Without a jobId the current user's jobs
+ * are listed; with one, action selects status (default) or download. Jobs are cancelled and
+ * deleted with {@link ReportJobActionWebScript}. Users only see their own jobs.
+ */
+public class ReportJobsWebScript extends AbstractWebScript {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private ReportJobService reportJobService;
+
+    public void setReportJobService(ReportJobService reportJobService) {
+        this.reportJobService = reportJobService;
+    }
+
+    @Override
+    public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException {
+        String jobId = req.getParameter("jobId");
+        String action = req.getParameter("action");
+        if (action == null || action.isEmpty()) {
+            action = "status";
+        }
+        if (!action.equals("status") && !action.equals("download")) {
+            writeError(res, 400, "Invalid action parameter. Must be 'status' or 'download'");
+            return;
+        }
+        String user = AuthenticationUtil.getFullyAuthenticatedUser();
+
+        if (jobId == null || jobId.isEmpty()) {
+            res.setContentType("application/json");
+            res.setContentEncoding("UTF-8");
+            JsonGenerator json = JSON_FACTORY.createGenerator(res.getWriter());
+            json.writeStartObject();
+            json.writeBooleanField("success", true);
+            json.writeArrayFieldStart("jobs");
+            for (ReportJobService.ReportJob job : reportJobService.getJobs(user)) {
+                writeJob(json, job);
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+            json.flush();
+            return;
+        }
+
+        ReportJobService.ReportJob job = reportJobService.getJob(jobId);
+        if (job == null || !job.getOwner().equals(user)) {
+            writeError(res, 404, "No report job " + jobId + "; finished jobs are removed after the retention period");
+            return;
+        }
+
+        if (action.equals("download")) {
+            if (!ReportJobService.STATUS_COMPLETED.equals(job.getStatus())) {
+                writeError(res, 409, "The report job is " + job.getStatus().toLowerCase() + ", not completed");
+                return;
+            }
+            res.setContentType(job.getContentType());
+            if ("json".equals(job.getType())) {
+                res.setContentEncoding("UTF-8");
+            }
+            res.setHeader("Content-Disposition", contentDisposition(job.getFileName()));
+            res.setHeader("Content-Length", String.valueOf(job.getFile().length()));
+            try (OutputStream out = res.getOutputStream()) {
+                Files.copy(job.getFile().toPath(), out);
+            }
+            return;
+        }
+        writeJob(res, 200, job);
+    }
+
+    /**
+     * Write a job's status as the whole response, e.g. once it has been submitted
+     */
+    static void writeJob(WebScriptResponse res, int status, ReportJobService.ReportJob job) throws IOException {
+        res.setStatus(status);
+        res.setContentType("application/json");
+        res.setContentEncoding("UTF-8");
+        JsonGenerator json = JSON_FACTORY.createGenerator(res.getWriter());
+        json.writeStartObject();
+        json.writeBooleanField("success", true);
+        json.writeFieldName("job");
+        writeJob(json, job);
+        json.writeEndObject();
+        json.flush();
+    }
+
+    private static void writeJob(JsonGenerator json, ReportJobService.ReportJob job) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("jobId", job.getId());
+        json.writeStringField("type", job.getType());
+        json.writeStringField("status", job.getStatus());
+        json.writeStringField("created", formatDate(job.getCreated()));
+        json.writeStringField("started", formatDate(job.getStarted()));
+        json.writeStringField("finished", formatDate(job.getFinished()));
+        json.writeNumberField("sitesTotal", job.getSitesTotal());
+        json.writeNumberField("sitesCompleted", job.getSitesCompleted());
+        json.writeNumberField("rows", job.getRows());
+        if (ReportJobService.STATUS_COMPLETED.equals(job.getStatus())) {
+            json.writeStringField("fileName", job.getFileName());
+            json.writeNumberField("size", job.getSize());
+        }
+        if (job.getError() != null) {
+            json.writeStringField("error", job.getError());
+        }
+        json.writeObjectFieldStart("parameters");
+        for (Map.Entry<String, String> parameter : job.getParameters().entrySet()) {
+            if (parameter.getValue() != null) {
+                json.writeStringField(parameter.getKey(), parameter.getValue());
+            }
+        }
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+
+    private static String formatDate(Date date) {
+        return date != null ? new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(date) : null;
+    }
+
+    /**
+     * @return an attachment Content-Disposition with the file name quoted, and RFC 5987 encoded
+     *         for clients that read non-ASCII names
+     */
+    static String contentDisposition(String fileName) {
+        StringBuilder quoted = new StringBuilder(fileName.length());
+        for (int i = 0; i < fileName.length(); i++) {
+            char c = fileName.charAt(i);
+            quoted.append(c >= 0x20 && c < 0x7f && c != '"' && c != '\\' ? c : '_');
+        }
+        String encoded;
+        try {
+            encoded = URLEncoder.encode(fileName, "UTF-8").replace("+", "%20").replace("*", "%2A");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return "attachment; filename=\"" + quoted + "\"; filename*=UTF-8''" + encoded;
+    }
+
+    static void writeError(WebScriptResponse res, int status, String message) throws IOException {
+        res.setStatus(status);
+        res.setContentType("application/json");
+        JsonGenerator json = JSON_FACTORY.createGenerator(res.getWriter());
+        json.writeStartObject();
+        json.writeBooleanField("success", false);
+        json.writeStringField("error", message);
+        json.writeEndObject();
+        json.flush();
+    }
+}
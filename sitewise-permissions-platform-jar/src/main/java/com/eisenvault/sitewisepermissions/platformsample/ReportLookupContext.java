@@ -0,0 +1,371 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.io.Serializable;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.security.AccessPermission;
+import org.alfresco.service.cmr.security.AuthorityService;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.cmr.security.PersonService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Lookups made while generating one report, each resolved at most once for that report.
+ * User attributes are kept per username and group members per group for the whole report.
+ * The traversal visits each node once and produces all of its rows together, so only the
+ * attributes of the current node are kept. Not thread-safe; create one per report.
+ */
+class ReportLookupContext {
+
+    private static Log logger = LogFactory.getLog(ReportLookupContext.class);
+
+    private final NodeService nodeService;
+    private final PermissionService permissionService;
+    private final AuthorityService authorityService;
+    private final PersonService personService;
+    private final LoginAuditService loginAuditService;
+    private final PermissionAuditService permissionAuditService;
+    private final GroupMembershipCache groupMembershipCache;
+    private final AuthorityGraph authorityGraph;
+    private final NamespaceService namespaceService;
+
+    private final Map<String, UserInfo> users = new HashMap<String, UserInfo>();
+    private final Map<String, Set<String>> groupMembers = new HashMap<String, Set<String>>();
+    private final Map<QName, String> typeNames = new HashMap<QName, String>();
+
+    private NodeRef currentNode;
+    private NodeInfo currentNodeInfo;
+    private NodeRef traversedNode;
+    private String traversedNodePath;
+    private QName traversedNodeType;
+
+    ReportLookupContext(NodeService nodeService, PermissionService permissionService,
+                        AuthorityService authorityService, PersonService personService,
+                        LoginAuditService loginAuditService, PermissionAuditService permissionAuditService,
+                        GroupMembershipCache groupMembershipCache, AuthorityGraph authorityGraph,
+                        NamespaceService namespaceService) {
+        this.nodeService = nodeService;
+        this.permissionService = permissionService;
+        this.authorityService = authorityService;
+        this.personService = personService;
+        this.loginAuditService = loginAuditService;
+        this.permissionAuditService = permissionAuditService;
+        this.groupMembershipCache = groupMembershipCache;
+        this.authorityGraph = authorityGraph;
+        this.namespaceService = namespaceService;
+    }
+
+    /**
+     * @return the users in a group and its nested groups, in name order: read from the authority
+     * graph, or expanded through AuthorityService while the graph is (re)loading. The set seen
+     * first is kept for the rest of the report, even if memberships change meanwhile.
+     */
+    Set<String> getUsersInGroup(String groupName) {
+        Set<String> members = groupMembers.get(groupName);
+        if (members != null) {
+            return members;
+        }
+        if (authorityGraph != null) {
+            members = authorityGraph.getUsersInGroup(groupName);
+        }
+        if (members == null) {
+            members = getSharedUsersInGroup(groupName, new HashSet<String>());
+        }
+        groupMembers.put(groupName, members);
+        return members;
+    }
+
+    /**
+     * Look a group up in the shared cache, expanding and caching it on a miss
+     */
+    private Set<String> getSharedUsersInGroup(String groupName, Set<String> visitedGroups) {
+        if (groupMembershipCache == null) {
+            return Collections.unmodifiableSet(expandGroup(groupName, visitedGroups));
+        }
+        Set<String> members = groupMembershipCache.get(groupName);
+        if (members == null) {
+            long version = groupMembershipCache.getVersion();
+            members = Collections.unmodifiableSet(expandGroup(groupName, visitedGroups));
+            groupMembershipCache.put(groupName, members, version);
+        }
+        return members;
+    }
+
+    String getUserEmail(String username) {
+        return getUser(username).email;
+    }
+
+    String getUserStatus(String username) {
+        return getUser(username).status;
+    }
+
+    String getLastLoginDate(String username) {
+        UserInfo user = getUser(username);
+        if (user.lastLogin == null) {
+            user.lastLogin = loadLastLoginDate(username, user);
+        }
+        return user.lastLogin;
+    }
+
+    String getNodeName(NodeRef nodeRef) {
+        return getNode(nodeRef).name;
+    }
+
+    /**
+     * Record the display path and type of a node, as found by the traversal that reached it
+     */
+    void setNodePath(NodeRef nodeRef, String path, QName type) {
+        traversedNode = nodeRef;
+        traversedNodePath = path;
+        traversedNodeType = type;
+    }
+
+    /**
+     * Record the name, creation date, display path and type of a node read in bulk, so they are
+     * not looked up again through the node service
+     */
+    void setNode(NodeRef nodeRef, String name, Date created, String path, QName type) {
+        NodeInfo node = new NodeInfo();
+        node.name = name;
+        node.created = created;
+        node.path = path;
+        currentNode = nodeRef;
+        currentNodeInfo = node;
+        setNodePath(nodeRef, path, type);
+    }
+
+    /**
+     * @return the prefixed type of a node, e.g. cm:folder, as recorded by the traversal or the
+     *         bulk read, or looked up through the node service
+     */
+    String getNodeType(NodeRef nodeRef) {
+        QName type = nodeRef.equals(traversedNode) ? traversedNodeType : null;
+        if (type == null) {
+            NodeInfo node = getNode(nodeRef);
+            if (node.type == null) {
+                try {
+                    node.type = nodeService.getType(nodeRef);
+                } catch (Exception e) {
+                    logger.warn("Could not get type of node " + nodeRef + ": " + e.getMessage());
+                    return null;
+                }
+            }
+            type = node.type;
+        }
+        String typeName = typeNames.get(type);
+        if (typeName == null) {
+            typeName = type.toPrefixString(namespaceService);
+            typeNames.put(type, typeName);
+        }
+        return typeName;
+    }
+
+    /**
+     * @return the display path recorded by the traversal, or resolved through the node's ancestors
+     */
+    String getNodePath(NodeRef nodeRef) {
+        if (nodeRef.equals(traversedNode) && traversedNodePath != null) {
+            return traversedNodePath;
+        }
+        NodeInfo node = getNode(nodeRef);
+        if (node.path == null) {
+            try {
+                node.path = nodeService.getPath(nodeRef).toDisplayPath(nodeService, permissionService);
+            } catch (Exception e) {
+                logger.warn("Could not get path for node " + nodeRef + ": " + e.getMessage());
+                node.path = "Unknown Path";
+            }
+        }
+        return node.path;
+    }
+
+    /**
+     * Get permission grant date: the latest audited grant, falling back to the node creation date
+     */
+    Date getPermissionDate(NodeRef nodeRef, AccessPermission accessPermission) {
+        NodeInfo node = getNode(nodeRef);
+        String key = accessPermission.getAuthority() + '\u0000' + accessPermission.getPermission();
+        if (node.grantDates.containsKey(key)) {
+            return node.grantDates.get(key);
+        }
+
+        Date date = node.created;
+        try {
+            if (permissionAuditService != null) {
+                PermissionAuditService.PermissionAuditEntry entry = permissionAuditService.getLatestPermissionGrant(
+                    nodeRef, accessPermission.getAuthority(), accessPermission.getPermission());
+                if (entry != null && entry.getDateGranted() != null) {
+                    date = entry.getDateGranted();
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Error getting permission date: " + e.getMessage());
+        }
+        node.grantDates.put(key, date);
+        return date;
+    }
+
+    /**
+     * Record the grant date of an entry resolved in bulk, so it is not looked up again
+     */
+    void setPermissionDate(NodeRef nodeRef, AccessPermission accessPermission, Date date) {
+        getNode(nodeRef).grantDates.put(accessPermission.getAuthority() + '\u0000' + accessPermission.getPermission(), date);
+    }
+
+    Date getNodeCreated(NodeRef nodeRef) {
+        return getNode(nodeRef).created;
+    }
+
+    String getPermissionFromDate(NodeRef nodeRef, AccessPermission accessPermission) {
+        Date date = getPermissionDate(nodeRef, accessPermission);
+        return date != null ? new SimpleDateFormat("yyyy-MM-dd").format(date) : "Unknown";
+    }
+
+    private NodeInfo getNode(NodeRef nodeRef) {
+        if (!nodeRef.equals(currentNode)) {
+            NodeInfo node = new NodeInfo();
+            try {
+                Map<QName, Serializable> properties = nodeService.getProperties(nodeRef);
+                node.name = (String) properties.get(ContentModel.PROP_NAME);
+                node.created = (Date) properties.get(ContentModel.PROP_CREATED);
+            } catch (Exception e) {
+                logger.warn("Could not get properties of node " + nodeRef + ": " + e.getMessage());
+            }
+            currentNode = nodeRef;
+            currentNodeInfo = node;
+        }
+        return currentNodeInfo;
+    }
+
+    /**
+     * Load the person node of a user once: existence, email, status and creation date
+     */
+    private UserInfo getUser(String username) {
+        UserInfo user = users.get(username);
+        if (user != null) {
+            return user;
+        }
+
+        user = new UserInfo();
+        user.status = "Unknown";
+        try {
+            if (personService.personExists(username)) {
+                NodeRef personNode = personService.getPerson(username);
+                if (personNode != null && nodeService.exists(personNode)) {
+                    Map<QName, Serializable> properties = nodeService.getProperties(personNode);
+                    Object emailProp = properties.get(ContentModel.PROP_EMAIL);
+                    user.email = emailProp != null ? emailProp.toString() : null;
+                    user.created = (Date) properties.get(ContentModel.PROP_CREATED);
+                    user.exists = true;
+                    // For now, assume all users are active since Alfresco doesn't expose disabled status easily
+                    user.status = "Active";
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Error getting person details for " + username + ": " + e.getMessage());
+            user.status = "Error";
+        }
+        users.put(username, user);
+        return user;
+    }
+
+    private String loadLastLoginDate(String username, UserInfo user) {
+        try {
+            // Try to get login date from audit service first
+            if (loginAuditService != null) {
+                String auditLoginDate = loginAuditService.getLastLoginDate(username);
+                if (auditLoginDate != null && !auditLoginDate.contains("not available") && !auditLoginDate.contains("No login audit data")) {
+                    return auditLoginDate;
+                }
+            }
+
+            // Fallback to user creation date
+            if (user.exists && user.created != null) {
+                SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+                return sdf.format(user.created) + " (user created)";
+            }
+
+            return "No login data available";
+
+        } catch (Exception e) {
+            logger.warn("Error getting last login for " + username + ": " + e.getMessage());
+            return "Error retrieving login data";
+        }
+    }
+
+    private Set<String> expandGroup(String groupName, Set<String> visitedGroups) {
+        Set<String> users = new TreeSet<String>();
+
+        // Avoid infinite loops by tracking visited groups
+        if (visitedGroups.contains(groupName)) {
+            logger.warn("Circular group reference detected: " + groupName);
+            return users;
+        }
+
+        visitedGroups.add(groupName);
+
+        try {
+            // Get all authorities in this group
+            Set<String> containedAuthorities = authorityService.getContainedAuthorities(null, groupName, true);
+            logger.debug("Group " + groupName + " contains " + containedAuthorities.size() + " authorities");
+
+            for (String authority : containedAuthorities) {
+                if (authority.startsWith("GROUP_")) {
+                    // This is a nested group - recurse through the cache, so subgroups shared by several groups are expanded once
+                    users.addAll(getSharedUsersInGroup(authority, visitedGroups));
+                } else {
+                    users.add(authority);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Error expanding group " + groupName + ": " + e.getMessage());
+        }
+
+        return users;
+    }
+
+    private static class UserInfo {
+        private boolean exists;
+        private String email;
+        private String status;
+        private Date created;
+        private String lastLogin;
+    }
+
+    private static class NodeInfo {
+        private String name;
+        private Date created;
+        private String path;
+        private QName type;
+        private final Map<String, Date> grantDates = new HashMap<String, Date>();
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Conditional GET support and a bounded cache of rendered reports.
+ *
+ * A report's validator (ETag) is a hash of its type and parameters, the requesting user, the
+ * latest ACL change set, the latest permission_audit row, the group membership version and a
+ * time bucket of ttlSeconds. Any permission, grant-date or membership change therefore gives
+ * new ETags; the time bucket bounds how long changes the validator does not see (node renames,
+ * logins, person status) can be served from a cached copy.
+ *
+ * Rendered reports up to maxEntryBytes are kept under their ETag, least-recently-used first out
+ * once the cache holds more than maxTotalBytes.
+ */
+public class ReportResponseCache {
+
+    private static Log logger = LogFactory.getLog(ReportResponseCache.class);
+
+    private JdbcTemplate jdbcTemplate;
+    private JdbcTemplate repositoryJdbcTemplate;
+    private DatabaseInitializer databaseInitializer;
+    private GroupMembershipCache groupMembershipCache;
+    private boolean enabled = true;
+    private long ttlMillis = 5L * 60L * 1000L;
+    private int maxEntryBytes = 5 * 1024 * 1024;
+    private long maxTotalBytes = 50L * 1024L * 1024L;
+
+    private long totalBytes;
+    private long hits;
+    private long misses;
+    private long notModified;
+    private long evictions;
+
+    private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true);
+
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Reads the ACL change sets from the repository database, whichever pool the audit table uses
+     */
+    public void setRepositoryJdbcTemplate(JdbcTemplate repositoryJdbcTemplate) {
+        this.repositoryJdbcTemplate = repositoryJdbcTemplate;
+    }
+
+    public void setDatabaseInitializer(DatabaseInitializer databaseInitializer) {
+        this.databaseInitializer = databaseInitializer;
+    }
+
+    public void setGroupMembershipCache(GroupMembershipCache groupMembershipCache) {
+        this.groupMembershipCache = groupMembershipCache;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setTtlSeconds(int ttlSeconds) {
+        this.ttlMillis = ttlSeconds * 1000L;
+    }
+
+    public void setMaxEntryBytes(int maxEntryBytes) {
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    public void setMaxTotalBytes(long maxTotalBytes) {
+        this.maxTotalBytes = maxTotalBytes;
+    }
+
+    /**
+     * Compute the validator of a report
+     * @param parameters the request parameters that select the report's content
+     * @return the quoted ETag, or null if conditional requests are disabled or the watermarks cannot be read
+     */
+    public String getETag(String reportType, SortedMap<String, String> parameters) {
+        if (!enabled) {
+            return null;
+        }
+        try {
+            StringBuilder validator = new StringBuilder(reportType);
+            for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+                if (parameter.getValue() != null && !parameter.getValue().isEmpty()) {
+                    validator.append('\n').append(parameter.getKey()).append('=').append(parameter.getValue());
+                }
+            }
+            validator.append('\n').append(AuthenticationUtil.getFullyAuthenticatedUser());
+            validator.append('\n').append(repositoryJdbcTemplate.queryForObject("SELECT MAX(id) FROM alf_acl_change_set", Long.class));
+            if (databaseInitializer.isTableReady()) {
+                validator.append('\n').append(jdbcTemplate.queryForObject("SELECT MAX(id) FROM permission_audit", Long.class));
+            }
+            validator.append('\n').append(groupMembershipCache.getVersion());
+            validator.append('\n').append(ttlMillis > 0 ? System.currentTimeMillis() / ttlMillis : 0L);
+            return "\"" + DigestUtils.sha1Hex(validator.toString()) + "\"";
+        } catch (Exception e) {
+            logger.warn("Could not compute report validator: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the If-None-Match header matches the ETag
+     */
+    public boolean isNotModified(String ifNoneMatch, String etag) {
+        if (etag == null || ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals(etag) || value.equals("*")) {
+                synchronized (this) {
+                    notModified++;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the rendered report cached under an ETag, or null
+     */
+    public synchronized CachedResponse get(String etag) {
+        CachedResponse cached = etag != null ? entries.get(etag) : null;
+        if (cached == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return cached;
+    }
+
+    /**
+     * Cache a rendered report, evicting the least recently used ones over the size limit
+     */
+    public synchronized void put(String etag, byte[] body) {
+        if (etag == null || body == null || body.length > maxEntryBytes) {
+            return;
+        }
+        CachedResponse previous = entries.put(etag, new CachedResponse(body));
+        if (previous != null) {
+            totalBytes -= previous.body.length;
+        }
+        totalBytes += body.length;
+        Iterator<CachedResponse> eldest = entries.values().iterator();
+        while (totalBytes > maxTotalBytes && eldest.hasNext()) {
+            totalBytes -= eldest.next().body.length;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * @return a buffer for capturing a report body, or null if rendered reports are not cached
+     */
+    public ByteArrayOutputStream newCapture() {
+        return enabled && maxEntryBytes > 0 ? new ByteArrayOutputStream() : null;
+    }
+
+    /**
+     * @return the captured body, or null if it outgrew maxEntryBytes
+     */
+    public byte[] getCaptured(ByteArrayOutputStream capture) {
+        return capture != null && capture.size() <= maxEntryBytes ? capture.toByteArray() : null;
+    }
+
+    /**
+     * Copy everything written to an output stream into a capture buffer, up to maxEntryBytes
+     */
+    public OutputStream capture(OutputStream out, final ByteArrayOutputStream capture) {
+        if (capture == null) {
+            return out;
+        }
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                if (capture.size() <= maxEntryBytes) {
+                    capture.write(b);
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                if (capture.size() <= maxEntryBytes) {
+                    capture.write(b, off, len);
+                }
+            }
+        };
+    }
+
+    /**
+     * Copy everything written to a writer into a capture buffer as UTF-8, up to maxEntryBytes.
+     * The text goes through one encoder, so a surrogate pair split across two writes is still
+     * encoded as one character; the capture is complete once the writer has been flushed.
+     */
+    public Writer capture(Writer out, final ByteArrayOutputStream capture) {
+        if (capture == null) {
+            return out;
+        }
+        final Writer encoder = new OutputStreamWriter(capture, StandardCharsets.UTF_8);
+        return new FilterWriter(out) {
+            @Override
+            public void write(int c) throws IOException {
+                out.write(c);
+                if (capture.size() <= maxEntryBytes) {
+                    encoder.write(c);
+                }
+            }
+
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                out.write(cbuf, off, len);
+                if (capture.size() <= maxEntryBytes) {
+                    encoder.write(cbuf, off, len);
+                }
+            }
+
+            @Override
+            public void write(String str, int off, int len) throws IOException {
+                out.write(str, off, len);
+                if (capture.size() <= maxEntryBytes) {
+                    encoder.write(str, off, len);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+                encoder.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+                encoder.flush();
+            }
+        };
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalBytes = 0L;
+    }
+
+    /**
+     * @return hit/miss/304/eviction counters and the current size
+     */
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("enabled", enabled);
+        stats.put("entries", entries.size());
+        stats.put("totalBytes", totalBytes);
+        stats.put("maxTotalBytes", maxTotalBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("notModified", notModified);
+        stats.put("evictions", evictions);
+        return stats;
+    }
+
+    /**
+     * A rendered report
+     */
+    public static class CachedResponse {
+        private final byte[] body;
+
+        CachedResponse(byte[] body) {
+            this.body = body;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.repo.security.permissions.impl.AccessPermissionImpl;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.security.AccessPermission;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.ISO8601DateFormat;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * Reads the ACL entries of every node in a document library with one query over the repository
+ * tables, instead of a getChildAssocs, getType and getAllSetPermissions call per node.
+ *
+ * A recursive common table expression walks alf_child_assoc down from the document library,
+ * descending into cm:folder nodes only and building each node's display path on the way, the
+ * same way {@link DocumentLibraryTraversal} does. The nodes are joined to their ACL members,
+ * ACEs, authorities and permissions; every entry of the node's ACL is returned, inherited ones
+ * included, as getAllSetPermissions does. The rows are ordered by path, name and node id, so
+ * node order differs from the traversal's, but it is stable between requests, and a report can
+ * be resumed at a {@link NodeKey} with a predicate on those columns instead of reading the
+ * nodes before it again.
+ *
+ * Recursive CTEs need MySQL 8; on older versions the query fails and the report falls back
+ * to the traversal. Nodes are read without permission checks, like the report web scripts
+ * (admin only) see them.
+ */
+public class SqlReportEngine {
+
+    private static Log logger = LogFactory.getLog(SqlReportEngine.class);
+
+    private static final String CONTENT_MODEL_URI = "http://www.alfresco.org/model/content/1.0";
+
+    private JdbcTemplate jdbcTemplate;
+    private DatabaseInitializer databaseInitializer;
+    private volatile boolean enabled = false;
+    private int fetchSize = 1000;
+
+    private final AtomicLong sites = new AtomicLong();
+    private final AtomicLong nodes = new AtomicLong();
+    private final AtomicLong entries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void setDatabaseInitializer(DatabaseInitializer databaseInitializer) {
+        this.databaseInitializer = databaseInitializer;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * @return true if reports should be read with this engine; false while the database type is unknown
+     */
+    public boolean isEnabled() {
+        return enabled && databaseInitializer.getDatabaseType() != null;
+    }
+
+    /**
+     * Receives the nodes of a document library with their ACL entries
+     */
+    public interface NodeHandler {
+        /**
+         * @param key the node's place in the query order
+         * @param type the node's type
+         * @param path the display path of the node (the path of its parent folder)
+         * @param entries the node's ACL entries, in no particular order
+         * @return false to stop reading
+         */
+        boolean handleNode(NodeKey key, NodeRef nodeRef, QName type, String name, Date created, String path,
+                           List<AccessPermission> entries) throws IOException;
+    }
+
+    /**
+     * The sort columns of a node in the query: its path, its name and its id. A node linked into
+     * several folders has a key per path.
+     */
+    public static final class NodeKey {
+        private final String path;
+        private final String name;
+        private final long nodeId;
+
+        /**
+         * @param name the node name, or null if the node has none
+         */
+        public NodeKey(String path, String name, long nodeId) {
+            this.path = path;
+            this.name = name != null ? name : "";
+            this.nodeId = nodeId;
+        }
+
+        public String getPath() { return path; }
+        /** @return the node name, empty if the node has none, as it is sorted */
+        public String getName() { return name; }
+        public long getNodeId() { return nodeId; }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof NodeKey)) {
+                return false;
+            }
+            NodeKey other = (NodeKey) o;
+            return nodeId == other.nodeId && path.equals(other.path) && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (nodeId ^ (nodeId >>> 32)) * 31 + path.hashCode();
+        }
+    }
+
+    /**
+     * Read every node with ACL entries in a document library, the root included
+     * @param rootPath the display path of the document library itself
+     * @throws org.springframework.dao.DataAccessException if the query fails, e.g. on a database without recursive CTEs
+     */
+    public void readDocumentLibrary(NodeRef documentLibrary, String rootPath, final NodeHandler handler) throws IOException {
+        readDocumentLibrary(documentLibrary, rootPath, null, null, handler);
+    }
+
+    /**
+     * Read the nodes of one type with ACL entries in a document library or a folder of it, the root included
+     * @param root the document library, or a folder in it
+     * @param rootPath the display path of the root itself
+     * @param nodeType the exact type of the nodes to return, or null for all nodes; folders are
+     *                 descended into either way
+     * @param from the key of the first node to return, or null to start with the first node; the
+     *             node itself need not exist any more
+     * @throws org.springframework.dao.DataAccessException if the query fails, e.g. on a database without recursive CTEs
+     */
+    public void readDocumentLibrary(NodeRef root, String rootPath, QName nodeType, NodeKey from,
+                                    final NodeHandler handler) throws IOException {
+        final String dialect = databaseInitializer.getDatabaseType();
+        final List<Object> params = new ArrayList<Object>();
+        params.add(rootPath);
+        params.add(root.getStoreRef().getProtocol());
+        params.add(root.getStoreRef().getIdentifier());
+        params.add(root.getId());
+        params.add(CONTENT_MODEL_URI);
+        params.add(CONTENT_MODEL_URI);
+        if (nodeType != null) {
+            params.add(nodeType.getNamespaceURI());
+            params.add(nodeType.getLocalName());
+        }
+        if (from != null) {
+            params.add(from.getPath());
+            params.add(from.getPath());
+            params.add(from.getName());
+            params.add(from.getName());
+            params.add(from.getNodeId());
+        }
+        final String sql = getQuery(dialect, nodeType != null, from != null);
+        final NodeCollector collector = new NodeCollector(handler);
+        long start = System.nanoTime();
+        try {
+            jdbcTemplate.query(new PreparedStatementCreator() {
+                public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
+                    PreparedStatement ps = connection.prepareStatement(sql);
+                    ps.setFetchSize(fetchSize);
+                    for (int i = 0; i < params.size(); i++) {
+                        ps.setObject(i + 1, params.get(i));
+                    }
+                    return ps;
+                }
+            }, collector);
+            collector.flush();
+            logger.debug("Read the ACL entries of " + collector.count + " nodes below " + root + " in " +
+                         (System.nanoTime() - start) / 1000000L + " ms");
+        } catch (HandlerIOException e) {
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            throw e;
+        } finally {
+            nanos.addAndGet(System.nanoTime() - start);
+        }
+        sites.incrementAndGet();
+    }
+
+    /**
+     * @return site, node and entry counts, failed queries and the time spent querying
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("enabled", enabled);
+        stats.put("databaseType", databaseInitializer.getDatabaseType());
+        stats.put("sites", sites.get());
+        stats.put("nodes", nodes.get());
+        stats.put("entries", entries.get());
+        stats.put("failures", failures.get());
+        stats.put("totalMillis", nanos.get() / 1000000L);
+        return stats;
+    }
+
+    /**
+     * The document library query. Parameters: root path, store protocol, store identifier,
+     * root uuid, then the content model URI for the cm:name of the folders and of the nodes,
+     * with a type filter the namespace URI and local name of the type, and from a key the path
+     * twice, the name twice and the node id.
+     */
+    static String getQuery(String dialect, boolean typeFilter, boolean fromKey) {
+        boolean sqlServer = "SQLServer".equals(dialect);
+        String pathType;
+        if (sqlServer) {
+            pathType = "NVARCHAR(4000)";
+        } else if ("MySQL".equals(dialect)) {
+            pathType = "CHAR(4000)";
+        } else {
+            pathType = "VARCHAR(4000)";
+        }
+
+        return (sqlServer ? "WITH " : "WITH RECURSIVE ") +
+            "doclib_tree (node_id, node_path, is_folder) AS (" +
+            "SELECT n.id, CAST(? AS " + pathType + "), 1 " +
+            "FROM alf_node n JOIN alf_store s ON s.id = n.store_id " +
+            "WHERE s.protocol = ? AND s.identifier = ? AND n.uuid = ? " +
+            "UNION ALL " +
+            "SELECT ca.child_node_id, CAST(CONCAT(t.node_path, '/', parent_name.string_value) AS " + pathType + "), " +
+            "CASE WHEN child_type.local_name = 'folder' AND child_type.ns_id = name_prop.ns_id THEN 1 ELSE 0 END " +
+            "FROM doclib_tree t " +
+            "JOIN alf_child_assoc ca ON ca.parent_node_id = t.node_id " +
+            "JOIN alf_node_properties parent_name ON parent_name.node_id = t.node_id " +
+            "JOIN alf_qname name_prop ON name_prop.id = parent_name.qname_id AND name_prop.local_name = 'name' " +
+            "JOIN alf_namespace name_ns ON name_ns.id = name_prop.ns_id AND name_ns.uri = ? " +
+            "JOIN alf_node child ON child.id = ca.child_node_id " +
+            "JOIN alf_qname child_type ON child_type.id = child.type_qname_id " +
+            "WHERE t.is_folder = 1" +
+            ") " +
+            "SELECT t.node_id, t.node_path, s.protocol, s.identifier, n.uuid, n.audit_created, " +
+            "node_type_ns.uri AS type_uri, node_type.local_name AS type_name, " +
+            "node_name.string_value AS node_name, a.authority, p.name AS permission, ace.allowed, m.pos " +
+            "FROM doclib_tree t " +
+            "JOIN alf_node n ON n.id = t.node_id " +
+            "JOIN alf_store s ON s.id = n.store_id " +
+            "JOIN alf_acl_member m ON m.acl_id = n.acl_id " +
+            "JOIN alf_access_control_entry ace ON ace.id = m.ace_id " +
+            "JOIN alf_authority a ON a.id = ace.authority_id " +
+            "JOIN alf_permission p ON p.id = ace.permission_id " +
+            "JOIN alf_qname node_type ON node_type.id = n.type_qname_id " +
+            "JOIN alf_namespace node_type_ns ON node_type_ns.id = node_type.ns_id " +
+            "LEFT JOIN (" +
+            "SELECT np.node_id, np.string_value FROM alf_node_properties np " +
+            "JOIN alf_qname q ON q.id = np.qname_id AND q.local_name = 'name' " +
+            "JOIN alf_namespace ns ON ns.id = q.ns_id AND ns.uri = ?" +
+            ") node_name ON node_name.node_id = n.id " +
+            (typeFilter ? "WHERE node_type_ns.uri = ? AND node_type.local_name = ? " : "") +
+            // Null names sort as empty ones, so the order and the key predicate agree on every database
+            (fromKey
+                ? (typeFilter ? "AND " : "WHERE ") +
+                  "(t.node_path > ? OR (t.node_path = ? AND (COALESCE(node_name.string_value, '') > ? OR " +
+                  "(COALESCE(node_name.string_value, '') = ? AND t.node_id >= ?)))) "
+                : "") +
+            "ORDER BY t.node_path, COALESCE(node_name.string_value, ''), t.node_id";
+    }
+
+    /**
+     * Groups consecutive rows of the same node and hands each node to the handler
+     */
+    private class NodeCollector implements RowCallbackHandler {
+        private final NodeHandler handler;
+        private long nodeId = -1L;
+        private String path;
+        private NodeKey key;
+        private NodeRef nodeRef;
+        private QName type;
+        private String name;
+        private Date created;
+        private List<AccessPermission> nodeEntries = new ArrayList<AccessPermission>();
+        private boolean stopped;
+        private int count;
+
+        NodeCollector(NodeHandler handler) {
+            this.handler = handler;
+        }
+
+        public void processRow(ResultSet rs) throws SQLException {
+            if (stopped) {
+                return;
+            }
+            long id = rs.getLong("node_id");
+            String rowPath = rs.getString("node_path");
+            // A node linked into several folders is returned once per path
+            if (id != nodeId || !equal(rowPath, path)) {
+                flush();
+                if (stopped) {
+                    return;
+                }
+                nodeId = id;
+                path = rowPath;
+                nodeRef = new NodeRef(rs.getString("protocol"), rs.getString("identifier"), rs.getString("uuid"));
+                name = rs.getString("node_name");
+                type = QName.createQName(rs.getString("type_uri"), rs.getString("type_name"));
+                key = new NodeKey(rowPath, name, id);
+                String auditCreated = rs.getString("audit_created");
+                created = auditCreated != null ? ISO8601DateFormat.parse(auditCreated) : null;
+            }
+            AccessStatus status = rs.getBoolean("allowed") ? AccessStatus.ALLOWED : AccessStatus.DENIED;
+            nodeEntries.add(new AccessPermissionImpl(rs.getString("permission"), status,
+                                                     rs.getString("authority"), rs.getInt("pos")));
+        }
+
+        void flush() {
+            if (nodeRef == null || stopped) {
+                return;
+            }
+            count++;
+            nodes.incrementAndGet();
+            entries.addAndGet(nodeEntries.size());
+            try {
+                stopped = !handler.handleNode(key, nodeRef, type, name, created, path, nodeEntries);
+            } catch (IOException e) {
+                throw new HandlerIOException(e);
+            }
+            nodeRef = null;
+            nodeEntries = new ArrayList<AccessPermission>();
+        }
+
+        private boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    /**
+     * Carries a NodeHandler IOException out of a JDBC row callback
+     */
+    private static class HandlerIOException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        HandlerIOException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import java.io.IOException;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.extensions.webscripts.AbstractWebScript;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Everything one user has a role on, for access reviews and offboarding.
+ * Read from the permission report index: the user's direct entries plus the entries of every
+ * group the user is in, through nested groups as well, so no document library is traversed
+ * and no group is expanded. Supports narrowing to a site and to roles.
+ */
+public class UserAccessWebScript extends AbstractWebScript {
+
+    private static Log logger = LogFactory.getLog(UserAccessWebScript.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private ReportIndexService reportIndexService;
+    private PermissionReportGenerator permissionReportGenerator;
+
+    public void setReportIndexService(ReportIndexService reportIndexService) {
+        this.reportIndexService = reportIndexService;
+    }
+
+    public void setPermissionReportGenerator(PermissionReportGenerator permissionReportGenerator) {
+        this.permissionReportGenerator = permissionReportGenerator;
+    }
+
+    @Override
+    public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException {
+        String username = emptyToNull(req.getParameter("username"));
+        String site = emptyToNull(req.getParameter("site"));
+        String roles = emptyToNull(req.getParameter("role")); // comma-separated permission names
+        if (username == null) {
+            writeError(res, 400, "The username parameter is required");
+            return;
+        }
+        if (!reportIndexService.isAvailable()) {
+            writeError(res, 503, "The permission report index is not available");
+            return;
+        }
+
+        PermissionReportGenerator.ReportRequest scope = new PermissionReportGenerator.ReportRequest();
+        permissionReportGenerator.setScope(scope, null, null, roles, null);
+        Set<String> groups;
+        ReportLookupContext lookups = permissionReportGenerator.newLookupContext();
+        String userStatus;
+        String userLogin;
+        try {
+            groups = reportIndexService.getGroupsOfUser(username);
+            userStatus = lookups.getUserStatus(username);
+            userLogin = lookups.getLastLoginDate(username);
+        } catch (Exception e) {
+            logger.error("Error in user access web script: " + e.getMessage(), e);
+            writeError(res, 500, "Failed to resolve the groups of " + username + ": " + e.getMessage());
+            return;
+        }
+
+        res.setContentType("application/json");
+        res.setContentEncoding("UTF-8");
+        final JsonGenerator json = JSON_FACTORY.createGenerator(res.getWriter());
+        json.writeStartObject();
+        json.writeStringField("username", username);
+        json.writeStringField("userStatus", userStatus);
+        json.writeStringField("userLogin", userLogin);
+        json.writeArrayFieldStart("groups");
+        for (String group : groups) {
+            json.writeString(group);
+        }
+        json.writeEndArray();
+        json.writeArrayFieldStart("access");
+
+        int count = 0;
+        String error = null;
+        long start = System.currentTimeMillis();
+        try {
+            count = reportIndexService.getUserAccess(username, groups, site, scope.getRoles(),
+                                                     new PermissionReportGenerator.RowHandler() {
+                @Override
+                public boolean handleRow(PermissionRow row) throws IOException {
+                    writeRow(json, row);
+                    return true;
+                }
+
+                @Override
+                public void siteCompleted(String siteShortName) {
+                }
+            });
+        } catch (IOException e) {
+            // Client went away - nothing more can be written
+            logger.debug("Stopping user access report: " + e.getMessage());
+            return;
+        } catch (Exception e) {
+            // Headers are already sent, so report the failure inside the body
+            logger.error("Error in user access web script: " + e.getMessage(), e);
+            error = "Failed to read the access of " + username + ": " + e.getMessage();
+        }
+        json.writeEndArray();
+        json.writeBooleanField("success", error == null);
+        if (error != null) {
+            json.writeStringField("error", error);
+        }
+        json.writeNumberField("count", count);
+        json.writeEndObject();
+        json.flush();
+        logger.debug("User access of " + username + ": " + count + " entries in " +
+                     (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void writeRow(JsonGenerator json, PermissionRow row) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("site", row.getSite());
+        json.writeStringField("nodeRef", row.getNodeRef());
+        json.writeStringField("nodePath", row.getNodePath());
+        json.writeStringField("nodeName", row.getNodeName());
+        json.writeStringField("role", row.getRole());
+        json.writeStringField("permissionType", row.getPermissionType());
+        json.writeStringField("via", row.getGroupName());
+        json.writeStringField("fromDate", row.getFromDate());
+        json.writeEndObject();
+    }
+
+    private String emptyToNull(String value) {
+        return (value == null || value.trim().isEmpty()) ? null : value.trim();
+    }
+
+    private void writeError(WebScriptResponse res, int status, String message) throws IOException {
+        res.setStatus(status);
+        res.setContentType("application/json");
+        JsonGenerator json = JSON_FACTORY.createGenerator(res.getWriter());
+        json.writeStartObject();
+        json.writeBooleanField("success", false);
+        json.writeStringField("error", message);
+        json.writeEndObject();
+        json.flush();
+    }
+}
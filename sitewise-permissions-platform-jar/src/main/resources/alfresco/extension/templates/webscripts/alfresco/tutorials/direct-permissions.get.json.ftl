@@ -1,33 +0,0 @@
-{
-    "success": ${(success!false)?string},
-    <#if error??>
-    "error": "${error}"
-    <#else>
-    "site": "${site!""}",
-    "totalNodes": ${totalNodes?c},
-    "totalPermissions": ${totalPermissions?c},
-    "userPermissions": ${userPermissions?c},
-    "groupPermissions": ${groupPermissions?c},
-    "effectivePermissions": ${effectivePermissions?c},
-    "permissions": [
-        <#if permissions??>
-        <#list permissions as permission>
-        {
-            "username": "${permission.username!""}",
-            "site": "${permission.site!""}",
-            "nodePath": "${permission.nodePath!""}",
-            "role": "${permission.role!""}",
-            "nodeName": "${permission.nodeName!""}",
-            "nodeType": "${permission.nodeType!""}",
-            "nodeRef": "${permission.nodeRef!""}",
-            "fromDate": "${permission.fromDate!""}",
-            "userStatus": "${permission.userStatus!""}",
-            "userLogin": "${permission.userLogin!""}",
-            "groupName": "${permission.groupName!""}",
-            "permissionType": "${permission.permissionType!""}"
-        }<#if permission_has_next>,</#if>
-        </#list>
-        </#if>
-    ]
-    </#if>
-}
\ No newline at end of file
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The transitive closure of the group graph: users of nested groups, in name order, and groups
+ * that contain each other through a cycle.
+ */
+public class AuthorityGraphTest {
+
+    private GroupMembershipCache groupMembershipCache;
+    private AuthorityGraph graph;
+    private final List<String[]> edges = new ArrayList<String[]>();
+
+    @Before
+    public void setUp() {
+        groupMembershipCache = new GroupMembershipCache();
+        graph = new AuthorityGraph();
+        graph.setGroupMembershipCache(groupMembershipCache);
+    }
+
+    @Test
+    public void nestedGroupsInNameOrder() {
+        member("GROUP_all", "GROUP_sales");
+        member("GROUP_all", "zoe");
+        member("GROUP_sales", "GROUP_emea");
+        member("GROUP_sales", "bob");
+        member("GROUP_emea", "alice");
+        load();
+
+        assertEquals(Arrays.asList("alice", "bob", "zoe"), new ArrayList<String>(graph.getUsersInGroup("GROUP_all")));
+        assertEquals(Arrays.asList("alice", "bob"), new ArrayList<String>(graph.getUsersInGroup("GROUP_sales")));
+        assertEquals(Arrays.asList("alice"), new ArrayList<String>(graph.getUsersInGroup("GROUP_emea")));
+        assertTrue(graph.getUsersInGroup("GROUP_sales").contains("alice"));
+        assertEquals(Arrays.asList("GROUP_all", "GROUP_emea", "GROUP_sales"),
+                     new ArrayList<String>(graph.getGroupsOfUser("alice")));
+    }
+
+    @Test
+    public void sharedSubgroupCountsOnce() {
+        member("GROUP_a", "GROUP_shared");
+        member("GROUP_b", "GROUP_shared");
+        member("GROUP_top", "GROUP_a");
+        member("GROUP_top", "GROUP_b");
+        member("GROUP_shared", "carol");
+        load();
+
+        assertEquals(Collections.singletonList("carol"), new ArrayList<String>(graph.getUsersInGroup("GROUP_top")));
+        assertEquals(1, graph.getUsersInGroup("GROUP_top").size());
+    }
+
+    @Test
+    public void groupsInACycleShareTheirUsers() {
+        member("GROUP_a", "GROUP_b");
+        member("GROUP_b", "GROUP_c");
+        member("GROUP_c", "GROUP_a");
+        member("GROUP_c", "GROUP_leaf");
+        member("GROUP_a", "anna");
+        member("GROUP_b", "ben");
+        member("GROUP_c", "cleo");
+        member("GROUP_leaf", "lee");
+        member("GROUP_top", "GROUP_b");
+        load();
+
+        List<String> cycle = Arrays.asList("anna", "ben", "cleo", "lee");
+        assertEquals(cycle, new ArrayList<String>(graph.getUsersInGroup("GROUP_a")));
+        assertEquals(cycle, new ArrayList<String>(graph.getUsersInGroup("GROUP_b")));
+        assertEquals(cycle, new ArrayList<String>(graph.getUsersInGroup("GROUP_c")));
+        assertEquals(cycle, new ArrayList<String>(graph.getUsersInGroup("GROUP_top")));
+        assertEquals(Collections.singletonList("lee"), new ArrayList<String>(graph.getUsersInGroup("GROUP_leaf")));
+        assertEquals(Arrays.asList("GROUP_a", "GROUP_b", "GROUP_c", "GROUP_leaf", "GROUP_top"),
+                     new ArrayList<String>(graph.getGroupsOfUser("lee")));
+    }
+
+    @Test
+    public void groupContainingItself() {
+        member("GROUP_self", "GROUP_self");
+        member("GROUP_self", "sam");
+        load();
+
+        assertEquals(Collections.singletonList("sam"), new ArrayList<String>(graph.getUsersInGroup("GROUP_self")));
+    }
+
+    @Test
+    public void unknownAuthoritiesHaveNoMembers() {
+        member("GROUP_a", "anna");
+        load();
+
+        assertTrue(graph.getUsersInGroup("GROUP_unknown").isEmpty());
+        assertTrue(graph.getGroupsOfUser("nobody").isEmpty());
+    }
+
+    @Test
+    public void membershipChangeMakesTheGraphStale() {
+        member("GROUP_a", "anna");
+        load();
+        groupMembershipCache.clear();
+
+        assertNull(graph.getUsersInGroup("GROUP_a"));
+    }
+
+    private void member(String group, String member) {
+        edges.add(new String[] {group, member});
+    }
+
+    private void load() {
+        graph.setMemberships(groupMembershipCache.getVersion(), edges);
+    }
+}
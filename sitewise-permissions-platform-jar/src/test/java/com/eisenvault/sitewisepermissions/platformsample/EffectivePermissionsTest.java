@@ -0,0 +1,162 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import org.alfresco.repo.security.permissions.impl.AccessPermissionImpl;
+import org.alfresco.service.cmr.security.AccessPermission;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Resolution of a node's ACL into effective grants: the nearest entry wins, a deny only
+ * shadows allows further away, and resolved ACLs are shared by the key of their entries.
+ * Positions follow the repository: 0 for the node's own entries, higher for inherited ones.
+ */
+public class EffectivePermissionsTest {
+
+    private final Map<String, Set<String>> groups = new HashMap<String, Set<String>>();
+    private ReportLookupContext lookups;
+    private EffectivePermissions effectivePermissions;
+
+    @Before
+    public void setUp() {
+        lookups = new ReportLookupContext(null, null, null, null, null, null, null, null, null) {
+            @Override
+            Set<String> getUsersInGroup(String groupName) {
+                Set<String> members = groups.get(groupName);
+                return members != null ? members : Collections.<String>emptySet();
+            }
+        };
+        effectivePermissions = new EffectivePermissions();
+    }
+
+    @Test
+    public void denyNearerThanAllowRevokes() {
+        List<EffectivePermissions.Grant> grants = resolve(
+            entry("Consumer", AccessStatus.ALLOWED, "alice", 2),
+            entry("Consumer", AccessStatus.DENIED, "alice", 0));
+        assertTrue(grants.isEmpty());
+    }
+
+    @Test
+    public void denyFurtherThanAllowIsShadowed() {
+        List<EffectivePermissions.Grant> grants = resolve(
+            entry("Consumer", AccessStatus.ALLOWED, "alice", 0),
+            entry("Consumer", AccessStatus.DENIED, "alice", 3));
+        assertEquals(1, grants.size());
+        assertEquals("alice", grants.get(0).getUsername());
+        assertEquals(0, grants.get(0).getEntry().getPosition());
+        assertTrue(grants.get(0).isDirect());
+    }
+
+    @Test
+    public void denyAtSamePositionWins() {
+        List<EffectivePermissions.Grant> grants = resolve(
+            entry("Consumer", AccessStatus.ALLOWED, "alice", 1),
+            entry("Consumer", AccessStatus.DENIED, "alice", 1));
+        assertTrue(grants.isEmpty());
+    }
+
+    @Test
+    public void inheritedGroupAllowShadowedByLocalDeny() {
+        groups.put("GROUP_team", new TreeSet<String>(Arrays.asList("alice", "bob")));
+        List<EffectivePermissions.Grant> grants = resolve(
+            entry("Collaborator", AccessStatus.ALLOWED, "GROUP_team", 1),
+            entry("Collaborator", AccessStatus.DENIED, "alice", 0));
+
+        assertEquals(1, grants.size());
+        EffectivePermissions.Grant grant = grants.get(0);
+        assertEquals("bob", grant.getUsername());
+        assertEquals("Collaborator", grant.getPermission());
+        assertFalse(grant.isDirect());
+        assertEquals(Collections.singleton("GROUP_team"), grant.getGroups());
+    }
+
+    @Test
+    public void nearestAllowDatesTheGrant() {
+        groups.put("GROUP_team", new TreeSet<String>(Collections.singleton("alice")));
+        List<EffectivePermissions.Grant> grants = resolve(
+            entry("Consumer", AccessStatus.ALLOWED, "GROUP_team", 2),
+            entry("Consumer", AccessStatus.ALLOWED, "alice", 1));
+
+        assertEquals(1, grants.size());
+        assertEquals(1, grants.get(0).getEntry().getPosition());
+        assertTrue(grants.get(0).isDirect());
+        assertEquals(Collections.singleton("GROUP_team"), grants.get(0).getGroups());
+    }
+
+    @Test
+    public void everyoneAndRolesAreLeftOut() {
+        List<EffectivePermissions.Grant> grants = resolve(
+            entry("Consumer", AccessStatus.ALLOWED, "GROUP_EVERYONE", 0),
+            entry("All", AccessStatus.ALLOWED, "ROLE_OWNER", 0));
+        assertTrue(grants.isEmpty());
+    }
+
+    @Test
+    public void sameEntriesInAnyOrderShareTheResult() {
+        AccessPermission first = entry("Consumer", AccessStatus.ALLOWED, "alice", 0);
+        AccessPermission second = entry("Editor", AccessStatus.ALLOWED, "bob", 1);
+        List<EffectivePermissions.Grant> grants = resolve(first, second);
+        assertSame(grants, resolve(second, first));
+    }
+
+    @Test
+    public void keyTellsPositionAndStatusApart() {
+        String allowed = key(entry("Consumer", AccessStatus.ALLOWED, "alice", 0));
+        assertNotEquals(allowed, key(entry("Consumer", AccessStatus.DENIED, "alice", 0)));
+        assertNotEquals(allowed, key(entry("Consumer", AccessStatus.ALLOWED, "alice", 1)));
+    }
+
+    @Test
+    public void keyDoesNotCollideAcrossAuthorityAndPermission() {
+        assertNotEquals(key(entry("c", AccessStatus.ALLOWED, "a\tb", 0)),
+                        key(entry("b\tc", AccessStatus.ALLOWED, "a", 0)));
+
+        List<EffectivePermissions.Grant> grants = resolve(entry("c", AccessStatus.ALLOWED, "a\tb", 0));
+        List<EffectivePermissions.Grant> other = resolve(entry("b\tc", AccessStatus.ALLOWED, "a", 0));
+        assertEquals("a\tb", grants.get(0).getUsername());
+        assertEquals("a", other.get(0).getUsername());
+    }
+
+    private List<EffectivePermissions.Grant> resolve(AccessPermission... entries) {
+        return effectivePermissions.resolve(new ArrayList<AccessPermission>(Arrays.asList(entries)), lookups);
+    }
+
+    private String key(AccessPermission... entries) {
+        return effectivePermissions.getKey(Arrays.asList(entries));
+    }
+
+    private static AccessPermission entry(String permission, AccessStatus status, String authority, int position) {
+        return new AccessPermissionImpl(permission, status, authority, position);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * The audit history cursor holds the keyset position (date granted to the nanosecond, id).
+ */
+public class PermissionAuditServiceTest {
+
+    @Test
+    public void timestampCursorRoundTrips() {
+        Timestamp dateGranted = new Timestamp(1735689600123L);
+        dateGranted.setNanos(123456789);
+        Object[] position = PermissionAuditService.decodeCursor(PermissionAuditService.encodeCursor(dateGranted, 42L));
+
+        assertEquals(dateGranted, position[0]);
+        assertEquals(123456789, ((Timestamp) position[0]).getNanos());
+        assertEquals(42L, position[1]);
+    }
+
+    @Test
+    public void dateCursorKeepsMilliseconds() {
+        Date dateGranted = new Date(1735689600123L);
+        Object[] position = PermissionAuditService.decodeCursor(PermissionAuditService.encodeCursor(dateGranted, 7L));
+
+        assertEquals(dateGranted.getTime(), ((Timestamp) position[0]).getTime());
+        assertEquals(7L, position[1]);
+    }
+
+    @Test
+    public void noPositionMeansNoCursor() {
+        assertNull(PermissionAuditService.encodeCursor(null, 1L));
+        assertNull(PermissionAuditService.encodeCursor(new Date(), null));
+        assertNull(PermissionAuditService.decodeCursor(null));
+        assertNull(PermissionAuditService.decodeCursor(""));
+    }
+
+    @Test
+    public void malformedCursorsAreRejected() {
+        for (String cursor : new String[] {"1", "1-2", "a-0-1", "1-0-x", "1-0-1-2"}) {
+            try {
+                PermissionAuditService.decodeCursor(cursor);
+                fail("Expected an invalid cursor: " + cursor);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
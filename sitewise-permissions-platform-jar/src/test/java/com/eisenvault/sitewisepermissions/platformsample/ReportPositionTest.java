@@ -0,0 +1,94 @@
+/*
+ * Copyright 2025 EisenVault
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eisenvault.sitewisepermissions.platformsample;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Report cursors must decode to the position they were encoded from, with the engine that read
+ * the site, and reject anything else.
+ */
+public class ReportPositionTest {
+
+    private static final NodeRef NODE = new NodeRef("workspace://SpacesStore/0b1e4bd5-0b3c-4c1b-a3b2-6c1f3cfa1b2d");
+
+    @Test
+    public void traversalPositionRoundTrips() {
+        PermissionReportGenerator.ReportPosition position = new PermissionReportGenerator.ReportPosition("site-a", NODE, 7);
+        PermissionReportGenerator.ReportPosition decoded = PermissionReportGenerator.ReportPosition.decode(position.encode());
+
+        assertEquals("site-a", decoded.getSite());
+        assertEquals(NODE, decoded.getNodeRef());
+        assertEquals(7, decoded.getRowOffset());
+        assertNull(decoded.getSqlKey());
+    }
+
+    @Test
+    public void sqlPositionRoundTrips() {
+        SqlReportEngine.NodeKey key = new SqlReportEngine.NodeKey("/Company Home/Sites/site-a/documentLibrary/Pläne",
+                                                                  "Report\nQ1 – 2025.pdf", 123456789012L);
+        PermissionReportGenerator.ReportPosition position =
+            new PermissionReportGenerator.ReportPosition("site-a", NODE, 0, key).withRowOffset(3);
+        PermissionReportGenerator.ReportPosition decoded = PermissionReportGenerator.ReportPosition.decode(position.encode());
+
+        assertEquals("site-a", decoded.getSite());
+        assertEquals(NODE, decoded.getNodeRef());
+        assertEquals(3, decoded.getRowOffset());
+        assertEquals(key, decoded.getSqlKey());
+        assertEquals("Report\nQ1 – 2025.pdf", decoded.getSqlKey().getName());
+    }
+
+    @Test
+    public void missingNameRoundTripsAsEmpty() {
+        SqlReportEngine.NodeKey key = new SqlReportEngine.NodeKey("/Company Home", null, 42L);
+        PermissionReportGenerator.ReportPosition decoded = PermissionReportGenerator.ReportPosition.decode(
+            new PermissionReportGenerator.ReportPosition("site-a", NODE, 0, key).encode());
+
+        assertEquals("", decoded.getSqlKey().getName());
+        assertEquals(key, decoded.getSqlKey());
+    }
+
+    @Test
+    public void malformedCursorsAreRejected() {
+        assertInvalid("not a cursor");
+        assertInvalid(encode("traversal\nsite-a\n" + NODE + "\n-1"));
+        assertInvalid(encode("traversal\nsite-a\n" + NODE));
+        assertInvalid(encode("index\nsite-a\n" + NODE + "\n0"));
+        assertInvalid(encode("sql\nsite-a\n" + NODE + "\n0"));
+        assertInvalid(encode("site-a\n" + NODE + "\n0"));
+    }
+
+    private static String encode(String value) {
+        return Base64.encodeBase64URLSafeString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertInvalid(String cursor) {
+        try {
+            PermissionReportGenerator.ReportPosition.decode(cursor);
+            fail("Expected an invalid cursor: " + cursor);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
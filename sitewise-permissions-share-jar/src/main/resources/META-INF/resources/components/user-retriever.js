@@ -250,6 +250,30 @@
     download.style.outline = "none";
     download.style.display = "none";
 
+    // load more button (paged report)
+    var loadMore = document.createElement("button");
+    loadMore.id = "loadMoreButton";
+    loadMore.textContent = "Load more";
+    loadMore.style.fontFamily = "'Roboto', sans-serif";
+    loadMore.style.fontSize = "16px";
+    loadMore.style.padding = "10px 5px";
+    loadMore.style.border = "2px solid #1976d2";
+    loadMore.style.borderRadius = "8px";
+    loadMore.style.cursor = "pointer";
+    loadMore.style.transition = "all 0.3s ease";
+    loadMore.style.backgroundColor = "white";
+    loadMore.style.color = "#1976d2";
+    loadMore.style.boxShadow = "0px 4px 6px rgba(0, 0, 0, 0.1)";
+    loadMore.style.marginLeft = "0.6em";
+    loadMore.style.outline = "none";
+    loadMore.style.display = "none";
+
+    // report paging state: rows are requested PAGE_SIZE at a time
+    var PAGE_SIZE = 200;
+    var reportUrl = null;
+    var loadedPerms = [];
+    var nextCursor = null;
+
     // small helper: show status
     function setStatus(msg, isError) {
       statusDiv.textContent = msg || "";
@@ -566,6 +590,7 @@
     submitButton.addEventListener("click", function () {
       setStatus("Loading...", false);
       download.style.display = "none";
+      loadMore.style.display = "none";
 
       // var selectedDept = deptDropdown.value || "";
       // var userStatusValue = userStatus.value || "";
@@ -595,12 +620,33 @@
       if (userNameValue) params.append("usernameSearch", userNameValue);
       if (dateInputValue) params.append("fromDate", dateInputValue);
 
-      var baseUrl = baseUrl + "?" + params.toString();
-      console.log("Calling URL:", baseUrl);
+      params.append("pageSize", PAGE_SIZE);
+      reportUrl = baseUrl + "?" + params.toString();
+      loadedPerms = [];
+      nextCursor = null;
+      loadPage(null);
+    });
+
+    loadMore.addEventListener("click", function () {
+      if (nextCursor) {
+        setStatus("Loading more...", false);
+        loadPage(nextCursor);
+      }
+    });
+
+    // fetch one page of the report and append it to the table
+    function loadPage(cursor) {
+      var url = cursor
+        ? reportUrl + "&cursor=" + encodeURIComponent(cursor)
+        : reportUrl;
+      console.log("Calling URL:", url);
+      loadMore.disabled = true;
 
       // Use fetch with credentials
-      fetch(baseUrl, { credentials: "include" })
+      fetch(url, { credentials: "include" })
         .then(function (res) {
+          if (res.status === 409)
+            throw new Error("the report changed while paging, please submit again");
           if (!res.ok)
             throw new Error("Network response was not ok (" + res.status + ")");
           return res.text();
@@ -626,17 +672,26 @@
             }
             return;
           }
-          renderTableFromPermissions(data.permissions, data);
+          loadedPerms = loadedPerms.concat(data.permissions);
+          nextCursor = data.hasMore ? data.nextCursor : null;
+          renderTableFromPermissions(loadedPerms, data);
+          loadMore.style.display = nextCursor ? "inline-block" : "none";
           setStatus(
-            "Loaded " + (data.permissions.length || 0) + " permission rows.",
+            "Loaded " +
+              loadedPerms.length +
+              " permission rows" +
+              (nextCursor ? " (more available)." : "."),
             false
           );
         })
         .catch(function (err) {
           console.error("Fetch error:", err);
           setStatus("Request failed: " + err.message, true);
+        })
+        .then(function () {
+          loadMore.disabled = false;
         });
-    });
+    }
 
     // append controls to page
     root.appendChild(deptDropdown);
@@ -645,6 +700,7 @@
     root.appendChild(userName);
     root.appendChild(submitButton);
     root.appendChild(download);
+    root.appendChild(loadMore);
     root.appendChild(statusDiv);
     root.appendChild(tbdiv);
   });